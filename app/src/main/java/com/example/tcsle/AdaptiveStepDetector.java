@@ -0,0 +1,135 @@
+package com.example.tcsle;
+
+/**
+ * 直近の歩容に追従する適応閾値の歩行検出
+ *
+ * 閾値: 直近adaptiveWindowSecのapの平均μ・標準偏差σから，μ + k·σ を超えたら区間開始，μ を下回ったら区間終了
+ * 静止判定: 窓内の最大−最小がadaptiveMinRange未満なら歩行なし
+ * 時間間隔: 確定した歩行間隔の指数移動平均（歩行周期）に比例させる
+ *   tmin = adaptiveTminRatio·周期（config.tminが下限），tmax = adaptiveTmaxRatio·周期（config.tmaxが上限）
+ *   tmaxを超えた間隔は停止後の歩き出しとして1歩に数えるが，周期の推定には使わない
+ * 窓が埋まるまでは固定閾値Aを使う
+ */
+public class AdaptiveStepDetector implements StepDetector {
+    private static final float PERIOD_ALPHA = 0.2f;  // 歩行周期の追従係数
+    private static final float INITIAL_PERIOD = 0.55f;  // 初期歩行周期 [s]（約1.8歩/秒）
+
+    private final float A;
+    private final float k;
+    private final float minRange;
+    private final float tminRatio;
+    private final float tmaxRatio;
+    private final float tminFloor;
+    private final float tmaxCeil;
+    private final SlidingWindowStats window;
+
+    private float period = INITIAL_PERIOD;
+    private float threshold;
+    private float ap_max = 0;
+    private float ap_min = 0;
+    private boolean isStepDetecting = false;
+    private boolean isPeakCounted = false;
+    private float peak = 0;
+    private float valley = 0;
+
+    public AdaptiveStepDetector(PDRConfig config) {
+        this.A = config.A;
+        this.k = config.adaptiveThresholdK;
+        this.minRange = config.adaptiveMinRange;
+        this.tminRatio = config.adaptiveTminRatio;
+        this.tmaxRatio = config.adaptiveTmaxRatio;
+        this.tminFloor = config.tmin;
+        this.tmaxCeil = config.tmax;
+        this.window = new SlidingWindowStats(Math.max(1, Math.round(config.adaptiveWindowSec / config.dt)));
+        this.threshold = A;
+    }
+
+    @Override
+    public boolean update(float ap, float Δt) {
+        window.add(ap);
+
+        float exit;
+        if (window.isFull()) {
+            if (window.getMax() - window.getMin() < minRange) {
+                // 静止
+                threshold = window.getMax();
+                isStepDetecting = false;
+                isPeakCounted = false;
+                return false;
+            }
+            float μ = window.getMean();
+            threshold = μ + k * window.getStd();
+            exit = μ;
+        } else {
+            threshold = A;
+            exit = A;
+        }
+
+        if (isStepDetecting ? ap <= exit : ap <= threshold) {
+            isStepDetecting = false;
+            isPeakCounted = false;
+            return false;
+        }
+
+        if (!isStepDetecting) {
+            isStepDetecting = true;
+            ap_max = ap;
+            ap_min = ap;
+        }
+
+        boolean step = false;
+        if (ap < ap_max && !isPeakCounted && ap_max > threshold && Δt > getTmin()) {
+            if (Δt < getTmax()) {
+                period += PERIOD_ALPHA * (Δt - period);
+            }
+            peak = ap_max;
+            valley = ap_min;
+            isPeakCounted = true;
+            step = true;
+        }
+
+        ap_max = Math.max(ap_max, ap);
+        ap_min = Math.min(ap_min, ap);
+        return step;
+    }
+
+    public float getTmin() {
+        return Math.max(tminFloor, tminRatio * period);
+    }
+
+    public float getTmax() {
+        return Math.min(tmaxCeil, tmaxRatio * period);
+    }
+
+    /** 推定中の歩行周期 [s] */
+    public float getPeriod() { return period; }
+
+    @Override
+    public float getPeak() { return peak; }
+
+    @Override
+    public float getValley() { return valley; }
+
+    @Override
+    public float getThreshold() { return threshold; }
+
+    @Override
+    public void interrupt() {
+        isStepDetecting = false;
+        isPeakCounted = false;
+    }
+
+    @Override
+    public void reset() {
+        window.clear();
+        period = INITIAL_PERIOD;
+        threshold = A;
+        ap_max = 0; ap_min = 0;
+        peak = 0; valley = 0;
+        isStepDetecting = false;
+        isPeakCounted = false;
+    }
+
+    @Override
+    public String getName() { return "adaptive"; }
+}
@@ -0,0 +1,119 @@
+package com.example.tcsle;
+
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import java.util.UUID;
+
+/**
+ * BluetoothLeAdvertiserによるPositionAdvertiserの実装
+ * Android 8.0以降はAdvertisingSetのデータ更新で発信を継続し，それ以前は停止→再開で更新する
+ *
+ * AdvertiseDataは不変オブジェクトのため更新ごとに生成が必要だが，
+ * 設定・UUID・ペイロード配列は使い回す
+ * 呼び出し前にBLUETOOTH_ADMIN（ADVERTISE）権限を確認しておくこと
+ */
+public class AndroidPositionAdvertiser implements PositionAdvertiser {
+    private static final String TAG = "PositionAdvertiser";
+    private static final int MANUFACTURER_ID = 0x027d;
+    private static final ParcelUuid SERVICE_UUID =
+            new ParcelUuid(UUID.fromString("00001821-0000-1000-8000-00805F9B34FB"));
+
+    private final BluetoothLeAdvertiser advertiser;
+    private final AdvertiseSettings settings;
+    private byte[] manufacturerData = new byte[0];
+
+    private boolean advertising = false;
+    private AdvertisingSet advertisingSet;
+
+    public AndroidPositionAdvertiser(BluetoothLeAdvertiser advertiser) {
+        this.advertiser = advertiser;
+        this.settings = new AdvertiseSettings.Builder()
+                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
+                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH)
+                .setConnectable(false)
+                .build();
+    }
+
+    @Override
+    public void advertise(byte[] payload, int length) {
+        if (manufacturerData.length != length) {
+            manufacturerData = new byte[length];
+        }
+        System.arraycopy(payload, 0, manufacturerData, 0, length);
+
+        AdvertiseData data = new AdvertiseData.Builder()
+                .addManufacturerData(MANUFACTURER_ID, manufacturerData)
+                .addServiceUuid(SERVICE_UUID)
+                .build();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            if (advertisingSet != null) {
+                advertisingSet.setAdvertisingData(data);
+            } else if (!advertising) {
+                AdvertisingSetParameters parameters = new AdvertisingSetParameters.Builder()
+                        .setLegacyMode(true)
+                        .setConnectable(false)
+                        .setScannable(false)
+                        .setInterval(AdvertisingSetParameters.INTERVAL_LOW)
+                        .setTxPowerLevel(AdvertisingSetParameters.TX_POWER_HIGH)
+                        .build();
+                advertiser.startAdvertisingSet(parameters, data, null, null, null, setCallback);
+                advertising = true;
+            }
+            // 開始待ちの間の更新は破棄（次の周期で反映される）
+        } else {
+            if (advertising) {
+                advertiser.stopAdvertising(legacyCallback);
+            }
+            advertiser.startAdvertising(settings, data, legacyCallback);
+            advertising = true;
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!advertising) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            advertiser.stopAdvertisingSet(setCallback);
+            advertisingSet = null;
+        } else {
+            advertiser.stopAdvertising(legacyCallback);
+        }
+        advertising = false;
+    }
+
+    private final AdvertiseCallback legacyCallback = new AdvertiseCallback() {
+        @Override
+        public void onStartFailure(int errorCode) {
+            Log.e(TAG, "Advertising failed: " + errorCode);
+            advertising = false;
+        }
+    };
+
+    private final AdvertisingSetCallback setCallback = new AdvertisingSetCallback() {
+        @Override
+        public void onAdvertisingSetStarted(AdvertisingSet set, int txPower, int status) {
+            if (status == AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                advertisingSet = set;
+                Log.d(TAG, "Advertising set started (txPower=" + txPower + ")");
+            } else {
+                Log.e(TAG, "Advertising set failed: " + status);
+                advertising = false;
+            }
+        }
+
+        @Override
+        public void onAdvertisingSetStopped(AdvertisingSet set) {
+            Log.d(TAG, "Advertising set stopped");
+        }
+    };
+}
@@ -0,0 +1,110 @@
+package com.example.tcsle;
+
+/**
+ * 連続BLE位置発信
+ * 公開済みのPDR状態を一定周期でエンコードしてアドバタイズする
+ *
+ * 周期の駆動は呼び出し側が行う（端末ではHandler，テストでは仮想時計からtick()を呼ぶ）
+ */
+public class BlePositionBroadcaster {
+    public static final byte FLAG_CONTINUOUS = (byte) 0xBD;  // 連続発信
+    public static final long DEFAULT_INTERVAL_MS = 200;      // 5Hz
+
+    private final PositionSource source;
+    private final PositionPayloadEncoder encoder;
+    private final PositionAdvertiser advertiser;
+
+    private long intervalMs = DEFAULT_INTERVAL_MS;
+    private long nextDueMs = 0;
+    private boolean running = false;
+
+    // 一時的なフラグ上書き（アドバタイズ地点での0xBEなど）
+    private byte overrideFlag;
+    private long overrideUntilMs = Long.MIN_VALUE;
+
+    // 統計
+    private long publishCount = 0;
+    private final LogHistogram encodeNs = new LogHistogram();
+
+    public BlePositionBroadcaster(PositionSource source, PositionPayloadEncoder encoder,
+                                  PositionAdvertiser advertiser) {
+        this.source = source;
+        this.encoder = encoder;
+        this.advertiser = advertiser;
+    }
+
+    public void setIntervalMs(long intervalMs) {
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("intervalMs must be positive: " + intervalMs);
+        }
+        this.intervalMs = intervalMs;
+    }
+
+    public void start(long nowMs) {
+        running = true;
+        nextDueMs = nowMs;
+        publishCount = 0;
+        encodeNs.reset();
+    }
+
+    public void stop() {
+        if (!running) return;
+        running = false;
+        overrideUntilMs = Long.MIN_VALUE;
+        advertiser.stop();
+    }
+
+    /**
+     * 指定時間だけフラグを上書きし，即座に発信する
+     */
+    public void overrideFlag(byte flag, long nowMs, long durationMs, long wallTimeMs) {
+        overrideFlag = flag;
+        overrideUntilMs = nowMs + durationMs;
+        if (running) {
+            publish(nowMs, wallTimeMs);
+            nextDueMs = nowMs + intervalMs;
+        }
+    }
+
+    /**
+     * 周期に達していれば発信する
+     * @return 発信した場合true
+     */
+    public boolean tick(long nowMs, long wallTimeMs) {
+        if (!running || nowMs < nextDueMs) return false;
+
+        publish(nowMs, wallTimeMs);
+
+        // 遅延が1周期を超えた場合は位相を合わせ直す（溜まった分をまとめて発信しない）
+        nextDueMs += intervalMs;
+        if (nextDueMs <= nowMs) {
+            nextDueMs = nowMs + intervalMs;
+        }
+        return true;
+    }
+
+    private void publish(long nowMs, long wallTimeMs) {
+        byte flag = (nowMs < overrideUntilMs) ? overrideFlag : FLAG_CONTINUOUS;
+
+        long t0 = System.nanoTime();
+        int length = encoder.encode(source, wallTimeMs, flag);
+        encodeNs.record(System.nanoTime() - t0);
+
+        advertiser.advertise(encoder.getBuffer(), length);
+        publishCount++;
+    }
+
+    // ========== Getterメソッド ==========
+
+    public boolean isRunning() { return running; }
+    public long getIntervalMs() { return intervalMs; }
+    public long getPublishCount() { return publishCount; }
+    public LogHistogram getEncodeHistogram() { return encodeNs; }
+
+    /**
+     * 次の発信までの待ち時間（Handler.postDelayed用）
+     */
+    public long getDelayToNextMs(long nowMs) {
+        return Math.max(0, nextDueMs - nowMs);
+    }
+}
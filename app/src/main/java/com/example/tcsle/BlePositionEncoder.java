@@ -0,0 +1,84 @@
+package com.example.tcsle;
+
+import java.util.Calendar;
+
+/**
+ * 従来形式（12バイト）の位置ペイロードエンコーダ
+ * [月][日][時][分][秒][ミリ秒(2)][X mm(2)][Y mm(2)][フラグ]（リトルエンディアン）
+ *
+ * 日付はCalendarで1日1回だけ計算してキャッシュし，時分秒は当日0時からの経過時間から算出する
+ * （夏時間の切り替わる日は切り替え後の時刻が1時間ずれる）
+ */
+public class BlePositionEncoder implements PositionPayloadEncoder {
+    public static final int PAYLOAD_LENGTH = 12;
+    private static final int POSITION_LIMIT_MM = 32767;
+
+    private final byte[] buffer = new byte[PAYLOAD_LENGTH];
+
+    // 日付キャッシュ
+    private long dayStartMs = Long.MAX_VALUE;
+    private long dayEndMs = Long.MIN_VALUE;
+    private byte month;
+    private byte dayOfMonth;
+
+    @Override
+    public int encode(PositionSource source, long wallTimeMs, byte flag) {
+        if (wallTimeMs < dayStartMs || wallTimeMs >= dayEndMs) {
+            updateDayCache(wallTimeMs);
+        }
+
+        long msOfDay = wallTimeMs - dayStartMs;
+        int hour = (int) (msOfDay / 3_600_000L);
+        int minute = (int) (msOfDay / 60_000L % 60);
+        int second = (int) (msOfDay / 1000L % 60);
+        int millis = (int) (msOfDay % 1000L);
+
+        // PDRから現在位置を取得
+        int posX = 0, posY = 0;
+        if (source != null) {
+            posX = clampMm(source.getX());
+            posY = clampMm(source.getY());
+        }
+
+        buffer[0] = month;
+        buffer[1] = dayOfMonth;
+        buffer[2] = (byte) hour;
+        buffer[3] = (byte) minute;
+        buffer[4] = (byte) second;
+        putShortLE(5, millis);
+        putShortLE(7, posX);
+        putShortLE(9, posY);
+        buffer[11] = flag;
+        return PAYLOAD_LENGTH;
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    private void updateDayCache(long wallTimeMs) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(wallTimeMs);
+        month = (byte) (calendar.get(Calendar.MONTH) + 1);
+        dayOfMonth = (byte) calendar.get(Calendar.DAY_OF_MONTH);
+
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        dayStartMs = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        dayEndMs = calendar.getTimeInMillis();
+    }
+
+    private static int clampMm(double meters) {
+        long mm = Math.round(meters * 1000);
+        return (int) Math.max(-POSITION_LIMIT_MM, Math.min(POSITION_LIMIT_MM, mm));
+    }
+
+    private void putShortLE(int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+    }
+}
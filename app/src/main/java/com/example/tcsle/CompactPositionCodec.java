@@ -0,0 +1,232 @@
+package com.example.tcsle;
+
+/**
+ * バージョン付き小型位置ペイロード（v1）のエンコーダ／デコーダ
+ * 基準フィックス（最新の歩行確定位置）と，それ以前のフィックスを差分で詰め込む
+ *
+ * レイアウト（リトルエンディアン）:
+ * <pre>
+ *  0     : version(上位4bit) | profileId(下位4bit)
+ *  1     : フラグ
+ *  2-4   : 基準X  int24（positionResolution単位）
+ *  5-7   : 基準Y  int24
+ *  8-9   : 基準歩数 uint16（65536で折り返し）
+ *  10-11 : 基準時刻 uint16（測定開始からの経過時間，timeUnit単位で折り返し）
+ *  12-   : 差分 4バイト × n
+ *          dx int8, dy int8（deltaResolution単位，新しい方 − 古い方）
+ *          dstep uint8, dt uint8（timeUnit単位）
+ * </pre>
+ * 従来形式（12バイト）の先頭は月(1～12)のため，先頭上位4bitが1以上ならv1と判別できる
+ * 差分が範囲外になったフィックス以降は詰め込まない
+ */
+public class CompactPositionCodec implements PositionPayloadEncoder {
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 12;
+    public static final int DELTA_LENGTH = 4;
+
+    private static final int INT24_MAX = 0x7FFFFF;
+
+    // ========== 配置先ごとの範囲・分解能 ==========
+    public static class Profile {
+        /** 屋内：1mm（±8.3km），差分2cm（±2.54m），10ms（655秒で折り返し），差分2個（20バイト） */
+        public static final Profile INDOOR = new Profile(0, 0.001, 0.02, 10, 2);
+        /** 広域：1cm（±83km），差分4cm（±5.08m），100ms（109分で折り返し），差分2個（20バイト） */
+        public static final Profile WIDE_AREA = new Profile(1, 0.01, 0.04, 100, 2);
+
+        public final int id;
+        public final double positionResolutionM;
+        public final double deltaResolutionM;
+        public final int timeUnitMs;
+        public final int maxDeltas;
+
+        public Profile(int id, double positionResolutionM, double deltaResolutionM,
+                       int timeUnitMs, int maxDeltas) {
+            if (id < 0 || id > 15) {
+                throw new IllegalArgumentException("profile id must be 0-15: " + id);
+            }
+            if (maxDeltas < 0 || maxDeltas > 255) {
+                throw new IllegalArgumentException("maxDeltas out of range: " + maxDeltas);
+            }
+            this.id = id;
+            this.positionResolutionM = positionResolutionM;
+            this.deltaResolutionM = deltaResolutionM;
+            this.timeUnitMs = timeUnitMs;
+            this.maxDeltas = maxDeltas;
+        }
+
+        public int maxPayloadLength() {
+            return HEADER_LENGTH + DELTA_LENGTH * maxDeltas;
+        }
+    }
+
+    // ========== デコード結果（再利用可能） ==========
+    public static class Decoded {
+        public int version;
+        public int profileId;
+        public byte flag;
+        public int count;          // フィックス数（基準を含む）
+        public final double[] x;
+        public final double[] y;
+        public final int[] step;   // 基準の歩数から差分を引いた値（折り返し前）
+        public final long[] timeUnits;  // 基準時刻から差分を引いた値（負になりうる）
+
+        public Decoded(int capacity) {
+            x = new double[capacity];
+            y = new double[capacity];
+            step = new int[capacity];
+            timeUnits = new long[capacity];
+        }
+    }
+
+    private final Profile profile;
+    private final StepFixHistory history;
+    private final byte[] buffer;
+
+    /**
+     * @param history 歩行確定位置の履歴（nullの場合は現在位置のみ）
+     */
+    public CompactPositionCodec(Profile profile, StepFixHistory history) {
+        this.profile = profile;
+        this.history = history;
+        this.buffer = new byte[profile.maxPayloadLength()];
+    }
+
+    public Profile getProfile() { return profile; }
+
+    @Override
+    public byte[] getBuffer() { return buffer; }
+
+    @Override
+    public int encode(PositionSource source, long wallTimeMs, byte flag) {
+        double baseX, baseY;
+        int baseStep;
+        long baseTimeNs;
+        int fixCount = (history != null) ? history.size() : 0;
+
+        if (fixCount > 0) {
+            baseX = history.xAt(0);
+            baseY = history.yAt(0);
+            baseStep = history.stepAt(0);
+            baseTimeNs = history.timeNsAt(0);
+        } else if (source != null) {
+            baseX = source.getX();
+            baseY = source.getY();
+            baseStep = source.getStepCount();
+            baseTimeNs = source.getElapsedTimeNs();
+        } else {
+            baseX = 0.0;
+            baseY = 0.0;
+            baseStep = 0;
+            baseTimeNs = 0;
+        }
+
+        int qx = quantize(baseX, profile.positionResolutionM, INT24_MAX);
+        int qy = quantize(baseY, profile.positionResolutionM, INT24_MAX);
+        long baseUnits = baseTimeNs / (profile.timeUnitMs * 1_000_000L);
+
+        buffer[0] = (byte) ((VERSION << 4) | profile.id);
+        buffer[1] = flag;
+        putInt24(2, qx);
+        putInt24(5, qy);
+        buffer[8] = (byte) baseStep;
+        buffer[9] = (byte) (baseStep >> 8);
+        buffer[10] = (byte) baseUnits;
+        buffer[11] = (byte) (baseUnits >> 8);
+
+        // 差分は復元位置に対して計算し，量子化誤差を累積させない
+        double reconX = qx * profile.positionResolutionM;
+        double reconY = qy * profile.positionResolutionM;
+        int prevStep = baseStep;
+        long prevUnits = baseUnits;
+        int offset = HEADER_LENGTH;
+        int deltas = Math.min(fixCount - 1, profile.maxDeltas);
+
+        for (int k = 1; k <= deltas; k++) {
+            long dx = Math.round((reconX - history.xAt(k)) / profile.deltaResolutionM);
+            long dy = Math.round((reconY - history.yAt(k)) / profile.deltaResolutionM);
+            int dstep = prevStep - history.stepAt(k);
+            long units = history.timeNsAt(k) / (profile.timeUnitMs * 1_000_000L);
+            long dt = prevUnits - units;
+
+            if (dx < -128 || dx > 127 || dy < -128 || dy > 127
+                    || dstep < 0 || dstep > 255 || dt < 0 || dt > 255) {
+                break;
+            }
+
+            buffer[offset] = (byte) dx;
+            buffer[offset + 1] = (byte) dy;
+            buffer[offset + 2] = (byte) dstep;
+            buffer[offset + 3] = (byte) dt;
+            offset += DELTA_LENGTH;
+
+            reconX -= dx * profile.deltaResolutionM;
+            reconY -= dy * profile.deltaResolutionM;
+            prevStep -= dstep;
+            prevUnits -= dt;
+        }
+        return offset;
+    }
+
+    /**
+     * ペイロードを復元する
+     * @throws IllegalArgumentException バージョン・プロファイル・長さが不正な場合
+     */
+    public static void decode(byte[] data, int length, Profile profile, Decoded out) {
+        if (length < HEADER_LENGTH || (length - HEADER_LENGTH) % DELTA_LENGTH != 0) {
+            throw new IllegalArgumentException("invalid payload length: " + length);
+        }
+        int version = (data[0] >> 4) & 0x0F;
+        int profileId = data[0] & 0x0F;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported payload version: " + version);
+        }
+        if (profileId != profile.id) {
+            throw new IllegalArgumentException("profile mismatch: " + profileId + " != " + profile.id);
+        }
+        int count = 1 + (length - HEADER_LENGTH) / DELTA_LENGTH;
+        if (count > out.x.length) {
+            throw new IllegalArgumentException("output capacity " + out.x.length + " < " + count);
+        }
+
+        out.version = version;
+        out.profileId = profileId;
+        out.flag = data[1];
+        out.count = count;
+
+        out.x[0] = getInt24(data, 2) * profile.positionResolutionM;
+        out.y[0] = getInt24(data, 5) * profile.positionResolutionM;
+        out.step[0] = (data[8] & 0xFF) | ((data[9] & 0xFF) << 8);
+        out.timeUnits[0] = (data[10] & 0xFF) | ((data[11] & 0xFF) << 8);
+
+        int offset = HEADER_LENGTH;
+        for (int k = 1; k < count; k++) {
+            out.x[k] = out.x[k - 1] - data[offset] * profile.deltaResolutionM;
+            out.y[k] = out.y[k - 1] - data[offset + 1] * profile.deltaResolutionM;
+            out.step[k] = out.step[k - 1] - (data[offset + 2] & 0xFF);
+            out.timeUnits[k] = out.timeUnits[k - 1] - (data[offset + 3] & 0xFF);
+            offset += DELTA_LENGTH;
+        }
+    }
+
+    /**
+     * 先頭バイトから従来形式か判別する
+     */
+    public static boolean isCompactPayload(byte[] data, int length) {
+        return length >= HEADER_LENGTH && ((data[0] >> 4) & 0x0F) >= VERSION;
+    }
+
+    private static int quantize(double meters, double resolution, int limit) {
+        long q = Math.round(meters / resolution);
+        return (int) Math.max(-limit, Math.min(limit, q));
+    }
+
+    private void putInt24(int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+    }
+
+    private static int getInt24(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] << 16);
+    }
+}
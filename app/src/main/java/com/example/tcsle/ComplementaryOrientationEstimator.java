@@ -0,0 +1,94 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 従来の相補フィルタ（complementaryFilter → updateQuaternion）
+ * 重力方向の誤差をkfで比例補正，keで積分補正した角速度をωに書き戻してから積分する
+ */
+public class ComplementaryOrientationEstimator implements OrientationEstimator {
+    private final float kf;  // CF補正係数
+    private final float ke;  // エラー積分係数
+    private final int integrator;
+    private final int renormalizeInterval;
+
+    private final float[] q = {1.0f, 0.0f, 0.0f, 0.0f};  // クォータニオン
+    private final float[] error_sum = {0.0f, 0.0f, 0.0f};
+    private final float[] current_error = new float[3];
+    private int updatesSinceRenormalize = 0;
+
+    public ComplementaryOrientationEstimator(PDRConfig config) {
+        this.kf = config.kf;
+        this.ke = config.ke;
+        this.integrator = config.integrator;
+        this.renormalizeInterval = config.renormalizeInterval;
+    }
+
+    @Override
+    public void update(float[] a, float[] ω, float dt) {
+        complementaryFilter(a, ω, dt);
+        updateQuaternion(ω, dt);
+    }
+
+    private void complementaryFilter(float[] a, float[] ω, float dt) {
+        float q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+        float a0 = a[0], a1 = a[1], a2 = a[2];
+
+        float norm = (float) Math.sqrt(a0 * a0 + a1 * a1 + a2 * a2);
+        if (norm > 0) {
+            a0 /= norm;
+            a1 /= norm;
+            a2 /= norm;
+        }
+
+        current_error[0] = (-a2 * 2 * (q2 * q3 + q0 * q1) + a1 * (1 - 2 * (q1 * q1 + q2 * q2)));
+        current_error[1] = (a2 * 2 * (q1 * q3 - q0 * q2) + -a0 * (1 - 2 * (q1 * q1 + q2 * q2)));
+        current_error[2] = (-a1 * 2 * (q1 * q3 - q0 * q2) + a0 * 2 * (q2 * q3 + q0 * q1));
+
+        ω[0] += kf * current_error[0] + error_sum[0];
+        ω[1] += kf * current_error[1] + error_sum[1];
+        ω[2] += kf * current_error[2] + error_sum[2];
+
+        error_sum[0] += ke * dt * current_error[0];
+        error_sum[1] += ke * dt * current_error[1];
+        error_sum[2] += ke * dt * current_error[2];
+    }
+
+    private void updateQuaternion(float[] ω, float dt) {
+        QuaternionIntegrator.integrate(integrator, q, ω[0], ω[1], ω[2], dt);
+
+        // 正規化はrenormalizeIntervalごと（EULER以外はノルムがほぼ保存される）
+        if (++updatesSinceRenormalize >= renormalizeInterval) {
+            QuaternionIntegrator.normalize(q);
+            updatesSinceRenormalize = 0;
+        }
+    }
+
+    @Override
+    public float[] getQuaternion() { return q; }
+
+    @Override
+    public void reset() {
+        q[0] = 1.0f; q[1] = 0.0f; q[2] = 0.0f; q[3] = 0.0f;
+        Arrays.fill(error_sum, 0f);
+        updatesSinceRenormalize = 0;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        for (float v : q) out.putFloat(v);
+        for (float v : error_sum) out.putFloat(v);
+        out.putInt(updatesSinceRenormalize);
+    }
+
+    @Override
+    public void restoreState(ByteBuffer in) {
+        for (int i = 0; i < 4; i++) q[i] = in.getFloat();
+        for (int i = 0; i < 3; i++) error_sum[i] = in.getFloat();
+        updatesSinceRenormalize = in.getInt();
+    }
+
+    @Override
+    public String getName() { return "complementary"; }
+}
@@ -0,0 +1,97 @@
+package com.example.tcsle;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 位置誤差の分布（1cm刻みの線形バケット，100m以上は最終バケットにまとめる）
+ * 個々の誤差を保持せずに平均・パーセンタイル・CDFを求める．merge()で集計を合算できる
+ */
+public class ErrorHistogram {
+    private static final double BUCKET_M = 0.01;
+    private static final int BUCKET_COUNT = 10_001;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count = 0;
+    private double sum = 0;
+    private double max = 0;
+
+    public void record(double errorM) {
+        if (!(errorM >= 0)) errorM = 0;  // NaNも0扱い
+        int b = (int) (errorM / BUCKET_M);
+        counts[Math.min(b, BUCKET_COUNT - 1)]++;
+        count++;
+        sum += errorM;
+        if (errorM > max) max = errorM;
+    }
+
+    public void merge(ErrorHistogram other) {
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            counts[b] += other.counts[b];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0L);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * パーセンタイル値（バケット上限．100m未満なら誤差は最大1cm）
+     * @param p 0.0 ～ 1.0
+     */
+    public double percentile(double p) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * count));
+        long seen = 0;
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                // 最終バケットは上限がないため最大値を返す
+                return b == BUCKET_COUNT - 1 ? max : Math.min((b + 1) * BUCKET_M, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 誤差がthresholdM未満の割合（CDF．thresholdMはcm単位に丸める）
+     */
+    public double cdf(double thresholdM) {
+        if (count == 0) return 0;
+        int end = Math.min((int) Math.round(thresholdM / BUCKET_M), BUCKET_COUNT);
+        long below = 0;
+        for (int b = 0; b < end; b++) {
+            below += counts[b];
+        }
+        return (double) below / count;
+    }
+
+    // ========== Getterメソッド ==========
+
+    public long getCount() { return count; }
+    public double getMean() { return count == 0 ? 0.0 : sum / count; }
+    public double getMax() { return max; }
+
+    /**
+     * 1行サマリ（n/mean/p50/p90/p95/max）を追記
+     */
+    public void appendSummary(StringBuilder sb) {
+        sb.append(String.format(Locale.US, "n=%d mean=%.2f p50=%.2f p90=%.2f p95=%.2f max=%.2f",
+                count, getMean(), percentile(0.50), percentile(0.90), percentile(0.95), max));
+    }
+
+    /**
+     * 指定した閾値ごとのCDFを " <1m:45.0%" 形式で追記
+     */
+    public void appendCdf(StringBuilder sb, double... thresholdsM) {
+        for (double t : thresholdsM) {
+            sb.append(String.format(Locale.US, " <%gm:%.1f%%", t, 100 * cdf(t)));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.tcsle;
+
+/**
+ * PDRパイプライン用のfloat高速数学関数
+ *
+ * 誤差上限（FastMathTestで全域を走査して確認）
+ *   atan2     : 絶対誤差 ≤ 2.5e-6 rad（約1.4e-4°）  多項式近似（最大誤差1.7e-6）＋float丸め
+ *   sin / cos : |x| ≤ 8π で絶対誤差 ≤ 5e-7            11次Taylor多項式（[-π/2, π/2]で5.7e-8）＋範囲縮小
+ *   fourthRoot: 相対誤差 ≤ 2 ulp（float）             sqrtを2回（sqrtはCPU命令になる）
+ *
+ * 歩幅1m・100歩あたりの位置誤差に換算すると1e-4 m未満で，PDR自体の誤差に比べて無視できる
+ * NaN・無限大の入力は想定しない（パイプラインの入力はカルマンフィルタ後の有限値）
+ */
+public final class FastMath {
+    public static final float PI = (float) Math.PI;
+    public static final float HALF_PI = (float) (Math.PI / 2);
+    public static final float TWO_PI = (float) (Math.PI * 2);
+    private static final float INV_TWO_PI = (float) (1.0 / (Math.PI * 2));
+    private static final float TWO_PI_HI = 6.28125f;  // 下位ビットが0で k*TWO_PI_HI が正確に求まる
+    private static final float TWO_PI_LO = (float) (Math.PI * 2 - 6.28125);
+
+    // atan(z), |z| ≤ 1 の最小最大近似係数（z²の多項式）
+    private static final float A1 = 0.99997726f;
+    private static final float A3 = -0.33262347f;
+    private static final float A5 = 0.19354346f;
+    private static final float A7 = -0.11643287f;
+    private static final float A9 = 0.05265332f;
+    private static final float A11 = -0.01172120f;
+
+    // sin(x) のTaylor係数
+    private static final float S3 = -1.0f / 6;
+    private static final float S5 = 1.0f / 120;
+    private static final float S7 = -1.0f / 5040;
+    private static final float S9 = 1.0f / 362880;
+    private static final float S11 = -1.0f / 39916800;
+
+    private FastMath() {}
+
+    /**
+     * Math.atan2と同じ象限規約（戻り値は[-π, π]）
+     */
+    public static float atan2(float y, float x) {
+        float ax = Math.abs(x);
+        float ay = Math.abs(y);
+        if (ax == 0f && ay == 0f) return 0f;
+
+        // |z| ≤ 1 になるよう小さい方を分子にする
+        boolean swap = ay > ax;
+        float z = swap ? ax / ay : ay / ax;
+        float r = atanUnit(z);
+        if (swap) r = HALF_PI - r;
+        if (x < 0f) r = PI - r;
+        return y < 0f ? -r : r;
+    }
+
+    private static float atanUnit(float z) {
+        float z2 = z * z;
+        return z * (A1 + z2 * (A3 + z2 * (A5 + z2 * (A7 + z2 * (A9 + z2 * A11)))));
+    }
+
+    public static float sin(float x) {
+        return sinReduced(reduce(x));
+    }
+
+    public static float cos(float x) {
+        // cos(x) = sin(x + π/2)．縮小後に加算して大きなxでの丸め誤差を避ける
+        float r = reduce(x) + HALF_PI;
+        if (r > PI) r -= TWO_PI;
+        return sinReduced(r);
+    }
+
+    /**
+     * [-π, π] に縮小（2πを上位・下位に分けて引き，kが大きくても誤差を抑える）
+     */
+    private static float reduce(float x) {
+        float k = Math.round(x * INV_TWO_PI);
+        return (x - k * TWO_PI_HI) - k * TWO_PI_LO;
+    }
+
+    private static float sinReduced(float r) {
+        // [-π/2, π/2] に折り返す（sin(π - r) = sin(r)）
+        if (r > HALF_PI) {
+            r = PI - r;
+        } else if (r < -HALF_PI) {
+            r = -PI - r;
+        }
+        float r2 = r * r;
+        return r * (1f + r2 * (S3 + r2 * (S5 + r2 * (S7 + r2 * (S9 + r2 * S11)))));
+    }
+
+    /**
+     * Weinberg式の (amax - amin)^(1/4)
+     */
+    public static float fourthRoot(float x) {
+        return (float) Math.sqrt(Math.sqrt(x));
+    }
+}
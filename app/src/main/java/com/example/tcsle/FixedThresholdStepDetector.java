@@ -0,0 +1,78 @@
+package com.example.tcsle;
+
+/**
+ * 従来の固定閾値による歩行検出
+ * apが閾値Aを超えた区間で最初に減少に転じたティックを，tmin < Δt < tmax なら1歩とする
+ */
+public class FixedThresholdStepDetector implements StepDetector {
+    private final float A;
+    private final float tmin;
+    private final float tmax;
+
+    private float ap_max = 0;
+    private float ap_min = 0;
+    private boolean isStepDetecting = false;
+    private boolean isPeakCounted = false;
+    private float peak = 0;
+    private float valley = 0;
+
+    public FixedThresholdStepDetector(PDRConfig config) {
+        this.A = config.A;
+        this.tmin = config.tmin;
+        this.tmax = config.tmax;
+    }
+
+    @Override
+    public boolean update(float ap, float Δt) {
+        boolean step = false;
+        if (ap > A) {
+            if (!isStepDetecting) {
+                isStepDetecting = true;
+                ap_max = ap;
+                ap_min = ap;
+            }
+
+            if (ap < ap_max && !isPeakCounted) {
+                if (tmin < Δt && Δt < tmax) {
+                    peak = ap_max;
+                    valley = ap_min;
+                    isPeakCounted = true;
+                    step = true;
+                }
+            }
+
+            ap_max = Math.max(ap_max, ap);
+            ap_min = Math.min(ap_min, ap);
+        } else {
+            isStepDetecting = false;
+            isPeakCounted = false;
+        }
+        return step;
+    }
+
+    @Override
+    public float getPeak() { return peak; }
+
+    @Override
+    public float getValley() { return valley; }
+
+    @Override
+    public float getThreshold() { return A; }
+
+    @Override
+    public void interrupt() {
+        isStepDetecting = false;
+        isPeakCounted = false;
+    }
+
+    @Override
+    public void reset() {
+        ap_max = 0; ap_min = 0;
+        peak = 0; valley = 0;
+        isStepDetecting = false;
+        isPeakCounted = false;
+    }
+
+    @Override
+    public String getName() { return "fixed"; }
+}
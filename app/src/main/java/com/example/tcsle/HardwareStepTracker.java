@@ -0,0 +1,268 @@
+package com.example.tcsle;
+
+/**
+ * ハードウェア歩数計（TYPE_STEP_DETECTOR）による省電力モード（Android非依存）
+ *
+ * 歩行イベント・加速度・回転ベクトルはいずれもFIFOからバッチで，センサーごとに別々のタイミングで届く
+ * 歩行イベントはいったん保留し，その時刻の前後の加速度と方位が揃った時点で時刻順にPDREngineへ反映する
+ *   歩幅: 歩行時刻±hardwareStepWindowSecの加速度ノルムから，エンジンと同じく
+ *         ピークと「ピーク直前に閾値Aを超えていた区間」の最小値を求めてStepLengthEstimatorに渡す
+ *   方位: 低レートの回転ベクトルから求めた方位を歩行時刻で補間（開始時を0とする）
+ * 加速度はバイアス補正のみでカルマンフィルタは通さない（100Hzの通常経路とは歩幅が多少異なる）
+ */
+public class HardwareStepTracker {
+    private static final int MAX_PENDING_STEPS = 256;
+
+    private final PDREngine engine;
+    private final float A;
+    private final float[] aBias;
+    private final long halfWindowNs;
+    private final StepFeatures features = new StepFeatures();
+
+    // ========== 加速度（時刻, ap）のリング ==========
+    private final long[] accTime;
+    private final float[] accAp;
+    private int accNext = 0, accSize = 0;
+
+    // ========== 方位（時刻, 開始時からの連続方位）のリング ==========
+    private final long[] headingTime;
+    private final float[] heading;
+    private int headingNext = 0, headingSize = 0;
+    private boolean hasReference = false;
+    private float reference = 0;
+    private float lastUnwrapped = 0;
+
+    // ========== 保留中の歩行 ==========
+    private final long[] pending = new long[MAX_PENDING_STEPS];
+    private int pendingHead = 0, pendingSize = 0;
+
+    private long appliedSteps = 0;
+    private long forcedSteps = 0;  // データが揃う前に処理した歩行
+
+    public HardwareStepTracker(PDREngine engine) {
+        this.engine = engine;
+        PDRConfig config = engine.getConfig();
+        this.A = config.A;
+        this.aBias = config.aBias.clone();
+        this.halfWindowNs = (long) (config.hardwareStepWindowSec * 1e9);
+
+        // 最大レイテンシ2回分＋余裕を保持
+        double keepSec = 2 * config.hardwareStepMaxLatencyUs * 1e-6 + 2.0;
+        int accCapacity = (int) Math.ceil(keepSec / (config.hardwareStepAccelPeriodUs * 1e-6));
+        int headingCapacity = (int) Math.ceil(keepSec / (config.hardwareStepHeadingPeriodUs * 1e-6));
+        accTime = new long[accCapacity];
+        accAp = new float[accCapacity];
+        headingTime = new long[headingCapacity];
+        heading = new float[headingCapacity];
+    }
+
+    // ========== センサー入力 ==========
+
+    public void onAccelerometer(long timestampNs, float[] values) {
+        float x = values[0] - aBias[0];
+        float y = values[1] - aBias[1];
+        float z = values[2] - aBias[2];
+        int i = accNext;
+        accTime[i] = timestampNs;
+        accAp[i] = (float) Math.sqrt(x * x + y * y + z * z);
+        accNext = (i + 1) % accTime.length;
+        if (accSize < accTime.length) accSize++;
+        process();
+    }
+
+    /**
+     * @param values x, y, z[, w]
+     */
+    public void onRotationVector(long timestampNs, float[] values) {
+        float x = values[0], y = values[1], z = values[2];
+        float w = values.length > 3 ? values[3] : (float) Math.sqrt(Math.max(0f, 1f - x * x - y * y - z * z));
+        // PDREngineと同じ変換（atan2(T[1], T[4])）
+        float φ = (float) Math.atan2(2 * (x * y - w * z), w * w - x * x + y * y - z * z);
+
+        if (!hasReference) {
+            reference = φ;
+            lastUnwrapped = 0;
+            hasReference = true;
+        } else {
+            // 補間できるよう連続な角度にする
+            float d = (φ - reference) - lastUnwrapped;
+            d -= (float) (2 * Math.PI) * Math.round(d / (2 * Math.PI));
+            lastUnwrapped += d;
+        }
+        int i = headingNext;
+        headingTime[i] = timestampNs;
+        heading[i] = lastUnwrapped;
+        headingNext = (i + 1) % headingTime.length;
+        if (headingSize < headingTime.length) headingSize++;
+        process();
+    }
+
+    public void onStepDetector(long timestampNs) {
+        if (pendingSize == pending.length) {
+            // 保留があふれる場合は最古の歩行を手持ちのデータで処理する
+            apply(pending[pendingHead]);
+            forcedSteps++;
+            pendingHead = (pendingHead + 1) % pending.length;
+            pendingSize--;
+        }
+        pending[(pendingHead + pendingSize) % pending.length] = timestampNs;
+        pendingSize++;
+        process();
+    }
+
+    /**
+     * 前後の加速度と方位が揃った保留中の歩行を時刻順に反映
+     */
+    public void process() {
+        while (pendingSize > 0) {
+            long t = pending[pendingHead];
+            if (latestAccTime() < t + halfWindowNs || latestHeadingTime() < t) break;
+            apply(t);
+            pendingHead = (pendingHead + 1) % pending.length;
+            pendingSize--;
+        }
+    }
+
+    /**
+     * 保留中の歩行をすべて手持ちのデータで反映（計測終了時）
+     */
+    public void flush() {
+        while (pendingSize > 0) {
+            apply(pending[pendingHead]);
+            forcedSteps++;
+            pendingHead = (pendingHead + 1) % pending.length;
+            pendingSize--;
+        }
+    }
+
+    public void reset() {
+        accNext = 0; accSize = 0;
+        headingNext = 0; headingSize = 0;
+        hasReference = false;
+        reference = 0;
+        lastUnwrapped = 0;
+        pendingHead = 0; pendingSize = 0;
+        appliedSteps = 0;
+        forcedSteps = 0;
+    }
+
+    /**
+     * 方位の基準を引き継ぐ（チェックポイントからの再開用．歩行・センサーを受け取る前に呼ぶ）
+     * 新しい基準を取り直すと再開時の向きが0になり，復元したADEの履歴や軌跡と食い違うため，
+     * 中断前の基準と最後の連続方位から続ける（TYPE_GAME_ROTATION_VECTORの原点は同じ起動の間は保たれる前提）
+     */
+    public void restoreReference(float reference, float lastUnwrapped) {
+        this.reference = reference;
+        this.lastUnwrapped = lastUnwrapped;
+        this.hasReference = true;
+    }
+
+    // ========== 歩行の反映 ==========
+
+    private void apply(long t) {
+        fillFeatures(t);
+        engine.onExternalStep(t, headingAt(t), features);
+        appliedSteps++;
+    }
+
+    /**
+     * 歩行時刻前後の加速度窓から特徴量を求める
+     */
+    private void fillFeatures(long t) {
+        StepFeatures f = features;
+        int n = 0;
+        double sum = 0, sumSq = 0, devSum = 0;
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        int peak = -1;  // リング上の位置
+
+        // 新しい方から窓の先頭までさかのぼる
+        for (int k = 0; k < accSize; k++) {
+            int i = Math.floorMod(accNext - 1 - k, accTime.length);
+            long time = accTime[i];
+            if (time > t + halfWindowNs) continue;
+            if (time < t - halfWindowNs) break;
+            float ap = accAp[i];
+            n++;
+            sum += ap;
+            sumSq += (double) ap * ap;
+            devSum += Math.abs(ap - StepFeatures.GRAVITY);
+            min = Math.min(min, ap);
+            if (ap > max) {
+                max = ap;
+                peak = k;
+            }
+        }
+
+        f.sampleCount = n;
+        if (n == 0) {
+            f.apMax = 0; f.apMin = 0;
+            f.apMean = 0; f.apVariance = 0; f.apDevMean = 0;
+            f.windowMin = 0; f.windowMax = 0;
+            return;
+        }
+        double mean = sum / n;
+        f.apMean = (float) mean;
+        f.apVariance = (float) Math.max(0.0, sumSq / n - mean * mean);
+        f.apDevMean = (float) (devSum / n);
+        f.windowMin = min;
+        f.windowMax = max;
+        f.apMax = max;
+
+        // ピークから過去へ，閾値Aを超えている間の最小値（エンジンの区間最小値に相当）
+        float valley = max;
+        if (max > A) {
+            for (int k = peak + 1; k < accSize; k++) {
+                int i = Math.floorMod(accNext - 1 - k, accTime.length);
+                if (accTime[i] < t - halfWindowNs || accAp[i] <= A) break;
+                valley = Math.min(valley, accAp[i]);
+            }
+        } else {
+            valley = min;
+        }
+        f.apMin = valley;
+    }
+
+    /**
+     * 時刻tの方位（前後の回転ベクトルから線形補間，範囲外は端の値）
+     */
+    private float headingAt(long t) {
+        if (headingSize == 0) return 0f;
+        float φ = heading[Math.floorMod(headingNext - 1, headingTime.length)];
+        for (int k = 0; k < headingSize; k++) {
+            int i = Math.floorMod(headingNext - 1 - k, headingTime.length);
+            if (headingTime[i] > t) {
+                φ = heading[i];
+                continue;
+            }
+            if (k > 0) {
+                int j = Math.floorMod(i + 1, headingTime.length);
+                float alpha = (float) (t - headingTime[i]) / (headingTime[j] - headingTime[i]);
+                φ = heading[i] + (heading[j] - heading[i]) * alpha;
+            } else {
+                φ = heading[i];
+            }
+            break;
+        }
+        // (-π, π] に戻す
+        φ -= (float) (2 * Math.PI) * Math.round(φ / (2 * Math.PI));
+        if (φ <= -Math.PI) φ += (float) (2 * Math.PI);
+        return φ;
+    }
+
+    private long latestAccTime() {
+        return accSize == 0 ? Long.MIN_VALUE : accTime[Math.floorMod(accNext - 1, accTime.length)];
+    }
+
+    private long latestHeadingTime() {
+        return headingSize == 0 ? Long.MIN_VALUE : headingTime[Math.floorMod(headingNext - 1, headingTime.length)];
+    }
+
+    // ========== Getterメソッド ==========
+
+    public boolean hasReference() { return hasReference; }
+    public float getReference() { return reference; }
+    public float getLastUnwrapped() { return lastUnwrapped; }
+    public int getPendingSteps() { return pendingSize; }
+    public long getAppliedSteps() { return appliedSteps; }
+    public long getForcedSteps() { return forcedSteps; }
+}
@@ -0,0 +1,108 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * センサー収集サーバーの通信フォーマット
+ *
+ * 各フレームは [長さ int32 BE][本体] で，本体の先頭1バイトが種別
+ * 1本の接続で複数端末のフレームを多重化できるよう，すべてのフレームに端末IDを含める
+ *
+ * クライアント → サーバー
+ *   BATCH : type, deviceId(i64), count(u16), count × [sensor(u8), timeNs(i64), x, y, z(f32)]
+ *   BYE   : type, deviceId(i64)                      端末セッションの終了
+ * サーバー → クライアント
+ *   POSITION : type, deviceId(i64), timeNs(i64), steps(i32), x, y, heading(f32)
+ */
+public final class IngestProtocol {
+    public static final byte TYPE_BATCH = 0x01;
+    public static final byte TYPE_BYE = 0x02;
+    public static final byte TYPE_POSITION = 0x10;
+
+    public static final byte SENSOR_ACCEL = 0;
+    public static final byte SENSOR_GYRO = 1;
+
+    public static final int LENGTH_PREFIX = 4;
+    public static final int BATCH_HEADER = 1 + 8 + 2;
+    public static final int SAMPLE_LENGTH = 1 + 8 + 4 * 3;
+    public static final int BYE_LENGTH = 1 + 8;
+    public static final int POSITION_LENGTH = 1 + 8 + 8 + 4 + 4 * 3;
+
+    // 1フレームの最大サンプル数（不正な長さによる巨大確保を防ぐ）
+    public static final int MAX_SAMPLES = 4096;
+    public static final int MAX_FRAME = BATCH_HEADER + MAX_SAMPLES * SAMPLE_LENGTH;
+
+    private IngestProtocol() {}
+
+    /**
+     * バッチフレームを長さプレフィックス付きで書き込む
+     */
+    public static void putBatch(ByteBuffer out, long deviceId, SampleBatch batch) {
+        int n = batch.size();
+        out.putInt(BATCH_HEADER + n * SAMPLE_LENGTH);
+        out.put(TYPE_BATCH);
+        out.putLong(deviceId);
+        out.putShort((short) n);
+        for (int i = 0; i < n; i++) {
+            out.put(batch.isAccelAt(i) ? SENSOR_ACCEL : SENSOR_GYRO);
+            out.putLong(batch.timeNsAt(i));
+            out.putFloat(batch.xAt(i));
+            out.putFloat(batch.yAt(i));
+            out.putFloat(batch.zAt(i));
+        }
+    }
+
+    public static void putBye(ByteBuffer out, long deviceId) {
+        out.putInt(BYE_LENGTH);
+        out.put(TYPE_BYE);
+        out.putLong(deviceId);
+    }
+
+    public static void putPosition(ByteBuffer out, long deviceId, long timeNs, int steps,
+                                   float x, float y, float heading) {
+        out.putInt(POSITION_LENGTH);
+        out.put(TYPE_POSITION);
+        out.putLong(deviceId);
+        out.putLong(timeNs);
+        out.putInt(steps);
+        out.putFloat(x);
+        out.putFloat(y);
+        out.putFloat(heading);
+    }
+
+    /**
+     * 種別ごとの本体長の下限（未知の種別は-1）
+     * 種別・端末IDより後ろを読む前に確認し，短いフレームでBufferUnderflowExceptionが出ないようにする
+     */
+    public static int minLength(byte type) {
+        switch (type) {
+            case TYPE_BATCH: return BATCH_HEADER;
+            case TYPE_BYE: return BYE_LENGTH;
+            case TYPE_POSITION: return POSITION_LENGTH;
+            default: return -1;
+        }
+    }
+
+    /**
+     * バッチ本体（種別・端末IDの後ろ）をSampleBatchに読み込む
+     * @throws IllegalArgumentException 本体が短い，件数が本体長と一致しない，容量を超える，
+     *                                  または未知のセンサー種別を含む場合
+     */
+    public static void readSamples(ByteBuffer body, int bodyLength, SampleBatch into) {
+        if (bodyLength < BATCH_HEADER) {
+            throw new IllegalArgumentException("bad batch: length=" + bodyLength);
+        }
+        int n = body.getShort() & 0xFFFF;
+        if (bodyLength != BATCH_HEADER + n * SAMPLE_LENGTH || n > into.capacity()) {
+            throw new IllegalArgumentException("bad batch: count=" + n + " length=" + bodyLength);
+        }
+        for (int i = 0; i < n; i++) {
+            byte sensor = body.get();
+            if (sensor != SENSOR_ACCEL && sensor != SENSOR_GYRO) {
+                throw new IllegalArgumentException("unknown sensor type " + sensor + " at sample " + i);
+            }
+            long t = body.getLong();
+            into.add(sensor == SENSOR_ACCEL, t, body.getFloat(), body.getFloat(), body.getFloat());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.tcsle;
+
+/**
+ * 1次元カルマンフィルタ
+ */
+public class KalmanFilter {
+    private double P = 1.0;  // 推定誤差共分散
+    private final double Q;  // プロセスノイズ共分散
+    private final double R;  // 観測ノイズ共分散
+    private double X = 0.0;  // 状態推定値
+
+    public KalmanFilter(double Q, double R) {
+        this.Q = Q;
+        this.R = R;
+    }
+
+    public double update(double measurement) {
+        double K = P / (P + R);
+        X = X + K * (measurement - X);
+        P = (1 - K) * P + Q;
+        return X;
+    }
+
+    public void reset(double initialX) {
+        P = 1.0;
+        X = initialX;
+    }
+
+    // チェックポイント・キャッシュ用
+    public double getP() { return P; }
+    public double getX() { return X; }
+    public void setState(double P, double X) {
+        this.P = P;
+        this.X = X;
+    }
+}
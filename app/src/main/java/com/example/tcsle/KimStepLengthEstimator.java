@@ -0,0 +1,36 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Kim式（1歩区間の重力を除いた加速度の大きさの平均の，立方根に比例）
+ * L = kimK · ∛(mean |ap − g|)
+ * 重力を含むapの平均はどの歩でも約9.8になり，立方根で差がほぼ消えるため使わない
+ */
+public class KimStepLengthEstimator implements StepLengthEstimator {
+    private final float kimK;
+
+    public KimStepLengthEstimator(PDRConfig config) {
+        this.kimK = config.kimK;
+    }
+
+    @Override
+    public float estimate(StepFeatures f) {
+        return kimK * (float) Math.cbrt(f.apDevMean);
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+    }
+
+    @Override
+    public void restoreState(ByteBuffer in) {
+    }
+
+    @Override
+    public String getName() { return "kim"; }
+}
@@ -0,0 +1,95 @@
+package com.example.tcsle;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 2のべき乗で区切った対数バケットのヒストグラム
+ * record()は配列の加算のみでアロケーションを行わないため，センサーコールバック内で常時使用できる
+ *
+ * バケットbには [2^(b-1), 2^b) の値が入る（b=0は値0）
+ */
+public class LogHistogram {
+    private static final int BUCKET_COUNT = 64;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0L);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    private static int bucketOf(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * パーセンタイル値（バケット上限による近似，最大で2倍の誤差）
+     * @param p 0.0 ～ 1.0
+     */
+    public long percentile(double p) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(p * count);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                long upper = (b == 0) ? 0 : (b >= 63 ? Long.MAX_VALUE : (1L << b) - 1);
+                return Math.min(upper, max);
+            }
+        }
+        return max;
+    }
+
+    // ========== Getterメソッド ==========
+
+    public long getCount() { return count; }
+    public long getSum() { return sum; }
+    public long getMin() { return count == 0 ? 0 : min; }
+    public long getMax() { return max; }
+    public double getMean() { return count == 0 ? 0.0 : (double) sum / count; }
+    public long getBucketCount(int bucket) { return counts[bucket]; }
+    public int getBucketLength() { return BUCKET_COUNT; }
+
+    /**
+     * 1行サマリ（count/mean/p50/p90/p99/max）を追記
+     * @param scale 表示時に値を割る係数（ns→µsなら1000）
+     */
+    public void appendSummary(StringBuilder sb, double scale) {
+        sb.append(String.format(Locale.US,
+                "n=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+                count, getMean() / scale,
+                percentile(0.50) / scale, percentile(0.90) / scale,
+                percentile(0.99) / scale, max / scale));
+    }
+
+    /**
+     * 空でないバケットを "[下限,上限):件数" 形式で追記
+     */
+    public void appendBuckets(StringBuilder sb) {
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            if (counts[b] == 0) continue;
+            long lower = (b == 0) ? 0 : (1L << (b - 1));
+            long upper = (b == 0) ? 1 : (b >= 63 ? Long.MAX_VALUE : (1L << b));
+            sb.append('[').append(lower).append(',').append(upper).append("):")
+                    .append(counts[b]).append(' ');
+        }
+    }
+}
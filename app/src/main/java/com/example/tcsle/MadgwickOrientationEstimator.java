@@ -0,0 +1,87 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Madgwickフィルタ（IMU版：加速度＋角速度）
+ * 重力方向の誤差関数の勾配方向へbetaだけ引き戻しながら角速度を積分する
+ * 勾配項がクォータニオンの微分に直接加わるため，積分は1次（毎回正規化）で行う
+ */
+public class MadgwickOrientationEstimator implements OrientationEstimator {
+    private final float beta;
+
+    private final float[] q = {1.0f, 0.0f, 0.0f, 0.0f};
+
+    public MadgwickOrientationEstimator(PDRConfig config) {
+        this.beta = config.madgwickBeta;
+    }
+
+    @Override
+    public void update(float[] a, float[] ω, float dt) {
+        float q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+        float gx = ω[0], gy = ω[1], gz = ω[2];
+        float ax = a[0], ay = a[1], az = a[2];
+
+        // 角速度によるクォータニオンの変化率
+        float qDot0 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot1 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot2 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot3 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        float norm = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        if (norm > 0) {
+            ax /= norm;
+            ay /= norm;
+            az /= norm;
+
+            float _2q0 = 2f * q0, _2q1 = 2f * q1, _2q2 = 2f * q2, _2q3 = 2f * q3;
+            float _4q0 = 4f * q0, _4q1 = 4f * q1, _4q2 = 4f * q2;
+            float _8q1 = 8f * q1, _8q2 = 8f * q2;
+            float q0q0 = q0 * q0, q1q1 = q1 * q1, q2q2 = q2 * q2, q3q3 = q3 * q3;
+
+            // 目的関数の勾配
+            float s0 = _4q0 * q2q2 + _2q2 * ax + _4q0 * q1q1 - _2q1 * ay;
+            float s1 = _4q1 * q3q3 - _2q3 * ax + 4f * q0q0 * q1 - _2q0 * ay - _4q1
+                    + _8q1 * q1q1 + _8q1 * q2q2 + _4q1 * az;
+            float s2 = 4f * q0q0 * q2 + _2q0 * ax + _4q2 * q3q3 - _2q3 * ay - _4q2
+                    + _8q2 * q1q1 + _8q2 * q2q2 + _4q2 * az;
+            float s3 = 4f * q1q1 * q3 - _2q1 * ax + 4f * q2q2 * q3 - _2q2 * ay;
+
+            float sNorm = (float) Math.sqrt(s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3);
+            if (sNorm > 0) {
+                float k = beta / sNorm;
+                qDot0 -= k * s0;
+                qDot1 -= k * s1;
+                qDot2 -= k * s2;
+                qDot3 -= k * s3;
+            }
+        }
+
+        q[0] = q0 + qDot0 * dt;
+        q[1] = q1 + qDot1 * dt;
+        q[2] = q2 + qDot2 * dt;
+        q[3] = q3 + qDot3 * dt;
+        QuaternionIntegrator.normalize(q);
+    }
+
+    @Override
+    public float[] getQuaternion() { return q; }
+
+    @Override
+    public void reset() {
+        q[0] = 1.0f; q[1] = 0.0f; q[2] = 0.0f; q[3] = 0.0f;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        for (float v : q) out.putFloat(v);
+    }
+
+    @Override
+    public void restoreState(ByteBuffer in) {
+        for (int i = 0; i < 4; i++) q[i] = in.getFloat();
+    }
+
+    @Override
+    public String getName() { return "madgwick"; }
+}
@@ -0,0 +1,100 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mahonyフィルタ（IMU版：加速度＋角速度）
+ * 推定重力方向と観測加速度の外積を誤差とし，PI補正した角速度を積分する
+ * 積分方式・正規化間隔はPDRConfigの設定に従う
+ */
+public class MahonyOrientationEstimator implements OrientationEstimator {
+    private final float kp;  // 比例ゲイン
+    private final float ki;  // 積分ゲイン
+    private final int integrator;
+    private final int renormalizeInterval;
+
+    private final float[] q = {1.0f, 0.0f, 0.0f, 0.0f};
+    private float integralX, integralY, integralZ;
+    private int updatesSinceRenormalize = 0;
+
+    public MahonyOrientationEstimator(PDRConfig config) {
+        this.kp = config.mahonyKp;
+        this.ki = config.mahonyKi;
+        this.integrator = config.integrator;
+        this.renormalizeInterval = config.renormalizeInterval;
+    }
+
+    @Override
+    public void update(float[] a, float[] ω, float dt) {
+        float gx = ω[0], gy = ω[1], gz = ω[2];
+        float ax = a[0], ay = a[1], az = a[2];
+
+        float norm = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        if (norm > 0) {
+            ax /= norm;
+            ay /= norm;
+            az /= norm;
+
+            float q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+            // 現在の姿勢から見た重力方向（機体座標）
+            float vx = 2 * (q1 * q3 - q0 * q2);
+            float vy = 2 * (q0 * q1 + q2 * q3);
+            float vz = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+
+            // 誤差 = 観測 × 推定
+            float ex = ay * vz - az * vy;
+            float ey = az * vx - ax * vz;
+            float ez = ax * vy - ay * vx;
+
+            if (ki > 0) {
+                integralX += ki * ex * dt;
+                integralY += ki * ey * dt;
+                integralZ += ki * ez * dt;
+                gx += integralX;
+                gy += integralY;
+                gz += integralZ;
+            }
+            gx += kp * ex;
+            gy += kp * ey;
+            gz += kp * ez;
+        }
+
+        ω[0] = gx;
+        ω[1] = gy;
+        ω[2] = gz;
+        QuaternionIntegrator.integrate(integrator, q, gx, gy, gz, dt);
+        if (++updatesSinceRenormalize >= renormalizeInterval) {
+            QuaternionIntegrator.normalize(q);
+            updatesSinceRenormalize = 0;
+        }
+    }
+
+    @Override
+    public float[] getQuaternion() { return q; }
+
+    @Override
+    public void reset() {
+        q[0] = 1.0f; q[1] = 0.0f; q[2] = 0.0f; q[3] = 0.0f;
+        integralX = 0; integralY = 0; integralZ = 0;
+        updatesSinceRenormalize = 0;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        for (float v : q) out.putFloat(v);
+        out.putFloat(integralX).putFloat(integralY).putFloat(integralZ);
+        out.putInt(updatesSinceRenormalize);
+    }
+
+    @Override
+    public void restoreState(ByteBuffer in) {
+        for (int i = 0; i < 4; i++) q[i] = in.getFloat();
+        integralX = in.getFloat();
+        integralY = in.getFloat();
+        integralZ = in.getFloat();
+        updatesSinceRenormalize = in.getInt();
+    }
+
+    @Override
+    public String getName() { return "mahony"; }
+}
@@ -15,6 +15,8 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.ParcelUuid;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
@@ -40,14 +42,22 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.Lifecycle;
 
 import com.google.android.material.materialswitch.MaterialSwitch;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.Calendar;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public class MainActivity extends AppCompatActivity {
@@ -65,13 +75,29 @@ public class MainActivity extends AppCompatActivity {
     private ActivityResultLauncher<String> requestPermissionLauncher;
     private ActivityResultLauncher<Intent> resultLauncher;
     private byte advFlag;
+    private final BlePositionEncoder blePositionEncoder = new BlePositionEncoder();
+    private final ParcelUuid bleServiceUuid = new ParcelUuid(UUID.fromString("00001821-0000-1000-8000-00805F9B34FB"));
+    private final AdvertiseSettings bleAdvertiseSettings = new AdvertiseSettings.Builder()
+            .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
+            .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH)
+            .setConnectable(false)
+            .build();
+
+    // 連続BLE発信（小型ペイロードv1で直近のフィックスをまとめて送る）
+    private static final long CONTINUOUS_BLE_INTERVAL_MS = 200; // 5Hz
+    private static final CompactPositionCodec.Profile CONTINUOUS_BLE_PROFILE = CompactPositionCodec.Profile.INDOOR;
+    private BlePositionBroadcaster bleBroadcaster;
+    private Runnable bleBroadcastRunnable;
+    private boolean bleContinuousFlag = false;
 
     // UI要素
     private TextView tvStepCount, tvDistance, tvHeading;
     private Button btnMainAction, btnReset, btnBLEfinish;
     private TextView tvRouteInfo, tvTrialNumber, tvCurrentPoint;
-    private MaterialSwitch switchBLE;
+    private MaterialSwitch switchBLE, switchBLEContinuous;
     private Spinner spinnerRoute;
+    private TrajectoryView trajectoryView;
+    private SignalScopeView signalScopeView;
 
     // 状態管理
     public Handler handler;
@@ -80,11 +106,23 @@ public class MainActivity extends AppCompatActivity {
     private boolean isTracking = false;
     private ArrayAdapter<RouteManager.RoutePreset> routeAdapter;
 
+    // 起動（RouteManager・PDRServiceの生成はバックグラウンドで行い，揃ってから操作を受け付ける）
+    private static final String STARTUP_TRACE_FILE = "startup_trace.txt";
+    private static boolean processColdStart = true;  // プロセスで最初のActivity生成か
+    private final ExecutorService startupExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger startupPending = new AtomicInteger(2);  // ready＋prewarm
+    private StartupTrace startupTrace;
+    private boolean coldStart;
+    private boolean startupReady = false;
+    // PDRの停止待ち（センサーFIFOの吐き出しが終わるまで次の操作を受け付けない）
+    private boolean pdrStopping = false;
+
     // Foreground Service関連
     private PDRForegroundService pdrForegroundService;
     private boolean serviceBound = false;
     private static final int REQUEST_CODE_POST_NOTIFICATIONS = 1001;
     private static final int REQUEST_CODE_BATTERY_OPTIMIZATION = 1002;
+    private static final int REQUEST_CODE_ACTIVITY_RECOGNITION = 1003;
 
     // ServiceConnection
     private ServiceConnection serviceConnection = new ServiceConnection() {
@@ -107,23 +145,36 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
+        coldStart = processColdStart;
+        processColdStart = false;
+        startupTrace = new StartupTrace(coldStart ? processStartNanoTime() : System.nanoTime());
 
-        // 通知チャンネル作成（Android 8.0以降必須）
-        createNotificationChannel();
+        int phase = startupTrace.begin("setContentView");
+        setContentView(R.layout.activity_main);
+        startupTrace.end(phase);
 
+        phase = startupTrace.begin("ui");
         // 通知権限のリクエスト（Android 13以降）
         requestNotificationPermission();
 
         // バッテリー最適化除外のリクエスト
         requestBatteryOptimizationExemption();
 
-        initializeServices();
         initializeViews();
         setupBLE();
-        setupRouteUI();
         setupButtons();
         setupHandler();
+        startupTrace.end(phase);
+
+        initializeServices();
+    }
+
+    /**
+     * プロセス開始時刻をSystem.nanoTime()の時間軸で求める（コールドスタートの基準）
+     */
+    private static long processStartNanoTime() {
+        long sinceStartMs = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        return System.nanoTime() - sinceStartMs * 1_000_000L;
     }
 
     /**
@@ -185,10 +236,97 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * RouteManager（プリセット生成・保存ルートのJSON解析）とPDRService（センサー取得・フィルタ生成）を
+     * バックグラウンドで生成し，メインスレッドへ渡す．続けて計算経路を暖めておく
+     */
     private void initializeServices() {
-        routeManager = new RouteManager(this);
-        pdrService = new PDRService(this);
-        bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        startupExecutor.execute(() -> {
+            // 通知チャンネル作成（Android 8.0以降必須）
+            int phase = startupTrace.begin("notification");
+            createNotificationChannel();
+            startupTrace.end(phase);
+
+            phase = startupTrace.begin("routeManager");
+            final RouteManager routes = new RouteManager(this);
+            startupTrace.end(phase);
+
+            phase = startupTrace.begin("pdrService");
+            final PDRService service = new PDRService(this);
+            startupTrace.end(phase);
+
+            phase = startupTrace.begin("bluetooth");
+            final BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+            startupTrace.end(phase);
+
+            runOnUiThread(() -> onServicesReady(routes, service, adapter));
+
+            phase = startupTrace.begin("prewarm");
+            PDRService.prewarm();
+            startupTrace.end(phase);
+            onStartupPhaseDone();
+        });
+    }
+
+    /**
+     * バックグラウンド生成の完了（メインスレッド）．ルート一覧を表示し，操作を受け付ける
+     */
+    private void onServicesReady(RouteManager routes, PDRService service, BluetoothAdapter adapter) {
+        if (isFinishing() || isDestroyed()) return;
+        int phase = startupTrace.begin("bind");
+        routeManager = routes;
+        pdrService = service;
+        bluetoothAdapter = adapter;
+
+        // 信号スコープ（エンジンは加速度ティックごとにバッファへ書き込むだけ）
+        pdrService.setSignalScope(signalScopeView.getBuffer());
+        setupRouteUI();
+        startupReady = true;
+        resumeTrackingIfNeeded();
+        exportOrphanedJournals(pdrService.getActiveJournalFile());
+        if (!isTracking) {
+            updateMainButton();
+            updateStatusBar();
+        }
+        if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+            resumeBLE();
+        }
+        startupTrace.end(phase);
+        startupTrace.mark("ready");
+        startupExecutor.execute(this::onStartupPhaseDone);
+    }
+
+    /**
+     * readyとprewarmの両方が済んだら起動トレースを出力する（バックグラウンドスレッド）
+     */
+    private void onStartupPhaseDone() {
+        if (startupPending.decrementAndGet() != 0) return;
+        String report = startupTrace.dump();
+        Log.i(TAG, String.format(Locale.US, "%s start ready in %.1f ms\n%s",
+                coldStart ? "Cold" : "Warm", startupTrace.getEndNs("ready") / 1e6, report));
+
+        File file = new File(getExternalFilesDir(null), STARTUP_TRACE_FILE);
+        try (FileWriter writer = new FileWriter(file, true)) {
+            String date = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date());
+            writer.write("# " + date + (coldStart ? " cold" : " warm") + "\n" + report);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing startup trace", e);
+        }
+    }
+
+    /**
+     * 前回のプロセスがstop()を経ずに終わった試行のジャーナルをCSVに書き出す（バックグラウンドスレッド）
+     * 再開した試行のジャーナルは記録中のため除く
+     */
+    private void exportOrphanedJournals(final File activeJournal) {
+        startupExecutor.execute(() -> {
+            File directory = getExternalFilesDir(null);
+            if (directory == null) return;
+            int exported = TrialCsv.exportOrphanedJournals(directory, activeJournal);
+            if (exported > 0) {
+                Log.i(TAG, "Exported " + exported + " orphaned journal(s) to CSV");
+            }
+        });
     }
 
     private void initializeViews() {
@@ -202,6 +340,7 @@ public class MainActivity extends AppCompatActivity {
         btnReset = findViewById(R.id.resetButton);
         btnBLEfinish = findViewById(R.id.finishButton);
         switchBLE = findViewById(R.id.switchBLE);
+        switchBLEContinuous = findViewById(R.id.switchBLEContinuous);
 
         // ルート管理用
         spinnerRoute = findViewById(R.id.spinnerRoute);
@@ -209,7 +348,18 @@ public class MainActivity extends AppCompatActivity {
         tvTrialNumber = findViewById(R.id.tvTrialNumber);
         tvCurrentPoint = findViewById(R.id.tvCurrentPoint);
 
+        // 軌跡表示
+        trajectoryView = findViewById(R.id.trajectoryView);
+
+        // 信号スコープ
+        signalScopeView = findViewById(R.id.signalScopeView);
+
         switchBLE.setChecked(false);
+        switchBLEContinuous.setChecked(false);
+
+        // サービスの生成が終わるまでは操作を受け付けない
+        btnMainAction.setText("準備中…");
+        btnMainAction.setEnabled(false);
     }
 
     private void setupBLE() {
@@ -253,6 +403,7 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
                 if (!routeManager.isMeasuring()) {
+                    trajectoryView.setRoute(routeAdapter.getItem(position));
                 }
             }
             @Override
@@ -275,12 +426,24 @@ public class MainActivity extends AppCompatActivity {
             bleFlag = isChecked;
             btnBLEfinish.setEnabled(isChecked);
         });
+
+        // 連続BLE発信スイッチ（測定中に切り替えた場合は即時反映）
+        switchBLEContinuous.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            bleContinuousFlag = isChecked;
+            if (!isTracking) return;
+            if (isChecked) {
+                startContinuousBLE();
+            } else {
+                stopContinuousBLE();
+            }
+        });
     }
 
     /**
      * 巨大メインボタンのクリック処理
      */
     private void handleMainButtonClick() {
+        if (!startupReady || pdrStopping) return;
 
         if (!routeManager.isMeasuring()) {
             // 待機中 → 測定開始
@@ -354,6 +517,16 @@ public class MainActivity extends AppCompatActivity {
                 handler.postDelayed(this, 10);
             }
         };
+
+        bleBroadcastRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (bleBroadcaster == null || !bleBroadcaster.isRunning()) return;
+                long now = SystemClock.elapsedRealtime();
+                bleBroadcaster.tick(now, System.currentTimeMillis());
+                handler.postDelayed(this, Math.max(1, bleBroadcaster.getDelayToNextMs(now)));
+            }
+        };
     }
 
     // =========================== BLE機能 ===========================
@@ -365,6 +538,8 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void resumeBLE() {
+        // 起動直後はアダプタ取得前．onServicesReady()から改めて呼ばれる
+        if (!startupReady) return;
         if (bluetoothAdapter == null) {
             Toast.makeText(this, "Bluetooth is not available", Toast.LENGTH_SHORT).show();
             return;
@@ -381,17 +556,10 @@ public class MainActivity extends AppCompatActivity {
 
     private void startBLEAdvertising(byte flag) {
         byte[] manufacturerData = createManufacturerData(flag);
-        ParcelUuid serviceUuid = new ParcelUuid(UUID.fromString("00001821-0000-1000-8000-00805F9B34FB"));
 
         AdvertiseData advertiseData = new AdvertiseData.Builder()
                 .addManufacturerData(0x027d, manufacturerData)
-                .addServiceUuid(serviceUuid)
-                .build();
-
-        AdvertiseSettings settings = new AdvertiseSettings.Builder()
-                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
-                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH)
-                .setConnectable(false)
+                .addServiceUuid(bleServiceUuid)
                 .build();
 
         advFlag = flag;
@@ -401,7 +569,7 @@ public class MainActivity extends AppCompatActivity {
             requestPermissionLauncher.launch(Manifest.permission.BLUETOOTH_ADMIN);
         } else {
             Log.d(TAG, "Starting advertisement with flag: 0x" + String.format("%02X", flag));
-            bluetoothLeAdvertiser.startAdvertising(settings, advertiseData, advertiseCallback);
+            bluetoothLeAdvertiser.startAdvertising(bleAdvertiseSettings, advertiseData, advertiseCallback);
         }
     }
 
@@ -416,30 +584,43 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private byte[] createManufacturerData(byte flag) {
-        Calendar calendar = Calendar.getInstance();
-        ByteBuffer buffer = ByteBuffer.allocate(12);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        buffer.put((byte) (calendar.get(Calendar.MONTH)+1));
-        buffer.put((byte) calendar.get(Calendar.DAY_OF_MONTH));
-        buffer.put((byte) calendar.get(Calendar.HOUR_OF_DAY));
-        buffer.put((byte) calendar.get(Calendar.MINUTE));
-        buffer.put((byte) calendar.get(Calendar.SECOND));
-        buffer.putShort((short) calendar.get(Calendar.MILLISECOND));
+        int length = blePositionEncoder.encode(pdrService, System.currentTimeMillis(), flag);
+        // AdvertiseDataは配列を参照で保持するためコピーを渡す
+        return Arrays.copyOf(blePositionEncoder.getBuffer(), length);
+    }
 
-        // PDRから現在位置を取得
-        int pos_x = 0, pos_y = 0;
-        if (pdrService != null) {
-            pos_x = (int) Math.round(pdrService.getX() * 1000);
-            pos_y = (int) Math.round(pdrService.getY() * 1000);
-            pos_x = Math.max(-32767, Math.min(32767, pos_x));
-            pos_y = Math.max(-32767, Math.min(32767, pos_y));
+    /**
+     * 連続BLE発信の開始（公開済みPDR状態を一定周期で発信）
+     */
+    private void startContinuousBLE() {
+        if (bluetoothLeAdvertiser == null) {
+            Toast.makeText(this, "Bluetooth LE is not available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_ADMIN)
+                != PackageManager.PERMISSION_GRANTED) {
+            requestPermissionLauncher.launch(Manifest.permission.BLUETOOTH_ADMIN);
+            return;
         }
 
-        buffer.putShort((short) pos_x);
-        buffer.putShort((short) pos_y);
-        buffer.put(flag);
+        stopContinuousBLE();
+        bleBroadcaster = new BlePositionBroadcaster(pdrService,
+                new CompactPositionCodec(CONTINUOUS_BLE_PROFILE, pdrService.getRecentFixes()),
+                new AndroidPositionAdvertiser(bluetoothLeAdvertiser));
+        bleBroadcaster.setIntervalMs(CONTINUOUS_BLE_INTERVAL_MS);
+        bleBroadcaster.start(SystemClock.elapsedRealtime());
+        handler.post(bleBroadcastRunnable);
+        Log.d(TAG, "Continuous BLE broadcast started (" + CONTINUOUS_BLE_INTERVAL_MS + " ms)");
+    }
 
-        return buffer.array();
+    private void stopContinuousBLE() {
+        if (bleBroadcaster == null) return;
+        if (handler != null) {
+            handler.removeCallbacks(bleBroadcastRunnable);
+        }
+        bleBroadcaster.stop();
+        Log.d(TAG, "Continuous BLE broadcast stopped (published " + bleBroadcaster.getPublishCount() + ")");
+        bleBroadcaster = null;
     }
 
     private final AdvertiseCallback advertiseCallback = new AdvertiseCallback() {
@@ -471,6 +652,7 @@ public class MainActivity extends AppCompatActivity {
 
         // 測定開始前に必ずリセット
         pdrService.reset();
+        trajectoryView.setRoute(selectedRoute);
 
         // ルートの開始地点を初期位置として設定
         RouteManager.RoutePoint firstPoint = selectedRoute.getRoutePoint(0);
@@ -502,6 +684,10 @@ public class MainActivity extends AppCompatActivity {
         // 🆕 START時のADVERTISEデータを保存
         lastAdvertiseData = pdrService.getCurrentData();
 
+        if (bleContinuousFlag) {
+            startContinuousBLE();
+        }
+
         if (bleFlag) {
             single400msBLEAdvertise((byte) 0xBE);
         }
@@ -516,6 +702,31 @@ public class MainActivity extends AppCompatActivity {
         updateStatusBar();
     }
 
+    /**
+     * 前回のプロセスが測定中に終了していれば，チェックポイントから同じTrialを再開する
+     */
+    private void resumeTrackingIfNeeded() {
+        if (!pdrService.resumeFromCheckpoint()) {
+            return;
+        }
+        if (!routeManager.resumeMeasurement(pdrService.getRouteId(), pdrService.getTrialNumber(),
+                pdrService.getRoutePoint(), pdrService.getAdvertiseCount())) {
+            stopAndResetPdr();
+            return;
+        }
+        isTracking = true;
+        trajectoryView.setRoute(routeManager.getCurrentRoute());
+        startForegroundService();
+
+        btnReset.setEnabled(true);
+        spinnerRoute.setEnabled(false);
+        handler.post(updateRunnable);
+        updateMainButton();
+        updateStatusBar();
+        Toast.makeText(this, "中断した測定を再開しました（Trial " +
+                String.format("%02d", routeManager.getCurrentTrialNumber()) + "）", Toast.LENGTH_LONG).show();
+    }
+
     /**
      * 中間地点通過処理
      */
@@ -592,12 +803,11 @@ public class MainActivity extends AppCompatActivity {
             }
         }
 
-        pdrService.stop();
+        stopContinuousBLE();
+        // PDRサービスの停止とリセット
+        stopAndResetPdr();
         routeManager.stopMeasurement();
 
-        // PDRサービスのリセット
-        pdrService.reset();
-
         // 🆕 保存データもクリア
         lastAdvertiseData = null;
 
@@ -624,6 +834,36 @@ public class MainActivity extends AppCompatActivity {
         updateStatusBar();
     }
 
+    /**
+     * PDRを停止し，センサーFIFOに残っていた分を反映し終えてからリセットする
+     */
+    private void stopAndResetPdr() {
+        pdrStopping = true;
+        pdrService.stop(() -> {
+            pdrService.reset();
+            pdrStopping = false;
+            updateMainButton();
+        });
+    }
+
+    /**
+     * 省電力モード（ハードウェア歩数計）に切り替える（測定開始前に呼ぶ）
+     * Android 10以降は歩数計にACTIVITY_RECOGNITIONの実行時権限が必要なため，なければ先に要求し，
+     * 許可されたときだけ切り替える．拒否されたら通常モードのまま
+     */
+    public void requestHardwareStepMode() {
+        if (!startupReady) return;
+        if (PDRService.hasActivityRecognitionPermission(this)) {
+            pdrService.setHardwareStepMode(true);
+            return;
+        }
+        ActivityCompat.requestPermissions(
+                this,
+                new String[]{Manifest.permission.ACTIVITY_RECOGNITION},
+                REQUEST_CODE_ACTIVITY_RECOGNITION
+        );
+    }
+
     /**
      * Foreground Service停止
      */
@@ -646,14 +886,14 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void resetTracking() {
+        if (!startupReady || pdrStopping) return;
         if (isTracking) {
             isTracking = false;
         }
 
         // PDRを停止してCSVファイルを閉じる
-        pdrService.stop();
-
-        pdrService.reset();
+        stopContinuousBLE();
+        stopAndResetPdr();
         routeManager.resetCurrentTrial(); // Trial番号はそのまま
 
         // 🆕 保存データもクリア
@@ -673,12 +913,18 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void single400msBLEAdvertise(byte flag) {
+        // 連続発信中はフラグを400ms上書きして同じアドバタイズで送る
+        if (bleBroadcaster != null && bleBroadcaster.isRunning()) {
+            bleBroadcaster.overrideFlag(flag, SystemClock.elapsedRealtime(), 400, System.currentTimeMillis());
+            return;
+        }
         startBLEAdvertising(flag);
         handler.postDelayed(() -> stopBLEAdvertising(), 400);
     }
 
     private void finishBLEAdvertising() {
-        if (bleFlag) {
+        if (bleFlag && startupReady) {
+            stopContinuousBLE();
             btnBLEfinish.setEnabled(false);
             btnMainAction.setEnabled(false);
             btnReset.setEnabled(true);
@@ -738,6 +984,8 @@ public class MainActivity extends AppCompatActivity {
         tvStepCount.setText(String.format("%d", steps));
         tvDistance.setText(String.format("%.2f m", distance));
         tvHeading.setText(String.format("%.1f°", Math.toDegrees(pdrService.getHeading())));
+        trajectoryView.update(pdrService.getTrajectoryHistory(), pdrService.getX(), pdrService.getY());
+        signalScopeView.invalidateIfChanged();
 
         updateMainButton();
         updateStatusBar();
@@ -748,9 +996,11 @@ public class MainActivity extends AppCompatActivity {
         tvStepCount.setText("0");
         tvDistance.setText("0.00 m");
         tvHeading.setText("0.0°");
+        trajectoryView.clearTrajectory();
     }
 
     private void recordRouteEvent(String event) {
+        pdrService.setRouteProgress(routeManager.getCurrentRoutePoint(), routeManager.getAdvertiseCount());
         PDRService.SensorData currentData = pdrService.getCurrentData();
         if (currentData != null) {
             RouteManager.RoutePoint targetPoint = routeManager.getCurrentTargetPoint();
@@ -770,6 +1020,9 @@ public class MainActivity extends AppCompatActivity {
 
         Log.d(TAG, "onDestroy called");
 
+        // 起動処理の残り（トレース出力）を終えてからスレッドを止める
+        startupExecutor.shutdown();
+
         // Handler完全停止（メモリリーク対策）
         if (handler != null) {
             handler.removeCallbacksAndMessages(null);
@@ -777,6 +1030,7 @@ public class MainActivity extends AppCompatActivity {
         }
 
         // BLE停止
+        stopContinuousBLE();
         if (bluetoothLeAdvertiser != null) {
             try {
                 stopBLEAdvertising();
@@ -823,6 +1077,19 @@ public class MainActivity extends AppCompatActivity {
                         Toast.LENGTH_LONG).show();
             }
         }
+
+        if (requestCode == REQUEST_CODE_ACTIVITY_RECOGNITION) {
+            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                Log.d(TAG, "Activity recognition permission granted");
+                if (pdrService != null) {
+                    pdrService.setHardwareStepMode(true);
+                }
+            } else {
+                Log.w(TAG, "Activity recognition permission denied, hardware step mode disabled");
+                Toast.makeText(this, "身体活動の権限がないため、通常モードで測定します。",
+                        Toast.LENGTH_LONG).show();
+            }
+        }
     }
 
     @Override
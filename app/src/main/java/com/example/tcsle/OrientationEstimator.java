@@ -0,0 +1,32 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 姿勢推定器（加速度と角速度からクォータニオンを更新する）
+ * PDREngineが姿勢更新のたびに1回呼ぶ．実装はupdate内でアロケーションしないこと
+ */
+public interface OrientationEstimator {
+    /**
+     * 1回分の姿勢更新
+     * @param a  加速度（カルマンフィルタ後） [m/s²]
+     * @param ω  角速度（カルマンフィルタ後・間引き区間の平均） [rad/s]．補正後の値を書き戻してよい
+     * @param dt 前回の更新からの経過時間 [s]
+     */
+    void update(float[] a, float[] ω, float dt);
+
+    /**
+     * 現在の姿勢（w, x, y, z）．呼び出し側は変更しないこと
+     */
+    float[] getQuaternion();
+
+    void reset();
+
+    /** チェックポイント用に内部状態を書き出す（設定値は含めない） */
+    void saveState(ByteBuffer out);
+
+    /** saveStateで書き出した状態を読み込む（同じ設定で生成した推定器に対して呼ぶ） */
+    void restoreState(ByteBuffer in);
+
+    String getName();
+}
@@ -0,0 +1,163 @@
+package com.example.tcsle;
+
+/**
+ * PDRエンジンのパラメータ
+ * エンジンは生成時にコピーを保持するため，生成後に変更しても既存のセッションには影響しない
+ */
+public class PDRConfig {
+    public static final int ESTIMATOR_COMPLEMENTARY = 0;
+    public static final int ESTIMATOR_MAHONY = 1;
+    public static final int ESTIMATOR_MADGWICK = 2;
+
+    public static final int STEP_LENGTH_TCSLE = 0;
+    public static final int STEP_LENGTH_WEINBERG = 1;
+    public static final int STEP_LENGTH_KIM = 2;
+    public static final int STEP_LENGTH_SCARLET = 3;
+
+    public static final int HEADING_SOURCE_GYRO = 0;
+    public static final int HEADING_SOURCE_ROTATION_VECTOR = 1;
+
+    public static final int STEP_DETECTOR_FIXED = 0;
+    public static final int STEP_DETECTOR_ADAPTIVE = 1;
+
+    // ========== PDR関連定数 ==========
+    public float kf = 1.2f;  // CF補正係数
+    public float ke = 0.01f;  // エラー積分係数
+    public float A = 10.364138f;  // ピークドメイン閾値 元：10.0f
+    public float tmin = 0.25f; // 最小時間間隔 元：0.25f
+    public float tmax = 2.0f;  // 最大時間間隔 元：2.0f
+    public float K = 0.80f;  // Weinberg係数 元：0.97f
+    public float q_tcsle = 0.30f;  // 比例係数 元：0.60f
+    public float dt = 0.01f;  // 時間間隔
+
+    // バイアス補正値
+    public float[] aBias = {0.1639f, 0.1739f, 0.0440f};
+    public float[] ωBias = {8.2161e-5f, -1.0239e-5f, -0.6398e-5f};
+
+    // カルマンフィルタ（Q, R）
+    // 加速度計: ノイズが大きいためR値を高めに設定
+    public double accQ = 0.01, accR = 0.5;
+    // ジャイロ: ドリフトが小さいためQ値を小さく、R値も小さく
+    public double gyroQ = 0.001, gyroR = 0.1;
+    // 歩幅推定: 中間的なパラメータ
+    public double stepQ = 0.1, stepR = 0.308952;
+
+    // ========== 歩行検出 ==========
+    // 歩行検出器（STEP_DETECTOR_FIXED: 閾値A・tmin・tmax固定 / ADAPTIVE: 直近の歩容から算出）
+    public int stepDetector = STEP_DETECTOR_FIXED;
+    public float adaptiveWindowSec = 2.0f;  // 統計をとる窓の長さ [s]
+    public float adaptiveThresholdK = 0.5f;  // 閾値 = 平均 + K·標準偏差
+    public float adaptiveMinRange = 0.6f;  // 窓内の最大−最小がこれ未満なら静止 [m/s²]
+    public float adaptiveTminRatio = 0.6f;  // tmin = 比率·歩行周期
+    public float adaptiveTmaxRatio = 1.8f;  // tmax = 比率·歩行周期
+
+    // ========== 省電力モード（ハードウェア歩数計） ==========
+    // TYPE_STEP_DETECTORの歩行イベントで歩数を数え，歩幅は各歩行前後の加速度窓，方位は低レートの回転ベクトルから
+    // バッチ到着時にさかのぼって求める（HardwareStepTrackerを参照）
+    public boolean hardwareStepMode = false;
+    public int hardwareStepMaxLatencyUs = 10_000_000;  // FIFOに溜める最大時間（この間APは眠れる）
+    public int hardwareStepAccelPeriodUs = 20_000;  // 加速度 50Hz
+    public int hardwareStepHeadingPeriodUs = 200_000;  // 回転ベクトル 5Hz
+    public float hardwareStepWindowSec = 0.3f;  // 歩行時刻の前後何秒の加速度から歩幅を求めるか
+
+    // ========== 歩幅推定 ==========
+    // 歩幅推定器（STEP_LENGTH_TCSLE / WEINBERG / KIM / SCARLET）
+    public int stepLengthEstimator = STEP_LENGTH_TCSLE;
+    public float kimK = 0.60f;  // Kim係数（要校正．|ap − g|の平均が約1.5m/s²の歩行で約0.7m）
+    public float scarletK = 1.40f;  // Scarlet係数（要校正）
+
+    // ========== 前処理 ==========
+    // バイアス補正・カルマンフィルタを通すか（記録済みCSVのようにフィルタ後の値を再投入する場合はfalse）
+    public boolean prefilter = true;
+
+    // ========== リサンプリング ==========
+    // ターゲットとする周波数: 100Hz = 10ms = 10,000,000ナノ秒
+    public long targetIntervalNs = 10_000_000L;
+    // 補間を許容する最大間隔（これを超える欠損は補間せず，不連続として格子をリセット）
+    public long maxInterpolationGapNs = 200_000_000L; // 200ms
+    // 不連続時にカルマンフィルタ・歩行検出状態をリセットするか（falseなら状態を引き継ぐ）
+    public boolean resetFiltersOnGap = true;
+
+    // ========== バッチ配信 ==========
+    // センサー登録時のmaxReportLatencyUs（0: バッチなし．>0ならハードウェアFIFOに溜めてまとめて配信）
+    // バーストはSampleMergerで時刻順に並べ直してからエンジンへ渡す
+    public int sensorMaxReportLatencyUs = 0;
+
+    // ========== 姿勢推定 ==========
+    // 方位の入力元（HEADING_SOURCE_GYRO: 加速度・角速度からJavaで姿勢推定 /
+    // ROTATION_VECTOR: センサーハブが融合したTYPE_GAME_ROTATION_VECTORを格子に補間して使用）
+    public int headingSource = HEADING_SOURCE_GYRO;
+    // ROTATION_VECTOR時の回転ベクトルの要求周期 [us]（格子へは補間するため100Hz未満でよい）
+    public int rotationVectorPeriodUs = 20000;
+    // 姿勢推定器（ESTIMATOR_COMPLEMENTARY / MAHONY / MADGWICK）
+    public int orientationEstimator = ESTIMATOR_COMPLEMENTARY;
+    public float mahonyKp = 1.0f;  // Mahony比例ゲイン
+    public float mahonyKi = 0.0f;  // Mahony積分ゲイン
+    public float madgwickBeta = 0.1f;  // Madgwick勾配ステップ
+    // クォータニオンの積分方式（QuaternionIntegrator.EULER / EXPONENTIAL / SECOND_ORDER）
+    public int integrator = QuaternionIntegrator.EULER;
+    // 姿勢更新の間引き（1: 100Hz, 2: 50Hz, 4: 25Hz）．間の角速度は平均して使う
+    // ADEの旋回判定（2回の更新で20°）の窓もこれに比例して伸びる（PDREngine.adaptiveDriftEliminationを参照）
+    public int orientationDecimation = 1;
+    // クォータニオンを正規化する間隔（姿勢更新回数）
+    public int renormalizeInterval = 1;
+
+    // ========== 演算 ==========
+    // FastMathによるfloat近似（誤差上限はFastMathを参照）．falseならjava.lang.Mathを使用
+    public boolean fastMath = false;
+
+    // ========== 軌跡履歴 ==========
+    // 保持する歩行数（1歩32バイト．65536歩 ≈ 2MBで，1.8歩/秒なら約10時間分）．0なら保持しない
+    public int trajectoryHistoryCapacity = 65536;
+
+    public PDRConfig copy() {
+        PDRConfig c = new PDRConfig();
+        c.kf = kf;
+        c.ke = ke;
+        c.A = A;
+        c.tmin = tmin;
+        c.tmax = tmax;
+        c.K = K;
+        c.q_tcsle = q_tcsle;
+        c.dt = dt;
+        c.aBias = aBias.clone();
+        c.ωBias = ωBias.clone();
+        c.accQ = accQ;
+        c.accR = accR;
+        c.gyroQ = gyroQ;
+        c.gyroR = gyroR;
+        c.stepQ = stepQ;
+        c.stepR = stepR;
+        c.stepDetector = stepDetector;
+        c.adaptiveWindowSec = adaptiveWindowSec;
+        c.adaptiveThresholdK = adaptiveThresholdK;
+        c.adaptiveMinRange = adaptiveMinRange;
+        c.adaptiveTminRatio = adaptiveTminRatio;
+        c.adaptiveTmaxRatio = adaptiveTmaxRatio;
+        c.hardwareStepMode = hardwareStepMode;
+        c.hardwareStepMaxLatencyUs = hardwareStepMaxLatencyUs;
+        c.hardwareStepAccelPeriodUs = hardwareStepAccelPeriodUs;
+        c.hardwareStepHeadingPeriodUs = hardwareStepHeadingPeriodUs;
+        c.hardwareStepWindowSec = hardwareStepWindowSec;
+        c.stepLengthEstimator = stepLengthEstimator;
+        c.kimK = kimK;
+        c.scarletK = scarletK;
+        c.prefilter = prefilter;
+        c.targetIntervalNs = targetIntervalNs;
+        c.maxInterpolationGapNs = maxInterpolationGapNs;
+        c.resetFiltersOnGap = resetFiltersOnGap;
+        c.sensorMaxReportLatencyUs = sensorMaxReportLatencyUs;
+        c.headingSource = headingSource;
+        c.rotationVectorPeriodUs = rotationVectorPeriodUs;
+        c.orientationEstimator = orientationEstimator;
+        c.mahonyKp = mahonyKp;
+        c.mahonyKi = mahonyKi;
+        c.madgwickBeta = madgwickBeta;
+        c.integrator = integrator;
+        c.orientationDecimation = orientationDecimation;
+        c.renormalizeInterval = renormalizeInterval;
+        c.fastMath = fastMath;
+        c.trajectoryHistoryCapacity = trajectoryHistoryCapacity;
+        return c;
+    }
+}
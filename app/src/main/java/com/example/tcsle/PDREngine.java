@@ -0,0 +1,1057 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * TCSLE PDRパイプライン本体（Android非依存）
+ * リサンプリング → バイアス補正・カルマンフィルタ → 歩行検出・歩幅推定 → 姿勢・方位推定 → 位置更新
+ *
+ * 状態はすべてインスタンスに閉じており，複数のエンジンを同一JVMで独立に動かせる
+ * 1つのインスタンスはスレッドセーフではないため，同時に1スレッドからのみ呼び出すこと
+ * （複数セッションの並行処理はPDREnginePoolを使用）
+ */
+public class PDREngine {
+    private static final float NS2S = 1.0f / 1000000000.0f;
+    private static final float PI_8 = (float) (Math.PI / 8);
+    private static final float INV_PI_8 = (float) (8 / Math.PI);
+
+    // チェックポイントの形式
+    private static final int CHECKPOINT_MAGIC = 0x50445243;  // "PDRC"
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final int CHECKPOINT_FIXED_BYTES = 512;  // 歩行記録以外の上限（推定器の状態を含む）
+
+    /**
+     * 処理結果の通知先（呼び出しスレッドで同期的に呼ばれる）
+     */
+    public interface Listener {
+        /** 100Hz格子の1ティックを処理した後 */
+        void onTick(PDREngine engine, boolean isAccel, long tickTimeNs);
+
+        /** 歩行を確定し位置を更新した後 */
+        void onStep(PDREngine engine, long stepTimeNs, float stepLength);
+
+        /**
+         * 補間上限を超える欠損で格子をリセットした後
+         * @param sensor SensorHealthMonitor.SENSOR_ACCEL / SENSOR_GYRO / SENSOR_ROTATION_VECTOR
+         */
+        void onDiscontinuity(PDREngine engine, int sensor, long gapNs);
+    }
+
+    /**
+     * 段階ごとの中間結果の取り出し口（オフライン再処理のキャッシュ用．通常は未設定）
+     * 渡される配列は呼び出し中のみ有効
+     */
+    public interface StageTap {
+        /** リサンプリング直後（前処理前）のティック */
+        void onResampled(boolean isAccel, long tickTimeNs, float[] values);
+
+        /** 補間上限を超える欠損（値は欠損後の最初の生サンプル） */
+        void onResampleGap(boolean isAccel, long gapNs, float v0, float v1, float v2);
+
+        /** バイアス補正・カルマンフィルタ後のティック */
+        void onFiltered(boolean isAccel, long tickTimeNs, float[] values);
+
+        /** 姿勢更新後のADE前方位（直前のonFiltered(false, ...)のティックに対応） */
+        void onHeading(long tickTimeNs, float rawHeading);
+    }
+
+    private PDRConfig config;  // コピーを保持する（外から変更させない）
+    private Listener listener;
+    private StageTap stageTap;
+
+    private final float[] a = new float[3];  // 加速度
+    private final float[] ω = new float[3];  // 角速度
+    private final float[] T = new float[9];  // 変換行列
+    private final float[] ωSum = new float[3];  // 間引き区間の角速度の和
+    private final float[] ωMean = new float[3];  // 姿勢更新に渡す平均角速度（推定器が補正後の値を書き戻す）
+    private int gyroTicksSinceUpdate = 0;
+    private float rawHeading = 0;  // ADE前の方位角
+    private OrientationEstimator orientation;
+
+    private final float[] φi = new float[3];  // 方位角履歴
+
+    private double Xk = 0.0;  // X座標
+    private double Yk = 0.0;  // Y座標
+    private double totalDistance = 0.0;
+
+    private double startXk = 0.0;
+    private double startYk = 0.0;
+    private double initialHeadingOffset = 0.0;
+
+    private int stepCount = 0;
+    private long lastStepTime = -1;  // -1: 最初のティックで初期化
+    private float ap;
+    private StepDetector stepDetector;
+    private int Z = 0;  // 歩行状態
+    private int lastZ = 0;
+    private boolean restartHeadingHistory = false;  // 回転ベクトルの欠損後，次の方位でADE履歴を埋め直す
+    private float lastStepLength = 0;
+    private StepLengthEstimator stepLength;
+    private final StepFeatures stepFeatures = new StepFeatures();
+    private float stepLengthScale = 1.0f;  // 歩幅に掛ける倍率（reanchorで変更）
+    private final StepJournal stepJournal = new StepJournal();
+    private final TrajectoryHistory history;  // 直近の軌跡（trajectoryHistoryCapacity = 0ならnull）
+    private volatile SignalScopeBuffer scope;  // 信号スコープ（表示中のみ設定）
+    private final double[] rebuiltEnd = new double[2];
+
+    // 前の歩行からのap統計（StepFeaturesの窓統計）
+    private int windowCount = 0;
+    private double windowSum = 0;
+    private double windowSumSq = 0;
+    private double windowDevSum = 0;  // |ap − g| の和
+    private float windowMin = Float.MAX_VALUE;
+    private float windowMax = -Float.MAX_VALUE;
+
+    // ========== リサンプリング（補間）用変数 ==========
+    // 加速度用
+    private long lastAccTime = 0;
+    private final float[] lastAccValues = new float[3];
+    private long nextAccTargetTime = 0;
+
+    // ジャイロ用
+    private long lastGyroTime = 0;
+    private final float[] lastGyroValues = new float[3];
+    private long nextGyroTargetTime = 0;
+
+    // 回転ベクトル用（w, x, y, z）
+    private long lastRvTime = 0;
+    private final float[] lastRv = new float[4];
+    private long nextRvTargetTime = 0;
+    private final float[] rvQ = {1.0f, 0.0f, 0.0f, 0.0f};
+    private boolean hasRvReference = false;
+    private float rvReferenceHeading = 0;  // 最初の回転ベクトルの方位（Java経路の初期方位0に合わせる）
+
+    private final float[] interpolatedValues = new float[3];
+    private long lastTickTime = 0;
+
+    // ========== カルマンフィルタ ==========
+    private final KalmanFilter[] accKF = new KalmanFilter[3];
+    private final KalmanFilter[] gyroKF = new KalmanFilter[3];
+
+    // ========== 計測 ==========
+    private final PipelineProfiler profiler = new PipelineProfiler();
+    private final SensorHealthMonitor sensorHealth = new SensorHealthMonitor();
+
+    public PDREngine(PDRConfig config) {
+        this.config = config.copy();
+        createComponents();
+        history = this.config.trajectoryHistoryCapacity > 0
+                ? new TrajectoryHistory(this.config.trajectoryHistoryCapacity) : null;
+    }
+
+    private void createComponents() {
+        for (int i = 0; i < 3; i++) {
+            accKF[i] = new KalmanFilter(config.accQ, config.accR);
+            gyroKF[i] = new KalmanFilter(config.gyroQ, config.gyroR);
+        }
+        orientation = createOrientationEstimator(config);
+        stepLength = createStepLengthEstimator(config);
+        stepDetector = createStepDetector(config);
+    }
+
+    /**
+     * 設定を差し替える（計測の開始前に呼ぶ）．引数はコピーして保持する
+     * フィルタ・姿勢推定器・歩幅推定器・歩行検出器は新しい設定で作り直す（差し替えた推定器も既定に戻る）
+     * 位置・軌跡は保持し，軌跡履歴の容量は生成時のまま
+     */
+    public void applyConfig(PDRConfig next) {
+        config = next.copy();
+        createComponents();
+    }
+
+    /**
+     * 省電力モードの設定だけを変える（エンジンの計算には使わない設定のため，推定器は作り直さない）
+     */
+    public void setHardwareStepMode(boolean enabled) {
+        config.hardwareStepMode = enabled;
+    }
+
+    /**
+     * PDRConfig.orientationEstimatorに対応する姿勢推定器を生成
+     */
+    public static OrientationEstimator createOrientationEstimator(PDRConfig config) {
+        switch (config.orientationEstimator) {
+            case PDRConfig.ESTIMATOR_MAHONY:
+                return new MahonyOrientationEstimator(config);
+            case PDRConfig.ESTIMATOR_MADGWICK:
+                return new MadgwickOrientationEstimator(config);
+            default:
+                return new ComplementaryOrientationEstimator(config);
+        }
+    }
+
+    /**
+     * 姿勢推定器を差し替え（独自実装の評価用）．差し替え後の推定器は初期状態から始まる
+     */
+    public void setOrientationEstimator(OrientationEstimator estimator) {
+        estimator.reset();
+        this.orientation = estimator;
+    }
+
+    /**
+     * PDRConfig.stepDetectorに対応する歩行検出器を生成
+     */
+    public static StepDetector createStepDetector(PDRConfig config) {
+        if (config.stepDetector == PDRConfig.STEP_DETECTOR_ADAPTIVE) {
+            return new AdaptiveStepDetector(config);
+        }
+        return new FixedThresholdStepDetector(config);
+    }
+
+    /**
+     * 歩行検出器を差し替え．差し替え後の検出器は初期状態から始まる
+     */
+    public void setStepDetector(StepDetector detector) {
+        detector.reset();
+        this.stepDetector = detector;
+    }
+
+    /**
+     * PDRConfig.stepLengthEstimatorに対応する歩幅推定器を生成
+     */
+    public static StepLengthEstimator createStepLengthEstimator(PDRConfig config) {
+        switch (config.stepLengthEstimator) {
+            case PDRConfig.STEP_LENGTH_WEINBERG:
+                return new WeinbergStepLengthEstimator(config);
+            case PDRConfig.STEP_LENGTH_KIM:
+                return new KimStepLengthEstimator(config);
+            case PDRConfig.STEP_LENGTH_SCARLET:
+                return new ScarletStepLengthEstimator(config);
+            default:
+                return new TcsleStepLengthEstimator(config);
+        }
+    }
+
+    /**
+     * 歩幅推定器を差し替え．差し替え後の推定器は初期状態から始まる
+     */
+    public void setStepLengthEstimator(StepLengthEstimator estimator) {
+        estimator.reset();
+        this.stepLength = estimator;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setStageTap(StageTap stageTap) {
+        this.stageTap = stageTap;
+    }
+
+    // ========== センサー入力 ==========
+
+    public void onAccelerometer(long timestampNs, float[] values) {
+        onSample(true, timestampNs, values[0], values[1], values[2]);
+    }
+
+    public void onGyroscope(long timestampNs, float[] values) {
+        onSample(false, timestampNs, values[0], values[1], values[2]);
+    }
+
+    /**
+     * リサンプリング（線形補間）処理
+     * 不定期なセンサーデータを固定周期（100Hz）に変換して処理に回す
+     */
+    public void onSample(boolean isAccel, long currentTime, float v0, float v1, float v2) {
+        long callbackStart = profiler.begin();
+        int healthSensor = isAccel ? SensorHealthMonitor.SENSOR_ACCEL : SensorHealthMonitor.SENSOR_GYRO;
+        sensorHealth.onEvent(healthSensor, currentTime);
+
+        // 対象の変数を参照（参照渡しができないため、ifで分岐）
+        long lastTime = isAccel ? lastAccTime : lastGyroTime;
+        float[] lastValues = isAccel ? lastAccValues : lastGyroValues;
+        long nextTargetTime = isAccel ? nextAccTargetTime : nextGyroTargetTime;
+
+        // 初回データ受信時
+        if (lastTime == 0) {
+            // 次のターゲットを「現在の時間 + 10ms」に設定
+            storeLast(isAccel, currentTime, v0, v1, v2, currentTime + config.targetIntervalNs);
+            sensorHealth.onInterpolated(healthSensor, 0);
+            return;
+        }
+
+        // 欠損が長すぎる場合は補間せず，格子をリセットして再開
+        // （数秒分の架空データでパイプラインを回すと処理が停滞し，偽の動きが生じるため）
+        if (currentTime - lastTime > config.maxInterpolationGapNs) {
+            handleDiscontinuity(isAccel, currentTime - lastTime, v0, v1, v2);
+            if (stageTap != null) {
+                stageTap.onResampleGap(isAccel, currentTime - lastTime, v0, v1, v2);
+            }
+            storeLast(isAccel, currentTime, v0, v1, v2, currentTime + config.targetIntervalNs);
+            sensorHealth.onDiscontinuity(healthSensor);
+            if (scope != null) scope.mark(SignalScopeBuffer.MARK_DISCONTINUITY);
+            sensorHealth.onInterpolated(healthSensor, 0);
+            if (listener != null) {
+                listener.onDiscontinuity(this, healthSensor, currentTime - lastTime);
+            }
+            profiler.end(PipelineProfiler.STAGE_RESAMPLE, callbackStart);
+            return;
+        }
+
+        // ターゲット時間を跨いでいるかチェック（補間処理ループ）
+        // センサーの間隔が広く、一気に2回分(20ms)進んだ場合などに対応するためwhileループ
+        int ticks = 0;
+        while (nextTargetTime <= currentTime) {
+            // 線形補間係数 alpha (0.0 ～ 1.0)
+            // alpha = (欲しい時間 - 前回の時間) / (今回の時間 - 前回の時間)
+            float alpha = (float) (nextTargetTime - lastTime) / (currentTime - lastTime);
+
+            interpolatedValues[0] = lastValues[0] + (v0 - lastValues[0]) * alpha;
+            interpolatedValues[1] = lastValues[1] + (v1 - lastValues[1]) * alpha;
+            interpolatedValues[2] = lastValues[2] + (v2 - lastValues[2]) * alpha;
+
+            processTick(isAccel, nextTargetTime, interpolatedValues);
+
+            // 次のターゲットを10ms進める
+            nextTargetTime += config.targetIntervalNs;
+            ticks++;
+        }
+
+        // 今回の値を「前回」として保存
+        storeLast(isAccel, currentTime, v0, v1, v2, nextTargetTime);
+
+        sensorHealth.onInterpolated(healthSensor, ticks);
+        profiler.recordCallback(ticks);
+        profiler.end(PipelineProfiler.STAGE_RESAMPLE, callbackStart);
+    }
+
+    private void storeLast(boolean isAccel, long time, float v0, float v1, float v2, long nextTarget) {
+        if (isAccel) {
+            lastAccTime = time;
+            lastAccValues[0] = v0;
+            lastAccValues[1] = v1;
+            lastAccValues[2] = v2;
+            nextAccTargetTime = nextTarget;
+        } else {
+            lastGyroTime = time;
+            lastGyroValues[0] = v0;
+            lastGyroValues[1] = v1;
+            lastGyroValues[2] = v2;
+            nextGyroTargetTime = nextTarget;
+        }
+    }
+
+    /**
+     * ゲーム回転ベクトル（TYPE_GAME_ROTATION_VECTOR）の入力
+     * @param values x, y, z[, w]（wがない端末では単位長から求める）
+     */
+    public void onRotationVector(long timestampNs, float[] values) {
+        float x = values[0], y = values[1], z = values[2];
+        float w = values.length > 3 ? values[3] : (float) Math.sqrt(Math.max(0f, 1f - x * x - y * y - z * z));
+        onRotationVector(timestampNs, w, x, y, z);
+    }
+
+    /**
+     * 回転ベクトルを加速度・ジャイロと同じ100Hz格子へ補間（正規化線形補間）
+     * headingSourceがROTATION_VECTORのとき，格子ごとに方位を求めてADEに渡す
+     */
+    public void onRotationVector(long currentTime, float w, float x, float y, float z) {
+        long callbackStart = profiler.begin();
+        sensorHealth.onEvent(SensorHealthMonitor.SENSOR_ROTATION_VECTOR, currentTime);
+
+        if (lastRvTime == 0 || currentTime - lastRvTime > config.maxInterpolationGapNs) {
+            if (lastRvTime != 0) {
+                handleRotationVectorGap();
+                sensorHealth.onDiscontinuity(SensorHealthMonitor.SENSOR_ROTATION_VECTOR);
+                if (scope != null) scope.mark(SignalScopeBuffer.MARK_DISCONTINUITY);
+                if (listener != null) {
+                    listener.onDiscontinuity(this, SensorHealthMonitor.SENSOR_ROTATION_VECTOR,
+                            currentTime - lastRvTime);
+                }
+            }
+            storeLastRv(currentTime, w, x, y, z, currentTime + config.targetIntervalNs);
+            sensorHealth.onInterpolated(SensorHealthMonitor.SENSOR_ROTATION_VECTOR, 0);
+            profiler.end(PipelineProfiler.STAGE_RESAMPLE, callbackStart);
+            return;
+        }
+
+        // qと-qは同じ姿勢なので，前回と同じ半球に揃えてから補間する
+        if (w * lastRv[0] + x * lastRv[1] + y * lastRv[2] + z * lastRv[3] < 0) {
+            w = -w; x = -x; y = -y; z = -z;
+        }
+
+        int ticks = 0;
+        while (nextRvTargetTime <= currentTime) {
+            float alpha = (float) (nextRvTargetTime - lastRvTime) / (currentTime - lastRvTime);
+            rvQ[0] = lastRv[0] + (w - lastRv[0]) * alpha;
+            rvQ[1] = lastRv[1] + (x - lastRv[1]) * alpha;
+            rvQ[2] = lastRv[2] + (y - lastRv[2]) * alpha;
+            rvQ[3] = lastRv[3] + (z - lastRv[3]) * alpha;
+            QuaternionIntegrator.normalize(rvQ);
+
+            processRotationTick(nextRvTargetTime);
+            nextRvTargetTime += config.targetIntervalNs;
+            ticks++;
+        }
+
+        storeLastRv(currentTime, w, x, y, z, nextRvTargetTime);
+        sensorHealth.onInterpolated(SensorHealthMonitor.SENSOR_ROTATION_VECTOR, ticks);
+        profiler.recordCallback(ticks);
+        profiler.end(PipelineProfiler.STAGE_RESAMPLE, callbackStart);
+    }
+
+    private void storeLastRv(long time, float w, float x, float y, float z, long nextTarget) {
+        lastRvTime = time;
+        lastRv[0] = w;
+        lastRv[1] = x;
+        lastRv[2] = y;
+        lastRv[3] = z;
+        nextRvTargetTime = nextTarget;
+    }
+
+    private void processRotationTick(long tickTime) {
+        lastTickTime = tickTime;
+        if (lastStepTime < 0) {
+            lastStepTime = tickTime;
+        }
+
+        if (config.headingSource == PDRConfig.HEADING_SOURCE_ROTATION_VECTOR) {
+            long stageStart = profiler.begin();
+            float φ = headingOf(rvQ);
+            if (!hasRvReference) {
+                rvReferenceHeading = φ;
+                hasRvReference = true;
+            }
+            // ゲーム回転ベクトルの方位基準は任意なので，開始時を0とする
+            φ -= rvReferenceHeading;
+            if (φ > Math.PI) φ -= (float) (2 * Math.PI);
+            else if (φ <= -Math.PI) φ += (float) (2 * Math.PI);
+            rawHeading = φ;
+            adaptiveDriftElimination(φ);
+            profiler.end(PipelineProfiler.STAGE_ORIENTATION, stageStart);
+        }
+
+        if (listener != null) {
+            listener.onTick(this, false, tickTime);
+        }
+    }
+
+    /**
+     * 補間されたきれいなデータでPDRメイン処理を実行
+     */
+    private void processTick(boolean isAccel, long tickTime, float[] values) {
+        lastTickTime = tickTime;
+        if (lastStepTime < 0) {
+            lastStepTime = tickTime;
+        }
+
+        if (stageTap != null) {
+            stageTap.onResampled(isAccel, tickTime, values);
+        }
+
+        long stageStart = profiler.begin();
+        if (isAccel) {
+            processAccelerometer(values);
+            profiler.end(PipelineProfiler.STAGE_PREFILTER, stageStart);
+            if (stageTap != null) {
+                stageTap.onFiltered(true, tickTime, a);
+            }
+            stageStart = profiler.begin();
+            detectStep(tickTime);
+            profiler.end(PipelineProfiler.STAGE_STEP, stageStart);
+        } else {
+            processGyroscope(values);
+            profiler.end(PipelineProfiler.STAGE_PREFILTER, stageStart);
+            if (stageTap != null) {
+                stageTap.onFiltered(false, tickTime, ω);
+            }
+
+            // 回転ベクトルから方位を得る場合，ジャイロは姿勢推定に使わない
+            if (config.headingSource != PDRConfig.HEADING_SOURCE_GYRO) {
+                if (listener != null) {
+                    listener.onTick(this, false, tickTime);
+                }
+                return;
+            }
+
+            // 姿勢更新は orientationDecimation ティックごと（間の角速度は平均して使う）
+            ωSum[0] += ω[0];
+            ωSum[1] += ω[1];
+            ωSum[2] += ω[2];
+            if (++gyroTicksSinceUpdate >= config.orientationDecimation) {
+                stageStart = profiler.begin();
+                int n = gyroTicksSinceUpdate;
+                // ωはカルマンフィルタ後のまま残す（記録・再処理の入力．推定器の補正を含めると再処理で二重に補正される）
+                ωMean[0] = ωSum[0] / n;
+                ωMean[1] = ωSum[1] / n;
+                ωMean[2] = ωSum[2] / n;
+                ωSum[0] = 0; ωSum[1] = 0; ωSum[2] = 0;
+                gyroTicksSinceUpdate = 0;
+
+                orientation.update(a, ωMean, config.dt * n);
+                updateOrientation();
+                if (stageTap != null) {
+                    stageTap.onHeading(tickTime, rawHeading);
+                }
+                profiler.end(PipelineProfiler.STAGE_ORIENTATION, stageStart);
+            }
+        }
+
+        if (listener != null) {
+            listener.onTick(this, isAccel, tickTime);
+        }
+    }
+
+    // ========== 中間結果からの再処理（オフライン用） ==========
+
+    /**
+     * リサンプリング済みのティックを投入（リサンプリングを飛ばす）
+     * 前処理も飛ばす場合はPDRConfig.prefilter = falseのエンジンにフィルタ後の値を渡す
+     */
+    public void onResampledTick(boolean isAccel, long tickTimeNs, float v0, float v1, float v2) {
+        interpolatedValues[0] = v0;
+        interpolatedValues[1] = v1;
+        interpolatedValues[2] = v2;
+        processTick(isAccel, tickTimeNs, interpolatedValues);
+    }
+
+    /**
+     * 記録された欠損を再現（フィルタ状態・歩行検出区間のリセット）
+     */
+    public void onResampledGap(boolean isAccel, long gapNs, float v0, float v1, float v2) {
+        handleDiscontinuity(isAccel, gapNs, v0, v1, v2);
+    }
+
+    /**
+     * 記録されたジャイロティックを姿勢推定なしで再現（方位のみ与える）
+     * @param updated このティックで姿勢更新があったか（間引き時はfalseのティックがある）
+     */
+    public void onHeadingTick(long tickTimeNs, boolean updated, float φ) {
+        lastTickTime = tickTimeNs;
+        if (lastStepTime < 0) {
+            lastStepTime = tickTimeNs;
+        }
+        if (updated) {
+            rawHeading = φ;
+            adaptiveDriftElimination(φ);
+        }
+        if (listener != null) {
+            listener.onTick(this, false, tickTimeNs);
+        }
+    }
+
+    /**
+     * 補間上限を超える欠損の処理
+     * 設定に応じてフィルタ状態をリセットする
+     */
+    private void handleDiscontinuity(boolean isAccel, long gapNs, float v0, float v1, float v2) {
+        if (!config.resetFiltersOnGap) return;
+
+        if (isAccel) {
+            a[0] = v0 - config.aBias[0];
+            a[1] = v1 - config.aBias[1];
+            a[2] = v2 - config.aBias[2];
+            for (int i = 0; i < 3; i++) {
+                accKF[i].reset(a[i]);
+            }
+            // 欠損をまたいだピーク判定を防ぐ
+            stepDetector.interrupt();
+            resetStepWindow();
+        } else {
+            ω[0] = v0 - config.ωBias[0];
+            ω[1] = v1 - config.ωBias[1];
+            ω[2] = v2 - config.ωBias[2];
+            for (int i = 0; i < 3; i++) {
+                gyroKF[i].reset(ω[i]);
+            }
+        }
+    }
+
+    /**
+     * 回転ベクトルの欠損の処理（方位の取得元が回転ベクトルのとき）
+     * 欠損をまたぐと方位が飛ぶため，歩行検出区間を切り，ADEの方位履歴を欠損後の方位から始め直す
+     * （履歴を残すと飛びを旋回と判定してしまう）
+     */
+    private void handleRotationVectorGap() {
+        if (!config.resetFiltersOnGap) return;
+        if (config.headingSource != PDRConfig.HEADING_SOURCE_ROTATION_VECTOR) return;
+        stepDetector.interrupt();
+        resetStepWindow();
+        restartHeadingHistory = true;
+    }
+
+    // ========== PDR処理 ==========
+
+    private void processAccelerometer(float[] values) {
+        if (!config.prefilter) {
+            a[0] = values[0];
+            a[1] = values[1];
+            a[2] = values[2];
+            return;
+        }
+        for (int i = 0; i < 3; i++) {
+            float aRaw = values[i] - config.aBias[i];
+            a[i] = (float) accKF[i].update(aRaw);
+        }
+    }
+
+    private void processGyroscope(float[] values) {
+        if (!config.prefilter) {
+            ω[0] = values[0];
+            ω[1] = values[1];
+            ω[2] = values[2];
+            return;
+        }
+        for (int i = 0; i < 3; i++) {
+            float ωRaw = values[i] - config.ωBias[i];
+            ω[i] = (float) gyroKF[i].update(ωRaw);
+        }
+    }
+
+    private void detectStep(long tickTime) {
+        ap = (float) Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]);
+
+        windowCount++;
+        windowSum += ap;
+        windowSumSq += (double) ap * ap;
+        windowDevSum += Math.abs(ap - StepFeatures.GRAVITY);
+        windowMin = Math.min(windowMin, ap);
+        windowMax = Math.max(windowMax, ap);
+
+        float Δt = (tickTime - lastStepTime) * NS2S;
+        boolean stepped = stepDetector.update(ap, Δt);
+        if (stepped) {
+            stepCount++;
+            fillStepFeatures(tickTime, Δt);
+            confirmStep(tickTime);
+        }
+        if (scope != null) {
+            scope.add(ap, stepDetector.getThreshold(), rawHeading, φi[2], stepped);
+        }
+    }
+
+    /**
+     * stepFeaturesを設定済みの1歩について歩幅を推定し，位置を更新して通知
+     */
+    private void confirmStep(long stepTime) {
+        float estimated = stepLength.estimate(stepFeatures);
+        float l = estimated * stepLengthScale;
+        resetStepWindow();
+        updatePosition(l);
+        stepJournal.add(stepTime,
+                WeinbergStepLengthEstimator.weinberg(config.K, stepFeatures.apMax - stepFeatures.apMin, config.fastMath),
+                estimated, rawHeading, φi[2]);
+        if (history != null) {
+            history.push(stepTime, getX(), getY(), φi[2], l);
+        }
+        lastStepLength = l;
+        lastStepTime = stepTime;
+        if (listener != null) {
+            listener.onStep(this, stepTime, l);
+        }
+    }
+
+    /**
+     * エンジン外で検出した1歩を反映（ハードウェア歩数計による省電力モード用）
+     * 方位はADEを通してから位置更新に使う．歩行は時刻順に渡すこと
+     * @param stepTimeNs 歩行の時刻（センサー時刻）
+     * @param φ          その時刻のADE前方位 [rad]
+     * @param features   apMax/apMinと窓統計を設定済みの特徴量（時刻・歩数・経過時間はエンジンが設定）
+     */
+    public void onExternalStep(long stepTimeNs, float φ, StepFeatures features) {
+        long stageStart = profiler.begin();
+        lastTickTime = stepTimeNs;
+        if (lastStepTime < 0) {
+            lastStepTime = stepTimeNs;
+        }
+        rawHeading = φ;
+        adaptiveDriftElimination(φ);
+
+        float Δt = (stepTimeNs - lastStepTime) * NS2S;
+        stepCount++;
+        stepFeatures.copyFrom(features);
+        stepFeatures.timeNs = stepTimeNs;
+        stepFeatures.stepIndex = stepCount;
+        stepFeatures.durationSec = Δt;
+        confirmStep(stepTimeNs);
+        profiler.end(PipelineProfiler.STAGE_STEP, stageStart);
+    }
+
+    private void fillStepFeatures(long tickTime, float Δt) {
+        StepFeatures f = stepFeatures;
+        f.timeNs = tickTime;
+        f.stepIndex = stepCount;
+        f.durationSec = Δt;
+        f.apMax = stepDetector.getPeak();
+        f.apMin = stepDetector.getValley();
+        f.sampleCount = windowCount;
+        double mean = windowSum / windowCount;
+        f.apMean = (float) mean;
+        f.apVariance = (float) Math.max(0.0, windowSumSq / windowCount - mean * mean);
+        f.apDevMean = (float) (windowDevSum / windowCount);
+        f.windowMin = windowMin;
+        f.windowMax = windowMax;
+    }
+
+    private void resetStepWindow() {
+        windowCount = 0;
+        windowSum = 0;
+        windowSumSq = 0;
+        windowDevSum = 0;
+        windowMin = Float.MAX_VALUE;
+        windowMax = -Float.MAX_VALUE;
+    }
+
+    private void updateOrientation() {
+        float φ = headingOf(orientation.getQuaternion());
+        rawHeading = φ;
+        adaptiveDriftElimination(φ);
+    }
+
+    /**
+     * クォータニオン（w, x, y, z）から変換行列Tを求め，方位角を返す
+     */
+    private float headingOf(float[] q) {
+        T[0] = q[0]*q[0] + q[1]*q[1] - q[2]*q[2] - q[3]*q[3];
+        T[1] = 2*(q[1]*q[2] - q[0]*q[3]);
+        T[2] = 2*(q[1]*q[3] + q[0]*q[2]);
+        T[3] = 2*(q[1]*q[2] + q[0]*q[3]);
+        T[4] = q[0]*q[0] - q[1]*q[1] + q[2]*q[2] - q[3]*q[3];
+        T[5] = 2*(q[2]*q[3] - q[0]*q[1]);
+        T[6] = 2*(q[1]*q[3] - q[0]*q[2]);
+        T[7] = 2*(q[2]*q[3] + q[0]*q[1]);
+        T[8] = q[0]*q[0] - q[1]*q[1] - q[2]*q[2] + q[3]*q[3];
+
+        return config.fastMath ? FastMath.atan2(T[1], T[4]) : (float) Math.atan2(T[1], T[4]);
+    }
+
+    /**
+     * 方位のドリフト除去（ADE）
+     *
+     * 旋回判定は「直近2回の方位更新での変化が20°以上」で，時間ではなく更新回数で見ている
+     * そのため判定窓の長さは呼び出し元の更新間隔に依存する
+     *   ジャイロ: 2 × dt × orientationDecimation（1で20ms，4で80ms）
+     *   回転ベクトル: 100Hz格子へ補間してから渡すので 2 × targetIntervalNs（20ms）
+     *   onExternalStep（ハードウェア歩数計モード）: 2歩分
+     * 間引きを大きくすると，より遅い旋回も旋回と判定される（旋回とみなす角速度の下限が
+     * 20° / 窓長 で下がる）．間引きを変えて結果を比べるときはこの違いを含むことに注意
+     */
+    private void adaptiveDriftElimination(float φ) {
+        if (stepCount < 3) {
+            φi[2] = φ;
+            return;
+        }
+        if (restartHeadingHistory) {
+            // 欠損後の最初の方位：直進中として履歴を埋め直す
+            restartHeadingHistory = false;
+            φi[1] = φ;
+            φi[2] = φ;
+            Z = 0;
+        }
+
+        System.arraycopy(φi, 1, φi, 0, 2);
+
+        float headingChange = (φ - φi[1]) + (φi[1] - φi[0]);
+        lastZ = Z;
+        Z = (Math.abs(headingChange) < Math.toRadians(20)) ? 0 : 1;
+
+        if (Z == 1) {  // 旋回時
+            float Δφ = φ % (float)(Math.PI/4);
+            if (Δφ > Math.PI/8) {
+                φ = φ - Δφ + (float)(Math.PI/4);
+            } else {
+                φ = φ - Δφ;
+            }
+        } else if (lastZ == 0 && Z == 0) {  // 直進時
+            if (config.fastMath) {
+                int n = Math.round(φ * INV_PI_8);
+                float Δφ = φ - PI_8 * n;
+                φ = φ - Δφ - Δφ * FastMath.sin(Δφ) * n;
+            } else {
+                float Δφ = φ - (float)(Math.PI/8) * Math.round(φ/(Math.PI/8));
+                φ = φ - Δφ - Δφ * (float)Math.sin(Δφ) * Math.round(φ/(Math.PI/8));
+            }
+        } else if (lastZ == 1 && Z == 0) {  // 旋回から直進に変化
+            float Δφ = φ % (float)(Math.PI/4);
+            if (Δφ > Math.PI/8) {
+                φ = φ - Δφ + (float)(Math.PI/4);
+            } else {
+                φ = φ - Δφ;
+            }
+        }
+        φi[2] = φ;
+    }
+
+    private void updatePosition(float l) {
+        // 現在の推定方位(φi[2])に，初期オフセットを加算して地図上の方位にする
+        double currentMapHeading = φi[2] + initialHeadingOffset;
+
+        // 符号を反転（左回転を正にする）
+        double correctedHeading = -currentMapHeading;
+
+        // 座標更新 (オフセット済み角度を使用)
+        if (config.fastMath) {
+            float h = (float) correctedHeading;
+            Xk = Xk + l * FastMath.sin(h);
+            Yk = Yk + l * FastMath.cos(h);
+
+            // ユークリッド距離
+            double dx = Xk - startXk;
+            double dy = Yk - startYk;
+            totalDistance = Math.sqrt(dx * dx + dy * dy);
+            return;
+        }
+        Xk = Xk + l * Math.sin(correctedHeading);
+        Yk = Yk + l * Math.cos(correctedHeading);
+
+        // ユークリッド距離
+        totalDistance = Math.sqrt(Math.pow(Xk - startXk, 2) + Math.pow(Yk - startYk, 2));
+    }
+
+    // ========== システム制御 ==========
+
+    /**
+     * セッション状態をすべて初期化（フィルタ・姿勢・位置・リサンプリング）
+     * 計測値は保持する（resetMetrics()を参照）
+     */
+    public void reset() {
+        Arrays.fill(a, 0f);
+        Arrays.fill(ω, 0f);
+        Arrays.fill(T, 0f);
+        orientation.reset();
+        Arrays.fill(ωSum, 0f);
+        gyroTicksSinceUpdate = 0;
+        rawHeading = 0;
+        rvQ[0] = 1.0f; rvQ[1] = 0.0f; rvQ[2] = 0.0f; rvQ[3] = 0.0f;
+        hasRvReference = false;
+        rvReferenceHeading = 0;
+        Arrays.fill(φi, 0f);
+        Xk = 0.0; Yk = 0.0; totalDistance = 0.0; stepCount = 0;
+        startXk = 0.0; startYk = 0.0; initialHeadingOffset = 0.0;
+        lastStepTime = -1;
+        ap = 0;
+        stepDetector.reset();
+        Z = 0; lastZ = 0;
+        restartHeadingHistory = false;
+        lastStepLength = 0;
+        stepLengthScale = 1.0f;
+        stepJournal.clear();
+        if (history != null) history.clear();
+        stepLength.reset();
+        resetStepWindow();
+
+        for (int i = 0; i < 3; i++) {
+            accKF[i].reset(0.0);
+            gyroKF[i].reset(0.0);
+        }
+
+        resetResampler();
+    }
+
+    /**
+     * 計測値（レイテンシ・センサー健全性）を初期化
+     */
+    public void resetMetrics() {
+        profiler.reset();
+        sensorHealth.reset();
+    }
+
+    /**
+     * リサンプリング格子のみ初期化（次のサンプルを初回データとして扱う）
+     */
+    public void resetResampler() {
+        lastAccTime = 0;
+        lastGyroTime = 0;
+        nextAccTargetTime = 0;
+        nextGyroTargetTime = 0;
+        lastRvTime = 0;
+        nextRvTargetTime = 0;
+    }
+
+    /**
+     * PDRの初期位置を設定
+     * @param x X座標（出力座標系）
+     * @param y Y座標（出力座標系）
+     */
+    public void setInitialPosition(double x, double y) {
+        // getX()=Yk, getY()=Xkと入れ替えている定義に合わせる
+        // 外部座標(x, y) -> 内部座標(Yk, Xk)
+        this.Yk = x;
+        this.Xk = y;
+
+        // 開始地点として記録
+        this.startXk = this.Xk;
+        this.startYk = this.Yk;
+
+        // 距離をリセット
+        this.totalDistance = 0.0;
+    }
+
+    /**
+     * 初期ベクトル（地図上の進行方向）から方位オフセットを設定
+     */
+    public void setInitialRouteVector(double startX, double startY, double nextX, double nextY) {
+        // 地図上のベクトル (dx, dy)
+        double dx = nextX - startX;
+        double dy = nextY - startY;
+        this.initialHeadingOffset = Math.atan2(dy, dx);
+    }
+
+    /**
+     * 初期位置・方位オフセット・歩幅の倍率を変えて，これまでの軌跡を歩行記録から作り直す
+     * 以降の歩行は新しい条件で積算する（100Hzのセンサー列は再処理しない．地点での再アンカー用）
+     * @param x             初期位置X（出力座標系）
+     * @param y             初期位置Y（出力座標系）
+     * @param headingOffset 地図上の方位オフセット [rad]
+     * @param scale         歩幅に掛ける倍率
+     */
+    public void reanchor(double x, double y, double headingOffset, float scale) {
+        if (history != null) history.clear();
+        stepJournal.rebuild(x, y, headingOffset, scale, config.fastMath, null, history, rebuiltEnd);
+        setInitialPosition(x, y);
+        initialHeadingOffset = headingOffset;
+        stepLengthScale = scale;
+        Yk = rebuiltEnd[0];
+        Xk = rebuiltEnd[1];
+        if (config.fastMath) {
+            double dx = Xk - startXk;
+            double dy = Yk - startYk;
+            totalDistance = Math.sqrt(dx * dx + dy * dy);
+        } else {
+            totalDistance = Math.sqrt(Math.pow(Xk - startXk, 2) + Math.pow(Yk - startYk, 2));
+        }
+    }
+
+    // ========== チェックポイント ==========
+
+    /** saveStateが書き出すバイト数の上限 */
+    public int getStateSize() {
+        return CHECKPOINT_FIXED_BYTES + stepJournal.stateSize();
+    }
+
+    /**
+     * 計測の継続に必要な状態をすべて書き出す（プロセス再起動後の再開用）
+     * 前処理のカルマンフィルタ，姿勢（クォータニオン・積分誤差），方位履歴，歩幅推定器，位置・歩数，歩行記録を含む
+     * リサンプラと歩行検出の途中状態は含めない（再開時は欠損として扱うため）
+     * outはgetStateSize()以上の空きが必要
+     */
+    public void saveState(ByteBuffer out) {
+        out.putInt(CHECKPOINT_MAGIC).putInt(CHECKPOINT_VERSION);
+        // 推定器の種類が違う状態は読めないため，生成に関わる設定を記録して照合する
+        out.putInt(config.orientationEstimator).putInt(config.stepLengthEstimator).putInt(config.headingSource);
+
+        for (float v : a) out.putFloat(v);
+        for (float v : ω) out.putFloat(v);
+        for (float v : φi) out.putFloat(v);
+        out.putFloat(rawHeading).putFloat(ap);
+        out.putDouble(Xk).putDouble(Yk).putDouble(totalDistance);
+        out.putDouble(startXk).putDouble(startYk).putDouble(initialHeadingOffset);
+        out.putInt(stepCount).putLong(lastStepTime).putFloat(lastStepLength).putFloat(stepLengthScale);
+        out.putLong(lastTickTime);
+        out.put((byte) (hasRvReference ? 1 : 0)).putFloat(rvReferenceHeading);
+        for (float v : rvQ) out.putFloat(v);
+        for (int i = 0; i < 3; i++) {
+            out.putDouble(accKF[i].getP()).putDouble(accKF[i].getX());
+            out.putDouble(gyroKF[i].getP()).putDouble(gyroKF[i].getX());
+        }
+        orientation.saveState(out);
+        stepLength.saveState(out);
+        stepJournal.saveState(out);
+    }
+
+    /**
+     * saveStateで書き出した状態から再開する（同じ設定で生成したエンジンに対して呼ぶ）
+     * リサンプラと歩行検出は初期化し，次のサンプルから格子を取り直す
+     * 軌跡履歴は歩行記録から作り直す
+     * @throws IllegalArgumentException 形式・推定器の設定が一致しない場合
+     */
+    public void restoreState(ByteBuffer in) {
+        if (in.getInt() != CHECKPOINT_MAGIC) {
+            throw new IllegalArgumentException("Not an engine checkpoint");
+        }
+        int version = in.getInt();
+        if (version != CHECKPOINT_VERSION) {
+            throw new IllegalArgumentException("Unsupported checkpoint version: " + version);
+        }
+        int orientationEstimator = in.getInt();
+        int stepLengthEstimator = in.getInt();
+        int headingSource = in.getInt();
+        if (orientationEstimator != config.orientationEstimator
+                || stepLengthEstimator != config.stepLengthEstimator
+                || headingSource != config.headingSource) {
+            throw new IllegalArgumentException("Checkpoint was taken with a different estimator configuration");
+        }
+
+        for (int i = 0; i < 3; i++) a[i] = in.getFloat();
+        for (int i = 0; i < 3; i++) ω[i] = in.getFloat();
+        for (int i = 0; i < 3; i++) φi[i] = in.getFloat();
+        rawHeading = in.getFloat();
+        ap = in.getFloat();
+        Xk = in.getDouble();
+        Yk = in.getDouble();
+        totalDistance = in.getDouble();
+        startXk = in.getDouble();
+        startYk = in.getDouble();
+        initialHeadingOffset = in.getDouble();
+        stepCount = in.getInt();
+        lastStepTime = in.getLong();
+        lastStepLength = in.getFloat();
+        stepLengthScale = in.getFloat();
+        lastTickTime = in.getLong();
+        hasRvReference = in.get() != 0;
+        rvReferenceHeading = in.getFloat();
+        for (int i = 0; i < 4; i++) rvQ[i] = in.getFloat();
+        for (int i = 0; i < 3; i++) {
+            double P = in.getDouble();
+            accKF[i].setState(P, in.getDouble());
+            P = in.getDouble();
+            gyroKF[i].setState(P, in.getDouble());
+        }
+        orientation.restoreState(in);
+        stepLength.restoreState(in);
+        stepJournal.restoreState(in);
+
+        Arrays.fill(ωSum, 0f);
+        gyroTicksSinceUpdate = 0;
+        stepDetector.reset();
+        Z = 0; lastZ = 0;
+        restartHeadingHistory = false;
+        resetStepWindow();
+        resetResampler();
+        if (history != null) {
+            history.clear();
+            stepJournal.rebuild(startYk, startXk, initialHeadingOffset, stepLengthScale, config.fastMath,
+                    null, history, null);
+        }
+    }
+
+    // ========== Getterメソッド ==========
+
+    // 出力時にXとYを入れ替え（内部計算はそのまま）
+    public double getX() { return Yk; }
+    public double getY() { return Xk; }
+    public double getDistance() { return totalDistance; }
+    public int getStepCount() { return stepCount; }
+    public float getHeading() { return φi[2]; }
+    public float getRawHeading() { return rawHeading; }
+    public float[] getQuaternion() {
+        return config.headingSource == PDRConfig.HEADING_SOURCE_ROTATION_VECTOR ? rvQ : orientation.getQuaternion();
+    }
+    public OrientationEstimator getOrientationEstimator() { return orientation; }
+    public float[] getAcceleration() { return a; }
+    /** カルマンフィルタ後・姿勢推定の補正前の角速度（間引きの平均もしない） */
+    public float[] getGyroscope() { return ω; }
+    public float getAp() { return ap; }
+    public float getLastStepLength() { return lastStepLength; }
+    public float getStepLengthScale() { return stepLengthScale; }
+    public StepJournal getStepJournal() { return stepJournal; }
+    /** 直近の軌跡（PDRConfig.trajectoryHistoryCapacity = 0ならnull） */
+    public TrajectoryHistory getTrajectoryHistory() { return history; }
+    public SignalScopeBuffer getSignalScope() { return scope; }
+
+    /**
+     * 加速度ティックごとにap・閾値・ADE前後の方位を書き込む先（nullで停止）
+     */
+    public void setSignalScope(SignalScopeBuffer scope) { this.scope = scope; }
+    public StepLengthEstimator getStepLengthEstimator() { return stepLength; }
+    public StepDetector getStepDetector() { return stepDetector; }
+    /** 直近の歩行の特徴量（onStep中に参照すること．次の歩行で上書きされる） */
+    public StepFeatures getLastStepFeatures() { return stepFeatures; }
+    public double getInitialHeadingOffset() { return initialHeadingOffset; }
+    public long getLastTickTimeNs() { return lastTickTime; }
+    /** 設定のコピー（変更してもエンジンには反映されない．反映するにはapplyConfig） */
+    public PDRConfig getConfig() { return config.copy(); }
+    public PipelineProfiler getProfiler() { return profiler; }
+    public SensorHealthMonitor getSensorHealth() { return sensorHealth; }
+}
@@ -0,0 +1,169 @@
+package com.example.tcsle;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多数のPDRセッションを固定数のワーカースレッドで処理するプール
+ *
+ * 各セッションは受信キューと「実行予約済み」フラグを持ち，同時に高々1つのワーカーだけが
+ * そのセッションのエンジンを処理する（アクター方式）．そのためエンジン自体はロック不要
+ * 1回の実行で処理するバッチ数を制限し，多数のセッション間で公平にワーカーを割り当てる
+ */
+public class PDREnginePool {
+    // 1回の実行で処理する最大バッチ数（これを超えたら他セッションに譲る）
+    private static final int BATCHES_PER_TURN = 4;
+
+    private final ThreadPoolExecutor executor;
+    private final int maxPendingBatches;
+    private final int batchCapacity;
+    private final AtomicInteger openSessions = new AtomicInteger();
+
+    /**
+     * @param workers           ワーカースレッド数
+     * @param maxPendingBatches セッションごとの未処理バッチ上限（超えるとtrySubmitが拒否する）
+     * @param batchCapacity     obtainBatch()で生成するバッチのサンプル数
+     */
+    public PDREnginePool(int workers, int maxPendingBatches, int batchCapacity) {
+        this.maxPendingBatches = maxPendingBatches;
+        this.batchCapacity = batchCapacity;
+        // 各セッションはキューに高々1タスクしか置かないため，キュー長はセッション数で抑えられる
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerFactory());
+    }
+
+    public Session openSession(PDRConfig config, PDREngine.Listener listener) {
+        openSessions.incrementAndGet();
+        return new Session(new PDREngine(config), listener);
+    }
+
+    public int getWorkerCount() { return executor.getCorePoolSize(); }
+    public int getOpenSessionCount() { return openSessions.get(); }
+
+    /**
+     * 新規受付を止め，投入済みのバッチを処理し終えるまで待つ
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    // ========== セッション ==========
+
+    public class Session implements Runnable {
+        private final PDREngine engine;
+        private final ConcurrentLinkedQueue<SampleBatch> inbox = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<SampleBatch> freeBatches = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong processedSamples = new AtomicLong();
+        private final AtomicLong rejectedBatches = new AtomicLong();
+        private volatile boolean closed = false;
+        private volatile RuntimeException failure;
+
+        Session(PDREngine engine, PDREngine.Listener listener) {
+            this.engine = engine;
+            engine.setListener(listener);
+        }
+
+        /**
+         * 再利用バッチを取得（処理済みバッチがなければ新規生成）
+         */
+        public SampleBatch obtainBatch() {
+            SampleBatch batch = freeBatches.poll();
+            return batch != null ? batch : new SampleBatch(batchCapacity);
+        }
+
+        /**
+         * バッチを投入（未処理バッチが上限に達している場合はfalseを返し，呼び出し側が間引くか再試行する）
+         * 受理されたバッチは処理後にobtainBatch()で再利用されるため，呼び出し側は以後触らないこと
+         */
+        public boolean trySubmit(SampleBatch batch) {
+            if (closed) throw new IllegalStateException("session closed");
+            if (pending.incrementAndGet() > maxPendingBatches) {
+                pending.decrementAndGet();
+                rejectedBatches.incrementAndGet();
+                return false;
+            }
+            inbox.offer(batch);
+            schedule();
+            return true;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                // シャットダウン中は再予約できないため最後まで処理する
+                for (int n = 0; n < BATCHES_PER_TURN || executor.isShutdown(); n++) {
+                    SampleBatch batch = inbox.poll();
+                    if (batch == null) break;
+                    try {
+                        if (failure == null) {
+                            batch.feed(engine);
+                            processedSamples.addAndGet(batch.size());
+                        }
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                    batch.clear();
+                    freeBatches.offer(batch);
+                    pending.decrementAndGet();
+                }
+            } finally {
+                scheduled.set(false);
+                // フラグを下ろした後に届いたバッチを取りこぼさない
+                if (!inbox.isEmpty()) {
+                    if (!executor.isShutdown()) {
+                        schedule();
+                    } else if (scheduled.compareAndSet(false, true)) {
+                        run();
+                    }
+                }
+            }
+        }
+
+        /**
+         * セッションを閉じる（以後の投入は拒否，投入済みバッチは処理される）
+         */
+        public void close() {
+            if (!closed) {
+                closed = true;
+                openSessions.decrementAndGet();
+            }
+        }
+
+        public boolean isIdle() { return pending.get() == 0 && !scheduled.get(); }
+        public int getPendingBatches() { return pending.get(); }
+        public long getProcessedSamples() { return processedSamples.get(); }
+        public long getRejectedBatches() { return rejectedBatches.get(); }
+        public RuntimeException getFailure() { return failure; }
+
+        /**
+         * エンジンへの直接アクセスはリスナー内，またはisIdle()確認後に限ること
+         */
+        public PDREngine getEngine() { return engine; }
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "pdr-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
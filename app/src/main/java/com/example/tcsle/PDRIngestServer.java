@@ -0,0 +1,441 @@
+package com.example.tcsle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 多数の端末からの生センサーバッチを受け取り，端末ごとのPDREngineで処理するヘッドレスサーバー
+ *
+ * - 接続ごとに受信スレッドを1本持ち，IngestProtocolのフレームを読み込む
+ * - 端末ごとにPDREnginePoolのセッションを割り当て，固定数のワーカーで処理する
+ * - セッションの未処理バッチが上限に達したら受信を止める（TCPのフロー制御で送信側に背圧が伝わる）
+ * - 歩行確定ごとに，その端末の送信元接続へPOSITIONフレームを返す
+ *   送信は接続ごとの送信スレッドが行い，ワーカーは未送信の位置を置き換えるだけでブロックしない
+ *   （送信が詰まっている間は同じ端末の古い位置を捨て，最新の位置だけを送る）
+ *
+ * 端末ではなくローカル検証用の構成（Unixドメインソケットは対象Javaバージョンにないため，ループバックTCPを使用）
+ */
+public class PDRIngestServer implements Closeable {
+    // 端末外（JVM単体）で動かすため，android.util.Logではなくjava.util.loggingを使う
+    private static final Logger LOG = Logger.getLogger(PDRIngestServer.class.getName());
+
+    // 背圧時の再試行間隔
+    private static final long BACKOFF_NS = 200_000L;
+
+    /**
+     * 位置更新の通知先（ワーカースレッドから呼ばれる）
+     */
+    public interface PositionListener {
+        void onPosition(long deviceId, long timeNs, int steps, double x, double y, float heading);
+    }
+
+    private final PDRConfig config;
+    private final PDREnginePool pool;
+    private final int batchCapacity;
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+    private final Map<Long, Device> devices = new ConcurrentHashMap<>();
+    private final Map<Connection, Boolean> connections = new ConcurrentHashMap<>();
+    private volatile PositionListener positionListener;
+    private volatile boolean running = true;
+
+    // ========== 統計 ==========
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong receivedBatches = new AtomicLong();
+    private final AtomicLong receivedSamples = new AtomicLong();
+    private final AtomicLong backpressureWaits = new AtomicLong();
+    private final AtomicLong sentPositions = new AtomicLong();
+    private final AtomicLong droppedPositions = new AtomicLong();
+    private final AtomicLong protocolErrors = new AtomicLong();
+
+    /**
+     * @param port              待ち受けポート（0で自動割り当て）
+     * @param workers           PDR処理ワーカー数
+     * @param maxPendingBatches 端末ごとの未処理バッチ上限
+     * @param batchCapacity     1フレームの最大サンプル数
+     */
+    public PDRIngestServer(PDRConfig config, int port, int workers,
+                           int maxPendingBatches, int batchCapacity) throws IOException {
+        if (batchCapacity > IngestProtocol.MAX_SAMPLES) {
+            throw new IllegalArgumentException("batchCapacity > " + IngestProtocol.MAX_SAMPLES);
+        }
+        this.config = config.copy();
+        this.batchCapacity = batchCapacity;
+        this.pool = new PDREnginePool(workers, maxPendingBatches, batchCapacity);
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "ingest-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        LOG.info("Listening on " + serverSocket.getLocalSocketAddress() + " workers=" + workers);
+    }
+
+    public void setPositionListener(PositionListener listener) {
+        this.positionListener = listener;
+    }
+
+    public int getPort() { return serverSocket.getLocalPort(); }
+    public int getActiveDevices() { return devices.size(); }
+    public int getActiveConnections() { return connections.size(); }
+    public long getReceivedSamples() { return receivedSamples.get(); }
+    public long getBackpressureWaits() { return backpressureWaits.get(); }
+    public long getSentPositions() { return sentPositions.get(); }
+    public long getDroppedPositions() { return droppedPositions.get(); }
+    public long getProtocolErrors() { return protocolErrors.get(); }
+
+    public String getStats() {
+        return String.format(Locale.US,
+                "connections=%d/%d devices=%d batches=%d samples=%d backpressureWaits=%d positions=%d droppedPositions=%d protocolErrors=%d",
+                connections.size(), acceptedConnections.get(), devices.size(), receivedBatches.get(),
+                receivedSamples.get(), backpressureWaits.get(), sentPositions.get(), droppedPositions.get(),
+                protocolErrors.get());
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                acceptedConnections.incrementAndGet();
+                Connection connection = new Connection(socket);
+                connections.put(connection, Boolean.TRUE);
+                long n = acceptedConnections.get();
+                Thread t = new Thread(connection, "ingest-conn-" + n);
+                t.setDaemon(true);
+                t.start();
+                Thread w = new Thread(connection.sender, "ingest-send-" + n);
+                w.setDaemon(true);
+                w.start();
+            } catch (IOException e) {
+                if (running) LOG.log(Level.WARNING, "accept failed", e);
+            }
+        }
+    }
+
+    /**
+     * 受付を止め，投入済みバッチの処理完了を待ってから終了する
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Connection c : connections.keySet()) {
+            c.close();
+        }
+        try {
+            pool.shutdown(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ========== 端末セッション ==========
+
+    private class Device implements PDREngine.Listener {
+        final long id;
+        final PDREnginePool.Session session;
+        volatile Connection connection;
+
+        Device(long id, Connection connection) {
+            this.id = id;
+            this.connection = connection;
+            this.session = pool.openSession(config, this);
+        }
+
+        @Override
+        public void onTick(PDREngine engine, boolean isAccel, long tickTimeNs) {}
+
+        @Override
+        public void onStep(PDREngine engine, long stepTimeNs, float stepLength) {
+            float x = (float) engine.getX();
+            float y = (float) engine.getY();
+            Connection c = connection;
+            if (c != null) {
+                c.sendPosition(id, stepTimeNs, engine.getStepCount(), x, y, engine.getHeading());
+            }
+            PositionListener l = positionListener;
+            if (l != null) {
+                l.onPosition(id, stepTimeNs, engine.getStepCount(), engine.getX(), engine.getY(), engine.getHeading());
+            }
+        }
+
+        @Override
+        public void onDiscontinuity(PDREngine engine, int sensor, long gapNs) {}
+    }
+
+    private Device deviceFor(long deviceId, Connection connection) {
+        Device d = devices.get(deviceId);
+        if (d == null) {
+            Device created = new Device(deviceId, connection);
+            d = devices.putIfAbsent(deviceId, created);
+            if (d == null) return created;
+            created.session.close();
+        }
+        if (d.connection != connection) {
+            // 再接続：以降の位置更新は新しい接続へ
+            d.connection = connection;
+        }
+        return d;
+    }
+
+    private void closeDevice(long deviceId) {
+        Device d = devices.remove(deviceId);
+        if (d != null) {
+            d.session.close();
+        }
+    }
+
+    // ========== 接続 ==========
+
+    /**
+     * 未送信の位置更新（端末ごとに最新の1件だけを保持する）
+     */
+    private static final class PendingPosition {
+        long deviceId;
+        long timeNs;
+        int steps;
+        float x, y, heading;
+    }
+
+    private class Connection implements Runnable, Closeable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final ByteBuffer sendBuffer =
+                ByteBuffer.allocate(IngestProtocol.LENGTH_PREFIX + IngestProtocol.POSITION_LENGTH);
+        private final byte[] frame = new byte[IngestProtocol.BATCH_HEADER
+                + IngestProtocol.MAX_SAMPLES * IngestProtocol.SAMPLE_LENGTH];
+        private final ByteBuffer body = ByteBuffer.wrap(frame);
+        private volatile boolean open = true;
+
+        // 送信待ちの位置（端末ID順ではなく到着順）．ワーカーと送信スレッドでthisにより同期する
+        private final Map<Long, PendingPosition> pending = new LinkedHashMap<>();
+        private final List<PendingPosition> sending = new ArrayList<>();
+        private final List<PendingPosition> free = new ArrayList<>();
+
+        final Runnable sender = new Runnable() {
+            @Override
+            public void run() {
+                sendLoop();
+            }
+        };
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 4096);
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+                int maxFrame = IngestProtocol.BATCH_HEADER + batchCapacity * IngestProtocol.SAMPLE_LENGTH;
+                while (running && open) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (length < IngestProtocol.BYE_LENGTH || length > maxFrame) {
+                        throw new IllegalArgumentException("bad frame length " + length);
+                    }
+                    in.readFully(frame, 0, length);
+                    body.clear();
+                    body.limit(length);
+                    handleFrame(length);
+                }
+            } catch (RejectedExecutionException e) {
+                // サーバー停止中
+            } catch (IllegalArgumentException e) {
+                protocolErrors.incrementAndGet();
+                LOG.warning("protocol error, closing connection: " + e.getMessage());
+            } catch (IOException e) {
+                if (running && open) LOG.log(Level.FINE, "connection closed", e);
+            } finally {
+                close();
+                releaseDevices();
+            }
+        }
+
+        private void handleFrame(int length) {
+            byte type = body.get();
+            int min = IngestProtocol.minLength(type);
+            if (min < 0) {
+                throw new IllegalArgumentException("unknown frame type " + type);
+            }
+            if (length < min) {
+                throw new IllegalArgumentException("short frame: type=" + type + " length=" + length);
+            }
+            long deviceId = body.getLong();
+            switch (type) {
+                case IngestProtocol.TYPE_BATCH: {
+                    Device d = deviceFor(deviceId, this);
+                    SampleBatch batch = d.session.obtainBatch();
+                    IngestProtocol.readSamples(body, length, batch);
+                    receivedBatches.incrementAndGet();
+                    receivedSamples.addAndGet(batch.size());
+                    // 処理が追い付くまで受信を止める
+                    while (!d.session.trySubmit(batch)) {
+                        backpressureWaits.incrementAndGet();
+                        LockSupport.parkNanos(BACKOFF_NS);
+                        if (!running) return;
+                    }
+                    break;
+                }
+                case IngestProtocol.TYPE_BYE:
+                    if (length != IngestProtocol.BYE_LENGTH) {
+                        throw new IllegalArgumentException("bad bye: length=" + length);
+                    }
+                    closeDevice(deviceId);
+                    break;
+                default:
+                    // POSITIONはサーバーからの送信専用
+                    throw new IllegalArgumentException("unexpected frame type " + type);
+            }
+        }
+
+        /**
+         * 位置更新を送信待ちに置く（ワーカースレッドから呼ばれる．書き込みは送信スレッドが行う）
+         * 同じ端末の未送信の位置があれば，古い方を捨てて置き換える
+         */
+        void sendPosition(long deviceId, long timeNs, int steps, float x, float y, float heading) {
+            synchronized (this) {
+                if (!open) return;
+                PendingPosition p = pending.get(deviceId);
+                if (p != null) {
+                    droppedPositions.incrementAndGet();
+                } else {
+                    p = free.isEmpty() ? new PendingPosition() : free.remove(free.size() - 1);
+                    p.deviceId = deviceId;
+                    pending.put(deviceId, p);
+                }
+                p.timeNs = timeNs;
+                p.steps = steps;
+                p.x = x;
+                p.y = y;
+                p.heading = heading;
+                notifyAll();
+            }
+        }
+
+        /**
+         * 送信スレッド：送信待ちをまとめて取り出し，書き込んでから1回だけflushする
+         */
+        private void sendLoop() {
+            try {
+                while (true) {
+                    synchronized (this) {
+                        while (open && pending.isEmpty()) {
+                            wait();
+                        }
+                        if (!open) return;
+                        sending.addAll(pending.values());
+                        pending.clear();
+                    }
+                    for (int i = 0; i < sending.size(); i++) {
+                        PendingPosition p = sending.get(i);
+                        sendBuffer.clear();
+                        IngestProtocol.putPosition(sendBuffer, p.deviceId, p.timeNs, p.steps, p.x, p.y, p.heading);
+                        out.write(sendBuffer.array(), 0, sendBuffer.position());
+                    }
+                    out.flush();
+                    sentPositions.addAndGet(sending.size());
+                    synchronized (this) {
+                        free.addAll(sending);
+                    }
+                    sending.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                if (open) LOG.log(Level.FINE, "send failed", e);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * この接続が最後の送信元だった端末を閉じる
+         */
+        private void releaseDevices() {
+            Iterator<Device> it = devices.values().iterator();
+            while (it.hasNext()) {
+                Device d = it.next();
+                if (d.connection == this) {
+                    it.remove();
+                    d.session.close();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                open = false;
+                pending.clear();
+                notifyAll();
+            }
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // ========== 単体起動 ==========
+
+    /**
+     * 使い方: PDRIngestServer [port] [workers] [maxPendingBatches] [batchCapacity]
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7700;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int maxPending = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int capacity = args.length > 3 ? Integer.parseInt(args[3]) : 512;
+
+        final PDRIngestServer server = new PDRIngestServer(new PDRConfig(), port, workers, maxPending, capacity);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }));
+        while (true) {
+            Thread.sleep(5000);
+            System.out.println(server.getStats());
+        }
+    }
+}
@@ -1,130 +1,110 @@
 package com.example.tcsle;
 
+import android.Manifest;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.Settings;
 import android.util.Log;
 
-import java.io.BufferedReader;
+import androidx.core.content.ContextCompat;
+
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.Locale;
 
-public class PDRService implements SensorEventListener {
+/**
+ * センサー登録と試行の記録を担当するサービス
+ * PDR計算そのものはPDREngineに委譲する
+ * 記録は試行ごとのSessionJournal 1本に書き，停止時に従来のセンサーCSV・イベントCSVへ書き出す
+ */
+public class PDRService implements SensorEventListener2, PositionSource, PDREngine.Listener {
     private static final String TAG = "PDRService";
+    private static final int PREWARM_HISTORY_CAPACITY = 64;  // prewarm()の使い捨てエンジンの軌跡履歴
     private Context context;
     private long currentTime;
     private long startTime;
     private SensorData currentData;
 
-    // ========== PDR関連定数 ==========
-    private static final float NS2S = 1.0f / 1000000000.0f;
-    private static final float kf = 1.2f;  // CF補正係数
-    private static final float ke = 0.01f;  // エラー積分係数
-    private static final float A = 10.364138f;  // ピークドメイン閾値 元：10.0f
-    private static final float tmin = 0.25f; // 最小時間間隔 元：0.25f
-    private static final float tmax = 2.0f;  // 最大時間間隔 元：2.0f
-    private static final float K = 0.80f;  // Weinberg係数 元：0.97f
-    private static final float q_tcsle = 0.30f;  // 比例係数 元：0.60f
-    private static final float dt = 0.01f;  // 時間間隔
-
-    // バイアス補正値
-    private final float[] aBias = {0.1639f, 0.1739f, 0.0440f};
-    private final float[] ωBias = {8.2161e-5f, -1.0239e-5f, -0.6398e-5f};
-
     // ========== センサー関連 ==========
     private SensorManager sensorManager;
     private Sensor accelerometer;
     private Sensor gyroscope;
+    private Sensor gameRotationVector;  // センサーハブ融合の姿勢（端末によっては存在しない）
+    private Sensor stepDetector;  // ハードウェア歩数計（端末によっては存在しない）
+    private HardwareStepTracker hardwareSteps;  // 省電力モード中のみ
+    private SampleMerger merger;  // バッチ配信中のみ
+    // バッチ配信ではコールバック時刻≠サンプル時刻のため，記録の時刻もサンプル時刻から求める
+    private boolean useSampleClock = false;
+    private long sensorStartNs = 0;  // start()時のelapsedRealtimeNanos（センサー時刻と同じ時間軸）
+
+    // ========== 停止時のFIFOの吐き出し ==========
+    private static final long FLUSH_TIMEOUT_MS = 1000;  // onFlushCompletedが来ない端末向けの上限
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private int registeredSensors = 0;  // バッチ配信で登録したセンサー数（onFlushCompletedの回数）
+    private int pendingFlushes = 0;
+    private Runnable pendingStop;  // 吐き出し完了後に行う停止処理
+    private final Runnable flushTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, String.format(Locale.US, "Sensor flush timed out (%d pending), stopping anyway",
+                    pendingFlushes));
+            completePendingStop();
+        }
+    };
 
-    private float[] a = new float[3];  // 加速度
-    private float[] ω = new float[3];  // 角速度
-    private float[] T = new float[9];  // 変換行列
-    private float[] q = {1.0f, 0.0f, 0.0f, 0.0f};  // クォータニオン
-    private float[] error_sum = {0.0f, 0.0f, 0.0f};
-
-    private float[] li = new float[3];  // 歩幅履歴
-    private float[] φi = new float[3];  // 方位角履歴
-
-    private double Xk = 0.0;  // X座標
-    private double Yk = 0.0;  // Y座標
-    private double totalDistance = 0.0;
+    // ========== 消費電力の目安 ==========
+    private static final long DELIVERY_GAP_NS = 2_000_000L;  // これより間隔が空いたら別の配信（起床）とみなす
+    private long callbackCount = 0;  // onSensorChangedの呼び出し回数
+    private long deliveryCount = 0;  // ひとまとまりで届いた配信の回数（AP起床回数の目安）
+    private long lastCallbackNs = 0;
+    private long startCpuMs = 0;
 
-    private double startXk = 0.0;
-    private double startYk = 0.0;
-    private double initialHeadingOffset = 0.0;
+    // ========== PDRエンジン ==========
+    private final PDREngine engine;
+    private final PipelineProfiler profiler;
+    private final SensorHealthMonitor sensorHealth;
 
     private double measurementStartX = 0.0;
     private double measurementStartY = 0.0;
 
-    private int stepCount = 0;
-    private long lastStepTime = 0;
-    private float ap;
-    private float ap_max = 0;
-    private float ap_min = 0;
-    private boolean isStepDetecting = false;
-    private boolean isPeakCounted = false;
-    private int Z = 0;  // 歩行状態
-    private int lastZ = 0;
+    // 直近の歩行確定位置（BLE小型ペイロード用）
+    private final StepFixHistory recentFixes = new StepFixHistory(8);
 
     private long lastWriteTime = 0;
     private static final long WRITE_INTERVAL = 100_000_000L; // 100ms (10Hz)
-    private StringBuilder csvBuffer = new StringBuilder();
-    private static final int BUFFER_SIZE = 100; // 100行ごとにフラッシュ
-    private int bufferCount = 0;
-
-    // ========== リサンプリング（補間）用変数 ==========
-    // ターゲットとする周波数: 100Hz = 10ms = 10,000,000ナノ秒
-    private static final long TARGET_INTERVAL_NS = 10_000_000L;
-
-    // 加速度用
-    private long lastAccTime = 0;
-    private float[] lastAccValues = new float[3];
-    private long nextAccTargetTime = 0;
-
-    // ジャイロ用
-    private long lastGyroTime = 0;
-    private float[] lastGyroValues = new float[3];
-    private long nextGyroTargetTime = 0;
 
-    // ========== カルマンフィルタ内蔵クラス ==========
-    private class KalmanFilter {
-        private double P = 1.0;  // 推定誤差共分散
-        private final double Q;  // プロセスノイズ共分散
-        private final double R;  // 観測ノイズ共分散
-        private double X = 0.0;  // 状態推定値
-
-        public KalmanFilter(double Q, double R) {
-            this.Q = Q;
-            this.R = R;
-        }
-
-        public double update(double measurement) {
-            double K = P / (P + R);
-            X = X + K * (measurement - X);
-            P = (1 - K) * P + Q;
-            return X;
-        }
-    }
-
-    private KalmanFilter[] accKF = new KalmanFilter[3];
-    private KalmanFilter[] gyroKF = new KalmanFilter[3];
-    private KalmanFilter stepLengthKF;
-
-    // ========== CSV書き込み機能 ==========
-    private FileWriter fileWriter;
-    private FileWriter eventFileWriter;
+    // ========== 記録（ジャーナル＋書き出し先のCSV） ==========
+    private SessionJournal journal;
+    private File journalFile;
     private File csvFile;
     private File eventFile;
+    private volatile boolean journalRejectLogged = false;  // 書き込みスレッドが止まった後の追記拒否を一度だけ記録する
     private double lasttotalDistance = 0.0;
 
+    // ========== チェックポイント（プロセス再起動からの再開） ==========
+    private static final String CHECKPOINT_FILE = "session.ckpt";
+    private static final int CHECKPOINT_MAGIC = 0x50445253;  // "PDRS"
+    private static final int CHECKPOINT_VERSION = 5;
+    private static final int CHECKPOINT_HEADER_BYTES = 4096;  // ルートID・ファイルパスを含む見出しの上限
+    private static final long CHECKPOINT_INTERVAL_NS = 5_000_000_000L;
+    private SessionCheckpointer checkpointer;  // ルートモードの計測中のみ
+    private int routePoint = 0;  // 画面側の地点の進行（再開時に戻す）
+    private int advertiseCount = 0;
+
     // ルート管理用
     private String routeId;
     private int trialNumber;
@@ -163,17 +143,34 @@ public class PDRService implements SensorEventListener {
         sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        gameRotationVector = sensorManager.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR);
+        stepDetector = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR);
 
-        // カルマンフィルタの初期化
-        for (int i = 0; i < 3; i++) {
-            // 加速度計: ノイズが大きいためR値を高めに設定
-            accKF[i] = new KalmanFilter(0.01, 0.5);
-            // ジャイロ: ドリフトが小さいためQ値を小さく、R値も小さく
-            gyroKF[i] = new KalmanFilter(0.001, 0.1);
-        }
+        engine = new PDREngine(new PDRConfig());
+        engine.setListener(this);
+        profiler = engine.getProfiler();
+        sensorHealth = engine.getSensorHealth();
+    }
 
-        // 歩幅推定: 中間的なパラメータ
-        stepLengthKF = new KalmanFilter(0.1, 0.308952);
+    /**
+     * 計算経路を使い捨てのエンジンで1秒分動かし，クラスのロードとJITを済ませておく
+     * 起動時にバックグラウンドスレッドで呼ぶ（計測に使うエンジンの状態には触れない）
+     * センサーの登録は行わない（センサーのプリウォームではなく，処理側のウォームアップ）
+     */
+    public static void prewarm() {
+        PDRConfig config = new PDRConfig();
+        // 軌跡履歴の経路も通すが，既定の65,536件分は確保しない
+        config.trajectoryHistoryCapacity = PREWARM_HISTORY_CAPACITY;
+        PDREngine warm = new PDREngine(config);
+        float[] acc = new float[3];
+        float[] gyro = new float[3];
+        long t = 1_000_000_000L;
+        for (int i = 0; i < 200; i++, t += 5_000_000L) {
+            acc[2] = 9.81f + 3.0f * (float) Math.sin(2 * Math.PI * 1.8 * i / 200.0);
+            gyro[2] = 0.1f;
+            warm.onAccelerometer(t, acc);
+            warm.onGyroscope(t + 1_250_000L, gyro);
+        }
     }
 
     // ========== ルート情報設定 ==========
@@ -187,519 +184,705 @@ public class PDRService implements SensorEventListener {
     // ========== センサー処理 ==========
     @Override
     public void onSensorChanged(SensorEvent event) {
+        long now = System.nanoTime();
+        if (now - lastCallbackNs > DELIVERY_GAP_NS) deliveryCount++;
+        lastCallbackNs = now;
+        callbackCount++;
+        if (hardwareSteps != null) {
+            onHardwareStepModeEvent(event);
+            return;
+        }
+        if (merger != null) {
+            onBatchedEvent(event);
+            return;
+        }
         if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            processSensorWithResampling(event, true);
+            engine.onAccelerometer(event.timestamp, event.values);
         } else if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
-            processSensorWithResampling(event, false);
+            engine.onGyroscope(event.timestamp, event.values);
+        } else if (event.sensor.getType() == Sensor.TYPE_GAME_ROTATION_VECTOR) {
+            engine.onRotationVector(event.timestamp, event.values);
         }
     }
 
     /**
-     * リサンプリング（線形補間）処理
-     * 不定期なセンサーデータを固定周期（100Hz）に変換して処理に回す
+     * 省電力モード: 各センサーのバッチをHardwareStepTrackerに渡す（歩行はデータが揃った時点で反映される）
      */
-    private void processSensorWithResampling(SensorEvent event, boolean isAccel) {
-        long currentTime = event.timestamp;
-        float[] currentValues = event.values;
-
-        // 対象の変数を参照（参照渡しができないため、ifで分岐）
-        long lastTime = isAccel ? lastAccTime : lastGyroTime;
-        float[] lastValues = isAccel ? lastAccValues : lastGyroValues;
-        long nextTargetTime = isAccel ? nextAccTargetTime : nextGyroTargetTime;
-
-        // 初回データ受信時
-        if (lastTime == 0) {
-            if (isAccel) {
-                lastAccTime = currentTime;
-                System.arraycopy(currentValues, 0, lastAccValues, 0, 3);
-                // 次のターゲットを「現在の時間 + 10ms」に設定
-                nextAccTargetTime = currentTime + TARGET_INTERVAL_NS;
-            } else {
-                lastGyroTime = currentTime;
-                System.arraycopy(currentValues, 0, lastGyroValues, 0, 3);
-                nextGyroTargetTime = currentTime + TARGET_INTERVAL_NS;
-            }
-            return;
+    private void onHardwareStepModeEvent(SensorEvent event) {
+        switch (event.sensor.getType()) {
+            case Sensor.TYPE_STEP_DETECTOR:
+                hardwareSteps.onStepDetector(event.timestamp);
+                break;
+            case Sensor.TYPE_ACCELEROMETER:
+                hardwareSteps.onAccelerometer(event.timestamp, event.values);
+                break;
+            case Sensor.TYPE_GAME_ROTATION_VECTOR:
+                hardwareSteps.onRotationVector(event.timestamp, event.values);
+                break;
         }
+    }
 
-        // ターゲット時間を跨いでいるかチェック（補間処理ループ）
-        // センサーの間隔が広く、一気に2回分(20ms)進んだ場合などに対応するためwhileループ
-        while (nextTargetTime <= currentTime) {
-            // 線形補間係数 alpha (0.0 ～ 1.0)
-            // alpha = (欲しい時間 - 前回の時間) / (今回の時間 - 前回の時間)
-            float alpha = (float) (nextTargetTime - lastTime) / (currentTime - lastTime);
-
-            float[] interpolatedValues = new float[3];
-            for (int i = 0; i < 3; i++) {
-                interpolatedValues[i] = lastValues[i] + (currentValues[i] - lastValues[i]) * alpha;
-            }
+    /**
+     * バッチ配信: 加速度・姿勢系のバーストを時刻順に並べ直してからエンジンへ
+     */
+    private void onBatchedEvent(SensorEvent event) {
+        switch (event.sensor.getType()) {
+            case Sensor.TYPE_ACCELEROMETER:
+                merger.onAccelerometer(event.timestamp, event.values);
+                break;
+            case Sensor.TYPE_GYROSCOPE:
+                merger.onGyroscope(event.timestamp, event.values);
+                break;
+            case Sensor.TYPE_GAME_ROTATION_VECTOR:
+                merger.onRotationVector(event.timestamp, event.values);
+                break;
+        }
+    }
 
-            // ★ 補間されたきれいなデータでPDRメイン処理を実行 ★
-            if (isAccel) {
-                processAccelerometer(interpolatedValues);
-                detectStep();
-                writeSensorData(); // 全データ書き込み
-            } else {
-                processGyroscope(interpolatedValues);
-                complementaryFilter();
-                updateQuaternion();
-                updateOrientation();
-                writeSensorData(); // 全データ書き込み
-            }
+    /**
+     * 記録する経過時間（バッチ配信中はサンプル時刻，それ以外は従来どおり記録時刻）
+     */
+    private long elapsedNs(long sampleTimeNs) {
+        return useSampleClock ? sampleTimeNs - sensorStartNs : System.nanoTime() - startTime;
+    }
 
-            // 次のターゲットを10ms進める
-            nextTargetTime += TARGET_INTERVAL_NS;
-        }
+    // ========== エンジンからの通知 ==========
 
-        // 今回の値を「前回」として保存
-        if (isAccel) {
-            lastAccTime = currentTime;
-            System.arraycopy(currentValues, 0, lastAccValues, 0, 3);
-            nextAccTargetTime = nextTargetTime; // 更新されたターゲット時間を保存
-        } else {
-            lastGyroTime = currentTime;
-            System.arraycopy(currentValues, 0, lastGyroValues, 0, 3);
-            nextGyroTargetTime = nextTargetTime;
+    @Override
+    public void onTick(PDREngine engine, boolean isAccel, long tickTimeNs) {
+        writeSensorData(tickTimeNs); // 全データ書き込み
+        if (checkpointer != null && checkpointer.isDue(tickTimeNs)) {
+            saveCheckpoint(tickTimeNs);
         }
     }
 
-    private void processAccelerometer(float[] values) {
-        for (int i = 0; i < 3; i++) {
-            float aRaw = values[i] - aBias[i];
-            a[i] = (float) accKF[i].update(aRaw);
+    @Override
+    public void onStep(PDREngine engine, long stepTimeNs, float stepLength) {
+        // 省電力モードではティックがないため，歩行ごとに1行記録する
+        if (hardwareSteps != null) {
+            writeSensorData(stepTimeNs);
+        }
+        recentFixes.push(engine.getStepCount(), elapsedNs(stepTimeNs), getX(), getY());
+        if (journal != null) {
+            checkAppended(journal.appendStep(elapsedNs(stepTimeNs), engine.getStepCount(), stepLength,
+                    getX(), getY(), engine.getHeading()));
+        }
+        if (hardwareSteps != null && checkpointer != null && checkpointer.isDue(stepTimeNs)) {
+            saveCheckpoint(stepTimeNs);
         }
     }
 
-    private void processGyroscope(float[] values) {
-        for (int i = 0; i < 3; i++) {
-            float ωRaw = values[i] - ωBias[i];
-            ω[i] = (float) gyroKF[i].update(ωRaw);
+    @Override
+    public void onDiscontinuity(PDREngine engine, int sensor, long gapNs) {
+        String name, event;
+        if (sensor == SensorHealthMonitor.SENSOR_ACCEL) {
+            name = "Accel";
+            event = "DISCONTINUITY_ACC";
+        } else if (sensor == SensorHealthMonitor.SENSOR_GYRO) {
+            name = "Gyro";
+            event = "DISCONTINUITY_GYRO";
+        } else {
+            name = "Rotation vector";
+            event = "DISCONTINUITY_RV";
         }
+        Log.w(TAG, String.format(Locale.US, "%s gap %.1f ms exceeds interpolation limit, resampler reset",
+                name, gapNs / 1e6));
+        writeDiscontinuityEvent(event, gapNs);
     }
 
-    private void detectStep() {
-        ap = (float) Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]);
+    // ========== 記録 ==========
 
-        if (ap > A) {
-            if(!isStepDetecting) {
-                isStepDetecting = true;
-                ap_max = ap;
-                ap_min = ap;
-            }
-
-            if (isStepDetecting && ap < ap_max && !isPeakCounted) {
-                long currentTime = System.nanoTime();
-                float Δt = (currentTime - lastStepTime) * NS2S;
-                if (tmin < Δt && Δt < tmax) {
-                    stepCount++;
-                    float l = estimateStepLength(ap_max, ap_min);
-                    updatePosition(l);
-                    lastStepTime = currentTime;
-                    isPeakCounted = true;
-                }
-            }
-
-            ap_max = Math.max(ap_max, ap);
-            ap_min = Math.min(ap_min, ap);
+    /**
+     * 試行のジャーナルを開き（同じ試行の再測定は追記），設定レコードを書く
+     * 書き出し先のCSVはルートモードなら「ルートID_日付_TrialNN」，それ以外は開始時刻の名前
+     */
+    private void createJournal() {
+        File directory = context.getExternalFilesDir(null);
+        String baseName;
+        if (isRouteMode) {
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd", Locale.getDefault());
+            baseName = routeId + "_" + sdf.format(new Date()) + "_Trial" + String.format(Locale.US, "%02d", trialNumber);
+            csvFile = new File(directory, baseName + TrialCsv.SENSOR_SUFFIX);
         } else {
-            isStepDetecting = false;
-            isPeakCounted = false;
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault());
+            baseName = sdf.format(new Date());
+            csvFile = new File(directory, baseName + ".csv");
         }
+        eventFile = new File(directory, baseName + TrialCsv.EVENT_SUFFIX);
+        journalFile = new File(directory, baseName + TrialCsv.JOURNAL_SUFFIX);
+        openJournal("start");
     }
 
-    private float estimateStepLength(float amax, float amin) {
-        // Weinberg式で歩幅計算
-        float l = K * (float) Math.pow(amax - amin, 0.25);
+    private void openJournal(String reason) {
+        openJournal(reason, -1, 0);
+    }
 
-        // 最初の3歩はWeinbergのみ使用（履歴がないため）
-        if (stepCount <= 3) {
-            if (stepCount > 0) {
-                li[stepCount - 1] = l;
-            }
-            return (float) stepLengthKF.update(l);
+    /**
+     * @param length チェックポイントに保存した追記位置（-1なら先頭から読んで探す）
+     */
+    private void openJournal(String reason, long length, long nextSeq) {
+        try {
+            journal = SessionJournal.open(journalFile, length, nextSeq);
+            journalRejectLogged = false;
+            Log.i(TAG, "Journal opened: " + journalFile.getAbsolutePath() + " (next seq " + journal.getNextSeq() + ")");
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening journal", e);
+            journal = null;
+            return;
         }
+        checkAppended(journal.appendConfig(elapsedNs(SystemClock.elapsedRealtimeNanos()), isRouteMode, routeId,
+                trialNumber, reason + " " + describeConfig()));
+    }
 
-        // 4歩目以降はTCSLE適用
-        float l_prev = (li[0] + li[1] + li[2]) / 3.0f;
-
-        // 履歴を更新
-        System.arraycopy(li, 1, li, 0, 2);
-        li[2] = l;
-
-        // TCSLE式を適用
-        float L = q_tcsle * l_prev + (1 - q_tcsle) * l;
-        return (float) stepLengthKF.update(L);
+    private String describeConfig() {
+        PDRConfig config = engine.getConfig();
+        return String.format(Locale.US, "device=%s %s headingSource=%d hardwareStepMode=%b maxReportLatencyUs=%d",
+                Build.MANUFACTURER, Build.MODEL, config.headingSource, config.hardwareStepMode,
+                config.sensorMaxReportLatencyUs);
     }
 
-    private void complementaryFilter() {
-        float q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
-        float a0 = a[0], a1 = a[1], a2 = a[2];
+    private void writeSensorData(long sampleTimeNs) {
+        if (journal == null) return;
 
-        float norm = (float) Math.sqrt(a0 * a0 + a1 * a1 + a2 * a2);
-        if (norm > 0) {
-            a0 /= norm;
-            a1 /= norm;
-            a2 /= norm;
-        }
+//        long now = System.nanoTime();
 
-        float[] current_error = {(-a2 * 2 * (q2 * q3 + q0 * q1) + a1 * (1 - 2 * (q1 * q1 + q2 * q2))),
-                (a2 * 2 * (q1 * q3 - q0 * q2) + -a0 * (1 - 2 * (q1 * q1 + q2 * q2))),
-                (-a1 * 2 * (q1 * q3 - q0 * q2) + a0 * 2 * (q2 * q3 + q0 * q1))};
+//        書き込み頻度を10Hzに制限
+//        if (now - lastWriteTime < WRITE_INTERVAL) return;
+//
+//        lastWriteTime = now;
+        long encodeStart = profiler.begin();
+        currentTime = elapsedNs(sampleTimeNs);
+        currentData = new SensorData(
+                currentTime, engine.getAcceleration(), engine.getGyroscope(), engine.getStepCount(),
+                getX(), getY(), engine.getHeading(), engine.getDistance(), engine.getAp()
+        );
 
-        ω[0] += kf * current_error[0] + error_sum[0];
-        ω[1] += kf * current_error[1] + error_sum[1];
-        ω[2] += kf * current_error[2] + error_sum[2];
+        profiler.end(PipelineProfiler.STAGE_ENCODE, encodeStart);
 
-        error_sum[0] += ke * dt * current_error[0];
-        error_sum[1] += ke * dt * current_error[1];
-        error_sum[2] += ke * dt * current_error[2];
+        // バッファへ追記するだけ．ファイルへの書き込みはジャーナルのスレッドで行う
+        long writeStart = profiler.begin();
+        checkAppended(journal.appendSensor(currentData.timestamp, currentData.acceleration, currentData.gyroscope,
+                currentData.stepCount, currentData.stepLength, currentData.x, currentData.y,
+                currentData.heading, currentData.totalDistance, currentData.ap));
+        profiler.end(PipelineProfiler.STAGE_WRITE, writeStart);
     }
 
-    private void updateQuaternion() {
-        float q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+    public void writeRouteEvent(String event, SensorData data, int trialNumber,
+                                int routePoint, float targetX, float targetY) {
+        if (journal == null || !isRouteMode) return;
 
-        q[0] += dt/2 * (-q1*ω[0] - q2*ω[1] - q3*ω[2]);
-        q[1] += dt/2 * (q0*ω[0] + q2*ω[2] - q3*ω[1]);
-        q[2] += dt/2 * (q0*ω[1] - q1*ω[2] + q3*ω[0]);
-        q[3] += dt/2 * (q0*ω[2] + q1*ω[1] - q2*ω[0]);
+        // 開始地点からのユークリッド距離を計算
+        double dx = data.x - measurementStartX;
+        double dy = data.y - measurementStartY;
+        double distance = Math.sqrt(dx * dx + dy * dy);
 
-        float norm = (float) Math.sqrt(q[0]*q[0] + q[1]*q[1] + q[2]*q[2] + q[3]*q[3]);
-        for (int i = 0; i < 4; i++) {
-            q[i] /= norm;
-        }
+        checkAppended(journal.appendRouteEvent(data.timestamp, event, routePoint, targetX, targetY,
+                data.x, data.y, distance));
+        Log.d(TAG, "Route event recorded: " + event + " at point " + routePoint);
     }
 
-    private void updateOrientation() {
-        T[0] = q[0]*q[0] + q[1]*q[1] - q[2]*q[2] - q[3]*q[3];
-        T[1] = 2*(q[1]*q[2] - q[0]*q[3]);
-        T[2] = 2*(q[1]*q[3] + q[0]*q[2]);
-        T[3] = 2*(q[1]*q[2] + q[0]*q[3]);
-        T[4] = q[0]*q[0] - q[1]*q[1] + q[2]*q[2] - q[3]*q[3];
-        T[5] = 2*(q[2]*q[3] - q[0]*q[1]);
-        T[6] = 2*(q[1]*q[3] - q[0]*q[2]);
-        T[7] = 2*(q[2]*q[3] + q[0]*q[1]);
-        T[8] = q[0]*q[0] - q[1]*q[1] - q[2]*q[2] + q[3]*q[3];
+    // 🆕 Distance指定版のオーバーロード
+    public void writeRouteEvent(String event, SensorData data, int trialNumber,
+                                int routePoint, float targetX, float targetY, double fixedDistance) {
+        if (journal == null || !isRouteMode) return;
 
-        float φ = (float) Math.atan2(T[1], T[4]);
-        adaptiveDriftElimination(φ);
+        checkAppended(journal.appendRouteEvent(data.timestamp, event, routePoint, targetX, targetY,
+                data.x, data.y, fixedDistance));
+        Log.d(TAG, "Route event recorded: " + event + " at point " + routePoint + " (fixed distance: " + fixedDistance + ")");
     }
 
-    private void adaptiveDriftElimination(float φ) {
-        if (stepCount < 3) {
-            φi[2] = φ;
-            return;
-        }
+    /**
+     * 不連続レコードをジャーナルに書き込む
+     * 書き出したイベントCSVではDistance列に欠損の長さ(ms)が入る
+     */
+    private void writeDiscontinuityEvent(String event, long gapNs) {
+        writeDiscontinuityEvent(event, elapsedNs(engine.getLastTickTimeNs()), gapNs);
+    }
 
-        System.arraycopy(φi, 1, φi, 0, 2);
+    private void writeDiscontinuityEvent(String event, long time, long gapNs) {
+        if (journal == null) return;
+        checkAppended(journal.appendDiscontinuity(time, event, gapNs, getX(), getY()));
+    }
 
-        float headingChange = (φ - φi[1]) + (φi[1] - φi[0]);
-        lastZ = Z;
-        Z = (Math.abs(headingChange) < Math.toRadians(20)) ? 0 : 1;
+    /**
+     * 追記が拒否された（書き込みスレッドがIOExceptionで止まった）ら，最初の1回だけ原因を記録する
+     * 以降の追記は捨てられるため，記録はstop()で残っている分までになる
+     */
+    private void checkAppended(long seq) {
+        if (seq >= 0 || journalRejectLogged) return;
+        journalRejectLogged = true;
+        SessionJournal current = journal;
+        Log.e(TAG, "Journal rejected append; recording has stopped",
+                current != null ? current.getError() : null);
+    }
 
-        if (Z == 1) {  // 旋回時
-            float Δφ = φ % (float)(Math.PI/4);
-            if (Δφ > Math.PI/8) {
-                φ = φ - Δφ + (float)(Math.PI/4);
-            } else {
-                φ = φ - Δφ;
-            }
-        } else if (lastZ == 0 && Z == 0) {  // 直進時
-            float Δφ = φ - (float)(Math.PI/8) * Math.round(φ/(Math.PI/8));
-            φ = φ - Δφ - Δφ * (float)Math.sin(Δφ) * Math.round(φ/(Math.PI/8));
-        } else if (lastZ == 1 && Z == 0) {  // 旋回から直進に変化
-            float Δφ = φ % (float)(Math.PI/4);
-            if (Δφ > Math.PI/8) {
-                φ = φ - Δφ + (float)(Math.PI/4);
-            } else {
-                φ = φ - Δφ;
-            }
+    // ========== システム制御 ==========
+
+    public void start() {
+        startTime = System.nanoTime();
+        sensorStartNs = SystemClock.elapsedRealtimeNanos();
+        createJournal();
+        if (isRouteMode) {
+            checkpointer = new SessionCheckpointer(new File(context.getFilesDir(), CHECKPOINT_FILE),
+                    CHECKPOINT_INTERVAL_NS);
         }
-        φi[2] = φ;
+        startSensors();
     }
 
-    private void updatePosition(float l) {
-        // 現在の推定方位(φi[2])に，初期オフセットを加算して地図上の方位にする
-        double currentMapHeading = φi[2] + initialHeadingOffset;
+    /**
+     * センサーを登録して計測を始める（start・再開の共通部分）
+     */
+    private void startSensors() {
+        engine.resetMetrics();
 
-        // 符号を反転（左回転を正にする）
-        double correctedHeading = -currentMapHeading;
+        // リサンプリング変数の初期化
+        engine.resetResampler();
 
-        // 座標更新 (オフセット済み角度を使用)
-        Xk = Xk + l * Math.sin(correctedHeading);
-        Yk = Yk + l * Math.cos(correctedHeading);
+        currentData = new SensorData(0, new float[]{0, 0, 0}, new float[]{0, 0, 0},
+                engine.getStepCount(), getX(), getY(), engine.getHeading(), engine.getDistance(), engine.getAp());
 
-        // ユークリッド距離
-        totalDistance = Math.sqrt(Math.pow(Xk - startXk, 2) + Math.pow(Yk - startYk, 2));
-    }
+        // 【変更点】 5000マイクロ秒 (5ms = 200Hz) を要求
+        // 100Hzを作るために、倍のレートで取得して補間するのが理想的です
+        int samplingPeriodUs = 5000;
+        callbackCount = 0;
+        deliveryCount = 0;
+        lastCallbackNs = 0;
+        startCpuMs = Process.getElapsedCpuTime();
+        PDRConfig config = engine.getConfig();
+        if (config.hardwareStepMode && !hasActivityRecognitionPermission(context)) {
+            // 設定後に権限が取り消された場合．歩数計は何も届けないので通常モードで計測する
+            Log.w(TAG, "ACTIVITY_RECOGNITION revoked, falling back to normal mode");
+            // applyConfigは推定器を作り直す（再開時は復元した状態を捨てる）ため，モードの設定だけ変える
+            config.hardwareStepMode = false;
+            engine.setHardwareStepMode(false);
+        }
+        if (config.hardwareStepMode) {
+            useSampleClock = true;
+            startHardwareStepMode(config);
+            return;
+        }
 
-    // ========== CSV書き込み機能 ==========
+        int latencyUs = config.sensorMaxReportLatencyUs;
+        useSampleClock = latencyUs > 0;
+        if (latencyUs > 0) {
+            // 最大レイテンシ2回分のバーストを保持できる容量．相手を待つのはレイテンシ＋1秒まで
+            int capacity = (int) (2L * latencyUs / samplingPeriodUs) + 256;
+            merger = new SampleMerger(engine, capacity, latencyUs * 1000L + 1_000_000_000L);
+            logFifoSupport(accelerometer);
+        }
 
-    private void openCSVFiles() {
-        if (isRouteMode) {
-            createRouteSensorFile();
-            createRouteEventFile();
+        sensorHealth.setRequestedPeriodUs(SensorHealthMonitor.SENSOR_ACCEL, samplingPeriodUs);
+        register(accelerometer, samplingPeriodUs, latencyUs);
+
+        if (config.headingSource == PDRConfig.HEADING_SOURCE_ROTATION_VECTOR) {
+            // 方位はセンサーハブの融合結果を使い，ジャイロは登録しない
+            int rvPeriodUs = config.rotationVectorPeriodUs;
+            sensorHealth.setRequestedPeriodUs(SensorHealthMonitor.SENSOR_ROTATION_VECTOR, rvPeriodUs);
+            register(gameRotationVector, rvPeriodUs, latencyUs);
         } else {
-            createLegacyFiles();
+            sensorHealth.setRequestedPeriodUs(SensorHealthMonitor.SENSOR_GYRO, samplingPeriodUs);
+            register(gyroscope, samplingPeriodUs, latencyUs);
         }
     }
 
-    private void createRouteSensorFile() {
-        String fileName = generateSensorFileName();
-        File directory = context.getExternalFilesDir(null);
-        csvFile = new File(directory, fileName);
-
-        try {
-            boolean fileExists = csvFile.exists();
-            fileWriter = new FileWriter(csvFile, true);
-
-            if (!fileExists) {
-                fileWriter.append("Time(ns),ax,ay,az,gx,gy,gz,StepCount,StepLength,X,Y,Heading,TotalDistance,ap,TrialID\n");
-                Log.i(TAG, "Sensor file created: " + csvFile.getAbsolutePath());
-            } else {
-                Log.i(TAG, "Sensor file opened for append: " + csvFile.getAbsolutePath());
+    private void register(Sensor sensor, int periodUs, int maxReportLatencyUs) {
+        if (maxReportLatencyUs > 0) {
+            if (sensorManager.registerListener(this, sensor, periodUs, maxReportLatencyUs)) {
+                registeredSensors++;
             }
-            fileWriter.flush();
-        } catch (IOException e) {
-            Log.e(TAG, "Error creating sensor file", e);
+        } else {
+            sensorManager.registerListener(this, sensor, periodUs);
         }
     }
 
-    private void createRouteEventFile() {
-        String fileName = generateEventFileName();
-        File directory = context.getExternalFilesDir(null);
-        eventFile = new File(directory, fileName);
-
-        try {
-            boolean fileExists = eventFile.exists();
-            eventFileWriter = new FileWriter(eventFile, true);
-
-            if (!fileExists) {
-                eventFileWriter.append("Time(ns),TrialID,Event,RoutePoint,TargetX,TargetY,EstimatedX,EstimatedY,Distance\n");
-                Log.i(TAG, "Event file created: " + eventFile.getAbsolutePath());
-            } else {
-                Log.i(TAG, "Event file opened for append: " + eventFile.getAbsolutePath());
-            }
-            eventFileWriter.flush();
-        } catch (IOException e) {
-            Log.e(TAG, "Error creating event file", e);
+    /**
+     * FIFOを持たないセンサーはmaxReportLatencyUsを無視して毎サンプル配信する
+     */
+    private void logFifoSupport(Sensor sensor) {
+        if (sensor.getFifoMaxEventCount() == 0) {
+            Log.w(TAG, sensor.getName() + " has no hardware FIFO, batching will not reduce wakeups");
+        } else {
+            Log.i(TAG, String.format(Locale.US, "%s FIFO reserved=%d max=%d events",
+                    sensor.getName(), sensor.getFifoReservedEventCount(), sensor.getFifoMaxEventCount()));
         }
     }
 
-    private void createLegacyFiles() {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault());
-        String timestamp = sdf.format(new Date());
-
-        // センサーファイル
-        String fileName = timestamp + ".csv";
-        File directory = context.getExternalFilesDir(null);
-        csvFile = new File(directory, fileName);
+    /**
+     * 省電力モードの登録: すべてのセンサーを大きなmaxReportLatencyUsで登録し，FIFOに溜めてまとめて受け取る
+     */
+    private void startHardwareStepMode(PDRConfig config) {
+        hardwareSteps = new HardwareStepTracker(engine);
+        int latencyUs = config.hardwareStepMaxLatencyUs;
+        sensorHealth.setRequestedPeriodUs(SensorHealthMonitor.SENSOR_ACCEL, config.hardwareStepAccelPeriodUs);
+        register(stepDetector, SensorManager.SENSOR_DELAY_NORMAL, latencyUs);
+        register(accelerometer, config.hardwareStepAccelPeriodUs, latencyUs);
+        register(gameRotationVector, config.hardwareStepHeadingPeriodUs, latencyUs);
+        Log.i(TAG, String.format(Locale.US, "Hardware step mode: maxReportLatency=%d ms", latencyUs / 1000));
+    }
 
-        try {
-            fileWriter = new FileWriter(csvFile);
-            fileWriter.append("Time(ns),ax,ay,az,gx,gy,gz,StepCount,StepLength,X,Y,Heading,TotalDistance,ap\n");
-            fileWriter.flush();
-            Log.i(TAG, "CSV file created: " + csvFile.getAbsolutePath());
-        } catch (IOException e) {
-            Log.e(TAG, "Error creating CSV file", e);
+    /**
+     * 計測を止める
+     * バッチ配信中はセンサーハブのFIFOに残っている分をflush()で吐き出させ，onFlushCompletedを
+     * 待ってから登録を解除する（解除すると残りは破棄されるため）．待つ間もコールバックは
+     * メインスレッドで届くので，ここでは待たずに戻り，停止が終わったらonStoppedを呼ぶ
+     * @param onStopped 停止完了後に呼ぶ処理（null可．FIFOがなければこの呼び出し中に呼ばれる）
+     */
+    public void stop(final Runnable onStopped) {
+        if (pendingStop != null) {
+            Log.w(TAG, "stop() while waiting for sensor flush, ignored");
+            return;
         }
-
-        // イベントファイル
-        String eventFileName = timestamp + "_events.csv";
-        eventFile = new File(directory, eventFileName);
-
-        try {
-            eventFileWriter = new FileWriter(eventFile);
-            eventFileWriter.append("Time(ns),Event,Distance\n");
-            eventFileWriter.flush();
-            Log.i(TAG, "Event file created: " + eventFile.getAbsolutePath());
-        } catch (IOException e) {
-            Log.e(TAG, "Error creating event file", e);
+        pendingStop = new Runnable() {
+            @Override
+            public void run() {
+                finishStop();
+                if (onStopped != null) onStopped.run();
+            }
+        };
+        if (registeredSensors > 0) {
+            pendingFlushes = registeredSensors;
+            if (sensorManager.flush(this)) {
+                handler.postDelayed(flushTimeout, FLUSH_TIMEOUT_MS);
+                return;
+            }
+            Log.w(TAG, "Sensor flush failed, events still in the FIFO are dropped");
         }
+        completePendingStop();
     }
 
-    private String generateSensorFileName() {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd", Locale.getDefault());
-        String date = sdf.format(new Date());
-        return routeId + "_" + date + "_Trial" + String.format(Locale.US, "%02d", trialNumber) + "_sensor.csv";
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        if (pendingStop == null) return;
+        if (--pendingFlushes > 0) return;
+        handler.removeCallbacks(flushTimeout);
+        completePendingStop();
     }
 
-    private String generateEventFileName() {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd", Locale.getDefault());
-        String date = sdf.format(new Date());
-        return routeId + "_" + date + "_Trial" + String.format(Locale.US, "%02d", trialNumber) + "_events.csv";
+    private void completePendingStop() {
+        Runnable stop = pendingStop;
+        pendingStop = null;
+        if (stop != null) stop.run();
     }
 
-    private void writeSensorData() {
-        if (fileWriter == null) return;
+    private void finishStop() {
+        sensorManager.unregisterListener(this);
+        registeredSensors = 0;
+        if (hardwareSteps != null) {
+            // FIFOは吐き出し済み．受信済みの保留歩行は手持ちのデータで反映する
+            hardwareSteps.flush();
+            Log.i(TAG, String.format(Locale.US, "Hardware steps applied=%d forced=%d",
+                    hardwareSteps.getAppliedSteps(), hardwareSteps.getForcedSteps()));
+            hardwareSteps = null;
+        }
+        if (merger != null) {
+            merger.flush();
+            Log.i(TAG, String.format(Locale.US, "Batched samples emitted=%d forced=%d dropped=%d",
+                    merger.getEmitted(), merger.getForced(), merger.getDropped()));
+            merger = null;
+        }
+        if (checkpointer != null) {
+            // 正常に止めた計測は再開しない
+            checkpointer.discard();
+            checkpointer = null;
+        }
+        dumpPipelineProfile();
+        dumpSensorHealth();
+        closeJournal();
+    }
 
-//        long now = System.nanoTime();
+    // ========== チェックポイント ==========
 
-//        書き込み頻度を10Hzに制限
-//        if (now - lastWriteTime < WRITE_INTERVAL) return;
-//
-//        lastWriteTime = now;
-        currentTime = System.nanoTime() - startTime;
-        currentData = new SensorData(
-                currentTime, a.clone(), ω.clone(), stepCount,
-                getX(), getY(), φi[2], totalDistance, ap
-        );
+    /**
+     * 画面側の地点の進行を記録する（チェックポイントに含め，再開時に戻す）
+     */
+    public void setRouteProgress(int routePoint, int advertiseCount) {
+        this.routePoint = routePoint;
+        this.advertiseCount = advertiseCount;
+    }
 
-        try {
-            String line;
-            if (isRouteMode) {
-                line = String.format(Locale.US,
-                        "%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,Trial%02d\n",
-                        currentData.timestamp,
-                        currentData.acceleration[0], currentData.acceleration[1], currentData.acceleration[2],
-                        currentData.gyroscope[0], currentData.gyroscope[1], currentData.gyroscope[2],
-                        currentData.stepCount, currentData.stepLength,
-                        currentData.x, currentData.y, Math.toDegrees(currentData.heading),
-                        currentData.totalDistance, currentData.ap, trialNumber
-                );
-            } else {
-                line = String.format(Locale.US,
-                        "%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n",
-                        currentData.timestamp,
-                        currentData.acceleration[0], currentData.acceleration[1], currentData.acceleration[2],
-                        currentData.gyroscope[0], currentData.gyroscope[1], currentData.gyroscope[2],
-                        currentData.stepCount, currentData.stepLength,
-                        currentData.x, currentData.y, Math.toDegrees(currentData.heading),
-                        currentData.totalDistance, currentData.ap
-                );
-            }
+    public int getRoutePoint() { return routePoint; }
+    public int getAdvertiseCount() { return advertiseCount; }
 
-            fileWriter.append(line);
-            fileWriter.flush();
-        } catch (IOException e) {
-            Log.e(TAG, "Error writing to CSV file", e);
+    /**
+     * 見出し（ルート・ファイル・時刻の基準）とエンジンの状態をバッファに書き，書き出しを依頼する
+     * センサースレッドで呼ばれる．ファイルへの書き込みはSessionCheckpointerのスレッドで行う
+     */
+    private void saveCheckpoint(long timeNs) {
+        ByteBuffer out = checkpointer.buffer(CHECKPOINT_HEADER_BYTES + engine.getStateSize());
+        out.putInt(CHECKPOINT_MAGIC).putInt(CHECKPOINT_VERSION);
+        putString(out, routeId);
+        out.putInt(trialNumber).putInt(routePoint).putInt(advertiseCount);
+        putString(out, csvFile != null ? csvFile.getPath() : "");
+        putString(out, eventFile != null ? eventFile.getPath() : "");
+        putString(out, journalFile != null ? journalFile.getPath() : "");
+        // 再開時にジャーナルを先頭から読み直さずに済むよう，追記位置も保存する
+        if (journal != null) {
+            journal.savePosition(out);
+        } else {
+            out.putLong(-1).putLong(0);
         }
+        out.putDouble(measurementStartX).putDouble(measurementStartY);
+        // System.nanoTime・elapsedRealtimeNanosとも端末の起動からの時計なので，同じ起動の間だけ使える
+        // （再起動の判定のため起動回数も保存する）
+        out.putInt(bootCount()).putLong(startTime).putLong(sensorStartNs);
+        // 計測モードの設定（エンジンの状態には含まれない）
+        PDRConfig config = engine.getConfig();
+        out.put((byte) (config.hardwareStepMode ? 1 : 0)).put((byte) (config.resetFiltersOnGap ? 1 : 0));
+        out.putInt(config.headingSource).putInt(config.sensorMaxReportLatencyUs);
+        out.putLong(config.maxInterpolationGapNs);
+        // 省電力モードの方位の基準（再開後も同じ基準で方位を求める）
+        boolean hasReference = hardwareSteps != null && hardwareSteps.hasReference();
+        out.put((byte) (hasReference ? 1 : 0));
+        out.putFloat(hasReference ? hardwareSteps.getReference() : 0f);
+        out.putFloat(hasReference ? hardwareSteps.getLastUnwrapped() : 0f);
+        engine.saveState(out);
+        checkpointer.submit(out, timeNs);
     }
 
-    public void writeRouteEvent(String event, SensorData data, int trialNumber,
-                                int routePoint, float targetX, float targetY) {
-        if (eventFileWriter == null || !isRouteMode) return;
-
+    /**
+     * 前回のプロセスが残したチェックポイントから計測を再開する
+     * 同じジャーナルへ追記し，再開までの欠損をRESUMEとして記録する
+     * @return 再開した場合true（チェックポイントがない・読めない場合false）
+     */
+    public boolean resumeFromCheckpoint() {
+        long t0 = System.nanoTime();
+        File file = new File(context.getFilesDir(), CHECKPOINT_FILE);
+        ByteBuffer in;
         try {
-            // 開始地点からのユークリッド距離を計算
-            double dx = data.x - measurementStartX;
-            double dy = data.y - measurementStartY;
-            double distance = Math.sqrt(dx * dx + dy * dy);
-
-            String line = String.format(Locale.US,
-                    "%d,Trial%02d,%s,%d,%.1f,%.1f,%.3f,%.3f,%.3f\n",
-                    data.timestamp, trialNumber, event, routePoint,
-                    targetX, targetY, data.x, data.y, distance
-            );
-
-            eventFileWriter.append(line);
-            eventFileWriter.flush();
-            Log.d(TAG, "Route event recorded: " + event + " at point " + routePoint);
+            in = SessionCheckpointer.load(file);
         } catch (IOException e) {
-            Log.e(TAG, "Error writing to route event file", e);
+            Log.e(TAG, "Error reading checkpoint", e);
+            return false;
+        }
+        if (in == null) return false;
+
+        PDRConfig previous = engine.getConfig();
+        String savedRouteId, csvPath, eventPath, journalPath;
+        long journalLength, journalNextSeq;
+        int savedTrial, savedPoint, savedAdvertise;
+        double startX, startY;
+        int savedBootCount;
+        long savedStartTime, savedSensorStartNs;
+        boolean savedHasReference;
+        float savedReference, savedUnwrapped;
+        try {
+            if (in.getInt() != CHECKPOINT_MAGIC || in.getInt() != CHECKPOINT_VERSION) {
+                throw new IllegalArgumentException("Unsupported session checkpoint");
+            }
+            savedRouteId = getString(in);
+            savedTrial = in.getInt();
+            savedPoint = in.getInt();
+            savedAdvertise = in.getInt();
+            csvPath = getString(in);
+            eventPath = getString(in);
+            journalPath = getString(in);
+            journalLength = in.getLong();
+            journalNextSeq = in.getLong();
+            startX = in.getDouble();
+            startY = in.getDouble();
+            savedBootCount = in.getInt();
+            savedStartTime = in.getLong();
+            savedSensorStartNs = in.getLong();
+            // 計測モードを戻してから（推定器の構成が決まってから）エンジンの状態を読む
+            PDRConfig config = engine.getConfig();
+            config.hardwareStepMode = in.get() != 0;
+            config.resetFiltersOnGap = in.get() != 0;
+            config.headingSource = in.getInt();
+            config.sensorMaxReportLatencyUs = in.getInt();
+            config.maxInterpolationGapNs = in.getLong();
+            savedHasReference = in.get() != 0;
+            savedReference = in.getFloat();
+            savedUnwrapped = in.getFloat();
+            engine.reset();
+            engine.applyConfig(config);
+            engine.restoreState(in);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Discarding unreadable checkpoint", e);
+            engine.applyConfig(previous);
+            engine.reset();
+            file.delete();
+            return false;
         }
-    }
 
-    // 🆕 Distance指定版のオーバーロード
-    public void writeRouteEvent(String event, SensorData data, int trialNumber,
-                                int routePoint, float targetX, float targetY, double fixedDistance) {
-        if (eventFileWriter == null || !isRouteMode) return;
+        // 再起動をまたぐと時刻の基準（端末の起動からの時計）が変わり，欠損の長さも経過時刻も求められない
+        long lastTickNs = engine.getLastTickTimeNs();
+        int currentBootCount = bootCount();
+        boolean rebooted = savedBootCount >= 0 && currentBootCount >= 0 && savedBootCount != currentBootCount;
+        if (rebooted || SystemClock.elapsedRealtimeNanos() < lastTickNs || System.nanoTime() < savedStartTime) {
+            Log.w(TAG, String.format(Locale.US,
+                    "Device rebooted since checkpoint (boot %d -> %d), not resuming %s Trial%02d",
+                    savedBootCount, currentBootCount, savedRouteId, savedTrial));
+            engine.applyConfig(previous);
+            engine.reset();
+            file.delete();
+            return false;
+        }
 
-        try {
-            String line = String.format(Locale.US,
-                    "%d,Trial%02d,%s,%d,%.1f,%.1f,%.3f,%.3f,%.3f\n",
-                    data.timestamp, trialNumber, event, routePoint,
-                    targetX, targetY, data.x, data.y, fixedDistance
-            );
-
-            eventFileWriter.append(line);
-            eventFileWriter.flush();
-            Log.d(TAG, "Route event recorded: " + event + " at point " + routePoint + " (fixed distance: " + fixedDistance + ")");
-        } catch (IOException e) {
-            Log.e(TAG, "Error writing to route event file", e);
+        routeId = savedRouteId;
+        trialNumber = savedTrial;
+        isRouteMode = true;
+        routePoint = savedPoint;
+        advertiseCount = savedAdvertise;
+        measurementStartX = startX;
+        measurementStartY = startY;
+        startTime = savedStartTime;
+        sensorStartNs = savedSensorStartNs;
+        csvFile = new File(csvPath);
+        eventFile = new File(eventPath);
+        journalFile = new File(journalPath);
+        openJournal("resume", journalLength, journalNextSeq);
+        checkpointer = new SessionCheckpointer(file, CHECKPOINT_INTERVAL_NS);
+
+        startSensors();
+        if (hardwareSteps != null && savedHasReference) {
+            // センサーのコールバックはメインスレッドで届くため，最初の回転ベクトルより先に設定される
+            hardwareSteps.restoreReference(savedReference, savedUnwrapped);
         }
+        long now = SystemClock.elapsedRealtimeNanos();
+        writeDiscontinuityEvent("RESUME", elapsedNs(now), now - lastTickNs);
+        Log.i(TAG, String.format(Locale.US, "Resumed %s Trial%02d at step %d after %.1f s gap (restore %.2f ms)",
+                routeId, trialNumber, engine.getStepCount(), (now - lastTickNs) / 1e9, (System.nanoTime() - t0) / 1e6));
+        return true;
     }
 
-    // ========== システム制御 ==========
+    /**
+     * 端末の起動回数（取得できない端末は-1）
+     */
+    private int bootCount() {
+        return Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT, -1);
+    }
 
-    public void start() {
-        openCSVFiles();
-        startTime = System.nanoTime();
+    private static void putString(ByteBuffer out, String s) {
+        byte[] b = (s != null ? s : "").getBytes(StandardCharsets.UTF_8);
+        out.putShort((short) b.length).put(b);
+    }
 
-        // リサンプリング変数の初期化
-        lastAccTime = 0;
-        lastGyroTime = 0;
+    private static String getString(ByteBuffer in) {
+        byte[] b = new byte[in.getShort() & 0xFFFF];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
 
-        // ... (既存の初期化処理) ...
-        currentData = new SensorData(0, new float[]{0, 0, 0}, new float[]{0, 0, 0},
-                stepCount, getX(), getY(), φi[2], totalDistance, ap);
-        // writeSensorData(); // ← ここでの書き込みは削除するか、初期値として残す
+    /**
+     * パイプライン計測結果をlogcatへ出力し，センサーファイルと同じ場所に保存
+     */
+    public void dumpPipelineProfile() {
+        String report = profiler.dump();
+        Log.i(TAG, report);
+        writeTrialReport("_latency.txt", report);
+    }
 
-        // 【変更点】 5000マイクロ秒 (5ms = 200Hz) を要求
-        // 100Hzを作るために、倍のレートで取得して補間するのが理想的です
-        int samplingPeriodUs = 5000;
-        sensorManager.registerListener(this, accelerometer, samplingPeriodUs);
-        sensorManager.registerListener(this, gyroscope, samplingPeriodUs);
+    /**
+     * センサー配信メトリクスを端末情報付きで出力・保存
+     */
+    public void dumpSensorHealth() {
+        String report = "# Device " + Build.MANUFACTURER + " " + Build.MODEL
+                + " Android " + Build.VERSION.RELEASE + " (API " + Build.VERSION.SDK_INT + ")\n"
+                + sensorHealth.dump()
+                + dumpPowerEstimate();
+        Log.i(TAG, report);
+        writeTrialReport("_health.txt", report);
     }
 
-    public void stop() {
-        closeCSVFiles();
-        sensorManager.unregisterListener(this);
+    /**
+     * 1時間あたりのコールバック回数とプロセスCPU時間（入力モードごとの比較用）
+     */
+    private String dumpPowerEstimate() {
+        double hours = (System.nanoTime() - startTime) / 3.6e12;
+        long cpuMs = Process.getElapsedCpuTime() - startCpuMs;
+        if (hours <= 0) return "";
+        PDRConfig config = engine.getConfig();
+        String mode = config.hardwareStepMode ? "hardware_step"
+                : config.headingSource == PDRConfig.HEADING_SOURCE_ROTATION_VECTOR ? "rotation_vector" : "gyro";
+        return String.format(Locale.US,
+                "# power\nmode=%s callbacks=%d callbacksPerHour=%.0f deliveriesPerHour=%.0f cpuMs=%d cpuMsPerHour=%.0f\n",
+                mode, callbackCount, callbackCount / hours, deliveryCount / hours, cpuMs, cpuMs / hours);
+    }
+
+    private void writeTrialReport(String suffix, String report) {
+        if (csvFile == null) return;
+        String name = csvFile.getName();
+        int dot = name.lastIndexOf('.');
+        String reportName = (dot > 0 ? name.substring(0, dot) : name) + suffix;
+        File reportFile = new File(csvFile.getParentFile(), reportName);
+
+        try (FileWriter writer = new FileWriter(reportFile)) {
+            writer.write(report);
+            Log.i(TAG, "Report saved: " + reportFile.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing report " + reportName, e);
+        }
     }
 
     public void reset() {
-        Xk = 0.0; Yk = 0.0; totalDistance = 0.0; stepCount = 0;
-        startXk = 0.0; startYk = 0.0; initialHeadingOffset = 0.0;
-        lastStepTime = System.nanoTime();
-        Arrays.fill(li, 0f); Arrays.fill(φi, 0f);
-        ap_max = 0; ap_min = 0; isStepDetecting = false;
-        q = new float[]{1.0f, 0.0f, 0.0f, 0.0f};
-        Z = 0; lasttotalDistance = 0.0; isRouteMode = false;
+        engine.reset();
+        isRouteMode = false;
+        lasttotalDistance = 0.0;
         routeId = null; trialNumber = 0;
         measurementStartX = 0.0;
         measurementStartY = 0.0;
+        routePoint = 0;
+        advertiseCount = 0;
+        recentFixes.clear();
         // 注意: reset()後に初期位置を設定する場合は、setInitialPosition()を呼び直すこと
     }
 
-    private void closeCSVFiles() {
-        if (fileWriter != null) {
-            try {
-                // 残りのバッファを書き込み
-                if (csvBuffer.length() > 0) {
-                    fileWriter.write(csvBuffer.toString());
-                    csvBuffer.setLength(0);
-                    bufferCount = 0;
+    /**
+     * ジャーナルを閉じ，書き込みスレッドで従来形式のCSVへ書き出す（呼び出し側は待たない）
+     */
+    private void closeJournal() {
+        if (journal == null) return;
+        final SessionJournal closing = journal;
+        final File sensorOut = csvFile;
+        final File eventOut = eventFile;
+        journal = null;
+        closing.close(new Runnable() {
+            @Override
+            public void run() {
+                if (closing.getError() != null) {
+                    Log.e(TAG, "Error writing journal", closing.getError());
+                }
+                Log.i(TAG, String.format(Locale.US, "Journal closed: %d bytes, max batch %d bytes",
+                        closing.getBytesWritten(), closing.getMaxBatchBytes()));
+                try {
+                    long t0 = System.nanoTime();
+                    long records = TrialCsv.exportJournal(closing.getFile(), sensorOut, eventOut);
+                    Log.i(TAG, String.format(Locale.US, "Exported %d records to %s (%.1f ms)",
+                            records, sensorOut.getName(), (System.nanoTime() - t0) / 1e6));
+                } catch (IOException e) {
+                    Log.e(TAG, "Error exporting journal to CSV", e);
                 }
-
-                fileWriter.flush();
-                fileWriter.close();
-                Log.i(TAG, "CSV file closed");
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing CSV file", e);
-            }
-        }
-        if (eventFileWriter != null) {
-            try {
-                eventFileWriter.flush();
-                eventFileWriter.close();
-                Log.i(TAG, "Event file closed");
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing event file", e);
             }
-        }
+        });
     }
 
     // ========== Getterメソッド ==========
 
-    // 出力時にXとYを入れ替え（内部計算はそのまま）
-    public double getX() { return Yk; }
-    public double getY() { return Xk; }
-    public double getDistance() { return totalDistance; }
-    public int getStepCount() { return stepCount; }
-    public float getHeading() { return φi[2]; }
-    public float[] getAcceleration() { return a; }
-    public float[] getGyroscope() { return ω; }
-    public float getAp() { return ap; }
+    // 出力時にXとYを入れ替え（内部計算はエンジン側）
+    @Override
+    public double getX() { return engine.getX(); }
+    @Override
+    public double getY() { return engine.getY(); }
+    public double getDistance() { return engine.getDistance(); }
+    @Override
+    public int getStepCount() { return engine.getStepCount(); }
+    @Override
+    public long getElapsedTimeNs() { return currentTime; }
+    public float getHeading() { return engine.getHeading(); }
+    public float[] getAcceleration() { return engine.getAcceleration(); }
+    public float[] getGyroscope() { return engine.getGyroscope(); }
+    public float getAp() { return engine.getAp(); }
     public SensorData getCurrentData() { return currentData; }
+    public PDREngine getEngine() { return engine; }
+    public PipelineProfiler getPipelineProfiler() { return profiler; }
+    public SensorHealthMonitor getSensorHealth() { return sensorHealth; }
+    public StepFixHistory getRecentFixes() { return recentFixes; }
+    /** 歩行ごとの軌跡（時刻はセンサー時刻．書き込みはセンサースレッド） */
+    public TrajectoryHistory getTrajectoryHistory() { return engine.getTrajectoryHistory(); }
+    public String getRouteId() { return routeId; }
+    /** 記録中のジャーナル（記録していなければnull） */
+    public File getActiveJournalFile() { return journal != null ? journalFile : null; }
+    public int getTrialNumber() { return trialNumber; }
 
     // 🆕 初期位置設定メソッド
     /**
@@ -708,39 +891,100 @@ public class PDRService implements SensorEventListener {
      * @param y Y座標（出力座標系）
      */
     public void setInitialPosition(double x, double y) {
-        // ステップ2でgetX()=Yk, getY()=Xkと入れ替えている定義に合わせる
-        // 外部座標(x, y) -> 内部座標(Yk, Xk)
-        this.Yk = x;
-        this.Xk = y;
-
-        // 開始地点として記録
-        this.startXk = this.Xk;
-        this.startYk = this.Yk;
+        engine.setInitialPosition(x, y);
 
         // 測定開始時の座標を記録 (ユークリッド距離計算用)
         this.measurementStartX = x;
         this.measurementStartY = y;
 
-        // 距離をリセット
-        this.totalDistance = 0.0;
+        Log.i(TAG, String.format("Initial position set: X=%.2f, Y=%.2f", x, y));
+    }
 
-        Log.i(TAG, String.format("Initial position set: X=%.2f, Y=%.2f (internal: Xk=%.2f, Yk=%.2f)",
-                x, y, Xk, Yk));
+    /**
+     * 補間を許容する最大間隔を設定（これを超える欠損は不連続として扱う）
+     */
+    public void setMaxInterpolationGapMs(long gapMs) {
+        PDRConfig config = engine.getConfig();
+        config.maxInterpolationGapNs = gapMs * 1_000_000L;
+        engine.applyConfig(config);
+    }
+
+    /**
+     * 方位の入力元を設定（start()前に呼ぶ）
+     * ROTATION_VECTORを指定しても端末にTYPE_GAME_ROTATION_VECTORがなければジャイロを使う
+     */
+    public void setHeadingSource(int headingSource) {
+        if (headingSource == PDRConfig.HEADING_SOURCE_ROTATION_VECTOR && gameRotationVector == null) {
+            Log.w(TAG, "TYPE_GAME_ROTATION_VECTOR not available, falling back to gyroscope heading");
+            headingSource = PDRConfig.HEADING_SOURCE_GYRO;
+        }
+        PDRConfig config = engine.getConfig();
+        config.headingSource = headingSource;
+        engine.applyConfig(config);
+    }
+
+    public boolean hasGameRotationVector() { return gameRotationVector != null; }
+
+    /**
+     * センサーのバッチ配信（maxReportLatencyUs）を設定（start()前に呼ぶ）．0で無効
+     */
+    public void setMaxReportLatencyMs(int latencyMs) {
+        PDRConfig config = engine.getConfig();
+        config.sensorMaxReportLatencyUs = latencyMs * 1000;
+        engine.applyConfig(config);
+    }
+
+    /**
+     * 省電力モード（ハードウェア歩数計＋バッチ配信）の切り替え（start()前に呼ぶ）
+     * 歩数計または回転ベクトルがない端末，ACTIVITY_RECOGNITIONが許可されていない場合は通常モードのまま
+     */
+    public void setHardwareStepMode(boolean enabled) {
+        if (enabled && (stepDetector == null || gameRotationVector == null)) {
+            Log.w(TAG, "TYPE_STEP_DETECTOR or TYPE_GAME_ROTATION_VECTOR not available, hardware step mode disabled");
+            enabled = false;
+        }
+        if (enabled && !hasActivityRecognitionPermission(context)) {
+            Log.w(TAG, "ACTIVITY_RECOGNITION not granted, hardware step mode disabled");
+            enabled = false;
+        }
+        PDRConfig config = engine.getConfig();
+        config.hardwareStepMode = enabled;
+        engine.applyConfig(config);
+    }
+
+    /**
+     * 不連続時にフィルタ状態をリセットするか，引き継ぐかを設定
+     */
+    public void setResetFiltersOnGap(boolean reset) {
+        PDRConfig config = engine.getConfig();
+        config.resetFiltersOnGap = reset;
+        engine.applyConfig(config);
+    }
+
+    /**
+     * 信号スコープの書き込み先を設定（nullで停止）
+     */
+    public void setSignalScope(SignalScopeBuffer scope) {
+        engine.setSignalScope(scope);
     }
 
     // 初期ベクトルの設定
     public void setInitialRouteVector(double startX, double startY, double nextX, double nextY) {
-        // 地図上のベクトル (dx, dy)
-        double dx = nextX - startX;
-        double dy = nextY - startY;
-
-        // 角度計算
-        this.initialHeadingOffset = Math.atan2(dy, dx);
+        engine.setInitialRouteVector(startX, startY, nextX, nextY);
 
         Log.i(TAG, String.format("Initial Vector: (%.1f, %.1f) -> (%.1f, %.1f), Offset: %.1f deg",
-                startX, startY, nextX, nextY, Math.toDegrees(this.initialHeadingOffset)));
+                startX, startY, nextX, nextY, Math.toDegrees(engine.getInitialHeadingOffset())));
+    }
+
+    /**
+     * TYPE_STEP_DETECTORはAndroid 10以降，ACTIVITY_RECOGNITIONの実行時権限がないとイベントが届かない
+     */
+    public static boolean hasActivityRecognitionPermission(Context context) {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+                || ContextCompat.checkSelfPermission(context, Manifest.permission.ACTIVITY_RECOGNITION)
+                == PackageManager.PERMISSION_GRANTED;
     }
 
     @Override
     public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-}
\ No newline at end of file
+}
@@ -0,0 +1,133 @@
+package com.example.tcsle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * パラメータスイープの探索空間（PDRConfigの定数ごとの範囲）
+ * 候補は各パラメータの値を並べたdouble[]で表し，apply()でPDRConfigに反映する
+ */
+public class ParameterSpace {
+
+    /**
+     * 値をPDRConfigのフィールドへ書き込む
+     */
+    public interface Setter {
+        void set(PDRConfig config, double value);
+    }
+
+    private final List<String> names = new ArrayList<>();
+    private final List<double[]> ranges = new ArrayList<>();  // {下限, 上限, グリッド点数}
+    private final List<Setter> setters = new ArrayList<>();
+
+    /**
+     * @param steps グリッド探索での点数（1なら下限のみ）
+     */
+    public ParameterSpace add(String name, double low, double high, int steps, Setter setter) {
+        if (high < low || steps < 1) {
+            throw new IllegalArgumentException("Invalid range for " + name);
+        }
+        names.add(name);
+        ranges.add(new double[]{low, high, steps});
+        setters.add(setter);
+        return this;
+    }
+
+    /**
+     * TCSLEの手調整していた定数（歩行検出・歩幅）の既定の探索空間
+     * StagedReplayの方位の段階より下流の定数だけなので，候補ごとに再計算するのは歩行の段階以降のみ
+     */
+    public static ParameterSpace tcsle() {
+        return new ParameterSpace()
+                .add("A", 10.0, 11.0, 5, (c, v) -> c.A = (float) v)
+                .add("tmin", 0.20, 0.35, 4, (c, v) -> c.tmin = (float) v)
+                .add("K", 0.60, 1.00, 5, (c, v) -> c.K = (float) v)
+                .add("q_tcsle", 0.15, 0.60, 4, (c, v) -> c.q_tcsle = (float) v)
+                .add("stepR", 0.1, 0.6, 3, (c, v) -> c.stepR = v);
+    }
+
+    /**
+     * 姿勢推定（相補フィルタ）の定数の探索空間
+     * 方位の段階から再計算するため，tcsle()より候補あたりの時間がかかる
+     */
+    public static ParameterSpace heading() {
+        return new ParameterSpace()
+                .add("kf", 0.8, 1.6, 5, (c, v) -> c.kf = (float) v)
+                .add("ke", 0.0, 0.05, 3, (c, v) -> c.ke = (float) v);
+    }
+
+    // ========== 候補の生成 ==========
+
+    /**
+     * 全パラメータのグリッド点の直積
+     */
+    public List<double[]> grid() {
+        List<double[]> out = new ArrayList<>();
+        int[] index = new int[size()];
+        while (true) {
+            double[] v = new double[size()];
+            for (int i = 0; i < size(); i++) {
+                int steps = getSteps(i);
+                v[i] = steps == 1 ? getLow(i) : getLow(i) + (getHigh(i) - getLow(i)) * index[i] / (steps - 1);
+            }
+            out.add(v);
+
+            int i = 0;
+            while (i < size() && ++index[i] == getSteps(i)) {
+                index[i] = 0;
+                i++;
+            }
+            if (i == size()) return out;
+        }
+    }
+
+    /**
+     * 範囲内の一様乱数
+     */
+    public double[] random(Random random) {
+        double[] v = new double[size()];
+        for (int i = 0; i < size(); i++) {
+            v[i] = getLow(i) + (getHigh(i) - getLow(i)) * random.nextDouble();
+        }
+        return v;
+    }
+
+    /** 値を[0, 1]に正規化 */
+    double normalize(int i, double v) {
+        double w = getHigh(i) - getLow(i);
+        return w == 0 ? 0 : (v - getLow(i)) / w;
+    }
+
+    /** 正規化値を値に戻す（範囲外は切り詰め） */
+    double denormalize(int i, double u) {
+        u = Math.max(0.0, Math.min(1.0, u));
+        return getLow(i) + (getHigh(i) - getLow(i)) * u;
+    }
+
+    // ========== 反映・表示 ==========
+
+    public PDRConfig apply(PDRConfig base, double[] values) {
+        PDRConfig c = base.copy();
+        for (int i = 0; i < size(); i++) {
+            setters.get(i).set(c, values[i]);
+        }
+        return c;
+    }
+
+    public String format(double[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size(); i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(String.format(Locale.US, "%s=%.4g", names.get(i), values[i]));
+        }
+        return sb.toString();
+    }
+
+    public int size() { return names.size(); }
+    public String getName(int i) { return names.get(i); }
+    public double getLow(int i) { return ranges.get(i)[0]; }
+    public double getHigh(int i) { return ranges.get(i)[1]; }
+    public int getSteps(int i) { return (int) ranges.get(i)[2]; }
+}
@@ -0,0 +1,364 @@
+package com.example.tcsle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 記録済み試行群に対するパラメータスイープ（オフライン調整用）
+ *
+ * 候補ごとに全試行をStagedReplayで再処理し，ADVERTISE/PASS地点での位置誤差の平均で評価する
+ * 候補はForkJoinPoolに分割して投入し（ワークスティーリング），各候補は試行を順に評価しながら
+ * 「ここまでの誤差合計 / 全地点数」（最終スコアの下限）が現在の最良スコアを超えた時点で打ち切る
+ * 探索はグリッド・一様乱数・TPE（良い候補の周りを優先してサンプルするベイズ最適化の一種）から選ぶ
+ */
+public class ParameterSweep {
+    // TPEで「良い」とみなす上位の割合
+    private static final double TPE_GAMMA = 0.25;
+    // TPEで1提案あたりに比較する候補数
+    private static final int TPE_CANDIDATES = 32;
+
+    /**
+     * 1候補の評価結果
+     */
+    public static class Result {
+        public final double[] values;
+        public double score = Double.NaN;  // 地点誤差の平均 [m]（打ち切り時は下限）
+        public double maxError;  // 地点誤差の最大 [m]
+        public int trialsEvaluated;
+        public boolean pruned;
+
+        Result(double[] values) {
+            this.values = values;
+        }
+    }
+
+    private final PDRConfig base;
+    private final ParameterSpace space;
+    private final List<RecordedTrial> trials;
+    private final ForkJoinPool pool;
+    private final int totalWaypoints;
+    private final int maxWaypoints;
+
+    // 完了した候補の最良スコア（doubleのビット表現．打ち切り判定に使う）
+    private final AtomicLong bestBits = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong prunedCount = new AtomicLong();
+    private final AtomicLong trialRuns = new AtomicLong();
+    private boolean prepared = false;
+
+    public ParameterSweep(PDRConfig base, ParameterSpace space, List<RecordedTrial> trials, ForkJoinPool pool) {
+        this.base = base.copy();
+        this.space = space;
+        this.trials = trials;
+        this.pool = pool;
+        int total = 0, max = 0;
+        for (RecordedTrial t : trials) {
+            total += t.getWaypointCount();
+            max = Math.max(max, t.getWaypointCount());
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("No ADVERTISE/PASS waypoints in the trials");
+        }
+        this.totalWaypoints = total;
+        this.maxWaypoints = max;
+    }
+
+    // ========== 探索 ==========
+
+    public List<Result> grid() {
+        return evaluate(space.grid());
+    }
+
+    public List<Result> random(int count, long seed) {
+        Random random = new Random(seed);
+        List<double[]> candidates = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            candidates.add(space.random(random));
+        }
+        return evaluate(candidates);
+    }
+
+    /**
+     * TPEによる逐次探索
+     * 最初のbatch個は一様乱数，以降は評価済みの上位TPE_GAMMAの密度l(x)と残りの密度g(x)の比が
+     * 最大となる点をbatch個ずつ提案して並列評価する
+     */
+    public List<Result> bayesian(int count, int batch, long seed) {
+        Random random = new Random(seed);
+        List<Result> all = new ArrayList<>();
+        while (all.size() < count) {
+            int n = Math.min(batch, count - all.size());
+            List<double[]> candidates = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                candidates.add(all.size() < batch ? space.random(random) : suggest(all, random));
+            }
+            all.addAll(evaluate(candidates));
+        }
+        sort(all);
+        return all;
+    }
+
+    private double[] suggest(List<Result> observed, Random random) {
+        List<Result> sorted = new ArrayList<>(observed);
+        sort(sorted);
+        int d = space.size();
+        int nGood = Math.max(1, (int) Math.ceil(TPE_GAMMA * sorted.size()));
+        double[][] good = normalized(sorted.subList(0, nGood));
+        double[][] bad = normalized(sorted.subList(nGood, sorted.size()));
+        // カーネル幅は点数とともに狭める（正規化空間）
+        double bandwidth = Math.max(0.02, 0.3 * Math.pow(sorted.size(), -1.0 / (d + 4)));
+
+        double[] best = null;
+        double bestRatio = Double.NEGATIVE_INFINITY;
+        double[] u = new double[d];
+        for (int c = 0; c < TPE_CANDIDATES; c++) {
+            double[] center = good[random.nextInt(good.length)];
+            for (int i = 0; i < d; i++) {
+                u[i] = Math.max(0.0, Math.min(1.0, center[i] + bandwidth * random.nextGaussian()));
+            }
+            double ratio = logDensity(u, good, bandwidth) - logDensity(u, bad, bandwidth);
+            if (ratio > bestRatio) {
+                bestRatio = ratio;
+                best = u.clone();
+            }
+        }
+
+        double[] v = new double[d];
+        for (int i = 0; i < d; i++) {
+            v[i] = space.denormalize(i, best[i]);
+        }
+        return v;
+    }
+
+    private double[][] normalized(List<Result> results) {
+        double[][] out = new double[results.size()][space.size()];
+        for (int r = 0; r < results.size(); r++) {
+            for (int i = 0; i < space.size(); i++) {
+                out[r][i] = space.normalize(i, results.get(r).values[i]);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 等方ガウスカーネルの混合密度の対数（定数項は省略）
+     */
+    private static double logDensity(double[] u, double[][] points, double bandwidth) {
+        if (points.length == 0) return 0.0;
+        double inv = 1.0 / (2 * bandwidth * bandwidth);
+        double sum = 0;
+        for (double[] p : points) {
+            double sq = 0;
+            for (int i = 0; i < u.length; i++) {
+                double diff = u[i] - p[i];
+                sq += diff * diff;
+            }
+            sum += Math.exp(-sq * inv);
+        }
+        return Math.log(sum / points.length + 1e-300);
+    }
+
+    // ========== 並列評価 ==========
+
+    /**
+     * 候補を並列に評価し，スコア順（打ち切った候補は末尾）に並べて返す
+     */
+    public List<Result> evaluate(List<double[]> candidates) {
+        Result[] results = new Result[candidates.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new Result(candidates.get(i));
+        }
+        if (!prepared && results.length > 0) {
+            // 前段（リサンプリング・前処理）は候補に依存しないため，先に試行ごと並列に1回だけ計算する
+            // （全ワーカーが同じ試行の前段を同時に取りこぼして重複計算するのを避ける）
+            pool.invoke(new PrepareTask(space.apply(base, results[0].values), 0, trials.size()));
+            prepared = true;
+        }
+        pool.invoke(new EvaluateTask(results, 0, results.length));
+
+        List<Result> out = new ArrayList<>(results.length);
+        Collections.addAll(out, results);
+        sort(out);
+        return out;
+    }
+
+    /**
+     * 候補の範囲を半分ずつに分割し，1候補になったら評価する
+     * 打ち切りで候補ごとの所要時間がばらつくため，細かく分けて空いたワーカーに盗ませる
+     */
+    private class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Result[] results;
+        private final int from, to;
+
+        EvaluateTask(Result[] results, int from, int to) {
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) score(results[from]);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new EvaluateTask(results, from, mid), new EvaluateTask(results, mid, to));
+        }
+    }
+
+    private class PrepareTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PDRConfig config;
+        private final int from, to;
+
+        PrepareTask(PDRConfig config, int from, int to) {
+            this.config = config;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) trials.get(from).evaluate(config, new double[maxWaypoints]);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new PrepareTask(config, from, mid), new PrepareTask(config, mid, to));
+        }
+    }
+
+    private void score(Result result) {
+        PDRConfig config = space.apply(base, result.values);
+        double[] errors = new double[maxWaypoints];
+        double sum = 0;
+        double max = 0;
+        evaluations.incrementAndGet();
+        for (RecordedTrial trial : trials) {
+            sum += trial.evaluate(config, errors);
+            trialRuns.incrementAndGet();
+            result.trialsEvaluated++;
+            for (int i = 0; i < trial.getWaypointCount(); i++) {
+                max = Math.max(max, errors[i]);
+            }
+            // 残りの試行の誤差が0でも最良を超えるなら打ち切る
+            if (sum / totalWaypoints > getBestScore()) {
+                result.pruned = true;
+                result.score = sum / totalWaypoints;
+                result.maxError = max;
+                prunedCount.incrementAndGet();
+                return;
+            }
+        }
+        result.score = sum / totalWaypoints;
+        result.maxError = max;
+        updateBest(result.score);
+    }
+
+    private void updateBest(double score) {
+        while (true) {
+            long bits = bestBits.get();
+            if (score >= Double.longBitsToDouble(bits)) return;
+            if (bestBits.compareAndSet(bits, Double.doubleToLongBits(score))) return;
+        }
+    }
+
+    private static void sort(List<Result> results) {
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(Result a, Result b) {
+                if (a.pruned != b.pruned) return a.pruned ? 1 : -1;
+                return Double.compare(a.score, b.score);
+            }
+        });
+    }
+
+    // ========== Getterメソッド・表示 ==========
+
+    public double getBestScore() { return Double.longBitsToDouble(bestBits.get()); }
+    public long getEvaluationCount() { return evaluations.get(); }
+    public long getPrunedCount() { return prunedCount.get(); }
+    /** 試行1本の再処理を行った回数（打ち切りで全候補×全試行より少なくなる） */
+    public long getTrialRunCount() { return trialRuns.get(); }
+    public int getTotalWaypoints() { return totalWaypoints; }
+
+    /**
+     * 上位top件の順位表
+     */
+    public String formatTable(List<Result> results, int top) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%4s %10s %10s %7s  %s%n", "rank", "mean[m]", "max[m]", "trials", "parameters"));
+        int n = Math.min(top, results.size());
+        for (int i = 0; i < n; i++) {
+            Result r = results.get(i);
+            sb.append(String.format(Locale.US, "%4d %10.3f %10.3f %7s  %s%n",
+                    i + 1, r.score, r.maxError,
+                    r.pruned ? r.trialsEvaluated + "*" : Integer.toString(r.trialsEvaluated),
+                    space.format(r.values)));
+        }
+        sb.append(String.format(Locale.US, "evaluated=%d pruned=%d trialRuns=%d/%d (*: pruned, mean is a lower bound)%n",
+                getEvaluationCount(), getPrunedCount(), getTrialRunCount(), getEvaluationCount() * trials.size()));
+        return sb.toString();
+    }
+
+    // ========== 単体起動 ==========
+
+    /**
+     * 使い方: ParameterSweep <dir> [grid|random|bayes] [evaluations] [threads] [cacheMB] [spillDir] [tcsle|heading]
+     * dir直下の…_sensor.csv / …_events.csvの組をすべて読み込み，探索空間（既定はtcsle）でスイープする
+     * spillDirに-を指定するとディスクへの書き出しなし
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ParameterSweep <dir> [grid|random|bayes] [evaluations] [threads] [cacheMB] [spillDir] [tcsle|heading]");
+            return;
+        }
+        String mode = args.length > 1 ? args[1] : "bayes";
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long cacheBytes = (args.length > 4 ? Long.parseLong(args[4]) : 1024L) << 20;
+        File spillDir = args.length > 5 && !args[5].equals("-") ? new File(args[5]) : null;
+        String spaceName = args.length > 6 ? args[6] : "tcsle";
+        ParameterSpace space = spaceName.equals("heading") ? ParameterSpace.heading() : ParameterSpace.tcsle();
+
+        StageCache cache = new StageCache(cacheBytes, spillDir);
+        List<RecordedTrial> trials = new ArrayList<>();
+        for (File f : TrialCsv.findTrials(new File(args[0]))) {
+            RecordedTrial t = RecordedTrial.load(f, cache);
+            if (t.getWaypointCount() > 0) trials.add(t);
+        }
+        System.out.printf(Locale.US, "trials=%d threads=%d mode=%s space=%s%n", trials.size(), threads, mode, spaceName);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ParameterSweep sweep = new ParameterSweep(TrialCsv.replayConfig(new PDRConfig()),
+                space, trials, pool);
+        long t0 = System.nanoTime();
+        List<Result> results;
+        if (mode.equals("grid")) {
+            results = sweep.grid();
+        } else if (mode.equals("random")) {
+            results = sweep.random(count, 1);
+        } else {
+            results = sweep.bayesian(count, 4 * threads, 1);
+        }
+        double sec = (System.nanoTime() - t0) * 1e-9;
+        pool.shutdown();
+
+        System.out.print(sweep.formatTable(results, 20));
+        System.out.printf(Locale.US, "elapsed=%.1fs (%.1f evaluations/s) cache: %s%n",
+                sec, sweep.getEvaluationCount() / sec, cache.dump());
+    }
+}
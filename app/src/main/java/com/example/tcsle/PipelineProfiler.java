@@ -0,0 +1,108 @@
+package com.example.tcsle;
+
+/**
+ * センサーパイプラインのステージ別レイテンシ計測
+ * onSensorChangedから状態公開までの各区間をLogHistogramに記録する
+ * 計測はSystem.nanoTime()と配列加算のみで，本番でも常時有効にしておける
+ */
+public class PipelineProfiler {
+    // ========== ステージ定義 ==========
+    public static final int STAGE_RESAMPLE = 0;     // リサンプリングループ全体（1コールバックあたり，下位ステージを含む）
+    public static final int STAGE_PREFILTER = 1;    // バイアス補正＋カルマンフィルタ
+    public static final int STAGE_STEP = 2;         // 歩行検出（歩幅推定・位置更新を含む）
+    public static final int STAGE_ORIENTATION = 3;  // CF＋クォータニオン更新＋方位計算
+    public static final int STAGE_ENCODE = 4;       // 記録する1行分のデータの組み立て
+    public static final int STAGE_WRITE = 5;        // ジャーナルのバッファへの追記（ファイルへの書き込みは別スレッド）
+    public static final int STAGE_COUNT = 6;
+
+    private static final String[] STAGE_NAMES = {
+            "resample", "prefilter", "step", "orientation", "encode", "write"
+    };
+
+    private final LogHistogram[] stageNs = new LogHistogram[STAGE_COUNT];
+    private final LogHistogram ticksPerCallback = new LogHistogram();
+    private long callbackCount = 0;
+    private long tickCount = 0;
+    private int maxCatchUpTicks = 0;
+    private boolean enabled = true;
+
+    public PipelineProfiler() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            stageNs[i] = new LogHistogram();
+        }
+    }
+
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * 計測開始時刻を取得（無効時は0を返し，record側も何もしない）
+     */
+    public long begin() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    public void end(int stage, long beginNs) {
+        if (!enabled) return;
+        stageNs[stage].record(System.nanoTime() - beginNs);
+    }
+
+    /**
+     * 1コールバックで処理した補間ティック数を記録
+     */
+    public void recordCallback(int ticks) {
+        if (!enabled) return;
+        callbackCount++;
+        tickCount += ticks;
+        ticksPerCallback.record(ticks);
+        if (ticks > maxCatchUpTicks) maxCatchUpTicks = ticks;
+    }
+
+    public void reset() {
+        for (LogHistogram h : stageNs) {
+            h.reset();
+        }
+        ticksPerCallback.reset();
+        callbackCount = 0;
+        tickCount = 0;
+        maxCatchUpTicks = 0;
+    }
+
+    // ========== Getterメソッド ==========
+
+    public LogHistogram getStageHistogram(int stage) { return stageNs[stage]; }
+    public LogHistogram getTicksPerCallback() { return ticksPerCallback; }
+    public long getCallbackCount() { return callbackCount; }
+    public long getTickCount() { return tickCount; }
+    public int getMaxCatchUpTicks() { return maxCatchUpTicks; }
+
+    public static String getStageName(int stage) { return STAGE_NAMES[stage]; }
+
+    /**
+     * スナップショットを文字列で出力（logcat・ファイル保存用）
+     * 呼び出し時のみアロケーションが発生する
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("# Pipeline latency (us)\n");
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            sb.append(STAGE_NAMES[i]).append(": ");
+            stageNs[i].appendSummary(sb, 1000.0);
+            sb.append('\n');
+        }
+        sb.append("# Ticks per callback\n");
+        sb.append("callbacks=").append(callbackCount)
+                .append(" ticks=").append(tickCount)
+                .append(" maxCatchUp=").append(maxCatchUpTicks).append('\n');
+        sb.append("ticksPerCallback: ");
+        ticksPerCallback.appendSummary(sb, 1.0);
+        sb.append('\n');
+        sb.append("# Buckets (ns)\n");
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            sb.append(STAGE_NAMES[i]).append(": ");
+            stageNs[i].appendBuckets(sb);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
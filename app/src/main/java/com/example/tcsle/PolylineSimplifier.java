@@ -0,0 +1,107 @@
+package com.example.tcsle;
+
+import java.util.Arrays;
+
+/**
+ * 逐次的な折れ線の間引き（ストリーミング版のDouglas–Peucker）
+ *
+ * 最後に確定した頂点Aから現在の末尾Pまでの線分に対し，間の点がすべて許容誤差以内なら
+ * 確定を保留する．はみ出した点が出た時点で直前の末尾を頂点として確定する
+ * 保留できる点数に上限を設けるため，1点の追加はO(maxPending)で済む
+ * 確定した頂点は以後動かないので，描画側は増えた分だけ描き足せばよい
+ */
+public class PolylineSimplifier {
+    private final float tolerance;
+    private final float[] pendingX;
+    private final float[] pendingY;
+    private int pendingCount = 0;
+
+    private float[] xs = new float[256];
+    private float[] ys = new float[256];
+    private int size = 0;
+
+    /**
+     * @param tolerance  許容誤差（座標と同じ単位）
+     * @param maxPending 確定を保留する点数の上限
+     */
+    public PolylineSimplifier(float tolerance, int maxPending) {
+        if (tolerance < 0 || maxPending < 1) {
+            throw new IllegalArgumentException("tolerance=" + tolerance + " maxPending=" + maxPending);
+        }
+        this.tolerance = tolerance;
+        this.pendingX = new float[maxPending];
+        this.pendingY = new float[maxPending];
+    }
+
+    /**
+     * 点を追加する
+     * @return 頂点が新たに確定した場合true
+     */
+    public boolean add(float x, float y) {
+        if (size == 0) {
+            commit(x, y);
+            return true;
+        }
+        boolean split = pendingCount == pendingX.length;
+        if (!split) {
+            float ax = xs[size - 1];
+            float ay = ys[size - 1];
+            for (int i = 0; i < pendingCount; i++) {
+                if (segmentDistance(pendingX[i], pendingY[i], ax, ay, x, y) > tolerance) {
+                    split = true;
+                    break;
+                }
+            }
+        }
+        if (split) {
+            commit(pendingX[pendingCount - 1], pendingY[pendingCount - 1]);
+            pendingCount = 0;
+        }
+        pendingX[pendingCount] = x;
+        pendingY[pendingCount] = y;
+        pendingCount++;
+        return split;
+    }
+
+    public void clear() {
+        size = 0;
+        pendingCount = 0;
+    }
+
+    private void commit(float x, float y) {
+        if (size == xs.length) {
+            xs = Arrays.copyOf(xs, size * 2);
+            ys = Arrays.copyOf(ys, size * 2);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+    }
+
+    /**
+     * 点(px, py)と線分(ax, ay)-(bx, by)の距離
+     */
+    static float segmentDistance(float px, float py, float ax, float ay, float bx, float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float len2 = dx * dx + dy * dy;
+        float t = len2 == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / len2;
+        if (t < 0) t = 0;
+        else if (t > 1) t = 1;
+        float ex = px - (ax + t * dx);
+        float ey = py - (ay + t * dy);
+        return (float) Math.sqrt(ex * ex + ey * ey);
+    }
+
+    // ========== Getterメソッド ==========
+
+    /** 確定した頂点数 */
+    public int size() { return size; }
+    public float xAt(int i) { return xs[i]; }
+    public float yAt(int i) { return ys[i]; }
+    /** 未確定の末尾（最後に追加した点）があるか */
+    public boolean hasTail() { return pendingCount > 0; }
+    public float getTailX() { return pendingX[pendingCount - 1]; }
+    public float getTailY() { return pendingY[pendingCount - 1]; }
+    public float getTolerance() { return tolerance; }
+}
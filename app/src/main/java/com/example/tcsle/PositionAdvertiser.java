@@ -0,0 +1,14 @@
+package com.example.tcsle;
+
+/**
+ * BLEアドバタイズの抽象化
+ * 端末ではAndroidPositionAdvertiser，JVMテストでは記録用のフェイクを使用する
+ */
+public interface PositionAdvertiser {
+    /**
+     * payload[0, length) を発信（発信中であれば内容を更新）
+     */
+    void advertise(byte[] payload, int length);
+
+    void stop();
+}
@@ -0,0 +1,21 @@
+package com.example.tcsle;
+
+/**
+ * BLEマニュファクチャデータのエンコーダ
+ * 実装は事前確保したバッファへ書き込み，encode()ではアロケーションを行わない
+ */
+public interface PositionPayloadEncoder {
+    /**
+     * 現在の状態をバッファへ書き込む
+     * @param source 位置情報の取得元（nullの場合は原点として扱う）
+     * @param wallTimeMs 壁時計時刻（System.currentTimeMillis()）
+     * @param flag 発信種別フラグ
+     * @return 書き込んだバイト数
+     */
+    int encode(PositionSource source, long wallTimeMs, byte flag);
+
+    /**
+     * encode()の書き込み先バッファ（次回のencode()で上書きされる）
+     */
+    byte[] getBuffer();
+}
@@ -0,0 +1,16 @@
+package com.example.tcsle;
+
+/**
+ * BLE発信などが参照する公開済みPDR状態
+ * 座標は出力座標系（getX()/getY()と同じ）
+ */
+public interface PositionSource {
+    double getX();
+    double getY();
+    int getStepCount();
+
+    /**
+     * 測定開始からの単調増加時間（ns）
+     */
+    long getElapsedTimeNs();
+}
@@ -0,0 +1,93 @@
+package com.example.tcsle;
+
+/**
+ * 角速度からのクォータニオン積分（q ← q ⊗ Δq）
+ *
+ * EULER        : 1次（従来のupdateQuaternion）．ノルムが 1 + |ω|²dt²/4 ずつ増えるため毎回の正規化が必要
+ * EXPONENTIAL  : 指数写像．1ステップ内の角速度が一定なら厳密で，ノルムも保存される
+ * SECOND_ORDER : 指数写像の2次Taylor展開．三角関数なしで，回転角誤差・ノルム誤差ともEULERより桁違いに小さい
+ *
+ * 更新レートを下げる（dtを大きくする）ほど差が大きくなる
+ */
+public final class QuaternionIntegrator {
+    public static final int EULER = 0;
+    public static final int EXPONENTIAL = 1;
+    public static final int SECOND_ORDER = 2;
+
+    private static final String[] NAMES = {"euler", "exp", "2nd"};
+
+    // 回転角がこれ未満ならsin(x)/xをTaylor展開で計算
+    private static final float SMALL_ANGLE = 1e-4f;
+
+    private QuaternionIntegrator() {}
+
+    public static String getName(int method) { return NAMES[method]; }
+
+    public static void integrate(int method, float[] q, float wx, float wy, float wz, float dt) {
+        switch (method) {
+            case EXPONENTIAL:
+                integrateExponential(q, wx, wy, wz, dt);
+                break;
+            case SECOND_ORDER:
+                integrateSecondOrder(q, wx, wy, wz, dt);
+                break;
+            default:
+                integrateEuler(q, wx, wy, wz, dt);
+                break;
+        }
+    }
+
+    public static void integrateEuler(float[] q, float wx, float wy, float wz, float dt) {
+        float q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+
+        q[0] += dt/2 * (-q1*wx - q2*wy - q3*wz);
+        q[1] += dt/2 * (q0*wx + q2*wz - q3*wy);
+        q[2] += dt/2 * (q0*wy - q1*wz + q3*wx);
+        q[3] += dt/2 * (q0*wz + q1*wy - q2*wx);
+    }
+
+    /**
+     * Δq = [cos(θ/2), sin(θ/2)·ω/|ω|]，θ = |ω|dt
+     */
+    public static void integrateExponential(float[] q, float wx, float wy, float wz, float dt) {
+        float wNorm = (float) Math.sqrt(wx * wx + wy * wy + wz * wz);
+        float half = 0.5f * wNorm * dt;
+        float c;
+        float s;  // sin(θ/2)/|ω|
+        if (half < SMALL_ANGLE) {
+            c = 1f - half * half / 2;
+            s = 0.5f * dt * (1f - half * half / 6);
+        } else {
+            c = (float) Math.cos(half);
+            s = (float) Math.sin(half) / wNorm;
+        }
+        multiply(q, c, wx * s, wy * s, wz * s);
+    }
+
+    /**
+     * Δq ≈ [1 - θ²/8, (dt/2)·ω·(1 - θ²/24)]（cos(θ/2)・sin(θ/2)/θ をθの2次まで展開）
+     */
+    public static void integrateSecondOrder(float[] q, float wx, float wy, float wz, float dt) {
+        float theta2 = (wx * wx + wy * wy + wz * wz) * dt * dt;
+        float h = 0.5f * dt * (1f - theta2 / 24);
+        multiply(q, 1f - theta2 / 8, wx * h, wy * h, wz * h);
+    }
+
+    /**
+     * q ← q ⊗ (d0, d1, d2, d3)
+     */
+    private static void multiply(float[] q, float d0, float d1, float d2, float d3) {
+        float q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+        q[0] = q0*d0 - q1*d1 - q2*d2 - q3*d3;
+        q[1] = q0*d1 + q1*d0 + q2*d3 - q3*d2;
+        q[2] = q0*d2 - q1*d3 + q2*d0 + q3*d1;
+        q[3] = q0*d3 + q1*d2 - q2*d1 + q3*d0;
+    }
+
+    public static void normalize(float[] q) {
+        float norm = (float) Math.sqrt(q[0]*q[0] + q[1]*q[1] + q[2]*q[2] + q[3]*q[3]);
+        for (int i = 0; i < 4; i++) {
+            q[i] /= norm;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.tcsle;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 評価用の1試行（センサー列と地点通過の正解）
+ * 再処理はStagedReplayで行うため，同じStageCacheを共有すれば前段の結果は試行ごとに1回だけ計算される
+ */
+public class RecordedTrial {
+    private final String id;
+    private final RouteEvents events;
+    private final StagedReplay replay;
+    private final int sampleCount;
+
+    public RecordedTrial(String id, SampleBatch samples, RouteEvents events, StageCache cache) {
+        this.id = id;
+        this.events = events;
+        this.replay = new StagedReplay(id, samples, cache);
+        this.sampleCount = samples.size();
+    }
+
+    /**
+     * …_sensor.csvと対応する…_events.csvを読み込む
+     */
+    public static RecordedTrial load(File sensorFile, StageCache cache) throws IOException {
+        File eventFile = TrialCsv.eventFileFor(sensorFile);
+        if (eventFile == null) {
+            throw new IOException("Event CSV not found for " + sensorFile);
+        }
+        return new RecordedTrial(TrialCsv.trialId(sensorFile), TrialCsv.readSensorCsv(sensorFile),
+                TrialCsv.readEventCsv(eventFile), cache);
+    }
+
+    /**
+     * 設定configで再処理し，各地点通過時刻における推定位置と正解位置の距離を求める
+     * 初期位置・初期方位はMainActivity.startTrackingと同じくルートの地点0・地点1から
+     * @param errors 出力（長さgetWaypointCount()以上）[m]
+     * @return 誤差の合計 [m]
+     */
+    public double evaluate(PDRConfig config, double[] errors) {
+        StepTrajectory trajectory = replay.run(config, events.getStartX(), events.getStartY(),
+                events.getInitialHeadingOffset());
+        double sum = 0;
+        for (int i = 0; i < events.size(); i++) {
+            int s = trajectory.indexAt(events.timeNsAt(i));
+            double x = s < 0 ? events.getStartX() : trajectory.xAt(s);
+            double y = s < 0 ? events.getStartY() : trajectory.yAt(s);
+            double dx = x - events.targetXAt(i);
+            double dy = y - events.targetYAt(i);
+            errors[i] = Math.sqrt(dx * dx + dy * dy);
+            sum += errors[i];
+        }
+        return sum;
+    }
+
+    public String getId() { return id; }
+    public RouteEvents getEvents() { return events; }
+    public int getWaypointCount() { return events.size(); }
+    public int getSampleCount() { return sampleCount; }
+    public StagedReplay getReplay() { return replay; }
+}
@@ -0,0 +1,74 @@
+package com.example.tcsle;
+
+import java.util.Arrays;
+
+/**
+ * 試行の地点通過記録（ADVERTISE/PASS）．評価の正解位置として使う
+ * 時刻はセンサーCSVの時刻列と同じ時計（PDRServiceの記録開始からの経過時間）
+ */
+public class RouteEvents {
+    private long[] timeNs = new long[16];
+    private int[] routePoint = new int[16];
+    private float[] targetX = new float[16];
+    private float[] targetY = new float[16];
+    private boolean[] advertise = new boolean[16];
+    private int size;
+
+    // ルートの地点0と地点1（初期位置・初期方位の算出用）
+    private boolean hasStart;
+    private float startX, startY;
+    private boolean hasNext;
+    private float nextX, nextY;
+
+    void add(long t, int point, float x, float y, boolean isAdvertise) {
+        if (size == timeNs.length) {
+            int n = size * 2;
+            timeNs = Arrays.copyOf(timeNs, n);
+            routePoint = Arrays.copyOf(routePoint, n);
+            targetX = Arrays.copyOf(targetX, n);
+            targetY = Arrays.copyOf(targetY, n);
+            advertise = Arrays.copyOf(advertise, n);
+        }
+        timeNs[size] = t;
+        routePoint[size] = point;
+        targetX[size] = x;
+        targetY[size] = y;
+        advertise[size] = isAdvertise;
+        size++;
+        setRoutePoint(point, x, y);
+    }
+
+    void setRoutePoint(int point, float x, float y) {
+        if (point == 0 && !hasStart) {
+            hasStart = true;
+            startX = x;
+            startY = y;
+        } else if (point == 1 && !hasNext) {
+            hasNext = true;
+            nextX = x;
+            nextY = y;
+        }
+    }
+
+    /**
+     * MainActivity.startTrackingと同じ初期方位オフセット（地点0→地点1．不明なら0）
+     */
+    public double getInitialHeadingOffset() {
+        if (!hasStart || !hasNext) return 0.0;
+        return Math.atan2(nextY - startY, nextX - startX);
+    }
+
+    public boolean hasStart() { return hasStart; }
+    public float getStartX() { return startX; }
+    public float getStartY() { return startY; }
+    public boolean hasNext() { return hasNext; }
+    public float getNextX() { return nextX; }
+    public float getNextY() { return nextY; }
+
+    public int size() { return size; }
+    public long timeNsAt(int i) { return timeNs[i]; }
+    public int routePointAt(int i) { return routePoint[i]; }
+    public float targetXAt(int i) { return targetX[i]; }
+    public float targetYAt(int i) { return targetY[i]; }
+    public boolean isAdvertiseAt(int i) { return advertise[i]; }
+}
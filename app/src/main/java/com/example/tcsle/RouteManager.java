@@ -390,6 +390,23 @@ public class RouteManager {
         }
     }
 
+    /**
+     * プロセス再起動後，チェックポイントの進行状況から測定を再開する
+     */
+    public boolean resumeMeasurement(String routeId, int trialNumber, int routePoint, int advertiseCount) {
+        currentRoute = getRoute(routeId);
+        if (currentRoute == null || !currentRoute.isValid()) {
+            Log.e(TAG, "Cannot resume measurement: unknown route " + routeId);
+            return false;
+        }
+        currentRoutePoint = routePoint;
+        this.advertiseCount = advertiseCount;
+        currentTrialNumber = trialNumber;
+        isMeasuring = true;
+        Log.i(TAG, "Resumed measurement for " + routeId + " Trial " + trialNumber + " at point " + routePoint);
+        return true;
+    }
+
     public void stopMeasurement() {
         isMeasuring = false;
         Log.i(TAG, "Stopped measurement");
@@ -0,0 +1,56 @@
+package com.example.tcsle;
+
+/**
+ * 1セッション分のセンサーサンプルのまとまり（到着順）
+ * プリミティブ配列で保持し，再利用してアロケーションを避ける
+ */
+public class SampleBatch {
+    private final boolean[] isAccel;
+    private final long[] timeNs;
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private int size = 0;
+
+    public SampleBatch(int capacity) {
+        isAccel = new boolean[capacity];
+        timeNs = new long[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        z = new float[capacity];
+    }
+
+    /**
+     * サンプルを追加（満杯ならfalse）
+     */
+    public boolean add(boolean accel, long t, float vx, float vy, float vz) {
+        if (size == timeNs.length) return false;
+        isAccel[size] = accel;
+        timeNs[size] = t;
+        x[size] = vx;
+        y[size] = vy;
+        z[size] = vz;
+        size++;
+        return true;
+    }
+
+    /**
+     * すべてのサンプルを順にエンジンへ投入
+     */
+    public void feed(PDREngine engine) {
+        for (int i = 0; i < size; i++) {
+            engine.onSample(isAccel[i], timeNs[i], x[i], y[i], z[i]);
+        }
+    }
+
+    public void clear() { size = 0; }
+
+    public int size() { return size; }
+    public int capacity() { return timeNs.length; }
+    public boolean isFull() { return size == timeNs.length; }
+    public boolean isAccelAt(int i) { return isAccel[i]; }
+    public long timeNsAt(int i) { return timeNs[i]; }
+    public float xAt(int i) { return x[i]; }
+    public float yAt(int i) { return y[i]; }
+    public float zAt(int i) { return z[i]; }
+}
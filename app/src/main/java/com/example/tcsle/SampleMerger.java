@@ -0,0 +1,174 @@
+package com.example.tcsle;
+
+/**
+ * FIFOバッチ配信されたセンサーサンプルを時刻順に並べ直してPDREngineへ渡す（Android非依存）
+ *
+ * バッチ配信では加速度と姿勢系（ジャイロまたは回転ベクトル）のバーストが別々に，ずれた位相で届く
+ * そのままエンジンに渡すと，姿勢更新が別時刻の加速度を使ったり，歩行確定が古い方位を使ったりする
+ * そこで両ストリームを保持し，「両方のストリームで受信済みの最新時刻」以下のサンプルだけを時刻順に放出する
+ * 時刻はサンプルのタイムスタンプのみを使い，コールバックの時刻は使わない
+ *
+ * 一方のストリームが止まった場合に備え，容量を超えるかmaxLagNsより古くなったサンプルは待たずに放出する
+ */
+public class SampleMerger {
+    public static final int STREAM_ACCEL = 0;
+    public static final int STREAM_ORIENTATION = 1;  // ジャイロ，またはheadingSourceがROTATION_VECTORなら回転ベクトル
+    private static final int STREAM_COUNT = 2;
+
+    private final PDREngine engine;
+    private final boolean rotationVector;
+    private final long maxLagNs;
+    private final int capacity;
+
+    // ストリームごとのリング（時刻, 値4つ）
+    private final long[][] time = new long[STREAM_COUNT][];
+    private final float[][] v0 = new float[STREAM_COUNT][];
+    private final float[][] v1 = new float[STREAM_COUNT][];
+    private final float[][] v2 = new float[STREAM_COUNT][];
+    private final float[][] v3 = new float[STREAM_COUNT][];
+    private final int[] head = new int[STREAM_COUNT];
+    private final int[] size = new int[STREAM_COUNT];
+    private final long[] latest = {Long.MIN_VALUE, Long.MIN_VALUE};
+
+    private long emitted = 0;
+    private long forced = 0;  // 相手ストリームを待たずに放出した数
+    private long dropped = 0;  // 同じストリーム内で時刻が逆行したため捨てた数
+
+    /**
+     * @param capacity ストリームごとに保持できるサンプル数（最大レイテンシ分のサンプル数の2倍程度）
+     * @param maxLagNs 相手ストリームを待つ最大時間
+     */
+    public SampleMerger(PDREngine engine, int capacity, long maxLagNs) {
+        this.engine = engine;
+        this.rotationVector = engine.getConfig().headingSource == PDRConfig.HEADING_SOURCE_ROTATION_VECTOR;
+        this.capacity = capacity;
+        this.maxLagNs = maxLagNs;
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            time[s] = new long[capacity];
+            v0[s] = new float[capacity];
+            v1[s] = new float[capacity];
+            v2[s] = new float[capacity];
+            v3[s] = new float[capacity];
+        }
+    }
+
+    // ========== 入力 ==========
+
+    public void onAccelerometer(long timestampNs, float[] values) {
+        add(STREAM_ACCEL, timestampNs, values[0], values[1], values[2], 0f);
+    }
+
+    public void onGyroscope(long timestampNs, float[] values) {
+        add(STREAM_ORIENTATION, timestampNs, values[0], values[1], values[2], 0f);
+    }
+
+    /**
+     * @param values x, y, z[, w]
+     */
+    public void onRotationVector(long timestampNs, float[] values) {
+        float x = values[0], y = values[1], z = values[2];
+        float w = values.length > 3 ? values[3] : (float) Math.sqrt(Math.max(0f, 1f - x * x - y * y - z * z));
+        add(STREAM_ORIENTATION, timestampNs, x, y, z, w);
+    }
+
+    public void add(int stream, long t, float a, float b, float c, float d) {
+        if (t <= latest[stream]) {
+            dropped++;
+            return;
+        }
+        if (size[stream] == capacity) {
+            // 満杯なら最古のサンプルを先に放出して場所を空ける
+            emitOldest(true);
+        }
+        int i = (head[stream] + size[stream]) % capacity;
+        time[stream][i] = t;
+        v0[stream][i] = a;
+        v1[stream][i] = b;
+        v2[stream][i] = c;
+        v3[stream][i] = d;
+        size[stream]++;
+        latest[stream] = t;
+        drain();
+    }
+
+    /**
+     * 両ストリームで受信済みの時刻までを時刻順に放出
+     */
+    public void drain() {
+        long watermark = Math.min(latest[STREAM_ACCEL], latest[STREAM_ORIENTATION]);
+        long newest = Math.max(latest[STREAM_ACCEL], latest[STREAM_ORIENTATION]);
+        while (true) {
+            int s = oldestStream();
+            if (s < 0) return;
+            long t = time[s][head[s]];
+            if (t <= watermark) {
+                emit(s);
+            } else if (newest - t > maxLagNs) {
+                forced++;
+                emit(s);
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 保持中のサンプルをすべて時刻順に放出（計測終了時）
+     */
+    public void flush() {
+        while (emitOldest(false)) {
+        }
+    }
+
+    public void reset() {
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            head[s] = 0;
+            size[s] = 0;
+            latest[s] = Long.MIN_VALUE;
+        }
+        emitted = 0;
+        forced = 0;
+        dropped = 0;
+    }
+
+    // ========== 放出 ==========
+
+    private int oldestStream() {
+        int best = -1;
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            if (size[s] == 0) continue;
+            if (best < 0 || time[s][head[s]] < time[best][head[best]]) best = s;
+        }
+        return best;
+    }
+
+    private boolean emitOldest(boolean countForced) {
+        int s = oldestStream();
+        if (s < 0) return false;
+        if (countForced) forced++;
+        emit(s);
+        return true;
+    }
+
+    private void emit(int s) {
+        int i = head[s];
+        long t = time[s][i];
+        head[s] = (i + 1) % capacity;
+        size[s]--;
+        emitted++;
+        if (s == STREAM_ACCEL) {
+            engine.onSample(true, t, v0[s][i], v1[s][i], v2[s][i]);
+        } else if (rotationVector) {
+            engine.onRotationVector(t, v3[s][i], v0[s][i], v1[s][i], v2[s][i]);
+        } else {
+            engine.onSample(false, t, v0[s][i], v1[s][i], v2[s][i]);
+        }
+    }
+
+    // ========== Getterメソッド ==========
+
+    public int getBuffered(int stream) { return size[stream]; }
+    public long getEmitted() { return emitted; }
+    public long getForced() { return forced; }
+    public long getDropped() { return dropped; }
+}
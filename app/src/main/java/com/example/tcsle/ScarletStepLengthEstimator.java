@@ -0,0 +1,38 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scarlet式（1歩区間の平均値が最小・最大の間のどこにあるか）
+ * L = scarletK · (mean − min) / (max − min)
+ * 振幅ではなく波形の形に依存するため，端末の感度差の影響を受けにくい
+ */
+public class ScarletStepLengthEstimator implements StepLengthEstimator {
+    private final float scarletK;
+
+    public ScarletStepLengthEstimator(PDRConfig config) {
+        this.scarletK = config.scarletK;
+    }
+
+    @Override
+    public float estimate(StepFeatures f) {
+        float range = f.windowMax - f.windowMin;
+        if (range <= 0) return 0f;
+        return scarletK * (f.apMean - f.windowMin) / range;
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+    }
+
+    @Override
+    public void restoreState(ByteBuffer in) {
+    }
+
+    @Override
+    public String getName() { return "scarlet"; }
+}
@@ -0,0 +1,165 @@
+package com.example.tcsle;
+
+import java.util.Locale;
+
+/**
+ * センサー配信の健全性メトリクス
+ * 到着間隔のばらつき・欠損・補間による追い付き・加速度/ジャイロ間のタイムスタンプずれを記録する
+ * 端末やOSバージョンによるセンサー間引き（スロットリング）を検出するために使用
+ */
+public class SensorHealthMonitor {
+    public static final int SENSOR_ACCEL = 0;
+    public static final int SENSOR_GYRO = 1;
+    public static final int SENSOR_ROTATION_VECTOR = 2;
+    private static final int SENSOR_COUNT = 3;
+    private static final String[] SENSOR_NAMES = {"accel", "gyro", "rotvec"};
+
+    // ========== センサー別統計 ==========
+    public static class StreamStats {
+        private long requestedPeriodNs = 0;
+        private long eventCount = 0;
+        private long firstTimestamp = 0;
+        private long lastTimestamp = 0;
+        private long largestGapNs = 0;
+        private long interpolatedTicks = 0;
+        private long zeroTickEvents = 0;
+        private long discontinuities = 0;
+        private final LogHistogram intervalNs = new LogHistogram();
+        private final LogHistogram ticksPerEvent = new LogHistogram();
+
+        void reset() {
+            eventCount = 0;
+            firstTimestamp = 0;
+            lastTimestamp = 0;
+            largestGapNs = 0;
+            interpolatedTicks = 0;
+            zeroTickEvents = 0;
+            discontinuities = 0;
+            intervalNs.reset();
+            ticksPerEvent.reset();
+        }
+
+        public long getEventCount() { return eventCount; }
+        public long getLargestGapNs() { return largestGapNs; }
+        public long getInterpolatedTicks() { return interpolatedTicks; }
+        public long getZeroTickEvents() { return zeroTickEvents; }
+        public long getDiscontinuities() { return discontinuities; }
+        public LogHistogram getIntervalHistogram() { return intervalNs; }
+        public LogHistogram getTicksPerEventHistogram() { return ticksPerEvent; }
+        public long getLastTimestamp() { return lastTimestamp; }
+
+        public double getRequestedRateHz() {
+            return requestedPeriodNs > 0 ? 1e9 / requestedPeriodNs : 0.0;
+        }
+
+        /**
+         * 実際に得られた配信レート（初回～最終イベントの平均）
+         */
+        public double getAchievedRateHz() {
+            long span = lastTimestamp - firstTimestamp;
+            if (eventCount < 2 || span <= 0) return 0.0;
+            return (eventCount - 1) * 1e9 / span;
+        }
+    }
+
+    private final StreamStats[] streams = new StreamStats[SENSOR_COUNT];
+    private final LogHistogram skewNs = new LogHistogram();
+    private long maxSkewNs = 0;
+
+    public SensorHealthMonitor() {
+        for (int i = 0; i < SENSOR_COUNT; i++) {
+            streams[i] = new StreamStats();
+        }
+    }
+
+    public void setRequestedPeriodUs(int sensor, int periodUs) {
+        streams[sensor].requestedPeriodNs = periodUs * 1000L;
+    }
+
+    /**
+     * センサーイベント到着時に呼ぶ（リサンプリング前）
+     */
+    public void onEvent(int sensor, long timestamp) {
+        StreamStats s = streams[sensor];
+        if (s.eventCount == 0) {
+            s.firstTimestamp = timestamp;
+        } else {
+            long interval = timestamp - s.lastTimestamp;
+            s.intervalNs.record(interval);
+            if (interval > s.largestGapNs) s.largestGapNs = interval;
+        }
+        s.lastTimestamp = timestamp;
+        s.eventCount++;
+
+        // もう一方のセンサーとの時刻ずれ（加速度・ジャイロの両方受信済みの場合のみ）
+        if (sensor == SENSOR_ROTATION_VECTOR) return;
+        StreamStats other = streams[sensor == SENSOR_ACCEL ? SENSOR_GYRO : SENSOR_ACCEL];
+        if (other.eventCount > 0) {
+            long skew = Math.abs(timestamp - other.lastTimestamp);
+            skewNs.record(skew);
+            if (skew > maxSkewNs) maxSkewNs = skew;
+        }
+    }
+
+    /**
+     * 1イベントから生成された補間ティック数を記録
+     */
+    public void onInterpolated(int sensor, int ticks) {
+        StreamStats s = streams[sensor];
+        s.ticksPerEvent.record(ticks);
+        s.interpolatedTicks += ticks;
+        if (ticks == 0) s.zeroTickEvents++;
+    }
+
+    /**
+     * 補間上限を超える欠損で，リサンプリング格子をリセットした場合に呼ぶ
+     */
+    public void onDiscontinuity(int sensor) {
+        streams[sensor].discontinuities++;
+    }
+
+    public void reset() {
+        for (StreamStats s : streams) {
+            s.reset();
+        }
+        skewNs.reset();
+        maxSkewNs = 0;
+    }
+
+    // ========== Getterメソッド ==========
+
+    public StreamStats getStream(int sensor) { return streams[sensor]; }
+    public LogHistogram getSkewHistogram() { return skewNs; }
+    public long getMaxSkewNs() { return maxSkewNs; }
+
+    /**
+     * 試行ごとに保存するレポート
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder(1024);
+        for (int i = 0; i < SENSOR_COUNT; i++) {
+            StreamStats s = streams[i];
+            // 登録していないセンサー（方位の入力元によって異なる）は省略
+            if (s.eventCount == 0 && s.requestedPeriodNs == 0) continue;
+            sb.append("# ").append(SENSOR_NAMES[i]).append('\n');
+            sb.append(String.format(Locale.US,
+                    "events=%d requestedHz=%.1f achievedHz=%.1f largestGapMs=%.2f ticks=%d zeroTickEvents=%d discontinuities=%d\n",
+                    s.eventCount, s.getRequestedRateHz(), s.getAchievedRateHz(),
+                    s.largestGapNs / 1e6, s.interpolatedTicks, s.zeroTickEvents, s.discontinuities));
+            sb.append("intervalUs: ");
+            s.intervalNs.appendSummary(sb, 1000.0);
+            sb.append('\n');
+            sb.append("ticksPerEvent: ");
+            s.ticksPerEvent.appendSummary(sb, 1.0);
+            sb.append('\n');
+            sb.append("intervalBuckets(ns): ");
+            s.intervalNs.appendBuckets(sb);
+            sb.append('\n');
+        }
+        sb.append("# accel-gyro skew\n");
+        sb.append("skewUs: ");
+        skewNs.appendSummary(sb, 1000.0);
+        sb.append('\n');
+        return sb.toString();
+    }
+}
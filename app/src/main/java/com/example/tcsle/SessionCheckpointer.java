@@ -0,0 +1,173 @@
+package com.example.tcsle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 計測セッションのチェックポイントを定期的にファイルへ書き出す
+ *
+ * センサースレッドは再利用するByteBufferへ状態を書き込み（buffer → submit），
+ * ファイルへの書き込み・fsync・置き換えは専用スレッドで行う
+ * 書き込みは一時ファイル＋renameで置き換えるため，途中で落ちても直前のチェックポイントが残る
+ * 前回の書き込みが終わっていなければ今回の分は捨てる（センサースレッドは待たない）
+ * 終了・削除もこのスレッドの後続のタスクとして行うため，呼び出し側（メインスレッド）は待たない
+ */
+public class SessionCheckpointer {
+    private final File file;
+    private final long intervalNs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private volatile boolean discarded = false;
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private long lastCheckpointNs = Long.MIN_VALUE;
+
+    private volatile long written = 0;
+    private long skipped = 0;
+    private volatile long failed = 0;
+    private volatile long lastWriteNs = 0;  // 直近の書き込みにかかった時間
+
+    /**
+     * @param intervalNs チェックポイントの間隔（センサー時刻）
+     */
+    public SessionCheckpointer(File file, long intervalNs) {
+        this.file = file;
+        this.intervalNs = intervalNs;
+    }
+
+    // ========== センサースレッド ==========
+
+    /**
+     * 前回のチェックポイントからintervalNs以上経過したか
+     */
+    public boolean isDue(long timeNs) {
+        return lastCheckpointNs == Long.MIN_VALUE || timeNs - lastCheckpointNs >= intervalNs;
+    }
+
+    /**
+     * 状態を書き込むバッファ（クリア済み，capacity以上の容量）．submitするまで他で使わないこと
+     */
+    public ByteBuffer buffer(int capacity) {
+        if (buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * bufferに書き込んだ内容を書き出し待ちにする
+     * @return 前回の書き込みが終わっておらず捨てた場合false
+     */
+    public boolean submit(ByteBuffer filled, long timeNs) {
+        lastCheckpointNs = timeNs;
+        if (discarded || !writing.compareAndSet(false, true)) {
+            skipped++;
+            return false;
+        }
+        final byte[] data = Arrays.copyOf(filled.array(), filled.position());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long t0 = System.nanoTime();
+                try {
+                    if (discarded) return;
+                    writeAtomically(file, data);
+                    written++;
+                } catch (IOException e) {
+                    failed++;
+                } finally {
+                    lastWriteNs = System.nanoTime() - t0;
+                    writing.set(false);
+                }
+            }
+        });
+        return true;
+    }
+
+    // ========== 終了・削除 ==========
+
+    /**
+     * 書き出し待ちを終えたらスレッドを止める（待たない．待つ場合はawaitTermination）
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 計測を正常に終えたときに呼ぶ（以後の起動で再開しない）
+     * 削除は書き込み中・書き出し待ちの分の後にこのスレッドで行う
+     * （先に消すと，後から終わった書き込みのrenameでチェックポイントが戻り，終えた試行を再開してしまう）
+     */
+    public void discard() {
+        discarded = true;
+        Runnable delete = new Runnable() {
+            @Override
+            public void run() {
+                file.delete();
+                new File(file.getPath() + ".tmp").delete();
+            }
+        };
+        try {
+            executor.execute(delete);
+        } catch (RejectedExecutionException e) {
+            // shutdown済み．以後の書き込みはdiscardedで止まる
+            delete.run();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * shutdown・discard後，スレッドの終了を待つ（テスト用）
+     * @return 時間内に終了した場合true
+     */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        return executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    // ========== ファイル ==========
+
+    static void writeAtomically(File file, byte[] data) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    /**
+     * チェックポイントを読み込む（なければnull）
+     */
+    public static ByteBuffer load(File file) throws IOException {
+        if (!file.exists()) return null;
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int off = 0;
+            while (off < data.length) {
+                int n = in.read(data, off, data.length - off);
+                if (n < 0) throw new IOException("Truncated checkpoint " + file);
+                off += n;
+            }
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    // ========== Getterメソッド ==========
+
+    public File getFile() { return file; }
+    public long getWrittenCount() { return written; }
+    public long getSkippedCount() { return skipped; }
+    public long getFailedCount() { return failed; }
+    public long getLastWriteNs() { return lastWriteNs; }
+}
@@ -0,0 +1,501 @@
+package com.example.tcsle;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 試行ごとの追記専用ジャーナル（センサー行・歩行・ルートイベント・不連続・設定を1本にまとめる）
+ *
+ * 各レコードは 種別(1) 通し番号(8) 時刻(8) 本体の長さ(2) 本体 の順で，通し番号はファイル内で単調増加する
+ * センサースレッド・UIスレッドはロック内で書き込み用バッファへ符号化するだけで，
+ * ファイルへの書き込みは専用スレッド1本が行う（バッファを入れ替えてから書くので，書き込み中も追記は止まらない）
+ * 通し番号はバッファへの追記と同じロック内で振るため，ファイル上の順序と一致する
+ * ルートイベント・不連続は次の周期を待たずに書き出す
+ */
+public class SessionJournal {
+    public static final int MAGIC = 0x5044524A;  // "PDRJ"
+    public static final short VERSION = 1;
+    static final int FILE_HEADER_BYTES = 4 + 2;
+    static final int RECORD_HEADER_BYTES = 1 + 8 + 8 + 2;
+    private static final int MAX_STRING_BYTES = 1024;  // 本体の長さ（16bit）に収めるための上限
+
+    // ========== レコード種別 ==========
+    public static final int TYPE_CONFIG = 1;
+    public static final int TYPE_SENSOR = 2;
+    public static final int TYPE_STEP = 3;
+    public static final int TYPE_ROUTE_EVENT = 4;
+    public static final int TYPE_DISCONTINUITY = 5;
+
+    private static final long FLUSH_INTERVAL_MS = 100;
+    private static final int FLUSH_BYTES = 32 * 1024;  // これを超えたら周期を待たずに書き出す
+
+    private final File file;
+    private final FileChannel channel;
+    private final Thread writer;
+    private final Object lock = new Object();
+    private ByteBuffer active = ByteBuffer.allocate(2 * FLUSH_BYTES);  // 追記側（ロック内）
+    private ByteBuffer draining = ByteBuffer.allocate(2 * FLUSH_BYTES);  // 書き込みスレッド側
+    private long nextSeq;
+    private long appendedLength;  // 追記済みのレコードの終わり（書き込み待ちを含む）
+    private boolean flushRequested = false;
+    private boolean closed = false;
+    private Runnable afterClose;
+
+    private volatile long bytesWritten = 0;
+    private volatile int maxBatchBytes = 0;
+    private volatile IOException error;
+    private volatile boolean finished = false;
+
+    /**
+     * ジャーナルを開く．既存のファイルには追記し，通し番号を続きから振る
+     * 途中で切れた末尾のレコード（書き込み中に落ちた分）は切り捨てる
+     */
+    public static SessionJournal open(File file) throws IOException {
+        long validLength = 0;
+        long nextSeq = 0;
+        if (file.isFile() && file.length() > 0) {
+            try (Reader reader = new Reader(file)) {
+                while (reader.next()) {
+                    nextSeq = reader.record().seq + 1;
+                }
+                validLength = reader.getValidLength();
+            }
+        }
+        return new SessionJournal(file, validLength, nextSeq);
+    }
+
+    /**
+     * savePositionで保存した位置からジャーナルを開く（先頭から読み直さない．チェックポイントからの再開用）
+     * 位置より後のレコード（保存後に書かれた分）は切り捨てる．ファイルが位置より短ければ（書き出す前に落ちた）
+     * open(File)と同じく先頭から読んで続きを探す
+     */
+    public static SessionJournal open(File file, long length, long nextSeq) throws IOException {
+        if (length < FILE_HEADER_BYTES || !file.isFile() || file.length() < length) {
+            return open(file);
+        }
+        return new SessionJournal(file, length, nextSeq);
+    }
+
+    private SessionJournal(File file, long validLength, long nextSeq) throws IOException {
+        this.file = file;
+        this.nextSeq = nextSeq;
+        this.appendedLength = Math.max(validLength, FILE_HEADER_BYTES);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            channel.truncate(validLength);
+            channel.position(validLength);
+            if (validLength == 0) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+                header.putInt(MAGIC).putShort(VERSION).flip();
+                while (header.hasRemaining()) channel.write(header);
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, "SessionJournal");
+        writer.start();
+    }
+
+    // ========== 追記（任意のスレッド） ==========
+
+    /**
+     * 計測開始・再開時の設定
+     * @return 振った通し番号（閉じた後は-1）
+     */
+    public long appendConfig(long timeNs, boolean routeMode, String routeId, int trialNumber, String description) {
+        byte[] id = bytes(routeId);
+        byte[] text = bytes(description);
+        synchronized (lock) {
+            if (closed) return -1;
+            int start = beginRecord(TYPE_CONFIG, timeNs, 1 + 4 + 4 + id.length + text.length);
+            active.put((byte) (routeMode ? 1 : 0));
+            putBytes(id);
+            active.putInt(trialNumber);
+            putBytes(text);
+            return endRecord(start, false);
+        }
+    }
+
+    /**
+     * センサーティック1行分（CSVの1行と同じ内容）
+     */
+    public long appendSensor(long timeNs, float[] acc, float[] gyro, int stepCount, float stepLength,
+                             double x, double y, float heading, double totalDistance, float ap) {
+        synchronized (lock) {
+            if (closed) return -1;
+            int start = beginRecord(TYPE_SENSOR, timeNs, 64);
+            active.putFloat(acc[0]).putFloat(acc[1]).putFloat(acc[2]);
+            active.putFloat(gyro[0]).putFloat(gyro[1]).putFloat(gyro[2]);
+            active.putInt(stepCount).putFloat(stepLength);
+            active.putDouble(x).putDouble(y).putFloat(heading);
+            active.putDouble(totalDistance).putFloat(ap);
+            return endRecord(start, false);
+        }
+    }
+
+    public long appendStep(long timeNs, int stepCount, float stepLength, double x, double y, float heading) {
+        synchronized (lock) {
+            if (closed) return -1;
+            int start = beginRecord(TYPE_STEP, timeNs, 28);
+            active.putInt(stepCount).putFloat(stepLength);
+            active.putDouble(x).putDouble(y).putFloat(heading);
+            return endRecord(start, false);
+        }
+    }
+
+    /**
+     * ルートイベント（START・ADVERTISE・PASS・STOPなど）．次の周期を待たずに書き出す
+     */
+    public long appendRouteEvent(long timeNs, String event, int routePoint, float targetX, float targetY,
+                                 double x, double y, double distance) {
+        byte[] name = bytes(event);
+        synchronized (lock) {
+            if (closed) return -1;
+            int start = beginRecord(TYPE_ROUTE_EVENT, timeNs, 2 + name.length + 4 + 8 + 24);
+            putBytes(name);
+            active.putInt(routePoint).putFloat(targetX).putFloat(targetY);
+            active.putDouble(x).putDouble(y).putDouble(distance);
+            return endRecord(start, true);
+        }
+    }
+
+    /**
+     * センサーの欠損・再開（DISCONTINUITY_ACC・RESUMEなど）．次の周期を待たずに書き出す
+     */
+    public long appendDiscontinuity(long timeNs, String kind, long gapNs, double x, double y) {
+        byte[] name = bytes(kind);
+        synchronized (lock) {
+            if (closed) return -1;
+            int start = beginRecord(TYPE_DISCONTINUITY, timeNs, 2 + name.length + 8 + 16);
+            putBytes(name);
+            active.putLong(gapNs).putDouble(x).putDouble(y);
+            return endRecord(start, true);
+        }
+    }
+
+    private int beginRecord(int type, long timeNs, int maxPayload) {
+        int need = RECORD_HEADER_BYTES + maxPayload;
+        if (active.remaining() < need) {
+            // 書き込みが追いつかない間は捨てずにバッファを広げる
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(active.capacity() * 2, active.position() + need));
+            active.flip();
+            grown.put(active);
+            active = grown;
+        }
+        int start = active.position();
+        active.put((byte) type).putLong(nextSeq).putLong(timeNs).putShort((short) 0);
+        return start;
+    }
+
+    private long endRecord(int start, boolean urgent) {
+        int payload = active.position() - start - RECORD_HEADER_BYTES;
+        active.putShort(start + RECORD_HEADER_BYTES - 2, (short) payload);
+        appendedLength += active.position() - start;
+        if (urgent || active.position() >= FLUSH_BYTES) {
+            flushRequested = true;
+            lock.notify();
+        }
+        return nextSeq++;
+    }
+
+    private void putBytes(byte[] b) {
+        active.putShort((short) b.length).put(b);
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = (s != null ? s : "").getBytes(StandardCharsets.UTF_8);
+        return b.length <= MAX_STRING_BYTES ? b : Arrays.copyOf(b, MAX_STRING_BYTES);
+    }
+
+    // ========== 書き込みスレッド ==========
+
+    private void runWriter() {
+        try {
+            while (true) {
+                boolean last;
+                synchronized (lock) {
+                    if (!closed && !flushRequested) {
+                        lock.wait(FLUSH_INTERVAL_MS);
+                    }
+                    flushRequested = false;
+                    last = closed;
+                    ByteBuffer filled = active;
+                    active = draining;
+                    draining = filled;
+                    active.clear();
+                }
+                draining.flip();
+                int n = draining.remaining();
+                while (draining.hasRemaining()) {
+                    channel.write(draining);
+                }
+                bytesWritten += n;
+                if (n > maxBatchBytes) maxBatchBytes = n;
+                if (last) break;
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (error == null) error = e;
+            }
+            finished = true;
+            Runnable done;
+            synchronized (lock) {
+                closed = true;
+                done = afterClose;
+            }
+            if (done != null) done.run();
+        }
+    }
+
+    // ========== 終了 ==========
+
+    /**
+     * 以後の追記を受け付けず，残りを書き出して閉じる（呼び出し側は待たない）
+     * @param afterClose 閉じた後に書き込みスレッドで実行する処理（CSVへの書き出しなど．null可）
+     */
+    public void close(Runnable afterClose) {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            this.afterClose = afterClose;
+            lock.notify();
+        }
+    }
+
+    /**
+     * 書き込みスレッドの終了（afterCloseを含む）を待つ
+     * @return 時間内に終わった場合true
+     */
+    public boolean awaitClosed(long timeoutMs) throws InterruptedException {
+        writer.join(timeoutMs);
+        return finished && !writer.isAlive();
+    }
+
+    // ========== Getterメソッド ==========
+
+    public File getFile() { return file; }
+    public long getBytesWritten() { return bytesWritten; }
+    public int getMaxBatchBytes() { return maxBatchBytes; }
+    /** 書き込みで発生したエラー（なければnull） */
+    public IOException getError() { return error; }
+
+    public long getNextSeq() {
+        synchronized (lock) {
+            return nextSeq;
+        }
+    }
+
+    /** savePositionが書き出すバイト数 */
+    public static final int POSITION_BYTES = 8 + 8;
+
+    /**
+     * ここまでに追記したレコードの終わりと次の通し番号を書き出す（チェックポイント用．open(File, long, long)で開く）
+     */
+    public void savePosition(ByteBuffer out) {
+        synchronized (lock) {
+            out.putLong(appendedLength).putLong(nextSeq);
+        }
+    }
+
+    // ========== 読み込み ==========
+
+    /**
+     * 読み込んだ1レコード（Readerが使い回す．種別に関係するフィールドだけが有効）
+     */
+    public static class Record {
+        public int type;
+        public long seq;
+        public long timeNs;
+
+        // TYPE_CONFIG
+        public boolean routeMode;
+        public String routeId;
+        public int trialNumber;
+        public String description;
+
+        // TYPE_SENSOR / TYPE_STEP
+        public final float[] acceleration = new float[3];
+        public final float[] gyroscope = new float[3];
+        public int stepCount;
+        public float stepLength;
+        public double x;
+        public double y;
+        public float heading;
+        public double totalDistance;
+        public float ap;
+
+        // TYPE_ROUTE_EVENT / TYPE_DISCONTINUITY
+        public String event;
+        public int routePoint;
+        public float targetX;
+        public float targetY;
+        public double distance;
+        public long gapNs;
+    }
+
+    /**
+     * ジャーナルを先頭から1レコードずつ読む（全体をメモリに読み込まない）
+     * 末尾の書きかけのレコード・本体の壊れたレコードに達したらそこで終わる．未知の種別は読み飛ばす
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final byte[] header = new byte[RECORD_HEADER_BYTES];
+        private final ByteBuffer headerBuf = ByteBuffer.wrap(header);
+        private final byte[] payload = new byte[0xFFFF];
+        private final ByteBuffer payloadBuf = ByteBuffer.wrap(payload);
+        private final Record record = new Record();
+        private long validLength = FILE_HEADER_BYTES;
+
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a session journal: " + file);
+                }
+                short version = in.readShort();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported journal version " + version + ": " + file);
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 次のレコードを読む
+         * @return 読めた場合true（終端・書きかけの末尾ではfalse）
+         */
+        public boolean next() throws IOException {
+            while (true) {
+                if (!readFully(header, RECORD_HEADER_BYTES)) return false;
+                headerBuf.clear();
+                int type = headerBuf.get() & 0xFF;
+                long seq = headerBuf.getLong();
+                long timeNs = headerBuf.getLong();
+                int length = headerBuf.getShort() & 0xFFFF;
+                if (!readFully(payload, length)) return false;
+
+                payloadBuf.clear().limit(length);
+                boolean decoded;
+                try {
+                    decoded = decode(type, payloadBuf);
+                } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                    // 見出しは読めたが本体が壊れている．書きかけの末尾と同じくここで終わる
+                    return false;
+                }
+                validLength += RECORD_HEADER_BYTES + length;
+                if (decoded) {
+                    record.type = type;
+                    record.seq = seq;
+                    record.timeNs = timeNs;
+                    return true;
+                }
+            }
+        }
+
+        private boolean decode(int type, ByteBuffer p) {
+            Record r = record;
+            switch (type) {
+                case TYPE_CONFIG:
+                    r.routeMode = p.get() != 0;
+                    r.routeId = getString(p);
+                    r.trialNumber = p.getInt();
+                    r.description = getString(p);
+                    return true;
+                case TYPE_SENSOR:
+                    for (int i = 0; i < 3; i++) r.acceleration[i] = p.getFloat();
+                    for (int i = 0; i < 3; i++) r.gyroscope[i] = p.getFloat();
+                    r.stepCount = p.getInt();
+                    r.stepLength = p.getFloat();
+                    r.x = p.getDouble();
+                    r.y = p.getDouble();
+                    r.heading = p.getFloat();
+                    r.totalDistance = p.getDouble();
+                    r.ap = p.getFloat();
+                    return true;
+                case TYPE_STEP:
+                    r.stepCount = p.getInt();
+                    r.stepLength = p.getFloat();
+                    r.x = p.getDouble();
+                    r.y = p.getDouble();
+                    r.heading = p.getFloat();
+                    return true;
+                case TYPE_ROUTE_EVENT:
+                    r.event = getString(p);
+                    r.routePoint = p.getInt();
+                    r.targetX = p.getFloat();
+                    r.targetY = p.getFloat();
+                    r.x = p.getDouble();
+                    r.y = p.getDouble();
+                    r.distance = p.getDouble();
+                    return true;
+                case TYPE_DISCONTINUITY:
+                    r.event = getString(p);
+                    r.gapNs = p.getLong();
+                    r.x = p.getDouble();
+                    r.y = p.getDouble();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * @return 全部読めた場合true．途中で終端に達した場合false（0バイトで終端ならfalse）
+         */
+        private boolean readFully(byte[] b, int length) throws IOException {
+            try {
+                in.readFully(b, 0, length);
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        public Record record() { return record; }
+
+        /**
+         * 最後に読めたレコードの終わりまでのバイト数（追記再開時の切り詰め位置）
+         */
+        public long getValidLength() { return validLength; }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (length > in.remaining()) throw new BufferUnderflowException();
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.tcsle;
+
+/**
+ * 信号スコープ用の間引きリングバッファ（書き手1・読み手1，ロックなし）
+ *
+ * 加速度ティックごとにap・閾値・ADE前後の方位を1組書き込み，samplesPerColumnティックを
+ * 1列（画面の1ピクセル列）としてチャンネルごとの最小・最大にまとめる
+ * 書き手（センサースレッド）は列が埋まったときだけ配列へ書き出し，volatileの列数を進める
+ * 読み手（描画スレッド）はsnapshotで列をコピーし，コピー中に上書きされ得た列は捨てる
+ * 書き手は読み手を一切待たない
+ */
+public class SignalScopeBuffer {
+    public static final int CH_AP = 0;
+    public static final int CH_THRESHOLD = 1;
+    public static final int CH_RAW_HEADING = 2;  // ADE前の方位
+    public static final int CH_HEADING = 3;  // ADE後の方位
+    public static final int CHANNELS = 4;
+
+    // 列ごとの印（ビットOR）
+    public static final int MARK_STEP = 1;
+    public static final int MARK_DISCONTINUITY = 2;
+
+    private final int columns;
+    private final int samplesPerColumn;
+    private final float[] mins;  // [列 * CHANNELS + チャンネル]
+    private final float[] maxs;
+    private final int[] marks;
+    private volatile long published = 0;  // 書き出し済みの列数（これまでの累計）
+
+    // 書き手だけが触る，作成中の列
+    private final float[] curMin = new float[CHANNELS];
+    private final float[] curMax = new float[CHANNELS];
+    private int curMarks = 0;
+    private int curCount = 0;
+
+    /**
+     * @param columns          保持する列数（表示幅のピクセル数より多く）
+     * @param samplesPerColumn 1列にまとめるティック数
+     */
+    public SignalScopeBuffer(int columns, int samplesPerColumn) {
+        if (columns <= 0 || samplesPerColumn <= 0) {
+            throw new IllegalArgumentException("columns=" + columns + " samplesPerColumn=" + samplesPerColumn);
+        }
+        this.columns = columns;
+        this.samplesPerColumn = samplesPerColumn;
+        mins = new float[columns * CHANNELS];
+        maxs = new float[columns * CHANNELS];
+        marks = new int[columns];
+        resetCurrent();
+    }
+
+    // ========== 書き手（センサースレッド） ==========
+
+    /**
+     * 1ティック分を書き込む
+     */
+    public void add(float ap, float threshold, float rawHeading, float heading, boolean step) {
+        accumulate(CH_AP, ap);
+        accumulate(CH_THRESHOLD, threshold);
+        accumulate(CH_RAW_HEADING, rawHeading);
+        accumulate(CH_HEADING, heading);
+        if (step) curMarks |= MARK_STEP;
+        if (++curCount == samplesPerColumn) {
+            flush();
+        }
+    }
+
+    /**
+     * 作成中の列に印を付ける（欠損など，ティック以外の出来事）
+     */
+    public void mark(int flags) {
+        curMarks |= flags;
+    }
+
+    private void accumulate(int ch, float v) {
+        if (v < curMin[ch]) curMin[ch] = v;
+        if (v > curMax[ch]) curMax[ch] = v;
+    }
+
+    private void flush() {
+        long column = published;
+        int base = (int) (column % columns) * CHANNELS;
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            mins[base + ch] = curMin[ch];
+            maxs[base + ch] = curMax[ch];
+        }
+        marks[base / CHANNELS] = curMarks;
+        published = column + 1;  // volatile書き込みで列の内容を公開
+        resetCurrent();
+    }
+
+    private void resetCurrent() {
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            curMin[ch] = Float.MAX_VALUE;
+            curMax[ch] = -Float.MAX_VALUE;
+        }
+        curMarks = 0;
+        curCount = 0;
+    }
+
+    // ========== 読み手（描画スレッド） ==========
+
+    /**
+     * 直近の最大n列を古い順に出力先へコピーする
+     * 書き手が次に書き出す列と同じ位置の1列は読まないため，得られるのは最大columns − 1列
+     * @param min   長さn·CHANNELS以上（[列 * CHANNELS + チャンネル]）
+     * @param max   同上
+     * @param mark  長さn以上
+     * @return コピーした列数
+     */
+    public int snapshot(int n, float[] min, float[] max, int[] mark) {
+        long end = published;
+        long start = Math.max(0, end - Math.min(n, columns));
+        for (long c = start; c < end; c++) {
+            int src = (int) (c % columns);
+            int dst = (int) (c - start);
+            System.arraycopy(mins, src * CHANNELS, min, dst * CHANNELS, CHANNELS);
+            System.arraycopy(maxs, src * CHANNELS, max, dst * CHANNELS, CHANNELS);
+            mark[dst] = marks[src];
+        }
+        // コピー中に書き手が進んだ場合，列 published − columns 以前は書き換え中の可能性がある
+        long valid = Math.max(start, published - columns + 1);
+        int drop = (int) Math.max(0, Math.min(end - start, valid - start));
+        int count = (int) (end - start) - drop;
+        if (drop > 0) {
+            System.arraycopy(min, drop * CHANNELS, min, 0, count * CHANNELS);
+            System.arraycopy(max, drop * CHANNELS, max, 0, count * CHANNELS);
+            System.arraycopy(mark, drop, mark, 0, count);
+        }
+        return count;
+    }
+
+    /** 書き出し済みの列数の累計（読み手が新しい列の有無を判定する） */
+    public long getPublishedCount() { return published; }
+    public int getColumns() { return columns; }
+    public int getSamplesPerColumn() { return samplesPerColumn; }
+}
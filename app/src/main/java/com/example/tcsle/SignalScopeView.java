@@ -0,0 +1,149 @@
+package com.example.tcsle;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * 歩行検出のデバッグ用スコープ（上段: apと閾値，下段: ADE前後の方位）
+ *
+ * SignalScopeBufferの1列を画面の1ピクセル列に対応させ，最小〜最大を縦線で描く
+ * センサースレッド側の負担はティックごとのバッファ書き込みのみ．描画は新しい列が
+ * 公開されたときだけ行い（invalidateIfChanged），配列・Paintは使い回す
+ */
+public class SignalScopeView extends View {
+    public static final int COLUMNS = 2048;  // 保持する列数（画面幅の上限）
+    public static final int SAMPLES_PER_COLUMN = 2;  // 100Hzで50列/秒
+
+    private static final float AP_MIN = 4f;  // 上段の表示範囲 [m/s²]
+    private static final float AP_MAX = 18f;
+    private static final float AP_PANEL_RATIO = 0.6f;
+
+    private final SignalScopeBuffer buffer = new SignalScopeBuffer(COLUMNS, SAMPLES_PER_COLUMN);
+    private final float[] min = new float[COLUMNS * SignalScopeBuffer.CHANNELS];
+    private final float[] max = new float[COLUMNS * SignalScopeBuffer.CHANNELS];
+    private final int[] marks = new int[COLUMNS];
+    private final float[] lines = new float[COLUMNS * 4];  // drawLinesの端点（x0, y0, x1, y1）
+    private long drawnCount = -1;
+
+    private final Paint apPaint = new Paint();
+    private final Paint thresholdPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint rawHeadingPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint headingPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint stepPaint = new Paint();
+    private final Paint gapPaint = new Paint();
+    private final Paint axisPaint = new Paint();
+
+    public SignalScopeView(Context context) {
+        this(context, null);
+    }
+
+    public SignalScopeView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        apPaint.setColor(0xFF007bff);
+        apPaint.setStrokeWidth(1f);
+        thresholdPaint.setColor(0xFFdc3545);
+        thresholdPaint.setStrokeWidth(1.5f * density);
+        rawHeadingPaint.setColor(0xFFadb5bd);
+        rawHeadingPaint.setStrokeWidth(1.5f * density);
+        headingPaint.setColor(0xFF6f42c1);
+        headingPaint.setStrokeWidth(1.5f * density);
+        stepPaint.setColor(0xFF28a745);
+        stepPaint.setStrokeWidth(1f);
+        gapPaint.setColor(0xFFffc107);
+        gapPaint.setStrokeWidth(2f);
+        axisPaint.setColor(0xFFdee2e6);
+        axisPaint.setStrokeWidth(1f);
+    }
+
+    /** PDREngine.setSignalScopeへ渡すバッファ */
+    public SignalScopeBuffer getBuffer() { return buffer; }
+
+    /**
+     * 新しい列が公開されていれば再描画を要求する（UIの更新ごとに呼ぶ．描画は最大でも表示のフレームレート）
+     */
+    public void invalidateIfChanged() {
+        if (buffer.getPublishedCount() != drawnCount) {
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int w = getWidth();
+        int h = getHeight();
+        if (w == 0 || h == 0) return;
+        drawnCount = buffer.getPublishedCount();
+        int n = buffer.snapshot(Math.min(w, COLUMNS), min, max, marks);
+
+        float apBottom = h * AP_PANEL_RATIO;
+        float headingTop = apBottom + 4;
+        float headingMid = (headingTop + h) / 2;
+        float headingScale = (h - headingTop) / (2 * (float) Math.PI);
+        canvas.drawLine(0, apBottom, w, apBottom, axisPaint);
+        canvas.drawLine(0, headingMid, w, headingMid, axisPaint);
+
+        // 右端が最新の列
+        int x0 = w - n;
+
+        // 歩行・欠損の印
+        for (int i = 0; i < n; i++) {
+            if ((marks[i] & SignalScopeBuffer.MARK_DISCONTINUITY) != 0) {
+                canvas.drawLine(x0 + i, 0, x0 + i, h, gapPaint);
+            } else if ((marks[i] & SignalScopeBuffer.MARK_STEP) != 0) {
+                canvas.drawLine(x0 + i, 0, x0 + i, apBottom, stepPaint);
+            }
+        }
+
+        // ap: 列ごとの最小〜最大
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int c = i * SignalScopeBuffer.CHANNELS + SignalScopeBuffer.CH_AP;
+            lines[k++] = x0 + i;
+            lines[k++] = apY(max[c], apBottom);
+            lines[k++] = x0 + i;
+            lines[k++] = apY(min[c], apBottom) + 1;
+        }
+        canvas.drawLines(lines, 0, k, apPaint);
+
+        // 閾値（列の最大値を結ぶ）
+        k = 0;
+        for (int i = 1; i < n; i++) {
+            int c = i * SignalScopeBuffer.CHANNELS + SignalScopeBuffer.CH_THRESHOLD;
+            lines[k++] = x0 + i - 1;
+            lines[k++] = apY(max[c - SignalScopeBuffer.CHANNELS], apBottom);
+            lines[k++] = x0 + i;
+            lines[k++] = apY(max[c], apBottom);
+        }
+        canvas.drawLines(lines, 0, k, thresholdPaint);
+
+        drawHeading(canvas, n, x0, SignalScopeBuffer.CH_RAW_HEADING, headingMid, headingScale, rawHeadingPaint);
+        drawHeading(canvas, n, x0, SignalScopeBuffer.CH_HEADING, headingMid, headingScale, headingPaint);
+    }
+
+    /**
+     * 方位の折れ線（±πの折り返しをまたぐ線分は描かない）
+     */
+    private void drawHeading(Canvas canvas, int n, int x0, int ch, float mid, float scale, Paint paint) {
+        int k = 0;
+        for (int i = 1; i < n; i++) {
+            float prev = max[(i - 1) * SignalScopeBuffer.CHANNELS + ch];
+            float cur = max[i * SignalScopeBuffer.CHANNELS + ch];
+            if (Math.abs(cur - prev) > Math.PI) continue;
+            lines[k++] = x0 + i - 1;
+            lines[k++] = mid - prev * scale;
+            lines[k++] = x0 + i;
+            lines[k++] = mid - cur * scale;
+        }
+        canvas.drawLines(lines, 0, k, paint);
+    }
+
+    private static float apY(float ap, float bottom) {
+        float v = Math.max(AP_MIN, Math.min(AP_MAX, ap));
+        return bottom - (v - AP_MIN) / (AP_MAX - AP_MIN) * bottom;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.tcsle;
+
+/**
+ * 直近capacity個の値の平均・分散・最小・最大（スライディングウィンドウ）
+ *
+ * 平均・分散は累積和，最小・最大は単調デックで保持するため，addは償却O(1)・アロケーションなし
+ * デックには値そのものではなくリングバッファの位置を入れる（窓内の位置は重複しないため，追い出し判定は位置の比較で済む）
+ */
+public class SlidingWindowStats {
+    private final float[] values;
+    private final int capacity;
+    private int size = 0;
+    private int next = 0;  // 次に書き込む位置
+
+    private double sum = 0;
+    private double sumSq = 0;
+
+    // 単調デック（リング）: maxQは値が単調減少，minQは単調増加
+    private final int[] maxQ;
+    private int maxHead = 0, maxSize = 0;
+    private final int[] minQ;
+    private int minHead = 0, minSize = 0;
+
+    public SlidingWindowStats(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        values = new float[capacity];
+        maxQ = new int[capacity];
+        minQ = new int[capacity];
+    }
+
+    public void add(float v) {
+        int slot = next;
+
+        if (size == capacity) {
+            // 最古の値（これから上書きする位置）を追い出す
+            float old = values[slot];
+            sum -= old;
+            sumSq -= (double) old * old;
+            if (maxSize > 0 && maxQ[maxHead] == slot) {
+                maxHead = wrap(maxHead + 1);
+                maxSize--;
+            }
+            if (minSize > 0 && minQ[minHead] == slot) {
+                minHead = wrap(minHead + 1);
+                minSize--;
+            }
+        } else {
+            size++;
+        }
+
+        values[slot] = v;
+        sum += v;
+        sumSq += (double) v * v;
+
+        // 新しい値以下（以上）の要素は今後最大（最小）になり得ないので末尾から捨てる
+        while (maxSize > 0 && values[maxQ[wrap(maxHead + maxSize - 1)]] <= v) maxSize--;
+        maxQ[wrap(maxHead + maxSize)] = slot;
+        maxSize++;
+        while (minSize > 0 && values[minQ[wrap(minHead + minSize - 1)]] >= v) minSize--;
+        minQ[wrap(minHead + minSize)] = slot;
+        minSize++;
+
+        next = wrap(slot + 1);
+    }
+
+    /** 0 ≤ i < 2·capacity をリングの位置に */
+    private int wrap(int i) {
+        return i >= capacity ? i - capacity : i;
+    }
+
+    public void clear() {
+        size = 0;
+        next = 0;
+        sum = 0;
+        sumSq = 0;
+        maxHead = 0; maxSize = 0;
+        minHead = 0; minSize = 0;
+    }
+
+    public int size() { return size; }
+    public int capacity() { return capacity; }
+    public boolean isFull() { return size == capacity; }
+
+    public float getMean() {
+        return size == 0 ? 0f : (float) (sum / size);
+    }
+
+    public float getVariance() {
+        if (size == 0) return 0f;
+        double mean = sum / size;
+        return (float) Math.max(0.0, sumSq / size - mean * mean);
+    }
+
+    public float getStd() {
+        return (float) Math.sqrt(getVariance());
+    }
+
+    public float getMax() {
+        return maxSize == 0 ? 0f : values[maxQ[maxHead]];
+    }
+
+    public float getMin() {
+        return minSize == 0 ? 0f : values[minQ[minHead]];
+    }
+}
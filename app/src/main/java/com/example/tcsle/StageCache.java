@@ -0,0 +1,207 @@
+package com.example.tcsle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 再処理の中間結果（段階ごとのストリーム）のキャッシュ
+ *
+ * キーは上流のパラメータのハッシュ（key()を連鎖させて作る）．メモリ上はバイト数上限のLRUで保持し，
+ * 追い出したエントリはspillDirが指定されていればディスクへ書き出して，次回はそこから読み戻す
+ * ディスクの書き出しは実行をまたいで残るため，キーにはCACHE_VERSIONを含める
+ * 複数スレッドから共有してよい
+ */
+public class StageCache {
+    // 中間結果の形式・計算内容を変えたら上げる（以前の書き出しは別のキーになり使われない）
+    public static final int CACHE_VERSION = 3;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * キャッシュに入れる中間結果
+     */
+    public interface Entry {
+        long byteSize();
+
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    public interface Reader<T extends Entry> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private final long maxBytes;
+    private final File spillDir;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long diskHits = 0;
+    private long misses = 0;
+    private long spills = 0;
+
+    /**
+     * @param maxBytes メモリに保持する上限 [byte]
+     * @param spillDir 追い出したエントリの書き出し先（nullなら破棄）
+     */
+    public StageCache(long maxBytes, File spillDir) {
+        this.maxBytes = maxBytes;
+        this.spillDir = spillDir;
+        if (spillDir != null && !spillDir.isDirectory() && !spillDir.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create spill directory: " + spillDir);
+        }
+    }
+
+    // ========== キー ==========
+
+    public static long key(String stage) {
+        long h = key(FNV_OFFSET, (long) CACHE_VERSION);
+        for (int i = 0; i < stage.length(); i++) {
+            h = mix(h, stage.charAt(i));
+        }
+        return h;
+    }
+
+    public static long key(long h, long v) {
+        for (int i = 0; i < 8; i++) {
+            h = mix(h, (v >>> (8 * i)) & 0xFF);
+        }
+        return h;
+    }
+
+    public static long key(long h, double v) {
+        return key(h, Double.doubleToLongBits(v));
+    }
+
+    public static long key(long h, boolean v) {
+        return key(h, v ? 1L : 0L);
+    }
+
+    public static long key(long h, float[] v) {
+        h = key(h, (long) v.length);
+        for (float f : v) {
+            h = key(h, (long) Float.floatToIntBits(f));
+        }
+        return h;
+    }
+
+    private static long mix(long h, long b) {
+        return (h ^ b) * FNV_PRIME;
+    }
+
+    // ========== 取得・登録 ==========
+
+    /**
+     * @return キャッシュ済みの値（メモリ→ディスクの順に探す）．なければnull
+     */
+    public <T extends Entry> T get(long key, Class<T> type, Reader<T> reader) {
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null) {
+                hits++;
+                return type.cast(e);
+            }
+        }
+
+        File file = spillFile(key);
+        if (file != null && file.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                T value = reader.read(in);
+                synchronized (this) {
+                    diskHits++;
+                }
+                put(key, value);
+                return value;
+            } catch (IOException | RuntimeException e) {
+                // 壊れた書き出しは捨てて作り直す
+                file.delete();
+            }
+        }
+
+        synchronized (this) {
+            misses++;
+        }
+        return null;
+    }
+
+    public void put(long key, Entry value) {
+        List<Long> evictedKeys = new ArrayList<>();
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            Entry old = entries.put(key, value);
+            if (old != null) bytes -= old.byteSize();
+            bytes += value.byteSize();
+
+            // 古い順に追い出す（追加したエントリ自体は上限を超えていても保持する）
+            Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Map.Entry<Long, Entry> e = it.next();
+                if (e.getKey() == key) continue;
+                bytes -= e.getValue().byteSize();
+                evictedKeys.add(e.getKey());
+                evicted.add(e.getValue());
+                it.remove();
+            }
+        }
+        // 書き出しはロックの外で行う
+        for (int i = 0; i < evicted.size(); i++) {
+            spill(evictedKeys.get(i), evicted.get(i));
+        }
+    }
+
+    private void spill(long key, Entry value) {
+        File file = spillFile(key);
+        if (file == null || file.isFile()) return;
+        // 同じキーを別スレッドが同時に書き出しても混ざらないよう，一時ファイルは呼び出しごとに作る
+        File tmp;
+        try {
+            tmp = File.createTempFile(file.getName(), ".tmp", spillDir);
+        } catch (IOException e) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            value.writeTo(out);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(file)) {
+            synchronized (this) {
+                spills++;
+            }
+        } else {
+            tmp.delete();
+        }
+    }
+
+    private File spillFile(long key) {
+        return spillDir == null ? null : new File(spillDir, String.format(Locale.US, "%016x.stage", key));
+    }
+
+    // ========== Getterメソッド ==========
+
+    public synchronized long getBytes() { return bytes; }
+    public synchronized int getEntryCount() { return entries.size(); }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getDiskHits() { return diskHits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getSpills() { return spills; }
+
+    public synchronized String dump() {
+        return String.format(Locale.US, "entries=%d bytes=%d/%d hits=%d diskHits=%d misses=%d spills=%d",
+                entries.size(), bytes, maxBytes, hits, diskHits, misses, spills);
+    }
+}
@@ -0,0 +1,558 @@
+package com.example.tcsle;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 記録済み試行の段階別再処理（パラメータスイープ用）
+ *
+ * パイプラインを4段階に分け，各段階の出力をStageCacheに保持する
+ *   1. リサンプリング後のティック列            キー: 入力（試行ID＋生サンプルの内容）・格子間隔・補間上限
+ *   2. バイアス補正・カルマンフィルタ後の列    キー: 1 ＋ バイアス・Q/R・prefilter・欠損時リセット
+ *   3. ジャイロティックごとのADE前方位        キー: 2 ＋ 姿勢推定器のパラメータ
+ *   4. 歩行イベント列（特徴量とADE後方位）    キー: 3 ＋ 歩行検出器のパラメータ
+ * run()はキャッシュにある最も下流の段階から再開するため，歩幅推定のパラメータだけを変える
+ * スイープは歩数に比例する時間で終わる（歩幅推定・位置積分のみ）
+ *
+ * 結果はPDREngineへ生サンプルを通した場合とビット単位で一致する
+ * 方位の入力元はジャイロ（HEADING_SOURCE_GYRO）のみ対応
+ * run()は複数スレッドから同時に呼んでよい（同じ段階を同時に取りこぼした場合は重複して計算する）
+ *
+ * キーに生サンプルの内容を含めるため，同じ試行IDのCSVが記録し直されても，ディスクに
+ * 書き出した古い中間結果は使われない（形式の変更はStageCache.CACHE_VERSIONで区別する）
+ */
+public class StagedReplay {
+    public static final int STAGE_NONE = 0;
+    public static final int STAGE_RESAMPLED = 1;
+    public static final int STAGE_FILTERED = 2;
+    public static final int STAGE_HEADING = 3;
+    public static final int STAGE_STEPS = 4;
+
+    private final long inputKey;
+    private final SampleBatch raw;
+    private final StageCache cache;
+
+    // 段階ごとに再計算した回数（STAGE_RESAMPLED..STAGE_STEPS）
+    private final AtomicIntegerArray recomputed = new AtomicIntegerArray(5);
+    private volatile int lastStartStage = STAGE_NONE;
+
+    /**
+     * @param trialId 試行の識別子（生サンプルの内容とともにキャッシュキーに含める）
+     * @param raw     生サンプル（TrialCsv.readSensorCsvなど）
+     */
+    public StagedReplay(String trialId, SampleBatch raw, StageCache cache) {
+        this.inputKey = inputKey(trialId, raw);
+        this.raw = raw;
+        this.cache = cache;
+    }
+
+    // ========== キー ==========
+
+    /**
+     * 入力のキー：試行IDと生サンプル全体のハッシュ（構築時に1回だけ求める）
+     */
+    static long inputKey(String trialId, SampleBatch raw) {
+        long h = StageCache.key("input:" + trialId);
+        h = StageCache.key(h, (long) raw.size());
+        for (int i = 0; i < raw.size(); i++) {
+            h = StageCache.key(h, raw.isAccelAt(i));
+            h = StageCache.key(h, raw.timeNsAt(i));
+            h = StageCache.key(h, ((long) Float.floatToIntBits(raw.xAt(i)) << 32)
+                    ^ (Float.floatToIntBits(raw.yAt(i)) & 0xFFFFFFFFL));
+            h = StageCache.key(h, (long) Float.floatToIntBits(raw.zAt(i)));
+        }
+        return h;
+    }
+
+    static long resampledKey(long input, PDRConfig c) {
+        long h = StageCache.key(input, (long) 'R');
+        h = StageCache.key(h, c.targetIntervalNs);
+        return StageCache.key(h, c.maxInterpolationGapNs);
+    }
+
+    static long filteredKey(long input, PDRConfig c) {
+        long h = StageCache.key(resampledKey(input, c), (long) 'F');
+        h = StageCache.key(h, c.prefilter);
+        if (c.prefilter) {
+            h = StageCache.key(h, c.aBias);
+            h = StageCache.key(h, c.ωBias);
+            h = StageCache.key(h, c.accQ);
+            h = StageCache.key(h, c.accR);
+            h = StageCache.key(h, c.gyroQ);
+            h = StageCache.key(h, c.gyroR);
+        }
+        // 欠損時のリセットは前処理なしでもa・ωの値に影響する
+        h = StageCache.key(h, c.resetFiltersOnGap);
+        if (c.resetFiltersOnGap) {
+            h = StageCache.key(h, c.aBias);
+            h = StageCache.key(h, c.ωBias);
+        }
+        return h;
+    }
+
+    static long headingKey(long input, PDRConfig c) {
+        long h = StageCache.key(filteredKey(input, c), (long) 'H');
+        h = StageCache.key(h, (long) c.orientationEstimator);
+        h = StageCache.key(h, (double) c.kf);
+        h = StageCache.key(h, (double) c.ke);
+        h = StageCache.key(h, (double) c.mahonyKp);
+        h = StageCache.key(h, (double) c.mahonyKi);
+        h = StageCache.key(h, (double) c.madgwickBeta);
+        h = StageCache.key(h, (long) c.integrator);
+        h = StageCache.key(h, (long) c.orientationDecimation);
+        h = StageCache.key(h, (long) c.renormalizeInterval);
+        h = StageCache.key(h, (double) c.dt);
+        return StageCache.key(h, c.fastMath);
+    }
+
+    static long stepsKey(long input, PDRConfig c) {
+        long h = StageCache.key(headingKey(input, c), (long) 'S');
+        h = StageCache.key(h, (long) c.stepDetector);
+        h = StageCache.key(h, (double) c.A);
+        h = StageCache.key(h, (double) c.tmin);
+        h = StageCache.key(h, (double) c.tmax);
+        h = StageCache.key(h, (double) c.adaptiveWindowSec);
+        h = StageCache.key(h, (double) c.adaptiveThresholdK);
+        h = StageCache.key(h, (double) c.adaptiveMinRange);
+        h = StageCache.key(h, (double) c.adaptiveTminRatio);
+        return StageCache.key(h, (double) c.adaptiveTmaxRatio);
+    }
+
+    // ========== 実行 ==========
+
+    /**
+     * 設定に従って試行を再処理し，歩行ごとの位置を返す
+     * 初期位置・方位オフセットはPDREngine.setInitialPosition / setInitialRouteVectorと同じ意味
+     */
+    public StepTrajectory run(PDRConfig config, double startX, double startY, double headingOffset) {
+        if (config.headingSource != PDRConfig.HEADING_SOURCE_GYRO) {
+            throw new IllegalArgumentException("StagedReplay supports HEADING_SOURCE_GYRO only");
+        }
+
+        long kSteps = stepsKey(inputKey, config);
+        StepStream steps = cache.get(kSteps, StepStream.class, StepStream::read);
+        if (steps != null) {
+            lastStartStage = STAGE_STEPS;
+            return integrate(config, steps, startX, startY, headingOffset);
+        }
+
+        long kHeading = headingKey(inputKey, config);
+        long kFiltered = filteredKey(inputKey, config);
+        long kResampled = resampledKey(inputKey, config);
+        HeadingStream heading = cache.get(kHeading, HeadingStream.class, HeadingStream::read);
+        TickStream filtered = cache.get(kFiltered, TickStream.class, TickStream::read);
+
+        Capture capture = new Capture();
+        if (heading != null && filtered != null) {
+            lastStartStage = STAGE_HEADING;
+            replayHeading(config, filtered, heading, capture);
+        } else if (filtered != null) {
+            lastStartStage = STAGE_FILTERED;
+            capture.heading = new HeadingStream();
+            replayFiltered(config, filtered, capture);
+            recomputed.incrementAndGet(STAGE_HEADING);
+            cache.put(kHeading, capture.heading);
+        } else {
+            TickStream resampled = cache.get(kResampled, TickStream.class, TickStream::read);
+            capture.filtered = new TickStream();
+            capture.heading = new HeadingStream();
+            if (resampled != null) {
+                lastStartStage = STAGE_RESAMPLED;
+                replayResampled(config, resampled, capture);
+            } else {
+                lastStartStage = STAGE_NONE;
+                capture.resampled = new TickStream();
+                runFull(config, capture);
+                recomputed.incrementAndGet(STAGE_RESAMPLED);
+                cache.put(kResampled, capture.resampled);
+            }
+            recomputed.incrementAndGet(STAGE_FILTERED);
+            recomputed.incrementAndGet(STAGE_HEADING);
+            cache.put(kFiltered, capture.filtered);
+            cache.put(kHeading, capture.heading);
+        }
+        recomputed.incrementAndGet(STAGE_STEPS);
+        cache.put(kSteps, capture.steps);
+        return integrate(config, capture.steps, startX, startY, headingOffset);
+    }
+
+    private PDREngine newEngine(PDRConfig config, Capture capture) {
+        PDREngine engine = new PDREngine(config);
+        engine.getProfiler().setEnabled(false);
+        engine.setListener(capture);
+        return engine;
+    }
+
+    private void runFull(PDRConfig config, Capture capture) {
+        PDREngine engine = newEngine(config, capture);
+        engine.setStageTap(capture);
+        raw.feed(engine);
+    }
+
+    private void replayResampled(PDRConfig config, TickStream resampled, Capture capture) {
+        PDREngine engine = newEngine(config, capture);
+        engine.setStageTap(capture);
+        for (int i = 0; i < resampled.size; i++) {
+            replayTick(engine, resampled, i, capture);
+        }
+    }
+
+    private void replayFiltered(PDRConfig config, TickStream filtered, Capture capture) {
+        PDRConfig c = config.copy();
+        c.prefilter = false;
+        PDREngine engine = newEngine(c, capture);
+        engine.setStageTap(capture);
+        for (int i = 0; i < filtered.size; i++) {
+            replayTick(engine, filtered, i, capture);
+        }
+    }
+
+    private void replayHeading(PDRConfig config, TickStream filtered, HeadingStream heading, Capture capture) {
+        PDRConfig c = config.copy();
+        c.prefilter = false;
+        PDREngine engine = newEngine(c, capture);
+        int h = 0;
+        for (int i = 0; i < filtered.size; i++) {
+            if (filtered.kind[i] == TickStream.GYRO) {
+                engine.onHeadingTick(filtered.t[i], heading.updated[h], heading.φ[h]);
+                h++;
+            } else {
+                replayTick(engine, filtered, i, capture);
+            }
+        }
+    }
+
+    private static void replayTick(PDREngine engine, TickStream s, int i, Capture capture) {
+        byte kind = s.kind[i];
+        if (kind == TickStream.ACCEL_GAP || kind == TickStream.GYRO_GAP) {
+            // 欠損はリサンプリングを通らないため，ここで後段の記録にも残す
+            capture.onResampleGap(kind == TickStream.ACCEL_GAP, s.t[i], s.x[i], s.y[i], s.z[i]);
+        }
+        switch (kind) {
+            case TickStream.ACCEL:
+                engine.onResampledTick(true, s.t[i], s.x[i], s.y[i], s.z[i]);
+                break;
+            case TickStream.GYRO:
+                engine.onResampledTick(false, s.t[i], s.x[i], s.y[i], s.z[i]);
+                break;
+            case TickStream.ACCEL_GAP:
+                engine.onResampledGap(true, s.t[i], s.x[i], s.y[i], s.z[i]);
+                break;
+            default:
+                engine.onResampledGap(false, s.t[i], s.x[i], s.y[i], s.z[i]);
+                break;
+        }
+    }
+
+    /**
+     * 歩幅推定と位置積分（PDREngine.updatePositionと同じ計算）
+     */
+    private static StepTrajectory integrate(PDRConfig config, StepStream steps,
+                                            double startX, double startY, double headingOffset) {
+        StepLengthEstimator estimator = PDREngine.createStepLengthEstimator(config);
+        StepFeatures f = new StepFeatures();
+        StepTrajectory out = new StepTrajectory(steps.size);
+
+        // 内部座標は出力座標と入れ替え（getX()=Yk, getY()=Xk）
+        double Xk = startY;
+        double Yk = startX;
+        for (int i = 0; i < steps.size; i++) {
+            steps.featuresAt(i, f);
+            float l = estimator.estimate(f);
+            double correctedHeading = -(steps.heading[i] + headingOffset);
+            if (config.fastMath) {
+                float h = (float) correctedHeading;
+                Xk = Xk + l * FastMath.sin(h);
+                Yk = Yk + l * FastMath.cos(h);
+            } else {
+                Xk = Xk + l * Math.sin(correctedHeading);
+                Yk = Yk + l * Math.cos(correctedHeading);
+            }
+            out.add(steps.t[i], Yk, Xk, l);
+        }
+        return out;
+    }
+
+    // ========== Getterメソッド ==========
+
+    /** 直前のrun()がどの段階のキャッシュから再開したか（STAGE_NONEは生データから） */
+    public int getLastStartStage() { return lastStartStage; }
+
+    /** 段階stageを計算し直した回数 */
+    public int getRecomputeCount(int stage) { return recomputed.get(stage); }
+
+    // ========== 段階の記録 ==========
+
+    /**
+     * エンジンから段階ごとの出力を受け取る（nullの段階は記録しない）
+     */
+    private static class Capture implements PDREngine.StageTap, PDREngine.Listener {
+        TickStream resampled;
+        TickStream filtered;
+        HeadingStream heading;
+        final StepStream steps = new StepStream();
+
+        @Override
+        public void onResampled(boolean isAccel, long tickTimeNs, float[] values) {
+            if (resampled != null) {
+                resampled.add(isAccel ? TickStream.ACCEL : TickStream.GYRO, tickTimeNs, values[0], values[1], values[2]);
+            }
+        }
+
+        @Override
+        public void onResampleGap(boolean isAccel, long gapNs, float v0, float v1, float v2) {
+            // 欠損は後段の再処理でもフィルタ・歩行区間のリセットに必要
+            byte kind = isAccel ? TickStream.ACCEL_GAP : TickStream.GYRO_GAP;
+            if (resampled != null) resampled.add(kind, gapNs, v0, v1, v2);
+            if (filtered != null) filtered.add(kind, gapNs, v0, v1, v2);
+        }
+
+        @Override
+        public void onFiltered(boolean isAccel, long tickTimeNs, float[] values) {
+            if (filtered != null) {
+                filtered.add(isAccel ? TickStream.ACCEL : TickStream.GYRO, tickTimeNs, values[0], values[1], values[2]);
+            }
+            if (!isAccel && heading != null) {
+                heading.add();
+            }
+        }
+
+        @Override
+        public void onHeading(long tickTimeNs, float rawHeading) {
+            if (heading != null) {
+                heading.markUpdated(rawHeading);
+            }
+        }
+
+        @Override
+        public void onTick(PDREngine engine, boolean isAccel, long tickTimeNs) {
+        }
+
+        @Override
+        public void onStep(PDREngine engine, long stepTimeNs, float stepLength) {
+            steps.add(engine.getLastStepFeatures(), engine.getHeading());
+        }
+
+        @Override
+        public void onDiscontinuity(PDREngine engine, int sensor, long gapNs) {
+        }
+    }
+
+    /**
+     * 格子上のティック列（リサンプリング後・前処理後）と欠損の記録
+     * 欠損の時刻欄には欠損の長さ[ns]，値には欠損後の最初の生サンプルを入れる
+     */
+    public static class TickStream implements StageCache.Entry {
+        public static final byte ACCEL = 0;
+        public static final byte GYRO = 1;
+        public static final byte ACCEL_GAP = 2;
+        public static final byte GYRO_GAP = 3;
+
+        byte[] kind = new byte[1024];
+        long[] t = new long[1024];
+        float[] x = new float[1024];
+        float[] y = new float[1024];
+        float[] z = new float[1024];
+        int size;
+
+        void add(byte k, long time, float vx, float vy, float vz) {
+            if (size == t.length) grow(size * 2);
+            kind[size] = k;
+            t[size] = time;
+            x[size] = vx;
+            y[size] = vy;
+            z[size] = vz;
+            size++;
+        }
+
+        private void grow(int capacity) {
+            kind = Arrays.copyOf(kind, capacity);
+            t = Arrays.copyOf(t, capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            z = Arrays.copyOf(z, capacity);
+        }
+
+        public int size() { return size; }
+
+        @Override
+        public long byteSize() { return 64 + (long) t.length * (1 + 8 + 4 * 3); }
+
+        @Override
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeByte(kind[i]);
+                out.writeLong(t[i]);
+                out.writeFloat(x[i]);
+                out.writeFloat(y[i]);
+                out.writeFloat(z[i]);
+            }
+        }
+
+        static TickStream read(DataInputStream in) throws IOException {
+            int n = in.readInt();
+            TickStream s = new TickStream();
+            s.grow(Math.max(n, 1));
+            for (int i = 0; i < n; i++) {
+                s.add(in.readByte(), in.readLong(), in.readFloat(), in.readFloat(), in.readFloat());
+            }
+            return s;
+        }
+    }
+
+    /**
+     * ジャイロティックごとのADE前方位（姿勢更新のなかったティックはupdated = false）
+     */
+    public static class HeadingStream implements StageCache.Entry {
+        boolean[] updated = new boolean[512];
+        float[] φ = new float[512];
+        int size;
+
+        void add() {
+            if (size == φ.length) grow(size * 2);
+            updated[size] = false;
+            φ[size] = 0f;
+            size++;
+        }
+
+        void markUpdated(float heading) {
+            updated[size - 1] = true;
+            φ[size - 1] = heading;
+        }
+
+        private void grow(int capacity) {
+            updated = Arrays.copyOf(updated, capacity);
+            φ = Arrays.copyOf(φ, capacity);
+        }
+
+        public int size() { return size; }
+
+        @Override
+        public long byteSize() { return 64 + (long) φ.length * 5; }
+
+        @Override
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeBoolean(updated[i]);
+                out.writeFloat(φ[i]);
+            }
+        }
+
+        static HeadingStream read(DataInputStream in) throws IOException {
+            int n = in.readInt();
+            HeadingStream s = new HeadingStream();
+            s.grow(Math.max(n, 1));
+            for (int i = 0; i < n; i++) {
+                s.add();
+                if (in.readBoolean()) {
+                    s.markUpdated(in.readFloat());
+                } else {
+                    in.readFloat();
+                }
+            }
+            return s;
+        }
+    }
+
+    /**
+     * 歩行イベント列（歩幅推定の入力となる特徴量と，位置更新に使うADE後方位）
+     */
+    public static class StepStream implements StageCache.Entry {
+        private static final int FEATURES = 8;  // 1歩あたりのvaluesの要素数
+
+        long[] t = new long[64];
+        int[] stepIndex = new int[64];
+        int[] sampleCount = new int[64];
+        // durationSec, apMax, apMin, apMean, apVariance, windowMin, windowMax, apDevMean
+        float[] values = new float[64 * FEATURES];
+        float[] heading = new float[64];
+        int size;
+
+        void add(StepFeatures f, float φ) {
+            if (size == t.length) grow(size * 2);
+            t[size] = f.timeNs;
+            stepIndex[size] = f.stepIndex;
+            sampleCount[size] = f.sampleCount;
+            int j = size * FEATURES;
+            values[j] = f.durationSec;
+            values[j + 1] = f.apMax;
+            values[j + 2] = f.apMin;
+            values[j + 3] = f.apMean;
+            values[j + 4] = f.apVariance;
+            values[j + 5] = f.windowMin;
+            values[j + 6] = f.windowMax;
+            values[j + 7] = f.apDevMean;
+            heading[size] = φ;
+            size++;
+        }
+
+        void featuresAt(int i, StepFeatures f) {
+            f.timeNs = t[i];
+            f.stepIndex = stepIndex[i];
+            f.sampleCount = sampleCount[i];
+            int j = i * FEATURES;
+            f.durationSec = values[j];
+            f.apMax = values[j + 1];
+            f.apMin = values[j + 2];
+            f.apMean = values[j + 3];
+            f.apVariance = values[j + 4];
+            f.windowMin = values[j + 5];
+            f.windowMax = values[j + 6];
+            f.apDevMean = values[j + 7];
+        }
+
+        private void grow(int capacity) {
+            t = Arrays.copyOf(t, capacity);
+            stepIndex = Arrays.copyOf(stepIndex, capacity);
+            sampleCount = Arrays.copyOf(sampleCount, capacity);
+            values = Arrays.copyOf(values, capacity * FEATURES);
+            heading = Arrays.copyOf(heading, capacity);
+        }
+
+        public int size() { return size; }
+
+        @Override
+        public long byteSize() { return 64 + (long) t.length * (20 + 4 * FEATURES); }
+
+        @Override
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(t[i]);
+                out.writeInt(stepIndex[i]);
+                out.writeInt(sampleCount[i]);
+                for (int j = 0; j < FEATURES; j++) {
+                    out.writeFloat(values[i * FEATURES + j]);
+                }
+                out.writeFloat(heading[i]);
+            }
+        }
+
+        static StepStream read(DataInputStream in) throws IOException {
+            int n = in.readInt();
+            StepStream s = new StepStream();
+            s.grow(Math.max(n, 1));
+            StepFeatures f = new StepFeatures();
+            for (int i = 0; i < n; i++) {
+                f.timeNs = in.readLong();
+                f.stepIndex = in.readInt();
+                f.sampleCount = in.readInt();
+                f.durationSec = in.readFloat();
+                f.apMax = in.readFloat();
+                f.apMin = in.readFloat();
+                f.apMean = in.readFloat();
+                f.apVariance = in.readFloat();
+                f.windowMin = in.readFloat();
+                f.windowMax = in.readFloat();
+                f.apDevMean = in.readFloat();
+                s.add(f, in.readFloat());
+            }
+            return s;
+        }
+    }
+}
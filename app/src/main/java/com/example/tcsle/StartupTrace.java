@@ -0,0 +1,162 @@
+package com.example.tcsle;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 起動の区間ごとの所要時間を記録する（コールドスタート計測用）
+ *
+ * 時刻はSystem.nanoTime()で，originNs（プロセス開始時刻をnanoTimeの時間軸に直したもの）からの経過で出力する
+ * 区間はメインスレッド・バックグラウンドスレッドの両方から記録されるため，記録・出力は同期する
+ * 記録は起動時の十数回だけなので，アロケーションは気にしない
+ * MainActivityは起動ごとに「# 日時 cold|warm」とdump()をstartup_trace.txtへ追記する．
+ * 変更前後の比較はmain()で，端末から取り出したファイルのready時刻の中央値を出す
+ */
+public class StartupTrace {
+    private final long originNs;
+    private final List<String> names = new ArrayList<>();
+    private final List<String> threads = new ArrayList<>();
+    private final List<long[]> spans = new ArrayList<>();  // {開始, 終了}．マイルストーンは開始＝終了
+
+    /**
+     * @param originNs 計測の基準時刻（System.nanoTime()の時間軸）
+     */
+    public StartupTrace(long originNs) {
+        this.originNs = originNs;
+    }
+
+    /**
+     * 区間の開始
+     * @return end()に渡すID
+     */
+    public synchronized int begin(String name) {
+        long now = System.nanoTime();
+        names.add(name);
+        threads.add(Thread.currentThread().getName());
+        spans.add(new long[]{now, -1});
+        return spans.size() - 1;
+    }
+
+    public synchronized void end(int id) {
+        spans.get(id)[1] = System.nanoTime();
+    }
+
+    /**
+     * 長さ0の区切り（"ready"など）を記録する
+     */
+    public synchronized void mark(String name) {
+        long[] span = spans.get(begin(name));
+        span[1] = span[0];
+    }
+
+    /**
+     * 区間の終了時刻（基準からの経過）．未記録・未終了なら-1
+     */
+    public synchronized long getEndNs(String name) {
+        int i = names.lastIndexOf(name);
+        if (i < 0 || spans.get(i)[1] < 0) return -1;
+        return spans.get(i)[1] - originNs;
+    }
+
+    /**
+     * 区間の長さ．未記録・未終了なら-1
+     */
+    public synchronized long getDurationNs(String name) {
+        int i = names.lastIndexOf(name);
+        if (i < 0 || spans.get(i)[1] < 0) return -1;
+        return spans.get(i)[1] - spans.get(i)[0];
+    }
+
+    public synchronized int size() { return spans.size(); }
+
+    /**
+     * 区間一覧を文字列で出力（logcat・ファイル保存用）
+     * 各行: 区間名 開始 終了 長さ（ms，基準から）とスレッド名
+     */
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("# Startup trace (ms from origin)\n");
+        for (int i = 0; i < spans.size(); i++) {
+            long[] span = spans.get(i);
+            if (span[1] < 0) {
+                sb.append(String.format(Locale.US, "%-16s start=%8.2f (unfinished) [%s]\n",
+                        names.get(i), (span[0] - originNs) / 1e6, threads.get(i)));
+            } else {
+                sb.append(String.format(Locale.US, "%-16s start=%8.2f end=%8.2f dur=%7.2f [%s]\n",
+                        names.get(i), (span[0] - originNs) / 1e6, (span[1] - originNs) / 1e6,
+                        (span[1] - span[0]) / 1e6, threads.get(i)));
+            }
+        }
+        return sb.toString();
+    }
+
+    // ========== startup_trace.txtの集計（オフライン用） ==========
+
+    /**
+     * startup_trace.txtから，起動ごとの"ready"の時刻（基準からのms）を読む
+     * @param cold trueならコールドスタート，falseならウォームスタートの分だけ
+     */
+    public static double[] readReadyMs(File file, boolean cold) throws IOException {
+        List<Double> out = new ArrayList<>();
+        String kind = cold ? " cold" : " warm";
+        boolean selected = false;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("# ") && (line.endsWith(" cold") || line.endsWith(" warm"))) {
+                    selected = line.endsWith(kind);
+                } else if (selected && line.startsWith("ready ")) {
+                    int end = line.indexOf("end=");
+                    if (end < 0) continue;  // 未終了
+                    int from = end + 4;
+                    while (from < line.length() && line.charAt(from) == ' ') from++;
+                    int to = line.indexOf(' ', from);
+                    try {
+                        out.add(Double.parseDouble(line.substring(from, to < 0 ? line.length() : to)));
+                    } catch (NumberFormatException e) {
+                        // 書きかけの行
+                    }
+                }
+            }
+        }
+        double[] ms = new double[out.size()];
+        for (int i = 0; i < ms.length; i++) ms[i] = out.get(i);
+        return ms;
+    }
+
+    /** 中央値（空ならNaN） */
+    public static double median(double[] values) {
+        if (values.length == 0) return Double.NaN;
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+    }
+
+    /**
+     * 使い方: StartupTrace <startup_trace.txt>...
+     * 変更前・変更後のビルドで取り出したファイルを並べ，コールドスタートのready時刻の中央値を比べる
+     * （各ビルドでアプリを強制停止→ランチャーから起動を10回程度繰り返してから取り出す）
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: StartupTrace <startup_trace.txt>...");
+            return;
+        }
+        System.out.println(String.format(Locale.US, "%-40s %5s %12s %5s %12s",
+                "file", "cold", "median[ms]", "warm", "median[ms]"));
+        for (String path : args) {
+            File file = new File(path);
+            double[] cold = readReadyMs(file, true);
+            double[] warm = readReadyMs(file, false);
+            System.out.println(String.format(Locale.US, "%-40s %5d %12.1f %5d %12.1f",
+                    file.getName(), cold.length, median(cold), warm.length, median(warm)));
+        }
+    }
+}
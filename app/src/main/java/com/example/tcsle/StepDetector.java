@@ -0,0 +1,31 @@
+package com.example.tcsle;
+
+/**
+ * 歩行検出器（加速度ノルムapのピークから1歩を確定する）
+ * PDREngineが加速度ティックごとに1回呼ぶ．実装はupdate内でアロケーションしないこと
+ */
+public interface StepDetector {
+    /**
+     * 1ティック分の入力
+     * @param ap               加速度ノルム [m/s²]
+     * @param sinceLastStepSec 前の歩行からの経過時間 [s]
+     * @return このティックで歩行を確定したらtrue
+     */
+    boolean update(float ap, float sinceLastStepSec);
+
+    /** 直近に確定した歩行のピーク値（歩幅推定のapMax） */
+    float getPeak();
+
+    /** 直近に確定した歩行の区間最小値（歩幅推定のapMin） */
+    float getValley();
+
+    /** 現在の閾値 [m/s²] */
+    float getThreshold();
+
+    /** 欠損をまたいだピーク判定を防ぐ（検出中の区間を破棄） */
+    void interrupt();
+
+    void reset();
+
+    String getName();
+}
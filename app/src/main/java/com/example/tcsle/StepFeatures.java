@@ -0,0 +1,40 @@
+package com.example.tcsle;
+
+/**
+ * 1歩分の特徴量（StepLengthEstimatorへの入力）
+ * PDREngineが歩行確定時に同じインスタンスを上書きして渡すため，値が必要なら呼び出し中にコピーすること
+ */
+public class StepFeatures {
+    /** apDevMeanで差し引く重力加速度 [m/s²]（apはバイアス補正後のノルムで，静止時はほぼこの値） */
+    public static final float GRAVITY = 9.81f;
+
+    public long timeNs;  // 歩行確定時刻（格子時刻）
+    public int stepIndex;  // 何歩目か（1始まり）
+    public float durationSec;  // 前の歩行からの経過時間 [s]
+
+    // 閾値Aを超えた区間のピークとその区間の最小値（従来のWeinberg式の入力）
+    public float apMax;
+    public float apMin;
+
+    // 前の歩行からこの歩行までの全ティックのap統計
+    public int sampleCount;
+    public float apMean;
+    public float apVariance;
+    public float apDevMean;  // |ap − g| の平均（重力を除いた加速度の大きさ．Kim式の入力）
+    public float windowMin;
+    public float windowMax;
+
+    public void copyFrom(StepFeatures f) {
+        timeNs = f.timeNs;
+        stepIndex = f.stepIndex;
+        durationSec = f.durationSec;
+        apMax = f.apMax;
+        apMin = f.apMin;
+        sampleCount = f.sampleCount;
+        apMean = f.apMean;
+        apVariance = f.apVariance;
+        apDevMean = f.apDevMean;
+        windowMin = f.windowMin;
+        windowMax = f.windowMax;
+    }
+}
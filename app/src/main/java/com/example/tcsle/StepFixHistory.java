@@ -0,0 +1,54 @@
+package com.example.tcsle;
+
+/**
+ * 直近の歩行確定位置（フィックス）を保持する固定長リングバッファ
+ * 座標は出力座標系，時刻は測定開始からの経過時間（ns）
+ * index 0 が最新
+ */
+public class StepFixHistory {
+    private final int[] steps;
+    private final long[] timesNs;
+    private final double[] xs;
+    private final double[] ys;
+    private int head = 0;   // 次に書き込む位置
+    private int size = 0;
+
+    public StepFixHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        steps = new int[capacity];
+        timesNs = new long[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+    }
+
+    public void push(int step, long timeNs, double x, double y) {
+        steps[head] = step;
+        timesNs[head] = timeNs;
+        xs[head] = x;
+        ys[head] = y;
+        head = (head + 1) % steps.length;
+        if (size < steps.length) size++;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private int slot(int k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("k=" + k + " size=" + size);
+        }
+        int i = head - 1 - k;
+        return i < 0 ? i + steps.length : i;
+    }
+
+    public int size() { return size; }
+    public int capacity() { return steps.length; }
+    public int stepAt(int k) { return steps[slot(k)]; }
+    public long timeNsAt(int k) { return timesNs[slot(k)]; }
+    public double xAt(int k) { return xs[slot(k)]; }
+    public double yAt(int k) { return ys[slot(k)]; }
+}
@@ -0,0 +1,129 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 歩行イベントの記録（時刻・歩幅・ADE前後の方位）
+ *
+ * 位置は歩幅と方位の積算なので，初期位置・初期方位オフセット・歩幅の倍率を後から変えても
+ * この記録だけから歩数に比例する時間で軌跡を作り直せる（100Hzのセンサー列の再処理は不要）
+ * 1歩あたり24バイトのプリミティブ配列で保持し，容量が足りなくなったときだけ倍に広げる
+ */
+public class StepJournal {
+    private long[] timeNs = new long[256];
+    private float[] weinbergLength = new float[256];  // Weinberg式の歩幅（平滑化前）
+    private float[] length = new float[256];  // 歩幅推定器の出力（倍率を掛ける前）
+    private float[] rawHeading = new float[256];  // ADE前の方位
+    private float[] heading = new float[256];  // ADE後の方位（位置更新に使った値）
+    private int size = 0;
+
+    void add(long t, float weinberg, float l, float raw, float φ) {
+        if (size == timeNs.length) {
+            int n = size * 2;
+            timeNs = Arrays.copyOf(timeNs, n);
+            weinbergLength = Arrays.copyOf(weinbergLength, n);
+            length = Arrays.copyOf(length, n);
+            rawHeading = Arrays.copyOf(rawHeading, n);
+            heading = Arrays.copyOf(heading, n);
+        }
+        timeNs[size] = t;
+        weinbergLength[size] = weinberg;
+        length[size] = l;
+        rawHeading[size] = raw;
+        heading[size] = φ;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 記録から軌跡を作り直す（PDREngine.updatePositionと同じ計算．同じ条件ならビット単位で一致する）
+     * @param startX        初期位置X（出力座標系）
+     * @param startY        初期位置Y（出力座標系）
+     * @param headingOffset 地図上の方位オフセット [rad]（setInitialRouteVectorの値）
+     * @param scale         歩幅に掛ける倍率
+     * @param out           各歩の位置の出力先（クリアしてから追加する．nullなら最終位置のみ求める）
+     * @param end           最終位置 {x, y} の出力先（出力座標系．nullなら不要）
+     */
+    public void rebuild(double startX, double startY, double headingOffset, float scale, boolean fastMath,
+                        StepTrajectory out, double[] end) {
+        if (out != null) out.clear();
+        rebuild(startX, startY, headingOffset, scale, fastMath, out, null, end);
+    }
+
+    /**
+     * historyにも各歩を追加する版（PDREngine.reanchor用．historyはクリアしないので呼び出し側で）
+     */
+    void rebuild(double startX, double startY, double headingOffset, float scale, boolean fastMath,
+                 StepTrajectory out, TrajectoryHistory history, double[] end) {
+        // 内部座標は出力座標と入れ替え（getX()=Yk, getY()=Xk）
+        double Xk = startY;
+        double Yk = startX;
+        for (int i = 0; i < size; i++) {
+            float l = length[i] * scale;
+            double correctedHeading = -(heading[i] + headingOffset);
+            if (fastMath) {
+                float h = (float) correctedHeading;
+                Xk = Xk + l * FastMath.sin(h);
+                Yk = Yk + l * FastMath.cos(h);
+            } else {
+                Xk = Xk + l * Math.sin(correctedHeading);
+                Yk = Yk + l * Math.cos(correctedHeading);
+            }
+            if (out != null) out.add(timeNs[i], Yk, Xk, l);
+            if (history != null) history.push(timeNs[i], Yk, Xk, heading[i], l);
+        }
+        if (end != null) {
+            end[0] = Yk;
+            end[1] = Xk;
+        }
+    }
+
+    public StepTrajectory rebuild(double startX, double startY, double headingOffset, float scale, boolean fastMath) {
+        StepTrajectory out = new StepTrajectory(size);
+        rebuild(startX, startY, headingOffset, scale, fastMath, out, null);
+        return out;
+    }
+
+    // ========== チェックポイント ==========
+
+    /** saveStateが書き出すバイト数 */
+    int stateSize() {
+        return 4 + size * 24;
+    }
+
+    void saveState(ByteBuffer out) {
+        out.putInt(size);
+        for (int i = 0; i < size; i++) {
+            out.putLong(timeNs[i]);
+            out.putFloat(weinbergLength[i]);
+            out.putFloat(length[i]);
+            out.putFloat(rawHeading[i]);
+            out.putFloat(heading[i]);
+        }
+    }
+
+    void restoreState(ByteBuffer in) {
+        clear();
+        int n = in.getInt();
+        for (int i = 0; i < n; i++) {
+            long t = in.getLong();
+            float weinberg = in.getFloat();
+            float l = in.getFloat();
+            float raw = in.getFloat();
+            add(t, weinberg, l, raw, in.getFloat());
+        }
+    }
+
+    // ========== Getterメソッド ==========
+
+    public int size() { return size; }
+    public long timeNsAt(int i) { return timeNs[i]; }
+    public float weinbergLengthAt(int i) { return weinbergLength[i]; }
+    public float lengthAt(int i) { return length[i]; }
+    public float rawHeadingAt(int i) { return rawHeading[i]; }
+    public float headingAt(int i) { return heading[i]; }
+}
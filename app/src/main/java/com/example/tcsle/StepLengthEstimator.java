@@ -0,0 +1,24 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 歩幅推定器（1歩ごとの特徴量から歩幅を求める）
+ * PDREngineが歩行確定のたびに1回呼ぶ．実装はestimate内でアロケーションしないこと
+ */
+public interface StepLengthEstimator {
+    /**
+     * @return 歩幅 [m]
+     */
+    float estimate(StepFeatures f);
+
+    void reset();
+
+    /** チェックポイント用に内部状態を書き出す（設定値は含めない） */
+    void saveState(ByteBuffer out);
+
+    /** saveStateで書き出した状態を読み込む（同じ設定で生成した推定器に対して呼ぶ） */
+    void restoreState(ByteBuffer in);
+
+    String getName();
+}
@@ -0,0 +1,136 @@
+package com.example.tcsle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 複数の歩幅推定器を1回の再生で比較する
+ *
+ * エンジンの歩行検出は歩幅推定器に依存しないため，1つのエンジンで試行を1回だけ処理し，
+ * 歩行確定ごとに同じStepFeaturesを全推定器へ渡す（推定器ごとに試行を再生し直さない）
+ * 位置はエンジン自身の推定器で更新されるため，ここで比較するのは歩幅のみ
+ */
+public class StepLengthEvaluator implements PDREngine.Listener {
+    private final StepLengthEstimator[] estimators;
+    private float[][] lengths;  // [推定器][歩]
+    private int steps = 0;
+
+    public StepLengthEvaluator(StepLengthEstimator... estimators) {
+        this.estimators = estimators;
+        this.lengths = new float[estimators.length][256];
+    }
+
+    /**
+     * PDRConfigの係数で4種類すべての推定器を比較する
+     */
+    public static StepLengthEvaluator allEstimators(PDRConfig config) {
+        return new StepLengthEvaluator(
+                new TcsleStepLengthEstimator(config),
+                new WeinbergStepLengthEstimator(config),
+                new KimStepLengthEstimator(config),
+                new ScarletStepLengthEstimator(config));
+    }
+
+    /**
+     * 試行全体を新しいエンジンで1回処理し，全推定器の歩幅を記録する
+     */
+    public void evaluate(PDRConfig config, SampleBatch trial) {
+        reset();
+        PDREngine engine = new PDREngine(config);
+        engine.setListener(this);
+        trial.feed(engine);
+    }
+
+    public void reset() {
+        for (StepLengthEstimator e : estimators) {
+            e.reset();
+        }
+        steps = 0;
+    }
+
+    @Override
+    public void onTick(PDREngine engine, boolean isAccel, long tickTimeNs) {
+    }
+
+    @Override
+    public void onStep(PDREngine engine, long stepTimeNs, float stepLength) {
+        if (steps == lengths[0].length) {
+            for (int i = 0; i < lengths.length; i++) {
+                lengths[i] = Arrays.copyOf(lengths[i], steps * 2);
+            }
+        }
+        StepFeatures f = engine.getLastStepFeatures();
+        for (int i = 0; i < estimators.length; i++) {
+            lengths[i][steps] = estimators[i].estimate(f);
+        }
+        steps++;
+    }
+
+    @Override
+    public void onDiscontinuity(PDREngine engine, int sensor, long gapNs) {
+    }
+
+    // ========== 結果 ==========
+
+    public int getEstimatorCount() { return estimators.length; }
+    public String getName(int estimator) { return estimators[estimator].getName(); }
+    public int getStepCount() { return steps; }
+    public float getStepLength(int estimator, int step) { return lengths[estimator][step]; }
+
+    public double getTotalLength(int estimator) {
+        double sum = 0;
+        for (int s = 0; s < steps; s++) sum += lengths[estimator][s];
+        return sum;
+    }
+
+    public double getMeanLength(int estimator) {
+        return steps == 0 ? 0 : getTotalLength(estimator) / steps;
+    }
+
+    public double getStdLength(int estimator) {
+        if (steps < 2) return 0;
+        double mean = getMeanLength(estimator);
+        double sq = 0;
+        for (int s = 0; s < steps; s++) {
+            double d = lengths[estimator][s] - mean;
+            sq += d * d;
+        }
+        return Math.sqrt(sq / (steps - 1));
+    }
+
+    /**
+     * 推定器ごとの集計表
+     * @param trueDistance 実際の歩行距離 [m]（不明なら0以下）
+     */
+    public String formatTable(double trueDistance) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "steps=%d%n", steps));
+        sb.append(String.format(Locale.US, "%-10s %10s %8s %8s %9s%n", "estimator", "total[m]", "mean", "std", "err[%]"));
+        for (int i = 0; i < estimators.length; i++) {
+            double total = getTotalLength(i);
+            String err = trueDistance > 0
+                    ? String.format(Locale.US, "%9.2f", 100 * (total - trueDistance) / trueDistance)
+                    : String.format(Locale.US, "%9s", "-");
+            sb.append(String.format(Locale.US, "%-10s %10.2f %8.3f %8.3f %s%n",
+                    getName(i), total, getMeanLength(i), getStdLength(i), err));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 使い方: StepLengthEvaluator <sensor.csv> [実際の距離m]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: StepLengthEvaluator <sensor.csv> [trueDistanceM]");
+            return;
+        }
+        PDRConfig config = TrialCsv.replayConfig(new PDRConfig());
+        SampleBatch trial = TrialCsv.readSensorCsv(new File(args[0]));
+        StepLengthEvaluator evaluator = allEstimators(config);
+        evaluator.evaluate(config, trial);
+        System.out.print(evaluator.formatTable(args.length > 1 ? Double.parseDouble(args[1]) : 0));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.tcsle;
+
+import java.util.Arrays;
+
+/**
+ * 歩行ごとの推定位置の列（出力座標系．StagedReplayの結果）
+ */
+public class StepTrajectory {
+    private long[] t;
+    private double[] x;
+    private double[] y;
+    private float[] length;
+    private int size;
+
+    public StepTrajectory(int capacity) {
+        int n = Math.max(capacity, 1);
+        t = new long[n];
+        x = new double[n];
+        y = new double[n];
+        length = new float[n];
+    }
+
+    void add(long timeNs, double px, double py, float stepLength) {
+        if (size == t.length) {
+            int n = size * 2;
+            t = Arrays.copyOf(t, n);
+            x = Arrays.copyOf(x, n);
+            y = Arrays.copyOf(y, n);
+            length = Arrays.copyOf(length, n);
+        }
+        t[size] = timeNs;
+        x[size] = px;
+        y[size] = py;
+        length[size] = stepLength;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 時刻timeNsにおける位置のインデックス（その時刻以前の最後の歩行．歩行前なら-1）
+     */
+    public int indexAt(long timeNs) {
+        int lo = 0, hi = size - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (t[mid] <= timeNs) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    public int size() { return size; }
+    public long timeNsAt(int i) { return t[i]; }
+    public double xAt(int i) { return x[i]; }
+    public double yAt(int i) { return y[i]; }
+    public float lengthAt(int i) { return length[i]; }
+}
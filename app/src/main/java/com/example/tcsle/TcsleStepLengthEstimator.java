@@ -0,0 +1,72 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 従来のTCSLE（Weinberg式 → 直近3歩の平均との比例結合 → カルマンフィルタ）
+ * 最初の3歩は履歴がないためWeinberg式のみ使用する
+ */
+public class TcsleStepLengthEstimator implements StepLengthEstimator {
+    private final float K;
+    private final float q_tcsle;
+    private final boolean fastMath;
+
+    private final float[] li = new float[3];  // 歩幅履歴
+    private final KalmanFilter stepLengthKF;
+
+    public TcsleStepLengthEstimator(PDRConfig config) {
+        this.K = config.K;
+        this.q_tcsle = config.q_tcsle;
+        this.fastMath = config.fastMath;
+        stepLengthKF = new KalmanFilter(config.stepQ, config.stepR);
+    }
+
+    @Override
+    public float estimate(StepFeatures f) {
+        // Weinberg式で歩幅計算
+        float l = WeinbergStepLengthEstimator.weinberg(K, f.apMax - f.apMin, fastMath);
+        int stepCount = f.stepIndex;
+
+        // 最初の3歩はWeinbergのみ使用（履歴がないため）
+        if (stepCount <= 3) {
+            if (stepCount > 0) {
+                li[stepCount - 1] = l;
+            }
+            return (float) stepLengthKF.update(l);
+        }
+
+        // 4歩目以降はTCSLE適用
+        float l_prev = (li[0] + li[1] + li[2]) / 3.0f;
+
+        // 履歴を更新
+        System.arraycopy(li, 1, li, 0, 2);
+        li[2] = l;
+
+        // TCSLE式を適用
+        float L = q_tcsle * l_prev + (1 - q_tcsle) * l;
+        return (float) stepLengthKF.update(L);
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(li, 0f);
+        stepLengthKF.reset(0.0);
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        for (float v : li) out.putFloat(v);
+        out.putDouble(stepLengthKF.getP()).putDouble(stepLengthKF.getX());
+    }
+
+    @Override
+    public void restoreState(ByteBuffer in) {
+        for (int i = 0; i < 3; i++) li[i] = in.getFloat();
+        double P = in.getDouble();
+        stepLengthKF.setState(P, in.getDouble());
+    }
+
+    @Override
+    public String getName() { return "tcsle"; }
+}
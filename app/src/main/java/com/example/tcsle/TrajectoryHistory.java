@@ -0,0 +1,150 @@
+package com.example.tcsle;
+
+/**
+ * 歩行ごとの軌跡（時刻・位置・方位・歩幅）を保持する固定長リングバッファ
+ * 座標は出力座標系，時刻はセンサー時刻（ns）
+ * index 0 が保持している中で最古（時刻順）．容量を超えると最古の歩行から上書きする
+ *
+ * 配列は生成時に確保したきりで，追加・走査ともにオブジェクトを生成しない
+ * 書き込みはセンサースレッドから．別スレッドから読む場合は呼び出し側で同期すること
+ */
+public class TrajectoryHistory {
+
+    /**
+     * 走査のコールバック（配列の値をそのまま渡す．コピーしない）
+     */
+    public interface Visitor {
+        void visit(int index, long timeNs, double x, double y, float heading, float length);
+    }
+
+    private final long[] timesNs;
+    private final double[] xs;
+    private final double[] ys;
+    private final float[] headings;
+    private final float[] lengths;
+    private int head = 0;   // 次に書き込む位置
+    private int size = 0;
+    private long totalCount = 0;  // これまでに追加した歩行数（上書き分を含む）
+    private int generation = 0;  // clear()の回数（読み手が作り直しを検出する）
+
+    public TrajectoryHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        timesNs = new long[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        headings = new float[capacity];
+        lengths = new float[capacity];
+    }
+
+    public void push(long timeNs, double x, double y, float heading, float length) {
+        timesNs[head] = timeNs;
+        xs[head] = x;
+        ys[head] = y;
+        headings[head] = heading;
+        lengths[head] = length;
+        head = head + 1 == timesNs.length ? 0 : head + 1;
+        if (size < timesNs.length) size++;
+        totalCount++;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        totalCount = 0;
+        generation++;
+    }
+
+    private int slot(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("i=" + i + " size=" + size);
+        }
+        int s = head - size + i;
+        return s < 0 ? s + timesNs.length : s;
+    }
+
+    // ========== 時刻による検索 ==========
+
+    /**
+     * 時刻timeNs以前の最後の歩行のインデックス（最古の歩行より前なら-1）
+     */
+    public int indexAt(long timeNs) {
+        return lowerBound(timeNs + 1) - 1;
+    }
+
+    /**
+     * 時刻timeNs以降の最初の歩行のインデックス（すべてより後ならsize()）
+     */
+    public int lowerBound(long timeNs) {
+        int lo = 0;
+        int hi = size;
+        int first = head - size;
+        if (first < 0) first += timesNs.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int s = first + mid;
+            if (s >= timesNs.length) s -= timesNs.length;
+            if (timesNs[s] < timeNs) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // ========== 走査 ==========
+
+    /**
+     * インデックス[from, to)の歩行を時刻順に走査する
+     * リングの折り返しで2区間に分け，それぞれ配列を直接なめる
+     */
+    public void forEach(int from, int to, Visitor visitor) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("from=" + from + " to=" + to + " size=" + size);
+        }
+        if (from == to) return;
+        int start = slot(from);
+        int n = to - from;
+        int firstLen = Math.min(n, timesNs.length - start);
+        for (int k = 0; k < firstLen; k++) {
+            int s = start + k;
+            visitor.visit(from + k, timesNs[s], xs[s], ys[s], headings[s], lengths[s]);
+        }
+        for (int k = firstLen; k < n; k++) {
+            int s = k - firstLen;
+            visitor.visit(from + k, timesNs[s], xs[s], ys[s], headings[s], lengths[s]);
+        }
+    }
+
+    public void forEach(Visitor visitor) {
+        forEach(0, size, visitor);
+    }
+
+    /**
+     * 時刻[fromNs, toNs)の歩行を時刻順に走査する
+     * @return 走査した歩行数
+     */
+    public int forEachInRange(long fromNs, long toNs, Visitor visitor) {
+        int from = lowerBound(fromNs);
+        int to = Math.max(from, lowerBound(toNs));
+        forEach(from, to, visitor);
+        return to - from;
+    }
+
+    // ========== Getterメソッド ==========
+
+    public int size() { return size; }
+    public int capacity() { return timesNs.length; }
+    public long getTotalCount() { return totalCount; }
+    /** 容量超過で上書きされた歩行数 */
+    public long getDroppedCount() { return totalCount - size; }
+    /** clear()のたびに増える（reset・reanchorで履歴が置き換わったことの検出用） */
+    public int getGeneration() { return generation; }
+    public long timeNsAt(int i) { return timesNs[slot(i)]; }
+    public double xAt(int i) { return xs[slot(i)]; }
+    public double yAt(int i) { return ys[slot(i)]; }
+    public float headingAt(int i) { return headings[slot(i)]; }
+    public float lengthAt(int i) { return lengths[slot(i)]; }
+}
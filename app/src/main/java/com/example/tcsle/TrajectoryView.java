@@ -0,0 +1,310 @@
+package com.example.tcsle;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.List;
+
+/**
+ * PDRの軌跡をルートの地点と重ねて描くビュー
+ *
+ * 軌跡はPolylineSimplifierで逐次間引き，確定した線分だけをオフスクリーンのBitmapへ描き足す
+ * onDrawはBitmapの転写・ルート（地点数ぶん）・未確定の末尾だけなので，測定時間によらず一定
+ * 軌跡が表示範囲を出たときだけ範囲を広げて全体を描き直す（範囲は1.5倍ずつ広げるため稀）
+ * Path・Paintは使い回し，フレームごとにオブジェクトを生成しない
+ */
+public class TrajectoryView extends View {
+    private static final float TOLERANCE_M = 0.15f;  // 間引きの許容誤差 [m]
+    private static final int MAX_PENDING = 64;  // 確定を保留する歩数の上限
+    private static final float MIN_SPAN_M = 10f;  // 表示範囲の最小幅 [m]
+    private static final float MARGIN_RATIO = 0.1f;
+    private static final float GROW_RATIO = 0.5f;
+
+    private final PolylineSimplifier trail = new PolylineSimplifier(TOLERANCE_M, MAX_PENDING);
+    private final Paint trailPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint tailPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint routePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint waypointPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint advertisePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint positionPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path segmentPath = new Path();
+    private final Path routePath = new Path();
+
+    private Bitmap trailBitmap;
+    private Canvas trailCanvas;
+    private int drawnCount = 0;  // Bitmapへ描いた確定頂点数
+
+    // ルートの地点（出力座標系）
+    private float[] routeXs = new float[0];
+    private float[] routeYs = new float[0];
+    private boolean[] routeAdvertise = new boolean[0];
+
+    // 表示範囲（出力座標系）と画面への変換（sx = offsetX + x·scale, sy = offsetY − y·scale）
+    private float minX, minY, maxX, maxY;
+    private float scale = 1, offsetX, offsetY;
+
+    // 軌跡履歴のどこまで読んだか
+    private long seenSteps = 0;
+    private int seenGeneration = -1;
+    private float positionX, positionY;
+    private boolean hasPosition = false;
+
+    private final TrajectoryHistory.Visitor feeder = new TrajectoryHistory.Visitor() {
+        @Override
+        public void visit(int index, long timeNs, double x, double y, float heading, float length) {
+            addPoint((float) x, (float) y);
+        }
+    };
+
+    public TrajectoryView(Context context) {
+        this(context, null);
+    }
+
+    public TrajectoryView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        trailPaint.setStyle(Paint.Style.STROKE);
+        trailPaint.setStrokeWidth(2.5f * density);
+        trailPaint.setStrokeJoin(Paint.Join.ROUND);
+        trailPaint.setStrokeCap(Paint.Cap.ROUND);
+        trailPaint.setColor(0xFF007bff);
+        tailPaint.set(trailPaint);
+        routePaint.setStyle(Paint.Style.STROKE);
+        routePaint.setStrokeWidth(1.5f * density);
+        routePaint.setColor(0xFFadb5bd);
+        waypointPaint.setColor(0xFF28a745);
+        advertisePaint.setColor(0xFFdc3545);
+        positionPaint.setColor(0xFF6f42c1);
+        resetBounds();
+    }
+
+    // ========== 入力 ==========
+
+    /**
+     * 表示するルートを設定し，軌跡を消去する
+     */
+    public void setRoute(RouteManager.RoutePreset route) {
+        int n = route != null ? route.getRoutePointCount() : 0;
+        routeXs = new float[n];
+        routeYs = new float[n];
+        routeAdvertise = new boolean[n];
+        if (route != null) {
+            List<RouteManager.RoutePoint> points = route.getRoutePoints();
+            for (int i = 0; i < n; i++) {
+                RouteManager.RoutePoint p = points.get(i);
+                routeXs[i] = p.getX();
+                routeYs[i] = p.getY();
+                routeAdvertise[i] = p.isAdvertisePoint();
+            }
+        }
+        clearTrajectory();
+    }
+
+    /**
+     * 軌跡を消去し，表示範囲をルートに合わせ直す
+     */
+    public void clearTrajectory() {
+        trail.clear();
+        seenSteps = 0;
+        hasPosition = false;
+        resetBounds();
+        updateTransform();
+        redrawTrail();
+        invalidate();
+    }
+
+    /**
+     * 軌跡履歴から前回以降に増えた歩行を取り込む（UIの更新ごとに呼ぶ）
+     * @param x 現在位置X（歩行間の末尾として描く）
+     * @param y 現在位置Y
+     */
+    public void update(TrajectoryHistory history, double x, double y) {
+        if (history == null) return;
+        if (history.getGeneration() != seenGeneration || history.getTotalCount() < seenSteps) {
+            // reset・reanchorで履歴が置き換わった
+            seenGeneration = history.getGeneration();
+            trail.clear();
+            seenSteps = 0;
+            resetBounds();
+            updateTransform();
+            redrawTrail();
+        }
+        long added = history.getTotalCount() - seenSteps;
+        boolean changed = added > 0 || !hasPosition || positionX != (float) x || positionY != (float) y;
+        if (added > 0) {
+            int from = (int) Math.max(0, history.size() - added);
+            history.forEach(from, history.size(), feeder);
+            seenSteps = history.getTotalCount();
+        }
+        positionX = (float) x;
+        positionY = (float) y;
+        hasPosition = true;
+        if (!contains(positionX, positionY)) {
+            grow(positionX, positionY);
+        }
+        if (changed) {
+            drawNewSegments();
+            invalidate();
+        }
+    }
+
+    private void addPoint(float x, float y) {
+        trail.add(x, y);
+        if (!contains(x, y)) {
+            grow(x, y);
+        }
+    }
+
+    // ========== 表示範囲 ==========
+
+    private void resetBounds() {
+        minX = Float.MAX_VALUE;
+        minY = Float.MAX_VALUE;
+        maxX = -Float.MAX_VALUE;
+        maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < routeXs.length; i++) {
+            include(routeXs[i], routeYs[i]);
+        }
+        if (routeXs.length == 0) include(0, 0);
+        float cx = (minX + maxX) / 2;
+        float cy = (minY + maxY) / 2;
+        float half = Math.max(MIN_SPAN_M, Math.max(maxX - minX, maxY - minY) * (1 + 2 * MARGIN_RATIO)) / 2;
+        minX = cx - half;
+        maxX = cx + half;
+        minY = cy - half;
+        maxY = cy + half;
+    }
+
+    private void include(float x, float y) {
+        minX = Math.min(minX, x);
+        maxX = Math.max(maxX, x);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
+    }
+
+    private boolean contains(float x, float y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    /**
+     * 点(x, y)を含むように範囲を広げ，軌跡全体を描き直す
+     */
+    private void grow(float x, float y) {
+        include(x, y);
+        float gx = (maxX - minX) * GROW_RATIO / 2;
+        float gy = (maxY - minY) * GROW_RATIO / 2;
+        minX -= gx;
+        maxX += gx;
+        minY -= gy;
+        maxY += gy;
+        updateTransform();
+        redrawTrail();
+    }
+
+    private void updateTransform() {
+        int w = getWidth();
+        int h = getHeight();
+        if (w == 0 || h == 0) return;
+        scale = Math.min(w / (maxX - minX), h / (maxY - minY));
+        offsetX = w / 2f - (minX + maxX) / 2 * scale;
+        offsetY = h / 2f + (minY + maxY) / 2 * scale;
+
+        routePath.rewind();
+        for (int i = 0; i < routeXs.length; i++) {
+            if (i == 0) {
+                routePath.moveTo(screenX(routeXs[i]), screenY(routeYs[i]));
+            } else {
+                routePath.lineTo(screenX(routeXs[i]), screenY(routeYs[i]));
+            }
+        }
+    }
+
+    private float screenX(float x) { return offsetX + x * scale; }
+    private float screenY(float y) { return offsetY - y * scale; }
+
+    // ========== 描画 ==========
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (trailBitmap != null) {
+            trailBitmap.recycle();
+            trailBitmap = null;
+            trailCanvas = null;
+        }
+        if (w > 0 && h > 0) {
+            trailBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            trailCanvas = new Canvas(trailBitmap);
+        }
+        updateTransform();
+        redrawTrail();
+    }
+
+    /**
+     * Bitmapを消去して確定済みの軌跡を描き直す（範囲・サイズが変わったとき）
+     */
+    private void redrawTrail() {
+        drawnCount = 0;
+        if (trailBitmap == null) return;
+        trailBitmap.eraseColor(Color.TRANSPARENT);
+        drawNewSegments();
+    }
+
+    /**
+     * 前回以降に確定した線分だけをBitmapへ描き足す
+     */
+    private void drawNewSegments() {
+        if (trailCanvas == null || trail.size() < 2 || drawnCount == trail.size()) return;
+        int from = Math.max(0, drawnCount - 1);
+        segmentPath.rewind();
+        segmentPath.moveTo(screenX(trail.xAt(from)), screenY(trail.yAt(from)));
+        for (int i = from + 1; i < trail.size(); i++) {
+            segmentPath.lineTo(screenX(trail.xAt(i)), screenY(trail.yAt(i)));
+        }
+        trailCanvas.drawPath(segmentPath, trailPaint);
+        drawnCount = trail.size();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float density = getResources().getDisplayMetrics().density;
+
+        // ルート
+        canvas.drawPath(routePath, routePaint);
+        for (int i = 0; i < routeXs.length; i++) {
+            canvas.drawCircle(screenX(routeXs[i]), screenY(routeYs[i]), 4 * density,
+                    routeAdvertise[i] ? advertisePaint : waypointPaint);
+        }
+
+        // 確定済みの軌跡
+        if (trailBitmap != null) {
+            canvas.drawBitmap(trailBitmap, 0, 0, null);
+        }
+
+        // 最後の確定頂点 → 未確定の末尾 → 現在位置
+        if (trail.size() > 0) {
+            float lx = screenX(trail.xAt(trail.size() - 1));
+            float ly = screenY(trail.yAt(trail.size() - 1));
+            if (trail.hasTail()) {
+                float tx = screenX(trail.getTailX());
+                float ty = screenY(trail.getTailY());
+                canvas.drawLine(lx, ly, tx, ty, tailPaint);
+                lx = tx;
+                ly = ty;
+            }
+            if (hasPosition) {
+                canvas.drawLine(lx, ly, screenX(positionX), screenY(positionY), tailPaint);
+            }
+        }
+        if (hasPosition) {
+            canvas.drawCircle(screenX(positionX), screenY(positionY), 6 * density, positionPaint);
+        }
+    }
+}
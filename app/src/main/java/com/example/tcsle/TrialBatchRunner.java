@@ -0,0 +1,315 @@
+package com.example.tcsle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 記録済み試行の一括再処理と精度レポート（オフライン評価用）
+ *
+ * ディレクトリ以下のセンサーCSV/イベントCSVの組をすべて探し，ForkJoinPoolで並列に再処理する
+ * 試行の範囲を再帰的に半分ずつに分けるため，長い試行で空いたワーカーは残りの試行を盗んで処理する
+ * センサーCSVは1行ずつエンジンへ流し込み（TrialCsv.feedSensorCsv），地点通過時の誤差だけを
+ * ルート別・全体のErrorHistogramへ集計する．生サンプルは保持しない
+ */
+public class TrialBatchRunner {
+    // 再処理のスループット目標 [サンプル/秒/コア]
+    // 5分の試行（100行/秒×2サンプル = 6万サンプル）を1コアで毎秒16本以上．数千試行が数分で終わる
+    public static final double TARGET_SAMPLES_PER_SEC_PER_CORE = 1_000_000;
+
+    private static final double[] CDF_THRESHOLDS_M = {0.5, 1, 2, 3, 5, 10};
+
+    /**
+     * 1試行の結果（誤差は地点通過ごと）
+     */
+    public static class TrialResult {
+        public String trialId;
+        public String routeId;
+        public long samples;
+        public long skippedRows;  // 書きかけ・壊れていたため読み飛ばしたセンサーCSVの行
+        public int steps;
+        public double distance;
+        public int waypoints;
+        public double meanError;
+        public double p90Error;
+        public double maxError;
+        public double finalError;  // 最後の地点での誤差
+        public long elapsedNs;
+        public String failure;  // 読み込み・処理に失敗した場合の理由（成功時null）
+    }
+
+    /**
+     * 集計結果（ルート別・全体の誤差分布と試行ごとの結果）
+     */
+    public static class Report {
+        public final Map<String, ErrorHistogram> routes = new TreeMap<>();
+        public final ErrorHistogram overall = new ErrorHistogram();
+        public final List<TrialResult> trials = new ArrayList<>();
+        public long samples;
+        public long cpuNs;  // 試行の処理時間の合計
+        public long wallNs;
+        public int threads;
+
+        void merge(Report other) {
+            for (Map.Entry<String, ErrorHistogram> e : other.routes.entrySet()) {
+                ErrorHistogram h = routes.get(e.getKey());
+                if (h == null) {
+                    routes.put(e.getKey(), e.getValue());
+                } else {
+                    h.merge(e.getValue());
+                }
+            }
+            overall.merge(other.overall);
+            trials.addAll(other.trials);
+            samples += other.samples;
+            cpuNs += other.cpuNs;
+        }
+
+        /** 壁時計時間あたり・ワーカー1つあたりのスループット */
+        public double getSamplesPerSecPerCore() {
+            return wallNs == 0 ? 0 : samples / (wallNs * 1e-9) / threads;
+        }
+
+        /** 試行の処理時間だけで測ったスループット（読み込みを含む，待ち時間を除く） */
+        public double getSamplesPerCpuSec() {
+            return cpuNs == 0 ? 0 : samples / (cpuNs * 1e-9);
+        }
+
+        public int getFailureCount() {
+            int n = 0;
+            for (TrialResult t : trials) {
+                if (t.failure != null) n++;
+            }
+            return n;
+        }
+    }
+
+    private final PDRConfig config;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param base 再処理に使う設定（前処理なしのreplayConfigにして使う）
+     */
+    public TrialBatchRunner(PDRConfig base, ForkJoinPool pool) {
+        this.config = TrialCsv.replayConfig(base);
+        this.pool = pool;
+    }
+
+    public Report run(File dir) {
+        return run(TrialCsv.findTrials(dir));
+    }
+
+    public Report run(List<File> sensorFiles) {
+        long t0 = System.nanoTime();
+        Report report = sensorFiles.isEmpty() ? new Report()
+                : pool.invoke(new ReprocessTask(sensorFiles, 0, sensorFiles.size()));
+        report.wallNs = System.nanoTime() - t0;
+        report.threads = pool.getParallelism();
+        return report;
+    }
+
+    private class ReprocessTask extends RecursiveTask<Report> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> files;
+        private final int from, to;
+
+        ReprocessTask(List<File> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Report compute() {
+            if (to - from == 1) {
+                return reprocess(files.get(from));
+            }
+            int mid = (from + to) >>> 1;
+            ReprocessTask right = new ReprocessTask(files, mid, to);
+            right.fork();
+            Report left = new ReprocessTask(files, from, mid).compute();
+            left.merge(right.join());
+            return left;
+        }
+    }
+
+    // ========== 1試行の再処理 ==========
+
+    /**
+     * 1試行を再処理し，その試行だけの集計を返す
+     */
+    Report reprocess(File sensorFile) {
+        Report report = new Report();
+        TrialResult result = new TrialResult();
+        result.trialId = TrialCsv.trialId(sensorFile);
+        result.routeId = TrialCsv.routeId(result.trialId);
+        report.trials.add(result);
+
+        long t0 = System.nanoTime();
+        try {
+            File eventFile = TrialCsv.eventFileFor(sensorFile);
+            if (eventFile == null) {
+                throw new IOException("Event CSV not found");
+            }
+            RouteEvents events = TrialCsv.readEventCsv(eventFile);
+
+            PDREngine engine = new PDREngine(config);
+            engine.getProfiler().setEnabled(false);
+            // MainActivity.startTrackingと同じ初期化（地点0を初期位置，地点0→1を初期方位）
+            engine.setInitialPosition(events.getStartX(), events.getStartY());
+            if (events.hasNext()) {
+                engine.setInitialRouteVector(events.getStartX(), events.getStartY(),
+                        events.getNextX(), events.getNextY());
+            }
+            WaypointScorer scorer = new WaypointScorer(events);
+            engine.setListener(scorer);
+
+            TrialCsv.RowCounts rows = new TrialCsv.RowCounts();
+            result.samples = TrialCsv.feedSensorCsv(sensorFile, engine, rows);
+            result.skippedRows = rows.skipped;
+            scorer.finish();
+
+            result.steps = engine.getStepCount();
+            result.distance = engine.getDistance();
+            result.waypoints = scorer.count;
+            if (scorer.count > 0) {
+                double[] e = Arrays.copyOf(scorer.errors, scorer.count);
+                ErrorHistogram route = new ErrorHistogram();
+                double sum = 0;
+                for (double v : e) {
+                    route.record(v);
+                    sum += v;
+                }
+                result.meanError = sum / e.length;
+                result.finalError = e[e.length - 1];
+                Arrays.sort(e);
+                result.p90Error = e[Math.max(0, (int) Math.ceil(0.9 * e.length) - 1)];
+                result.maxError = e[e.length - 1];
+                report.overall.merge(route);
+                report.routes.put(result.routeId, route);
+            }
+            report.samples = result.samples;
+        } catch (IOException | RuntimeException e) {
+            result.failure = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        result.elapsedNs = System.nanoTime() - t0;
+        report.cpuNs = result.elapsedNs;
+        return report;
+    }
+
+    /**
+     * 歩行のたびに，その歩行より前の地点通過を直前の位置で採点する
+     * （StagedReplay/RecordedTrialと同じく，地点通過時刻以前の最後の歩行の位置を使う）
+     */
+    private static class WaypointScorer implements PDREngine.Listener {
+        private final RouteEvents events;
+        final double[] errors;
+        int count = 0;
+        private double x, y;
+
+        WaypointScorer(RouteEvents events) {
+            this.events = events;
+            this.errors = new double[events.size()];
+            this.x = events.getStartX();
+            this.y = events.getStartY();
+        }
+
+        @Override
+        public void onTick(PDREngine engine, boolean isAccel, long tickTimeNs) {
+        }
+
+        @Override
+        public void onStep(PDREngine engine, long stepTimeNs, float stepLength) {
+            while (count < events.size() && events.timeNsAt(count) < stepTimeNs) {
+                score();
+            }
+            x = engine.getX();
+            y = engine.getY();
+        }
+
+        @Override
+        public void onDiscontinuity(PDREngine engine, int sensor, long gapNs) {
+        }
+
+        void finish() {
+            while (count < events.size()) {
+                score();
+            }
+        }
+
+        private void score() {
+            double dx = x - events.targetXAt(count);
+            double dy = y - events.targetYAt(count);
+            errors[count++] = Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    // ========== 表示 ==========
+
+    public static String formatReport(Report report) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%-28s %6s %7s %8s %8s %8s %s%n",
+                "trial", "steps", "dist[m]", "mean[m]", "p90[m]", "max[m]", "samples/s"));
+        for (TrialResult t : report.trials) {
+            if (t.failure != null) {
+                sb.append(String.format(Locale.US, "%-28s FAILED %s%n", t.trialId, t.failure));
+                continue;
+            }
+            sb.append(String.format(Locale.US, "%-28s %6d %7.1f %8.2f %8.2f %8.2f %.0f",
+                    t.trialId, t.steps, t.distance, t.meanError, t.p90Error, t.maxError,
+                    t.samples / Math.max(1e-9, t.elapsedNs * 1e-9)));
+            if (t.skippedRows > 0) {
+                sb.append(String.format(Locale.US, " (skipped %d rows)", t.skippedRows));
+            }
+            sb.append('\n');
+        }
+
+        sb.append(String.format(Locale.US, "%n%-12s ", "route")).append("waypoint error [m]\n");
+        for (Map.Entry<String, ErrorHistogram> e : report.routes.entrySet()) {
+            appendRoute(sb, e.getKey(), e.getValue());
+        }
+        appendRoute(sb, "ALL", report.overall);
+
+        double perCore = report.getSamplesPerSecPerCore();
+        sb.append(String.format(Locale.US,
+                "%ntrials=%d failed=%d samples=%d wall=%.2fs threads=%d%n"
+                        + "throughput=%.0f samples/s/core (target %.0f: %s), %.0f samples/cpu-s%n",
+                report.trials.size(), report.getFailureCount(), report.samples, report.wallNs * 1e-9,
+                report.threads, perCore, TARGET_SAMPLES_PER_SEC_PER_CORE,
+                perCore >= TARGET_SAMPLES_PER_SEC_PER_CORE ? "met" : "NOT met",
+                report.getSamplesPerCpuSec()));
+        return sb.toString();
+    }
+
+    private static void appendRoute(StringBuilder sb, String name, ErrorHistogram h) {
+        sb.append(String.format(Locale.US, "%-12s ", name));
+        h.appendSummary(sb);
+        h.appendCdf(sb, CDF_THRESHOLDS_M);
+        sb.append('\n');
+    }
+
+    // ========== 単体起動 ==========
+
+    /**
+     * 使い方: TrialBatchRunner <dir> [threads]
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("usage: TrialBatchRunner <dir> [threads]");
+            return;
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Report report = new TrialBatchRunner(new PDRConfig(), pool).run(new File(args[0]));
+        pool.shutdown();
+        System.out.print(formatReport(report));
+    }
+}
@@ -0,0 +1,445 @@
+package com.example.tcsle;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * PDRServiceが記録したCSVの読み込み（オフライン評価用）
+ *
+ * センサーCSVの加速度・角速度はバイアス補正・カルマンフィルタ後の値のため，
+ * 再投入するエンジンはPDRConfig.prefilter = false で動かすこと（replayConfigを参照）
+ * 時刻列は記録時のSystem.nanoTime()差分であり，センサー時刻ではない点に注意
+ * gx..gzはPDREngine.getGyroscope()の値（カルマンフィルタ後，姿勢推定器の補正kf・keを加える前．
+ * 再投入で姿勢推定をやり直すため）．この変更より前の記録はライブ実行の補正を含み，方位の段の再処理には使えない
+ */
+public class TrialCsv {
+    public static final String SENSOR_SUFFIX = "_sensor.csv";
+    public static final String EVENT_SUFFIX = "_events.csv";
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    public static final String ROUTE_SENSOR_HEADER =
+            "Time(ns),ax,ay,az,gx,gy,gz,StepCount,StepLength,X,Y,Heading,TotalDistance,ap,TrialID";
+    public static final String ROUTE_EVENT_HEADER =
+            "Time(ns),TrialID,Event,RoutePoint,TargetX,TargetY,EstimatedX,EstimatedY,Distance";
+    public static final String LEGACY_SENSOR_HEADER =
+            "Time(ns),ax,ay,az,gx,gy,gz,StepCount,StepLength,X,Y,Heading,TotalDistance,ap";
+    public static final String LEGACY_EVENT_HEADER = "Time(ns),Event,Distance";
+
+    private TrialCsv() {
+    }
+
+    /**
+     * センサーCSVの行数の内訳（readSensorCsv・feedSensorCsvの出力）
+     */
+    public static final class RowCounts {
+        public long rows;       // 見出しと空行を除く行数
+        public long skipped;    // 列が足りない・数値として読めないため読み飛ばした行
+        public long unordered;  // 時刻が進まないため読み飛ばした行（再測定の追記など）
+    }
+
+    /**
+     * センサーCSVを1行につき加速度・角速度の2サンプルとして読み込む
+     * 列は見出し名で探すため，TrialID列の有無は問わない
+     */
+    public static SampleBatch readSensorCsv(File file) throws IOException {
+        return readSensorCsv(file, null);
+    }
+
+    /**
+     * @param counts 行数の内訳の出力先（null可）
+     */
+    public static SampleBatch readSensorCsv(File file, RowCounts counts) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        }
+        if (lines.isEmpty()) {
+            throw new IOException("Empty sensor CSV: " + file);
+        }
+
+        String[] header = lines.get(0).split(",");
+        int time = column(header, "Time(ns)");
+        int ax = column(header, "ax");
+        int gx = column(header, "gx");
+        int last = lastColumn(time, ax, gx);
+
+        SampleBatch batch = new SampleBatch(2 * (lines.size() - 1));
+        long lastTime = Long.MIN_VALUE;
+        long skipped = 0, unordered = 0;
+        for (int i = 1; i < lines.size(); i++) {
+            String[] f = lines.get(i).split(",", -1);
+            if (f.length <= last) {
+                skipped++;  // 途中で書きかけの行
+                continue;
+            }
+            try {
+                long t = Long.parseLong(f[time].trim());
+                // 同時刻・逆行する行は補間できないため読み飛ばす
+                if (t <= lastTime) {
+                    unordered++;
+                    continue;
+                }
+                float v0 = Float.parseFloat(f[ax].trim());
+                float v1 = Float.parseFloat(f[ax + 1].trim());
+                float v2 = Float.parseFloat(f[ax + 2].trim());
+                float w0 = Float.parseFloat(f[gx].trim());
+                float w1 = Float.parseFloat(f[gx + 1].trim());
+                float w2 = Float.parseFloat(f[gx + 2].trim());
+                lastTime = t;
+                batch.add(true, t, v0, v1, v2);
+                batch.add(false, t, w0, w1, w2);
+            } catch (NumberFormatException e) {
+                skipped++;  // 壊れた行
+            }
+        }
+        if (counts != null) {
+            counts.rows = lines.size() - 1;
+            counts.skipped = skipped;
+            counts.unordered = unordered;
+        }
+        return batch;
+    }
+
+    /**
+     * センサーCSVを1行ずつエンジンへ投入する（全行をメモリに読み込まない．バッチ再処理用）
+     * 行の扱いはreadSensorCsvと同じ（加速度→角速度の順，列が足りない・壊れた行と
+     * 時刻が進まない行は読み飛ばす）
+     * @return 投入したサンプル数（1行につき2）
+     */
+    public static long feedSensorCsv(File file, PDREngine engine) throws IOException {
+        return feedSensorCsv(file, engine, null);
+    }
+
+    /**
+     * @param counts 行数の内訳の出力先（null可）
+     */
+    public static long feedSensorCsv(File file, PDREngine engine, RowCounts counts) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16)) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Empty sensor CSV: " + file);
+            }
+            String[] header = line.split(",");
+            int time = column(header, "Time(ns)");
+            int ax = column(header, "ax");
+            int gx = column(header, "gx");
+            int last = lastColumn(time, ax, gx);
+
+            int[] start = new int[last + 2];
+            long samples = 0;
+            long rows = 0, skipped = 0, unordered = 0;
+            long lastTime = Long.MIN_VALUE;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                rows++;
+                // 必要な列の開始位置だけを求める（splitによる配列・文字列の生成を避ける）
+                int fields = 0;
+                start[fields++] = 0;
+                for (int i = 0; i < line.length() && fields <= last + 1; i++) {
+                    if (line.charAt(i) == ',') start[fields++] = i + 1;
+                }
+                if (fields <= last) {
+                    skipped++;  // 書きかけの行
+                    continue;
+                }
+                try {
+                    long t = Long.parseLong(field(line, start, fields, time));
+                    if (t <= lastTime) {
+                        unordered++;
+                        continue;
+                    }
+                    float v0 = Float.parseFloat(field(line, start, fields, ax));
+                    float v1 = Float.parseFloat(field(line, start, fields, ax + 1));
+                    float v2 = Float.parseFloat(field(line, start, fields, ax + 2));
+                    float w0 = Float.parseFloat(field(line, start, fields, gx));
+                    float w1 = Float.parseFloat(field(line, start, fields, gx + 1));
+                    float w2 = Float.parseFloat(field(line, start, fields, gx + 2));
+                    lastTime = t;
+                    engine.onSample(true, t, v0, v1, v2);
+                    engine.onSample(false, t, w0, w1, w2);
+                    samples += 2;
+                } catch (NumberFormatException e) {
+                    skipped++;  // 壊れた行
+                }
+            }
+            if (counts != null) {
+                counts.rows = rows;
+                counts.skipped = skipped;
+                counts.unordered = unordered;
+            }
+            return samples;
+        }
+    }
+
+    /**
+     * 1行に必要な最後の列（時刻・加速度3軸・角速度3軸のうち最も右）
+     */
+    private static int lastColumn(int time, int ax, int gx) {
+        return Math.max(time, Math.max(ax, gx) + 2);
+    }
+
+    private static String field(String line, int[] start, int fields, int i) {
+        int end = i + 1 < fields ? start[i + 1] - 1 : line.length();
+        return line.substring(start[i], end).trim();
+    }
+
+    /**
+     * ルートモードのイベントCSVからADVERTISE/PASSの地点通過を読み込む
+     * 同じファイルに再測定が追記されている場合は最初の測定（最初のSTOPまで）のみ使う
+     * （readSensorCsvが時刻の逆行する追記分を読み飛ばすのに合わせる）
+     */
+    public static RouteEvents readEventCsv(File file) throws IOException {
+        RouteEvents events = new RouteEvents();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Empty event CSV: " + file);
+            }
+            String[] header = line.split(",");
+            int time = column(header, "Time(ns)");
+            int event = column(header, "Event");
+            int point = column(header, "RoutePoint");
+            int tx = column(header, "TargetX");
+            int ty = column(header, "TargetY");
+
+            while ((line = reader.readLine()) != null) {
+                String[] f = line.split(",");
+                if (f.length <= Math.max(ty, event)) continue;
+                String name = f[event].trim();
+                if (name.equals("STOP")) break;
+                boolean isAdvertise = name.equals("ADVERTISE");
+                boolean isStart = name.equals("START");
+                if (!isAdvertise && !isStart && !name.equals("PASS")) continue;
+                try {
+                    long t = Long.parseLong(f[time].trim());
+                    int p = Integer.parseInt(f[point].trim());
+                    float x = Float.parseFloat(f[tx].trim());
+                    float y = Float.parseFloat(f[ty].trim());
+                    if (isStart) {
+                        events.setRoutePoint(p, x, y);
+                    } else {
+                        events.add(t, p, x, y, isAdvertise);
+                    }
+                } catch (NumberFormatException e) {
+                    // 書きかけの行
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * センサーCSVに対応するイベントCSV（…_sensor.csv → …_events.csv．なければnull）
+     */
+    public static File eventFileFor(File sensorFile) {
+        String name = sensorFile.getName();
+        if (!name.endsWith(SENSOR_SUFFIX)) return null;
+        File events = new File(sensorFile.getParentFile(),
+                name.substring(0, name.length() - SENSOR_SUFFIX.length()) + EVENT_SUFFIX);
+        return events.isFile() ? events : null;
+    }
+
+    /**
+     * 試行ID（ファイル名から…_sensor.csvを除いたもの．例: Route_A_20250101_Trial03）
+     */
+    public static String trialId(File sensorFile) {
+        String name = sensorFile.getName();
+        return name.endsWith(SENSOR_SUFFIX) ? name.substring(0, name.length() - SENSOR_SUFFIX.length()) : name;
+    }
+
+    /**
+     * 試行IDからルートIDを取り出す（PDRServiceのファイル名「ルートID_日付_TrialNN」．形式が違えばそのまま）
+     */
+    public static String routeId(String trialId) {
+        int trial = trialId.lastIndexOf("_Trial");
+        if (trial < 0) return trialId;
+        int date = trialId.lastIndexOf('_', trial - 1);
+        return date < 0 ? trialId.substring(0, trial) : trialId.substring(0, date);
+    }
+
+    /**
+     * ディレクトリ以下（サブディレクトリを含む）のセンサーCSVのうち，イベントCSVがそろっているものをパス順で返す
+     * CSVに書き出されていないジャーナル（記録中に落ちたもの）は先に書き出してから探す（exportOrphanedJournals）
+     */
+    public static List<File> findTrials(File dir) {
+        List<File> out = new ArrayList<>();
+        collectTrials(dir, out);
+        return out;
+    }
+
+    private static void collectTrials(File dir, List<File> out) {
+        exportOrphanedJournals(dir, null);
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+        for (File f : files) {
+            if (f.isDirectory()) {
+                collectTrials(f, out);
+            } else if (f.isFile() && eventFileFor(f) != null) {
+                out.add(f);
+            }
+        }
+    }
+
+    /**
+     * ジャーナルの書き出し先のセンサーCSV（PDRServiceと同じ命名．ルートモードは…_sensor.csv，それ以外は….csv）
+     */
+    public static File sensorCsvForJournal(File journal, boolean routeMode) {
+        return new File(journal.getParentFile(), journalBaseName(journal) + (routeMode ? SENSOR_SUFFIX : ".csv"));
+    }
+
+    /**
+     * ジャーナルの書き出し先のイベントCSV（….journal → …_events.csv）
+     */
+    public static File eventCsvForJournal(File journal) {
+        return new File(journal.getParentFile(), journalBaseName(journal) + EVENT_SUFFIX);
+    }
+
+    private static String journalBaseName(File journal) {
+        String name = journal.getName();
+        return name.endsWith(JOURNAL_SUFFIX) ? name.substring(0, name.length() - JOURNAL_SUFFIX.length()) : name;
+    }
+
+    /**
+     * ディレクトリ直下のジャーナルのうち，CSVがない・ジャーナルより古いものを書き出す
+     * stop()を経ずに終了した試行（クラッシュ・強制終了・再起動後に再開しなかったもの）はCSVが書かれないため，
+     * 次の起動時とfindTrialsでここを通す．設定レコードで始まらないジャーナルは書き出さずに残す
+     * @param exclude 記録中のジャーナル（書き出さない．null可）
+     * @return 書き出したジャーナル数
+     */
+    public static int exportOrphanedJournals(File dir, File exclude) {
+        File[] files = dir.listFiles();
+        if (files == null) return 0;
+        Arrays.sort(files);
+        int exported = 0;
+        for (File f : files) {
+            if (!f.isFile() || !f.getName().endsWith(JOURNAL_SUFFIX)) continue;
+            if (exclude != null && f.getAbsoluteFile().equals(exclude.getAbsoluteFile())) continue;
+            try (SessionJournal.Reader reader = openAtConfig(f)) {
+                File sensorCsv = sensorCsvForJournal(f, reader.record().routeMode);
+                File eventCsv = eventCsvForJournal(f);
+                if (isExported(f, sensorCsv) && isExported(f, eventCsv)) continue;
+                export(reader, sensorCsv, eventCsv);
+                exported++;
+            } catch (IOException | RuntimeException e) {
+                // 壊れたジャーナル．CSVがなければ試行としても見つからない
+                // （起動時のバックグラウンドスレッドで呼ばれるため，ここで止めずに次へ進む）
+            }
+        }
+        return exported;
+    }
+
+    private static boolean isExported(File journal, File csv) {
+        return csv.isFile() && csv.lastModified() >= journal.lastModified();
+    }
+
+    /**
+     * セッションジャーナルを従来形式のセンサーCSV・イベントCSVに分けて書き出す（上書き）
+     * 形式（ルートモードか）は先頭の設定レコードで決まる．先頭が設定レコードでなければIOException（CSVには触れない）
+     * 歩行レコードはセンサー行と重複するため書き出さない
+     * 不連続のDistance列には欠損の長さ(ms)を入れる（従来のイベントCSVと同じ）
+     * @return 書き出したレコード数
+     */
+    public static long exportJournal(File journal, File sensorCsv, File eventCsv) throws IOException {
+        try (SessionJournal.Reader reader = openAtConfig(journal)) {
+            return export(reader, sensorCsv, eventCsv);
+        }
+    }
+
+    /**
+     * 先頭の設定レコードまで読んだReaderを返す
+     */
+    private static SessionJournal.Reader openAtConfig(File journal) throws IOException {
+        SessionJournal.Reader reader = new SessionJournal.Reader(journal);
+        try {
+            if (!reader.next() || reader.record().type != SessionJournal.TYPE_CONFIG) {
+                throw new IOException("Journal does not start with a config record: " + journal);
+            }
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    /**
+     * @param reader 設定レコードを読んだ直後のもの
+     */
+    private static long export(SessionJournal.Reader reader, File sensorCsv, File eventCsv) throws IOException {
+        long exported = 0;
+        try (BufferedWriter sensor = new BufferedWriter(new FileWriter(sensorCsv), 1 << 16);
+             BufferedWriter events = new BufferedWriter(new FileWriter(eventCsv))) {
+            boolean routeMode = reader.record().routeMode;
+            int trial = reader.record().trialNumber;
+            sensor.write(routeMode ? ROUTE_SENSOR_HEADER : LEGACY_SENSOR_HEADER);
+            sensor.write('\n');
+            events.write(routeMode ? ROUTE_EVENT_HEADER : LEGACY_EVENT_HEADER);
+            events.write('\n');
+            do {
+                SessionJournal.Record r = reader.record();
+                switch (r.type) {
+                    case SessionJournal.TYPE_CONFIG:
+                        // 再開時の設定レコード．形式は先頭のものに揃える
+                        trial = r.trialNumber;
+                        continue;
+                    case SessionJournal.TYPE_SENSOR:
+                        sensor.write(String.format(Locale.US,
+                                "%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                                r.timeNs,
+                                r.acceleration[0], r.acceleration[1], r.acceleration[2],
+                                r.gyroscope[0], r.gyroscope[1], r.gyroscope[2],
+                                r.stepCount, r.stepLength, r.x, r.y, Math.toDegrees(r.heading),
+                                r.totalDistance, r.ap));
+                        if (routeMode) sensor.write(String.format(Locale.US, ",Trial%02d", trial));
+                        sensor.write('\n');
+                        break;
+                    case SessionJournal.TYPE_ROUTE_EVENT:
+                        events.write(routeMode
+                                ? String.format(Locale.US, "%d,Trial%02d,%s,%d,%.1f,%.1f,%.3f,%.3f,%.3f\n",
+                                        r.timeNs, trial, r.event, r.routePoint, r.targetX, r.targetY,
+                                        r.x, r.y, r.distance)
+                                : String.format(Locale.US, "%d,%s,%.3f\n", r.timeNs, r.event, r.distance));
+                        break;
+                    case SessionJournal.TYPE_DISCONTINUITY:
+                        events.write(routeMode
+                                ? String.format(Locale.US, "%d,Trial%02d,%s,%d,%.1f,%.1f,%.3f,%.3f,%.3f\n",
+                                        r.timeNs, trial, r.event, 0, 0.0f, 0.0f, r.x, r.y, r.gapNs / 1e6)
+                                : String.format(Locale.US, "%d,%s,%.3f\n", r.timeNs, r.event, r.gapNs / 1e6));
+                        break;
+                    default:
+                        continue;
+                }
+                exported++;
+            } while (reader.next());
+        }
+        return exported;
+    }
+
+    /**
+     * 記録済みCSVを再投入するための設定（前処理を通さない）
+     */
+    public static PDRConfig replayConfig(PDRConfig base) {
+        PDRConfig c = base.copy();
+        c.prefilter = false;
+        c.trajectoryHistoryCapacity = 0;  // 再処理では軌跡履歴を使わない
+        return c;
+    }
+
+    static int column(String[] header, String name) throws IOException {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].trim().equals(name)) return i;
+        }
+        throw new IOException("Column not found: " + name);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.tcsle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Weinberg式のみ（履歴による平滑化・カルマンフィルタなし）
+ * L = K · (apMax − apMin)^(1/4)
+ */
+public class WeinbergStepLengthEstimator implements StepLengthEstimator {
+    private final float K;
+    private final boolean fastMath;
+
+    public WeinbergStepLengthEstimator(PDRConfig config) {
+        this.K = config.K;
+        this.fastMath = config.fastMath;
+    }
+
+    @Override
+    public float estimate(StepFeatures f) {
+        return weinberg(K, f.apMax - f.apMin, fastMath);
+    }
+
+    static float weinberg(float K, float range, boolean fastMath) {
+        return fastMath
+                ? K * FastMath.fourthRoot(range)
+                : K * (float) Math.pow(range, 0.25);
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+    }
+
+    @Override
+    public void restoreState(ByteBuffer in) {
+    }
+
+    @Override
+    public String getName() { return "weinberg"; }
+}
@@ -0,0 +1,162 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 連続BLE発信の周期とエンコードのテスト（フェイクアドバタイザを使用）
+ */
+public class BlePositionBroadcasterTest {
+
+    private static class FakeSource implements PositionSource {
+        double x, y;
+        int steps;
+        long timeNs;
+
+        @Override public double getX() { return x; }
+        @Override public double getY() { return y; }
+        @Override public int getStepCount() { return steps; }
+        @Override public long getElapsedTimeNs() { return timeNs; }
+    }
+
+    private static class FakeAdvertiser implements PositionAdvertiser {
+        final List<byte[]> payloads = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        long now;
+        boolean stopped;
+
+        @Override
+        public void advertise(byte[] payload, int length) {
+            byte[] copy = new byte[length];
+            System.arraycopy(payload, 0, copy, 0, length);
+            payloads.add(copy);
+            times.add(now);
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    @Test
+    public void publishesAtConfiguredInterval() {
+        FakeSource source = new FakeSource();
+        FakeAdvertiser advertiser = new FakeAdvertiser();
+        BlePositionBroadcaster broadcaster =
+                new BlePositionBroadcaster(source, new BlePositionEncoder(), advertiser);
+        broadcaster.setIntervalMs(200);
+        broadcaster.start(0);
+
+        // 10msごとに10秒間tick
+        for (long t = 0; t < 10_000; t += 10) {
+            advertiser.now = t;
+            broadcaster.tick(t, 1_700_000_000_000L + t);
+        }
+
+        assertEquals(50, advertiser.payloads.size());
+        for (int i = 1; i < advertiser.times.size(); i++) {
+            assertEquals(200L, advertiser.times.get(i) - advertiser.times.get(i - 1));
+        }
+
+        broadcaster.stop();
+        assertTrue(advertiser.stopped);
+    }
+
+    @Test
+    public void resyncsAfterLongDelayInsteadOfBursting() {
+        FakeAdvertiser advertiser = new FakeAdvertiser();
+        BlePositionBroadcaster broadcaster =
+                new BlePositionBroadcaster(new FakeSource(), new BlePositionEncoder(), advertiser);
+        broadcaster.setIntervalMs(100);
+        broadcaster.start(0);
+
+        assertTrue(broadcaster.tick(0, 0));
+        // 1秒遅れてもまとめて発信しない
+        assertTrue(broadcaster.tick(1000, 1000));
+        assertFalse(broadcaster.tick(1000, 1000));
+        assertFalse(broadcaster.tick(1099, 1099));
+        assertTrue(broadcaster.tick(1100, 1100));
+        assertEquals(3, advertiser.payloads.size());
+    }
+
+    @Test
+    public void overrideFlagAppliesForDuration() {
+        FakeAdvertiser advertiser = new FakeAdvertiser();
+        BlePositionBroadcaster broadcaster =
+                new BlePositionBroadcaster(new FakeSource(), new BlePositionEncoder(), advertiser);
+        broadcaster.setIntervalMs(100);
+        broadcaster.start(0);
+        broadcaster.tick(0, 0);
+
+        broadcaster.overrideFlag((byte) 0xBE, 50, 400, 50);
+        for (long t = 60; t <= 600; t += 10) {
+            broadcaster.tick(t, t);
+        }
+
+        List<byte[]> p = advertiser.payloads;
+        assertEquals(BlePositionBroadcaster.FLAG_CONTINUOUS, p.get(0)[11]);
+        assertEquals((byte) 0xBE, p.get(1)[11]);   // t=50 即時発信
+        assertEquals((byte) 0xBE, p.get(4)[11]);   // t=350
+        assertEquals(BlePositionBroadcaster.FLAG_CONTINUOUS, p.get(p.size() - 1)[11]);
+    }
+
+    @Test
+    public void encoderMatchesLegacyLayout() {
+        FakeSource source = new FakeSource();
+        source.x = 1.2345;
+        source.y = -40.0;   // ±32.767mでクランプ
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2026, Calendar.MARCH, 14, 15, 9, 26);
+        calendar.set(Calendar.MILLISECOND, 535);
+        long wall = calendar.getTimeInMillis();
+
+        BlePositionEncoder encoder = new BlePositionEncoder();
+        int length = encoder.encode(source, wall, (byte) 0xBE);
+        byte[] b = encoder.getBuffer();
+
+        assertEquals(12, length);
+        assertEquals(3, b[0]);
+        assertEquals(14, b[1]);
+        assertEquals(15, b[2]);
+        assertEquals(9, b[3]);
+        assertEquals(26, b[4]);
+        assertEquals(535, (b[5] & 0xFF) | (b[6] << 8));
+        assertEquals(1235, (short) ((b[7] & 0xFF) | (b[8] << 8)));
+        assertEquals(-32767, (short) ((b[9] & 0xFF) | (b[10] << 8)));
+        assertEquals((byte) 0xBE, b[11]);
+
+        // 日付が変わったらキャッシュを更新
+        encoder.encode(source, wall + 24L * 3600 * 1000, (byte) 0xBE);
+        assertEquals(15, encoder.getBuffer()[1]);
+    }
+
+    @Test
+    public void encodeIsRepeatableWithReusedBuffer() {
+        FakeSource source = new FakeSource();
+        BlePositionEncoder encoder = new BlePositionEncoder();
+        long wall = 1_700_000_000_000L;
+
+        source.x = 2.5;
+        source.y = -1.25;
+        int length = encoder.encode(source, wall, (byte) 0xBD);
+        byte[] first = Arrays.copyOf(encoder.getBuffer(), length);
+
+        // 別の位置で上書きした後，同じ入力なら同じバイト列に戻る（バッファは再利用）
+        source.x = 10.0;
+        encoder.encode(source, wall + 1, (byte) 0xBE);
+        source.x = 2.5;
+        assertEquals(length, encoder.encode(source, wall, (byte) 0xBD));
+        assertSame(encoder.getBuffer(), encoder.getBuffer());
+        assertArrayEquals(first, Arrays.copyOf(encoder.getBuffer(), length));
+        assertEquals(2500, (short) ((first[7] & 0xFF) | (first[8] << 8)));
+        assertEquals(-1250, (short) ((first[9] & 0xFF) | (first[10] << 8)));
+    }
+}
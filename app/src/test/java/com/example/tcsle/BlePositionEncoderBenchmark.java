@@ -0,0 +1,39 @@
+package com.example.tcsle;
+
+import java.util.Locale;
+
+/**
+ * BLE位置ペイロードのエンコード1回あたりの時間（5Hz発信に対して十分小さいかの確認用）
+ *
+ * 実行例: java -cp <classes> com.example.tcsle.BlePositionEncoderBenchmark
+ */
+public class BlePositionEncoderBenchmark {
+    private static final int N = 1_000_000;
+    private static volatile int sink;
+
+    private static class MovingSource implements PositionSource {
+        double x;
+
+        @Override public double getX() { return x; }
+        @Override public double getY() { return 0; }
+        @Override public int getStepCount() { return 0; }
+        @Override public long getElapsedTimeNs() { return 0; }
+    }
+
+    public static void main(String[] args) {
+        MovingSource source = new MovingSource();
+        BlePositionEncoder encoder = new BlePositionEncoder();
+        long wall = System.currentTimeMillis();
+
+        for (int round = 0; round < 3; round++) {
+            long t0 = System.nanoTime();
+            int acc = 0;
+            for (int i = 0; i < N; i++) {
+                source.x = i * 0.001;
+                acc += encoder.encode(source, wall + i, (byte) 0xBD);
+            }
+            sink = acc;
+            System.out.printf(Locale.US, "round %d: %.1f ns/encode%n", round, (System.nanoTime() - t0) / (double) N);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * エンジン状態のチェックポイントと再開のテスト
+ */
+public class CheckpointTest {
+
+    private static SampleBatch walk(long seed, int batches) {
+        SyntheticWalk walk = new SyntheticWalk(seed);
+        SampleBatch trial = new SampleBatch(batches * 64);
+        SampleBatch batch = new SampleBatch(40);
+        for (int i = 0; i < batches; i++) {
+            batch.clear();
+            walk.fill(batch);
+            for (int j = 0; j < batch.size(); j++) {
+                trial.add(batch.isAccelAt(j), batch.timeNsAt(j), batch.xAt(j), batch.yAt(j), batch.zAt(j));
+            }
+        }
+        return trial;
+    }
+
+    private static void feed(PDREngine engine, SampleBatch samples, int from, int to) {
+        for (int i = from; i < to; i++) {
+            engine.onSample(samples.isAccelAt(i), samples.timeNsAt(i), samples.xAt(i), samples.yAt(i), samples.zAt(i));
+        }
+    }
+
+    private static ByteBuffer save(PDREngine engine) {
+        ByteBuffer buf = ByteBuffer.allocate(engine.getStateSize());
+        engine.saveState(buf);
+        buf.flip();
+        return buf;
+    }
+
+    private static void assertSameState(PDREngine expected, PDREngine actual) {
+        assertEquals(expected.getStepCount(), actual.getStepCount());
+        assertEquals(Double.doubleToLongBits(expected.getX()), Double.doubleToLongBits(actual.getX()));
+        assertEquals(Double.doubleToLongBits(expected.getY()), Double.doubleToLongBits(actual.getY()));
+        assertEquals(Double.doubleToLongBits(expected.getDistance()), Double.doubleToLongBits(actual.getDistance()));
+        assertEquals(expected.getHeading(), actual.getHeading(), 0f);
+        assertArrayEquals(expected.getOrientationEstimator().getQuaternion(),
+                actual.getOrientationEstimator().getQuaternion(), 0f);
+        assertEquals(expected.getStepJournal().size(), actual.getStepJournal().size());
+    }
+
+    private static void resumesBitIdentically(PDRConfig config) {
+        SampleBatch samples = walk(6, 400);
+        int half = samples.size() / 2;
+
+        // 元のエンジンも同じ時点で再開扱い（リサンプラ・歩行検出の初期化）にして比べる
+        PDREngine original = new PDREngine(config);
+        original.setInitialPosition(2.0, 3.0);
+        original.setInitialRouteVector(0, 0, 2, 1);
+        feed(original, samples, 0, half);
+        ByteBuffer state = save(original);
+        original.restoreState(save(original));
+
+        PDREngine resumed = new PDREngine(config);
+        resumed.restoreState(state);
+        assertSameState(original, resumed);
+
+        feed(original, samples, half, samples.size());
+        feed(resumed, samples, half, samples.size());
+        assertSameState(original, resumed);
+        assertTrue(resumed.getStepCount() > 10);
+    }
+
+    @Test
+    public void resumeContinuesBitIdentically() {
+        resumesBitIdentically(new PDRConfig());
+
+        PDRConfig mahony = new PDRConfig();
+        mahony.orientationEstimator = PDRConfig.ESTIMATOR_MAHONY;
+        mahony.mahonyKi = 0.1f;
+        mahony.stepLengthEstimator = PDRConfig.STEP_LENGTH_WEINBERG;
+        resumesBitIdentically(mahony);
+
+        PDRConfig madgwick = new PDRConfig();
+        madgwick.orientationEstimator = PDRConfig.ESTIMATOR_MADGWICK;
+        madgwick.stepLengthEstimator = PDRConfig.STEP_LENGTH_KIM;
+        resumesBitIdentically(madgwick);
+    }
+
+    @Test
+    public void restoreRebuildsTrajectoryHistory() {
+        PDREngine original = new PDREngine(new PDRConfig());
+        original.setInitialPosition(1.0, 1.0);
+        original.setInitialRouteVector(0, 0, 0, 1);
+        walk(7, 300).feed(original);
+
+        PDREngine resumed = new PDREngine(new PDRConfig());
+        resumed.restoreState(save(original));
+        TrajectoryHistory a = original.getTrajectoryHistory();
+        TrajectoryHistory b = resumed.getTrajectoryHistory();
+        assertEquals(a.size(), b.size());
+        for (int i = 0; i < a.size(); i++) {
+            assertEquals(a.timeNsAt(i), b.timeNsAt(i));
+            assertEquals(a.xAt(i), b.xAt(i), 0.0);
+            assertEquals(a.yAt(i), b.yAt(i), 0.0);
+        }
+    }
+
+    @Test
+    public void rejectsMismatchedConfiguration() {
+        PDREngine engine = new PDREngine(new PDRConfig());
+        ByteBuffer state = save(engine);
+        PDRConfig other = new PDRConfig();
+        other.orientationEstimator = PDRConfig.ESTIMATOR_MADGWICK;
+        try {
+            new PDREngine(other).restoreState(state);
+            fail("configuration mismatch not detected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            engine.restoreState(ByteBuffer.allocate(64));
+            fail("bad magic not detected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void restoreOfLongSessionIsFast() {
+        PDREngine engine = new PDREngine(new PDRConfig());
+        StepJournal journal = engine.getStepJournal();
+        // 約10時間分の歩行記録
+        for (int i = 0; i < 65_000; i++) {
+            journal.add(i * 550_000_000L, 0.7f, 0.7f, i * 1e-4f, i * 1e-4f);
+        }
+        ByteBuffer state = save(engine);
+        assertTrue(state.remaining() < 2_000_000);
+
+        PDREngine resumed = new PDREngine(new PDRConfig());
+        for (int i = 0; i < 5; i++) {
+            state.rewind();
+            resumed.restoreState(state);
+        }
+        state.rewind();
+        long t0 = System.nanoTime();
+        resumed.restoreState(state);
+        long elapsed = System.nanoTime() - t0;
+        assertEquals(65_000, resumed.getStepJournal().size());
+        assertTrue("restore took " + elapsed + " ns", elapsed < 50_000_000L);
+    }
+
+    @Test
+    public void checkpointerWritesAtomicallyOffThread() throws Exception {
+        File file = new File(System.getProperty("java.io.tmpdir"), "ckpt" + System.nanoTime());
+        SessionCheckpointer checkpointer = new SessionCheckpointer(file, 5_000_000_000L);
+        assertNull(SessionCheckpointer.load(file));
+        assertTrue(checkpointer.isDue(0));
+
+        PDREngine engine = new PDREngine(new PDRConfig());
+        walk(8, 100).feed(engine);
+        ByteBuffer out = checkpointer.buffer(engine.getStateSize());
+        engine.saveState(out);
+        assertTrue(checkpointer.submit(out, 1_000_000_000L));
+        assertFalse(checkpointer.isDue(5_999_999_999L));
+        assertTrue(checkpointer.isDue(6_000_000_000L));
+        checkpointer.shutdown();
+        assertTrue(checkpointer.awaitTermination(5000));
+        assertEquals(1, checkpointer.getWrittenCount());
+
+        PDREngine resumed = new PDREngine(new PDRConfig());
+        resumed.restoreState(SessionCheckpointer.load(file));
+        assertEquals(engine.getStepCount(), resumed.getStepCount());
+        assertEquals(engine.getX(), resumed.getX(), 0.0);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        SessionCheckpointer second = new SessionCheckpointer(file, 5_000_000_000L);
+        second.discard();
+        assertTrue(second.awaitTermination(5000));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void discardRunsAfterPendingWrite() throws Exception {
+        File file = new File(System.getProperty("java.io.tmpdir"), "ckpt" + System.nanoTime());
+        SessionCheckpointer checkpointer = new SessionCheckpointer(file, 5_000_000_000L);
+        PDREngine engine = new PDREngine(new PDRConfig());
+        walk(8, 100).feed(engine);
+        ByteBuffer out = checkpointer.buffer(engine.getStateSize());
+        engine.saveState(out);
+        assertTrue(checkpointer.submit(out, 1_000_000_000L));
+
+        // 書き込みの完了を待たずに削除しても，後から書き込みが戻さない
+        checkpointer.discard();
+        assertFalse(checkpointer.submit(checkpointer.buffer(16), 7_000_000_000L));
+        assertTrue(checkpointer.awaitTermination(5000));
+        assertFalse(file.exists());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+}
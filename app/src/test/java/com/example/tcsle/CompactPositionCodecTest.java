@@ -0,0 +1,121 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 小型位置ペイロード（v1）の往復テスト
+ */
+public class CompactPositionCodecTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void roundTripRestoresRecentFixes() {
+        CompactPositionCodec.Profile profile = CompactPositionCodec.Profile.INDOOR;
+        StepFixHistory history = new StepFixHistory(8);
+        history.push(41, 20_000 * MS, 40.001, -3.500);
+        history.push(42, 20_550 * MS, 40.650, -3.512);
+        history.push(43, 21_080 * MS, 41.317, -3.498);
+
+        CompactPositionCodec codec = new CompactPositionCodec(profile, history);
+        int length = codec.encode(null, 0, (byte) 0xBD);
+        assertEquals(20, length);
+
+        CompactPositionCodec.Decoded d = new CompactPositionCodec.Decoded(8);
+        CompactPositionCodec.decode(codec.getBuffer(), length, profile, d);
+
+        assertEquals(1, d.version);
+        assertEquals(profile.id, d.profileId);
+        assertEquals((byte) 0xBD, d.flag);
+        assertEquals(3, d.count);
+
+        // 新しい順
+        double[] ex = {41.317, 40.650, 40.001};
+        double[] ey = {-3.498, -3.512, -3.500};
+        int[] es = {43, 42, 41};
+        long[] et = {2108, 2055, 2000};
+        for (int k = 0; k < 3; k++) {
+            // 基準は1mm，差分は2cm分解能（誤差は累積しない）
+            double tol = (k == 0) ? 0.0005 : 0.0105;
+            assertEquals("x" + k, ex[k], d.x[k], tol);
+            assertEquals("y" + k, ey[k], d.y[k], tol);
+            assertEquals("step" + k, es[k], d.step[k]);
+            assertEquals("time" + k, et[k], d.timeUnits[k]);
+        }
+    }
+
+    @Test
+    public void rangeBeyondLegacyLimitIsPreserved() {
+        CompactPositionCodec.Profile profile = CompactPositionCodec.Profile.INDOOR;
+        StepFixHistory history = new StepFixHistory(4);
+        history.push(1, 0, 1234.567, -987.654);
+
+        CompactPositionCodec codec = new CompactPositionCodec(profile, history);
+        int length = codec.encode(null, 0, (byte) 0);
+        assertEquals(CompactPositionCodec.HEADER_LENGTH, length);
+
+        CompactPositionCodec.Decoded d = new CompactPositionCodec.Decoded(4);
+        CompactPositionCodec.decode(codec.getBuffer(), length, profile, d);
+        assertEquals(1234.567, d.x[0], 0.0005);
+        assertEquals(-987.654, d.y[0], 0.0005);
+    }
+
+    @Test
+    public void deltaOverflowTruncatesOlderFixes() {
+        CompactPositionCodec.Profile profile = CompactPositionCodec.Profile.INDOOR;
+        StepFixHistory history = new StepFixHistory(4);
+        history.push(1, 0, 0.0, 0.0);
+        history.push(2, 500 * MS, 5.0, 0.0);    // 再アンカー等で5m跳躍（±2.54mを超える）
+        history.push(3, 1000 * MS, 5.6, 0.0);
+
+        CompactPositionCodec codec = new CompactPositionCodec(profile, history);
+        int length = codec.encode(null, 0, (byte) 0);
+        assertEquals(CompactPositionCodec.HEADER_LENGTH + CompactPositionCodec.DELTA_LENGTH, length);
+
+        CompactPositionCodec.Decoded d = new CompactPositionCodec.Decoded(4);
+        CompactPositionCodec.decode(codec.getBuffer(), length, profile, d);
+        assertEquals(2, d.count);
+        assertEquals(5.0, d.x[1], 0.0105);
+    }
+
+    @Test
+    public void fallsBackToCurrentPositionWithoutSteps() {
+        PositionSource source = new PositionSource() {
+            @Override public double getX() { return 1.0; }
+            @Override public double getY() { return 2.0; }
+            @Override public int getStepCount() { return 0; }
+            @Override public long getElapsedTimeNs() { return 3_000 * MS; }
+        };
+        CompactPositionCodec.Profile profile = CompactPositionCodec.Profile.WIDE_AREA;
+        CompactPositionCodec codec = new CompactPositionCodec(profile, new StepFixHistory(4));
+        int length = codec.encode(source, 0, (byte) 0xBE);
+
+        CompactPositionCodec.Decoded d = new CompactPositionCodec.Decoded(4);
+        CompactPositionCodec.decode(codec.getBuffer(), length, profile, d);
+        assertEquals(1, d.count);
+        assertEquals(1.0, d.x[0], 0.005);
+        assertEquals(2.0, d.y[0], 0.005);
+        assertEquals(30, d.timeUnits[0]);
+    }
+
+    @Test
+    public void distinguishesLegacyPayload() {
+        BlePositionEncoder legacy = new BlePositionEncoder();
+        int legacyLength = legacy.encode(null, System.currentTimeMillis(), (byte) 0xBE);
+        assertFalse(CompactPositionCodec.isCompactPayload(legacy.getBuffer(), legacyLength));
+
+        CompactPositionCodec codec = new CompactPositionCodec(CompactPositionCodec.Profile.INDOOR, null);
+        int length = codec.encode(null, 0, (byte) 0xBE);
+        assertTrue(CompactPositionCodec.isCompactPayload(codec.getBuffer(), length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsProfileMismatch() {
+        CompactPositionCodec codec = new CompactPositionCodec(CompactPositionCodec.Profile.INDOOR, null);
+        int length = codec.encode(null, 0, (byte) 0);
+        CompactPositionCodec.decode(codec.getBuffer(), length,
+                CompactPositionCodec.Profile.WIDE_AREA, new CompactPositionCodec.Decoded(4));
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.tcsle;
+
+import java.util.Locale;
+
+/**
+ * FastMathとjava.lang.Mathの速度比較（関数単体・エンジン全体）
+ *
+ * 実行例: java -cp <classes> com.example.tcsle.FastMathBenchmark
+ */
+public class FastMathBenchmark {
+    private static final int N = 5_000_000;
+    private static volatile float sink;
+
+    public static void main(String[] args) {
+        float[] xs = new float[4096];
+        float[] ys = new float[4096];
+        for (int i = 0; i < xs.length; i++) {
+            double a = (i * 0.7919) % (2 * Math.PI) - Math.PI;
+            xs[i] = (float) Math.cos(a) * (1 + (i % 7));
+            ys[i] = (float) Math.sin(a) * (1 + (i % 7));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            System.out.printf(Locale.US, "-- round %d%n", round);
+            report("atan2", atan2Math(xs, ys), atan2Fast(xs, ys));
+            report("sin", sinMath(xs), sinFast(xs));
+            report("fourthRoot", rootMath(xs), rootFast(xs));
+            report("engine(60s walk)", engine(false), engine(true));
+        }
+    }
+
+    private static void report(String name, long mathNs, long fastNs) {
+        System.out.printf(Locale.US, "%-18s Math=%8.2f ms  Fast=%8.2f ms  speedup=%.2fx%n",
+                name, mathNs / 1e6, fastNs / 1e6, (double) mathNs / fastNs);
+    }
+
+    private static long atan2Math(float[] xs, float[] ys) {
+        long t0 = System.nanoTime();
+        float acc = 0;
+        for (int i = 0; i < N; i++) {
+            int k = i & 4095;
+            acc += (float) Math.atan2(ys[k], xs[k]);
+        }
+        sink = acc;
+        return System.nanoTime() - t0;
+    }
+
+    private static long atan2Fast(float[] xs, float[] ys) {
+        long t0 = System.nanoTime();
+        float acc = 0;
+        for (int i = 0; i < N; i++) {
+            int k = i & 4095;
+            acc += FastMath.atan2(ys[k], xs[k]);
+        }
+        sink = acc;
+        return System.nanoTime() - t0;
+    }
+
+    private static long sinMath(float[] xs) {
+        long t0 = System.nanoTime();
+        float acc = 0;
+        for (int i = 0; i < N; i++) {
+            acc += (float) Math.sin(xs[i & 4095]);
+        }
+        sink = acc;
+        return System.nanoTime() - t0;
+    }
+
+    private static long sinFast(float[] xs) {
+        long t0 = System.nanoTime();
+        float acc = 0;
+        for (int i = 0; i < N; i++) {
+            acc += FastMath.sin(xs[i & 4095]);
+        }
+        sink = acc;
+        return System.nanoTime() - t0;
+    }
+
+    private static long rootMath(float[] xs) {
+        long t0 = System.nanoTime();
+        float acc = 0;
+        for (int i = 0; i < N; i++) {
+            acc += (float) Math.pow(Math.abs(xs[i & 4095]), 0.25);
+        }
+        sink = acc;
+        return System.nanoTime() - t0;
+    }
+
+    private static long rootFast(float[] xs) {
+        long t0 = System.nanoTime();
+        float acc = 0;
+        for (int i = 0; i < N; i++) {
+            acc += FastMath.fourthRoot(Math.abs(xs[i & 4095]));
+        }
+        sink = acc;
+        return System.nanoTime() - t0;
+    }
+
+    private static long engine(boolean fast) {
+        PDRConfig config = new PDRConfig();
+        config.fastMath = fast;
+        PDREngine engine = new PDREngine(config);
+        engine.getProfiler().setEnabled(false);
+
+        // 入力生成は計測から除く
+        SyntheticWalk walk = new SyntheticWalk(42);
+        SampleBatch[] batches = new SampleBatch[60];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = new SampleBatch(400);
+            walk.fill(batches[i]);
+        }
+
+        long t0 = System.nanoTime();
+        for (int rep = 0; rep < 20; rep++) {
+            engine.reset();
+            for (SampleBatch b : batches) {
+                b.feed(engine);
+            }
+        }
+        sink = (float) engine.getX();
+        return System.nanoTime() - t0;
+    }
+}
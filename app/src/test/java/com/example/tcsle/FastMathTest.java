@@ -0,0 +1,88 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * FastMathの誤差上限と，高速モードでの軌跡のずれのテスト
+ */
+public class FastMathTest {
+
+    @Test
+    public void atan2WithinDocumentedBound() {
+        double maxErr = 0;
+        int n = 2000;
+        for (int i = 0; i <= n; i++) {
+            double angle = -Math.PI + 2 * Math.PI * i / n;
+            for (float radius : new float[]{1e-3f, 0.5f, 1f, 7f}) {
+                float y = (float) (radius * Math.sin(angle));
+                float x = (float) (radius * Math.cos(angle));
+                double err = Math.abs(FastMath.atan2(y, x) - Math.atan2(y, x));
+                // ±πの境界は同一角度
+                err = Math.min(err, Math.abs(err - 2 * Math.PI));
+                maxErr = Math.max(maxErr, err);
+            }
+        }
+        assertTrue("atan2 err=" + maxErr, maxErr <= 2.5e-6);
+        assertEquals(0f, FastMath.atan2(0f, 0f), 0f);
+        assertEquals(Math.PI / 2, FastMath.atan2(1f, 0f), 2.5e-6);
+        assertEquals(-Math.PI / 2, FastMath.atan2(-1f, 0f), 2.5e-6);
+    }
+
+    @Test
+    public void sinCosWithinDocumentedBound() {
+        double maxErr = 0;
+        int n = 200_000;
+        double range = 8 * Math.PI;
+        for (int i = 0; i <= n; i++) {
+            float x = (float) (-range + 2 * range * i / n);
+            maxErr = Math.max(maxErr, Math.abs(FastMath.sin(x) - Math.sin(x)));
+            maxErr = Math.max(maxErr, Math.abs(FastMath.cos(x) - Math.cos(x)));
+        }
+        assertTrue("sincos err=" + maxErr, maxErr <= 5e-7);
+    }
+
+    @Test
+    public void fourthRootWithinTwoUlp() {
+        for (int i = 1; i <= 100_000; i++) {
+            float x = i * 1e-3f;
+            float expected = (float) Math.pow(x, 0.25);
+            float actual = FastMath.fourthRoot(x);
+            assertTrue("x=" + x, Math.abs(actual - expected) <= 2 * Math.ulp(expected));
+        }
+        assertEquals(0f, FastMath.fourthRoot(0f), 0f);
+    }
+
+    @Test
+    public void fastModeTrajectoryStaysWithinTolerance() {
+        // 旋回の多い合成試行（周期・旋回量を変えた数パターン）
+        long[] seeds = {1, 2, 3, 4, 5};
+        for (long seed : seeds) {
+            SyntheticWalk exactWalk = new SyntheticWalk(seed, 1.6 + 0.1 * seed, 4.0,
+                    Math.PI / (2 + seed % 3), 5.0 + seed, 1.0, 5_000_000L);
+            SyntheticWalk fastWalk = new SyntheticWalk(seed, 1.6 + 0.1 * seed, 4.0,
+                    Math.PI / (2 + seed % 3), 5.0 + seed, 1.0, 5_000_000L);
+
+            PDREngine exact = new PDREngine(new PDRConfig());
+            PDRConfig fastConfig = new PDRConfig();
+            fastConfig.fastMath = true;
+            PDREngine fast = new PDREngine(fastConfig);
+
+            SampleBatch a = new SampleBatch(400);
+            SampleBatch b = new SampleBatch(400);
+            double maxDev = 0;
+            for (int i = 0; i < 120; i++) {
+                a.clear();
+                b.clear();
+                exactWalk.fill(a);
+                fastWalk.fill(b);
+                a.feed(exact);
+                b.feed(fast);
+                maxDev = Math.max(maxDev, Math.hypot(exact.getX() - fast.getX(), exact.getY() - fast.getY()));
+            }
+            assertEquals("seed " + seed, exact.getStepCount(), fast.getStepCount());
+            assertTrue("seed " + seed + " deviation=" + maxDev, maxDev < 0.01);
+        }
+    }
+}
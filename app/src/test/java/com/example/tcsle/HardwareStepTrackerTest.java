@@ -0,0 +1,136 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 省電力モード（ハードウェア歩数計＋バッチ配信）のテスト
+ */
+public class HardwareStepTrackerTest {
+    private static final double STEP_HZ = 1.8;
+    private static final double AMPLITUDE = 3.0;
+    private static final long T0 = 5_000_000_000L;
+    private static final long ACC_PERIOD_NS = 20_000_000L;      // 50Hz
+    private static final long HEADING_PERIOD_NS = 200_000_000L; // 5Hz
+    private static final long BATCH_NS = 10_000_000_000L;       // FIFO 10秒分
+
+    /** 20秒直進→2秒で90°左旋回→直進 */
+    private static double yaw(double sec) {
+        if (sec < 20) return 0;
+        if (sec < 22) return Math.PI / 2 * (sec - 20) / 2;
+        return Math.PI / 2;
+    }
+
+    private static float[] accel(double sec) {
+        PDRConfig c = new PDRConfig();
+        float gait = (float) (AMPLITUDE * Math.sin(2 * Math.PI * STEP_HZ * sec));
+        return new float[]{c.aBias[0], c.aBias[1], SyntheticWalk.GRAVITY + c.aBias[2] + gait};
+    }
+
+    private static float[] rotationVector(double sec) {
+        double y = yaw(sec);
+        return new float[]{0f, 0f, (float) Math.sin(y / 2), (float) Math.cos(y / 2)};
+    }
+
+    /**
+     * 1バッチ分（[from, to)）を，歩行→回転ベクトル→加速度の順で届ける
+     */
+    private static void deliverBatch(HardwareStepTracker tracker, long from, long to) {
+        // ピーク時刻に歩行イベント
+        for (int k = 0; ; k++) {
+            long t = T0 + (long) ((k + 0.25) / STEP_HZ * 1e9);
+            if (t >= to) break;
+            if (t >= from) tracker.onStepDetector(t);
+        }
+        for (long t = T0; t < to; t += HEADING_PERIOD_NS) {
+            if (t >= from) tracker.onRotationVector(t, rotationVector((t - T0) * 1e-9));
+        }
+        for (long t = T0; t < to; t += ACC_PERIOD_NS) {
+            if (t >= from) tracker.onAccelerometer(t, accel((t - T0) * 1e-9));
+        }
+    }
+
+    @Test
+    public void stepsWaitForAccelAndHeadingThenApplyInOrder() {
+        PDREngine engine = new PDREngine(new PDRConfig());
+        HardwareStepTracker tracker = new HardwareStepTracker(engine);
+
+        // 歩行イベントだけ先に届いても，加速度・方位が揃うまで保留される
+        tracker.onStepDetector(T0 + 1_000_000_000L);
+        assertEquals(1, tracker.getPendingSteps());
+        assertEquals(0, engine.getStepCount());
+
+        tracker.reset();
+        engine.reset();
+        long end = T0 + 4 * BATCH_NS;
+        for (long from = T0; from < end; from += BATCH_NS) {
+            deliverBatch(tracker, from, from + BATCH_NS);
+        }
+        // 最後の歩行の後ろの窓が届いていない分だけ保留が残る
+        int expected = (int) Math.floor(40 * STEP_HZ - 0.25 + 1);
+        assertEquals(expected, engine.getStepCount() + tracker.getPendingSteps());
+        assertTrue(tracker.getPendingSteps() <= 1);
+        assertEquals(0, tracker.getForcedSteps());
+
+        tracker.flush();
+        assertEquals(expected, engine.getStepCount());
+        assertEquals(0, tracker.getPendingSteps());
+    }
+
+    @Test
+    public void stepLengthAndHeadingMatchSignal() {
+        PDRConfig config = new PDRConfig();
+        PDREngine engine = new PDREngine(config);
+        HardwareStepTracker tracker = new HardwareStepTracker(engine);
+        final float[] lastFeaturesMax = {0};
+        engine.setListener(new PDREngine.Listener() {
+            @Override
+            public void onTick(PDREngine e, boolean isAccel, long tickTimeNs) { }
+
+            @Override
+            public void onStep(PDREngine e, long stepTimeNs, float stepLength) {
+                lastFeaturesMax[0] = e.getLastStepFeatures().apMax;
+            }
+
+            @Override
+            public void onDiscontinuity(PDREngine e, int sensor, long gapNs) { }
+        });
+        for (long from = T0; from < T0 + 4 * BATCH_NS; from += BATCH_NS) {
+            deliverBatch(tracker, from, from + BATCH_NS);
+        }
+        tracker.flush();
+
+        // ピークは重力＋振幅（50Hzの標本化で僅かに低くなり得る）
+        assertEquals(SyntheticWalk.GRAVITY + AMPLITUDE, lastFeaturesMax[0], 0.1);
+        // 区間最小値は閾値A付近なので，Weinberg式は K·(ピーク−A)^(1/4) 程度
+        double weinberg = config.K * Math.pow(SyntheticWalk.GRAVITY + AMPLITUDE - config.A, 0.25);
+        assertEquals(weinberg, engine.getLastStepLength(), 0.1);
+        // 方位はヨー角と逆符号（90°左旋回 → -π/2）
+        assertEquals(-Math.PI / 2, engine.getRawHeading(), 0.02);
+        // 直進約20秒と旋回後約18秒のL字（直線距離は歩行距離より短い）
+        double walked = engine.getStepCount() * engine.getLastStepLength();
+        assertTrue(engine.getDistance() > 0.6 * walked && engine.getDistance() < 0.8 * walked);
+    }
+
+    @Test
+    public void restoredReferenceKeepsHeadingFrameAcrossRestart() {
+        PDREngine engine = new PDREngine(new PDRConfig());
+        HardwareStepTracker tracker = new HardwareStepTracker(engine);
+        for (long from = T0; from < T0 + 3 * BATCH_NS; from += BATCH_NS) {
+            deliverBatch(tracker, from, from + BATCH_NS);
+        }
+        tracker.flush();
+        assertTrue(tracker.hasReference());
+        assertEquals(-Math.PI / 2, engine.getRawHeading(), 0.02);
+
+        // 旋回後（端末は-π/2を向いたまま）にプロセスが再起動した想定
+        HardwareStepTracker restarted = new HardwareStepTracker(engine);
+        restarted.restoreReference(tracker.getReference(), tracker.getLastUnwrapped());
+        long from = T0 + 3 * BATCH_NS;
+        deliverBatch(restarted, from, from + BATCH_NS);
+        restarted.flush();
+        // 基準を取り直すと0になるが，引き継げば旋回後の向きのまま
+        assertEquals(-Math.PI / 2, engine.getRawHeading(), 0.02);
+    }
+}
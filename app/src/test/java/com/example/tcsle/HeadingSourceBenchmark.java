@@ -0,0 +1,79 @@
+package com.example.tcsle;
+
+import java.util.Locale;
+
+/**
+ * 方位の入力元（Javaの姿勢推定 / 回転ベクトル）ごとの1時間あたりのCPU時間とコールバック回数
+ *
+ * Java経路: 加速度200Hz＋ジャイロ200Hz，姿勢推定を100Hzで実行
+ * 回転ベクトル経路: 加速度200Hz＋回転ベクトル50Hz（姿勢はセンサーハブ側で融合済み）
+ * CPU時間はエンジンの処理（回転ベクトル経路は疑似サンプルの生成を含む）．端末上ではセンサーハブ側の消費とAP起床のコストが加わる
+ *
+ * 実行例: java -cp <classes> com.example.tcsle.HeadingSourceBenchmark [minutes]
+ */
+public class HeadingSourceBenchmark {
+    private static final long RV_PERIOD_NS = 20_000_000L;
+
+    public static void main(String[] args) {
+        int minutes = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        System.out.printf(Locale.US, "%-16s %14s %14s %8s%n", "source", "cpuMsPerHour", "callbacksPerHour", "steps");
+        for (int source : new int[]{PDRConfig.HEADING_SOURCE_GYRO, PDRConfig.HEADING_SOURCE_ROTATION_VECTOR}) {
+            double best = Double.MAX_VALUE;
+            long callbacks = 0;
+            int steps = 0;
+            for (int round = 0; round < 3; round++) {
+                PDRConfig config = new PDRConfig();
+                config.headingSource = source;
+                PDREngine engine = new PDREngine(config);
+                engine.getProfiler().setEnabled(false);
+                long[] result = run(engine, minutes);
+                best = Math.min(best, result[0]);
+                callbacks = result[1];
+                steps = engine.getStepCount();
+            }
+            double perHour = 60.0 / minutes;
+            System.out.printf(Locale.US, "%-16s %14.1f %14.0f %8d%n",
+                    source == PDRConfig.HEADING_SOURCE_GYRO ? "gyro" : "rotation_vector",
+                    best / 1e6 * perHour, callbacks * perHour, steps);
+        }
+    }
+
+    /**
+     * @return {処理時間[ns], コールバック回数}
+     */
+    private static long[] run(PDREngine engine, int minutes) {
+        boolean rv = engine.getConfig().headingSource == PDRConfig.HEADING_SOURCE_ROTATION_VECTOR;
+        SyntheticWalk walk = new SyntheticWalk(31);
+        SampleBatch batch = new SampleBatch(40);
+        long end = walk.getTimeNs() + minutes * 60_000_000_000L;
+        long nextRv = 0;
+        long callbacks = 0;
+        long elapsed = 0;
+        while (walk.getTimeNs() < end) {
+            batch.clear();
+            walk.fill(batch);
+            long t0 = System.nanoTime();
+            for (int j = 0; j < batch.size(); j++) {
+                long t = batch.timeNsAt(j);
+                if (!rv) {
+                    engine.onSample(batch.isAccelAt(j), t, batch.xAt(j), batch.yAt(j), batch.zAt(j));
+                    callbacks++;
+                    continue;
+                }
+                if (batch.isAccelAt(j)) {
+                    engine.onSample(true, t, batch.xAt(j), batch.yAt(j), batch.zAt(j));
+                    callbacks++;
+                }
+                if (t >= nextRv) {
+                    double yaw = walk.trueYaw(t * 1e-9);
+                    engine.onRotationVector(t, (float) Math.cos(yaw / 2), 0f, 0f, (float) Math.sin(yaw / 2));
+                    nextRv = t + RV_PERIOD_NS;
+                    callbacks++;
+                }
+            }
+            elapsed += System.nanoTime() - t0;
+        }
+        return new long[]{elapsed, callbacks};
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.tcsle;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PDRIngestServerの負荷試験クライアント
+ *
+ * 多数の歩行者（端末）を少数の接続に多重化し，各端末が100msごとに200Hz×2センサー分のバッチを送る
+ * 実時間ペースで送信し，送信の遅れ（サーバーからの背圧）と受信した位置更新数を報告する
+ *
+ * 使い方: IngestLoadClient [walkers] [connections] [seconds] [port]
+ *   port省略時は同一プロセス内でサーバーを起動する
+ */
+public class IngestLoadClient {
+    private static final int SAMPLES_PER_BATCH = 40;   // 100ms分
+    private static final long BATCH_PERIOD_NS = 100_000_000L;
+
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong receivedPositions = new AtomicLong();
+    private final AtomicLong lateBatches = new AtomicLong();
+    private final AtomicLong maxLagNs = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int walkers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        PDRIngestServer server = null;
+        int port;
+        if (args.length > 3) {
+            port = Integer.parseInt(args[3]);
+        } else {
+            server = new PDRIngestServer(new PDRConfig(), 0, Runtime.getRuntime().availableProcessors(), 8, 512);
+            port = server.getPort();
+        }
+
+        System.out.printf(Locale.US, "walkers=%d connections=%d seconds=%d port=%d%n",
+                walkers, connections, seconds, port);
+        IngestLoadClient client = new IngestLoadClient();
+        long t0 = System.nanoTime();
+        client.run(port, walkers, connections, seconds);
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+
+        System.out.printf(Locale.US,
+                "elapsed=%.1fs batches=%d positions=%d lateBatches=%d maxLagMs=%.1f%n",
+                elapsed, client.sentBatches.get(), client.receivedPositions.get(),
+                client.lateBatches.get(), client.maxLagNs.get() / 1e6);
+        if (server != null) {
+            System.out.println(server.getStats());
+            server.close();
+        }
+    }
+
+    void run(int port, int walkers, int connections, int seconds) throws Exception {
+        final CountDownLatch done = new CountDownLatch(connections);
+        final int batches = (int) (seconds * 1_000_000_000L / BATCH_PERIOD_NS);
+        Thread[] threads = new Thread[connections];
+        for (int c = 0; c < connections; c++) {
+            // 端末IDを接続に均等に割り振る
+            final int first = c * walkers / connections;
+            final int last = (c + 1) * walkers / connections;
+            final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            startReader(socket);
+            threads[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sendLoop(socket, first, last, batches);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + c);
+            threads[c].start();
+        }
+        done.await();
+        // 位置更新の到着を少し待つ
+        Thread.sleep(500);
+    }
+
+    private void sendLoop(Socket socket, int first, int last, int batches) throws IOException {
+        int n = last - first;
+        SyntheticWalk[] walks = new SyntheticWalk[n];
+        for (int i = 0; i < n; i++) {
+            walks[i] = new SyntheticWalk(first + i);
+        }
+        SampleBatch batch = new SampleBatch(SAMPLES_PER_BATCH);
+        ByteBuffer buffer = ByteBuffer.allocate(n * (IngestProtocol.LENGTH_PREFIX + IngestProtocol.BATCH_HEADER
+                + SAMPLES_PER_BATCH * IngestProtocol.SAMPLE_LENGTH));
+        OutputStream out = socket.getOutputStream();
+
+        long next = System.nanoTime();
+        for (int b = 0; b < batches; b++) {
+            long lag = System.nanoTime() - next;
+            if (lag > 0) {
+                if (lag > BATCH_PERIOD_NS) lateBatches.incrementAndGet();
+                updateMax(lag);
+            } else {
+                sleepNanos(-lag);
+            }
+
+            // 全端末の100ms分をまとめて1回で書き込む
+            buffer.clear();
+            for (int i = 0; i < n; i++) {
+                batch.clear();
+                walks[i].fill(batch);
+                IngestProtocol.putBatch(buffer, first + i, batch);
+            }
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+            sentBatches.addAndGet(n);
+            next += BATCH_PERIOD_NS;
+        }
+
+        buffer.clear();
+        for (int i = 0; i < n; i++) {
+            IngestProtocol.putBye(buffer, first + i);
+        }
+        out.write(buffer.array(), 0, buffer.position());
+        out.flush();
+    }
+
+    private void startReader(final Socket socket) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] frame = new byte[IngestProtocol.POSITION_LENGTH];
+                try {
+                    while (true) {
+                        int length = in.readInt();
+                        in.readFully(frame, 0, length);
+                        if (frame[0] == IngestProtocol.TYPE_POSITION) {
+                            receivedPositions.incrementAndGet();
+                        }
+                    }
+                } catch (EOFException e) {
+                    // サーバー側で切断
+                } catch (IOException e) {
+                    // 終了時
+                }
+            }
+        }, "load-reader");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void updateMax(long lag) {
+        long prev;
+        while (lag > (prev = maxLagNs.get())) {
+            if (maxLagNs.compareAndSet(prev, lag)) break;
+        }
+    }
+
+    private static void sleepNanos(long ns) {
+        try {
+            Thread.sleep(ns / 1_000_000L, (int) (ns % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 対数バケットのヒストグラム（バケット境界・パーセンタイルの順位と上限の丸め）
+ */
+public class LogHistogramTest {
+
+    @Test
+    public void bucketBoundariesArePowersOfTwo() {
+        LogHistogram h = new LogHistogram();
+        h.record(0);
+        h.record(-5);  // 負の値は0として扱う
+        h.record(1);
+        h.record(2);
+        h.record(3);
+        h.record(4);
+        h.record(7);
+        h.record(8);
+        h.record(Long.MAX_VALUE);
+
+        assertEquals(2, h.getBucketCount(0));   // 0
+        assertEquals(1, h.getBucketCount(1));   // [1,2)
+        assertEquals(2, h.getBucketCount(2));   // [2,4)
+        assertEquals(2, h.getBucketCount(3));   // [4,8)
+        assertEquals(1, h.getBucketCount(4));   // [8,16)
+        assertEquals(1, h.getBucketCount(63));  // [2^62, 2^63)
+        assertEquals(9, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(Long.MAX_VALUE, h.getMax());
+
+        StringBuilder sb = new StringBuilder();
+        h.appendBuckets(sb);
+        assertTrue(sb.toString(), sb.toString().startsWith("[0,1):2 [1,2):1 [2,4):2 [4,8):2 [8,16):1 "));
+    }
+
+    @Test
+    public void percentileUsesRankAndClampsToMax() {
+        LogHistogram h = new LogHistogram();
+        assertEquals(0, h.percentile(0.5));  // 空
+        for (int v = 1; v <= 100; v++) h.record(v);
+
+        // p=0でも順位は1（最小値のバケット[1,2)の上限）
+        assertEquals(1, h.percentile(0.0));
+        // 50番目の値50は[32,64)に入り，上限63を返す
+        assertEquals(63, h.percentile(0.5));
+        // 63番目の値63までは[32,64)
+        assertEquals(63, h.percentile(0.63));
+        // 64番目からは[64,128)だが，上限127は最大値100で丸める
+        assertEquals(100, h.percentile(0.7));
+        assertEquals(100, h.percentile(1.0));
+        assertEquals(50.5, h.getMean(), 1e-9);
+    }
+
+    @Test
+    public void singleValueAndZeros() {
+        LogHistogram h = new LogHistogram();
+        h.record(5);
+        // バケット[4,8)の上限7ではなく最大値5
+        assertEquals(5, h.percentile(0.0));
+        assertEquals(5, h.percentile(1.0));
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMin());
+        h.record(0);
+        h.record(0);
+        assertEquals(0, h.percentile(1.0));
+
+        h.reset();
+        h.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, h.percentile(1.0));
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.tcsle;
+
+import java.util.Locale;
+
+/**
+ * 姿勢推定器ごとのコストと方位精度
+ *
+ * コスト: 事前生成した100Hzの加速度・角速度列に対するupdate 1回あたりの時間（5回の最小値）
+ * 精度  : 疑似歩行（既知のヨー角，複数シード）をエンジンに通したときのADE前方位の誤差
+ *
+ * 実行例: java -cp <classes> com.example.tcsle.OrientationEstimatorBenchmark [seconds]
+ */
+public class OrientationEstimatorBenchmark {
+    private static final int[] ESTIMATORS = {
+            PDRConfig.ESTIMATOR_COMPLEMENTARY, PDRConfig.ESTIMATOR_MAHONY, PDRConfig.ESTIMATOR_MADGWICK
+    };
+    private static final long[] SEEDS = {11, 12, 13};
+    private static volatile float sink;
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+
+        // 100Hz換算の入力列（生サンプルから加速度・角速度を交互に取り出す）
+        int n = 100 * 60;
+        float[][] acc = new float[n][3];
+        float[][] gyro = new float[n][3];
+        SyntheticWalk walk = new SyntheticWalk(5);
+        SampleBatch batch = new SampleBatch(64);
+        int ai = 0, gi = 0;
+        while (ai < n || gi < n) {
+            batch.clear();
+            walk.fill(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                float[] dst;
+                if (batch.isAccelAt(i)) {
+                    if (ai >= n) continue;
+                    dst = acc[ai++];
+                } else {
+                    if (gi >= n) continue;
+                    dst = gyro[gi++];
+                }
+                dst[0] = batch.xAt(i);
+                dst[1] = batch.yAt(i);
+                dst[2] = batch.zAt(i);
+            }
+        }
+
+        System.out.printf(Locale.US, "%-14s %10s %12s %12s%n", "estimator", "ns/update", "meanErrDeg", "maxErrDeg");
+        for (int type : ESTIMATORS) {
+            PDRConfig config = new PDRConfig();
+            config.orientationEstimator = type;
+            OrientationEstimator estimator = PDREngine.createOrientationEstimator(config);
+
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                best = Math.min(best, cost(estimator, acc, gyro));
+            }
+            double[] err = accuracy(config, seconds);
+            System.out.printf(Locale.US, "%-14s %10.1f %12.3f %12.3f%n",
+                    estimator.getName(), best, err[0], err[1]);
+        }
+    }
+
+    private static double cost(OrientationEstimator estimator, float[][] acc, float[][] gyro) {
+        float[] ω = new float[3];
+        int reps = 50;
+        estimator.reset();
+        long t0 = System.nanoTime();
+        for (int r = 0; r < reps; r++) {
+            for (int i = 0; i < acc.length; i++) {
+                ω[0] = gyro[i][0];
+                ω[1] = gyro[i][1];
+                ω[2] = gyro[i][2];
+                estimator.update(acc[i], ω, 0.01f);
+            }
+        }
+        long elapsed = System.nanoTime() - t0;
+        sink = estimator.getQuaternion()[0];
+        return (double) elapsed / ((long) reps * acc.length);
+    }
+
+    /**
+     * @return {平均誤差[deg], 最大誤差[deg]}
+     */
+    private static double[] accuracy(PDRConfig config, int seconds) {
+        double sum = 0;
+        double max = 0;
+        int count = 0;
+        for (long seed : SEEDS) {
+            PDREngine engine = new PDREngine(config);
+            SyntheticWalk walk = new SyntheticWalk(seed);
+            SampleBatch batch = new SampleBatch(40);
+            double t0 = -1;
+            for (int i = 0; i < seconds * 10; i++) {
+                batch.clear();
+                walk.fill(batch);
+                batch.feed(engine);
+                double t = engine.getLastTickTimeNs() * 1e-9;
+                if (t0 < 0) t0 = t;
+                // updateOrientationの方位角はヨー角と逆符号
+                double expected = -(walk.trueYaw(t) - walk.trueYaw(t0));
+                double d = Math.abs(wrap(engine.getRawHeading() - expected));
+                sum += d;
+                max = Math.max(max, d);
+                count++;
+            }
+        }
+        return new double[]{Math.toDegrees(sum / count), Math.toDegrees(max)};
+    }
+
+    private static double wrap(double a) {
+        while (a > Math.PI) a -= 2 * Math.PI;
+        while (a < -Math.PI) a += 2 * Math.PI;
+        return a;
+    }
+}
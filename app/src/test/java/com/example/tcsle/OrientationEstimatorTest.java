@@ -0,0 +1,85 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 姿勢推定器（相補・Mahony・Madgwick）の基本動作テスト
+ */
+public class OrientationEstimatorTest {
+
+    private static OrientationEstimator[] all() {
+        PDRConfig config = new PDRConfig();
+        return new OrientationEstimator[]{
+                new ComplementaryOrientationEstimator(config),
+                new MahonyOrientationEstimator(config),
+                new MadgwickOrientationEstimator(config)
+        };
+    }
+
+    /**
+     * クォータニオンから見た重力方向（機体座標）
+     */
+    private static float[] gravityDirection(float[] q) {
+        return new float[]{
+                2 * (q[1] * q[3] - q[0] * q[2]),
+                2 * (q[0] * q[1] + q[2] * q[3]),
+                q[0] * q[0] - q[1] * q[1] - q[2] * q[2] + q[3] * q[3]
+        };
+    }
+
+    @Test
+    public void convergesToTiltedGravity() {
+        // 静止・約20°傾けた状態
+        double tilt = Math.toRadians(20);
+        float[] a = {0f, (float) (9.81 * Math.sin(tilt)), (float) (9.81 * Math.cos(tilt))};
+        for (OrientationEstimator e : all()) {
+            float[] ω = new float[3];
+            for (int i = 0; i < 3000; i++) {
+                ω[0] = 0; ω[1] = 0; ω[2] = 0;
+                e.update(a, ω, 0.01f);
+            }
+            float[] g = gravityDirection(e.getQuaternion());
+            assertEquals(e.getName(), Math.sin(tilt), g[1], 0.02);
+            assertEquals(e.getName(), Math.cos(tilt), g[2], 0.02);
+        }
+    }
+
+    @Test
+    public void followsYawRotationWithoutTilt() {
+        float[] a = {0f, 0f, 9.81f};
+        float rate = (float) Math.toRadians(90);
+        for (OrientationEstimator e : all()) {
+            float[] ω = new float[3];
+            for (int i = 0; i < 100; i++) {
+                ω[0] = 0; ω[1] = 0; ω[2] = rate;
+                e.update(a, ω, 0.01f);
+            }
+            float[] q = e.getQuaternion();
+            double yaw = 2 * Math.atan2(q[3], q[0]);
+            assertEquals(e.getName(), Math.toRadians(90), yaw, Math.toRadians(1));
+        }
+    }
+
+    @Test
+    public void resetReturnsToIdentity() {
+        float[] a = {1f, 2f, 9f};
+        for (OrientationEstimator e : all()) {
+            float[] ω = {0.3f, 0.1f, 0.5f};
+            e.update(a, ω, 0.01f);
+            e.reset();
+            assertArrayEquals(e.getName(), new float[]{1f, 0f, 0f, 0f}, e.getQuaternion(), 0f);
+        }
+    }
+
+    @Test
+    public void engineUsesSelectedEstimator() {
+        PDRConfig config = new PDRConfig();
+        config.orientationEstimator = PDRConfig.ESTIMATOR_MADGWICK;
+        assertEquals("madgwick", new PDREngine(config).getOrientationEstimator().getName());
+        config.orientationEstimator = PDRConfig.ESTIMATOR_MAHONY;
+        assertEquals("mahony", new PDREngine(config).getOrientationEstimator().getName());
+        assertEquals("complementary", new PDREngine(new PDRConfig()).getOrientationEstimator().getName());
+    }
+}
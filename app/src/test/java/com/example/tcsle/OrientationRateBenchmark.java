@@ -0,0 +1,93 @@
+package com.example.tcsle;
+
+import java.util.Locale;
+
+/**
+ * 姿勢更新レート × 積分方式 × 正規化間隔 の方位ドリフトとCPU時間の表
+ *
+ * 疑似歩行（既知のヨー角）を入力し，ADE前の方位角と真値の差を集計する
+ * CPUはエンジン全体の処理時間（計測1秒あたり，3回の最小値．計測用プロファイラは無効）
+ *
+ * 実行例: java -cp <classes> com.example.tcsle.OrientationRateBenchmark [seconds]
+ */
+public class OrientationRateBenchmark {
+    private static final int[] DECIMATIONS = {1, 2, 4};
+    private static final int[] INTEGRATORS = {
+            QuaternionIntegrator.EULER, QuaternionIntegrator.SECOND_ORDER, QuaternionIntegrator.EXPONENTIAL
+    };
+    private static final int[] RENORMALIZE = {1, 16};
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+
+        // ウォームアップ
+        for (int decimation : DECIMATIONS) {
+            for (int integrator : INTEGRATORS) {
+                run(decimation, integrator, 1, 30);
+            }
+        }
+
+        System.out.printf(Locale.US, "%-6s %-6s %-7s %12s %12s %14s%n",
+                "rateHz", "integ", "renorm", "meanErrDeg", "maxErrDeg", "engineUs/sec");
+        for (int decimation : DECIMATIONS) {
+            for (int integrator : INTEGRATORS) {
+                for (int renorm : RENORMALIZE) {
+                    if (integrator == QuaternionIntegrator.EULER && renorm > 1) continue;
+                    double[] r = run(decimation, integrator, renorm, seconds);
+                    for (int rep = 0; rep < 2; rep++) {
+                        r[2] = Math.min(r[2], run(decimation, integrator, renorm, seconds)[2]);
+                    }
+                    System.out.printf(Locale.US, "%-6d %-6s %-7d %12.3f %12.3f %14.1f%n",
+                            100 / decimation, QuaternionIntegrator.getName(integrator), renorm,
+                            r[0], r[1], r[2]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {平均誤差[deg], 最大誤差[deg], 処理時間[us/秒]}
+     */
+    private static double[] run(int decimation, int integrator, int renorm, int seconds) {
+        PDRConfig config = new PDRConfig();
+        config.orientationDecimation = decimation;
+        config.integrator = integrator;
+        config.renormalizeInterval = renorm;
+        PDREngine engine = new PDREngine(config);
+        engine.getProfiler().setEnabled(false);
+
+        // ジャイロのノイズ・バイアスを含む歩行（誤差はCFの補正込み）
+        SyntheticWalk walk = new SyntheticWalk(17);
+        SampleBatch batch = new SampleBatch(40);
+        double t0 = -1;
+        double sumErr = 0;
+        double maxErr = 0;
+        int count = 0;
+        long elapsedNs = 0;
+        for (int i = 0; i < seconds * 10; i++) {
+            batch.clear();
+            walk.fill(batch);
+            long start = System.nanoTime();
+            batch.feed(engine);
+            elapsedNs += System.nanoTime() - start;
+
+            double t = engine.getLastTickTimeNs() * 1e-9;
+            if (t0 < 0) t0 = t;
+            // updateOrientationの方位角はヨー角と逆符号
+            double expected = -(walk.trueYaw(t) - walk.trueYaw(t0));
+            double d = Math.abs(wrap(engine.getRawHeading() - expected));
+            sumErr += d;
+            maxErr = Math.max(maxErr, d);
+            count++;
+        }
+
+        double usPerSec = elapsedNs / 1e3 / seconds;
+        return new double[]{Math.toDegrees(sumErr / count), Math.toDegrees(maxErr), usPerSec};
+    }
+
+    private static double wrap(double a) {
+        while (a > Math.PI) a -= 2 * Math.PI;
+        while (a < -Math.PI) a += 2 * Math.PI;
+        return a;
+    }
+}
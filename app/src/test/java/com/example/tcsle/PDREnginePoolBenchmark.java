@@ -0,0 +1,83 @@
+package com.example.tcsle;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PDREnginePoolのスループット計測（実時間換算のセッション数/コア）
+ *
+ * 各セッションは200Hz×2センサー（400サンプル/秒）の疑似歩行を入力する
+ * 入力はあらかじめ生成しておき，処理時間のみを計測する
+ *
+ * 実行例: java -cp <classes> com.example.tcsle.PDREnginePoolBenchmark [sessions] [seconds] [workers]
+ */
+public class PDREnginePoolBenchmark {
+    private static final int SAMPLES_PER_SECOND = 400;
+    private static final int BATCH = SAMPLES_PER_SECOND / 10;  // 100ms分
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int workers = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        System.out.printf(Locale.US, "sessions=%d simulatedSec=%d workers=%d%n", sessions, seconds, workers);
+
+        // ウォームアップ（JIT）
+        runOnce(Math.min(sessions, 200), 5, workers);
+        double[] r = runOnce(sessions, seconds, workers);
+
+        double samplesPerSec = r[0];
+        double realTimeSessions = samplesPerSec / SAMPLES_PER_SECOND;
+        System.out.printf(Locale.US,
+                "elapsed=%.2fs samples/s=%.0f realtimeSessions=%.0f sessionsPerCore=%.0f rejected=%d%n",
+                r[1], samplesPerSec, realTimeSessions, realTimeSessions / workers, (long) r[2]);
+    }
+
+    /**
+     * @return {サンプル/秒, 経過秒, 背圧で拒否されたバッチ数}
+     */
+    private static double[] runOnce(int sessions, int seconds, int workers) throws InterruptedException {
+        int batchesPerSession = seconds * SAMPLES_PER_SECOND / BATCH;
+
+        // 入力を事前生成（生成コストを計測から除く）
+        SampleBatch[][] input = new SampleBatch[sessions][batchesPerSession];
+        for (int s = 0; s < sessions; s++) {
+            SyntheticWalk walk = new SyntheticWalk(s);
+            for (int i = 0; i < batchesPerSession; i++) {
+                input[s][i] = new SampleBatch(BATCH);
+                walk.fill(input[s][i]);
+            }
+        }
+
+        // 軌跡履歴は模擬時間分の歩数だけ確保する（既定の65536歩×セッション数ではヒープが足りない）
+        PDRConfig config = new PDRConfig();
+        config.trajectoryHistoryCapacity = seconds * 4;
+
+        PDREnginePool pool = new PDREnginePool(workers, 8, BATCH);
+        PDREnginePool.Session[] opened = new PDREnginePool.Session[sessions];
+        for (int s = 0; s < sessions; s++) {
+            opened[s] = pool.openSession(config, null);
+            opened[s].getEngine().getProfiler().setEnabled(false);
+        }
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < batchesPerSession; i++) {
+            for (int s = 0; s < sessions; s++) {
+                while (!opened[s].trySubmit(input[s][i])) {
+                    Thread.yield();
+                }
+            }
+        }
+        pool.shutdown(10, TimeUnit.MINUTES);
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+
+        long samples = 0;
+        long rejected = 0;
+        for (PDREnginePool.Session session : opened) {
+            samples += session.getProcessedSamples();
+            rejected += session.getRejectedBatches();
+        }
+        return new double[]{samples / elapsed, elapsed, rejected};
+    }
+}
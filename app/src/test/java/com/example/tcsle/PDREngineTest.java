@@ -0,0 +1,219 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * PDREngineのセッション分離とプール処理の一致テスト
+ */
+public class PDREngineTest {
+
+    private static final int BATCH = 400;  // 約1秒分
+
+    private static void run(PDREngine engine, long seed, int batches) {
+        SyntheticWalk walk = new SyntheticWalk(seed);
+        SampleBatch batch = new SampleBatch(BATCH);
+        for (int i = 0; i < batches; i++) {
+            batch.clear();
+            walk.fill(batch);
+            batch.feed(engine);
+        }
+    }
+
+    @Test
+    public void detectsStepsOfSyntheticWalk() {
+        PDREngine engine = new PDREngine(new PDRConfig());
+        run(engine, 1, 60);
+
+        // 1.8Hz × 約60秒
+        int steps = engine.getStepCount();
+        assertTrue("steps=" + steps, steps > 90 && steps < 120);
+        assertTrue(engine.getDistance() > 0);
+    }
+
+    @Test
+    public void recordedGyroscopeReplaysToLiveHeading() {
+        // PDRServiceと同じく，ティックごとのgetAcceleration()・getGyroscope()を記録する
+        final PDREngine live = new PDREngine(new PDRConfig());
+        final List<long[]> times = new ArrayList<>();
+        final List<float[]> values = new ArrayList<>();
+        live.setListener(new PDREngine.Listener() {
+            @Override
+            public void onTick(PDREngine e, boolean isAccel, long tickTimeNs) {
+                times.add(new long[]{tickTimeNs, isAccel ? 1 : 0});
+                values.add((isAccel ? e.getAcceleration() : e.getGyroscope()).clone());
+            }
+
+            @Override
+            public void onStep(PDREngine e, long stepTimeNs, float stepLength) { }
+
+            @Override
+            public void onDiscontinuity(PDREngine e, int sensor, long gapNs) { }
+        });
+        run(live, 3, 20);
+
+        // 記録した角速度が姿勢推定の補正を含んでいると，再処理で二重に補正され方位がずれる
+        PDREngine replay = new PDREngine(TrialCsv.replayConfig(new PDRConfig()));
+        for (int i = 0; i < times.size(); i++) {
+            float[] v = values.get(i);
+            replay.onResampledTick(times.get(i)[1] != 0, times.get(i)[0], v[0], v[1], v[2]);
+        }
+        assertEquals(live.getRawHeading(), replay.getRawHeading(), 1e-4);
+        assertEquals(live.getStepCount(), replay.getStepCount());
+    }
+
+    @Test
+    public void interleavedSessionsDoNotShareState() {
+        PDREngine alone = new PDREngine(new PDRConfig());
+        run(alone, 7, 30);
+
+        // 同じ入力のエンジンと，別パラメータ・別入力のエンジンを交互に処理
+        PDRConfig other = new PDRConfig();
+        other.K = 1.1f;
+        other.A = 10.0f;
+        PDREngine a = new PDREngine(new PDRConfig());
+        PDREngine b = new PDREngine(other);
+        SyntheticWalk walkA = new SyntheticWalk(7);
+        SyntheticWalk walkB = new SyntheticWalk(99);
+        SampleBatch batch = new SampleBatch(BATCH);
+        for (int i = 0; i < 30; i++) {
+            batch.clear();
+            walkA.fill(batch);
+            batch.feed(a);
+            batch.clear();
+            walkB.fill(batch);
+            batch.feed(b);
+        }
+
+        assertEquals(alone.getStepCount(), a.getStepCount());
+        assertEquals(alone.getX(), a.getX(), 0.0);
+        assertEquals(alone.getY(), a.getY(), 0.0);
+        assertEquals(alone.getHeading(), a.getHeading(), 0.0f);
+    }
+
+    @Test
+    public void configChangesAfterCreationDoNotLeak() {
+        PDRConfig config = new PDRConfig();
+        PDREngine engine = new PDREngine(config);
+        config.A = 100.0f;  // 生成後の変更はコピーに反映されない
+        run(engine, 3, 20);
+        assertTrue(engine.getStepCount() > 0);
+    }
+
+    @Test
+    public void getConfigReturnsCopyAndApplyConfigTakesEffect() {
+        PDREngine engine = new PDREngine(new PDRConfig());
+        engine.getConfig().A = 100.0f;  // 返されたコピーの変更はエンジンに届かない
+        run(engine, 3, 20);
+        int steps = engine.getStepCount();
+        assertTrue(steps > 0);
+
+        PDREngine raised = new PDREngine(new PDRConfig());
+        PDRConfig config = raised.getConfig();
+        config.A = 100.0f;
+        raised.applyConfig(config);
+        assertEquals(100.0f, raised.getConfig().A, 0f);
+        run(raised, 3, 20);
+        assertEquals(0, raised.getStepCount());
+    }
+
+    @Test
+    public void resetRestoresInitialState() {
+        PDREngine fresh = new PDREngine(new PDRConfig());
+        run(fresh, 5, 20);
+
+        PDREngine reused = new PDREngine(new PDRConfig());
+        run(reused, 11, 20);
+        reused.reset();
+        run(reused, 5, 20);
+
+        assertEquals(fresh.getStepCount(), reused.getStepCount());
+        assertEquals(fresh.getX(), reused.getX(), 0.0);
+        assertEquals(fresh.getY(), reused.getY(), 0.0);
+    }
+
+    @Test
+    public void poolMatchesSequentialProcessing() throws Exception {
+        int sessions = 64;
+        int batches = 20;
+
+        PDREngine[] expected = new PDREngine[sessions];
+        for (int s = 0; s < sessions; s++) {
+            expected[s] = new PDREngine(new PDRConfig());
+            run(expected[s], s, batches);
+        }
+
+        PDREnginePool pool = new PDREnginePool(4, 4, BATCH);
+        PDREnginePool.Session[] opened = new PDREnginePool.Session[sessions];
+        SyntheticWalk[] walks = new SyntheticWalk[sessions];
+        for (int s = 0; s < sessions; s++) {
+            opened[s] = pool.openSession(new PDRConfig(), null);
+            walks[s] = new SyntheticWalk(s);
+        }
+        for (int i = 0; i < batches; i++) {
+            for (int s = 0; s < sessions; s++) {
+                SampleBatch batch = opened[s].obtainBatch();
+                walks[s].fill(batch);
+                while (!opened[s].trySubmit(batch)) {
+                    Thread.yield();  // 背圧：処理が追い付くまで待つ
+                }
+            }
+        }
+        assertTrue(pool.shutdown(30, TimeUnit.SECONDS));
+
+        for (int s = 0; s < sessions; s++) {
+            assertNull(opened[s].getFailure());
+            assertTrue(opened[s].isIdle());
+            assertEquals((long) batches * BATCH, opened[s].getProcessedSamples());
+            PDREngine engine = opened[s].getEngine();
+            assertEquals("session " + s, expected[s].getStepCount(), engine.getStepCount());
+            assertEquals(expected[s].getX(), engine.getX(), 0.0);
+            assertEquals(expected[s].getY(), engine.getY(), 0.0);
+        }
+    }
+
+    @Test
+    public void rejectsBatchesBeyondPendingLimit() throws Exception {
+        PDREnginePool pool = new PDREnginePool(1, 2, 16);
+        final Object gate = new Object();
+        final boolean[] release = {false};
+        // 1つ目のセッションでワーカーを塞ぐ
+        PDREnginePool.Session blocker = pool.openSession(new PDRConfig(), new PDREngine.Listener() {
+            @Override
+            public void onTick(PDREngine engine, boolean isAccel, long tickTimeNs) {
+                synchronized (gate) {
+                    while (!release[0]) {
+                        try {
+                            gate.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+            @Override public void onStep(PDREngine engine, long stepTimeNs, float stepLength) {}
+            @Override public void onDiscontinuity(PDREngine engine, int sensor, long gapNs) {}
+        });
+        SampleBatch b = blocker.obtainBatch();
+        new SyntheticWalk(1).fill(b);
+        assertTrue(blocker.trySubmit(b));
+
+        PDREnginePool.Session session = pool.openSession(new PDRConfig(), null);
+        assertTrue(session.trySubmit(session.obtainBatch()));
+        assertTrue(session.trySubmit(session.obtainBatch()));
+        assertFalse(session.trySubmit(session.obtainBatch()));
+        assertEquals(1, session.getRejectedBatches());
+
+        synchronized (gate) {
+            release[0] = true;
+            gate.notifyAll();
+        }
+        assertTrue(pool.shutdown(10, TimeUnit.SECONDS));
+        assertTrue(session.isIdle());
+    }
+}
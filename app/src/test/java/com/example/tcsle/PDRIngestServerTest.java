@@ -0,0 +1,142 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * ループバック接続でのセンサー収集サーバーのテスト
+ */
+public class PDRIngestServerTest {
+
+    private static final int BATCH = 40;
+
+    @Test
+    public void processesMultiplexedDevicesLikeLocalEngines() throws Exception {
+        int devices = 3;
+        int batches = 200;  // 20秒分
+
+        PDRIngestServer server = new PDRIngestServer(new PDRConfig(), 0, 2, 4, 512);
+        final Map<Long, Integer> lastSteps = new ConcurrentHashMap<>();
+        final Map<Long, double[]> lastXY = new ConcurrentHashMap<>();
+        server.setPositionListener(new PDRIngestServer.PositionListener() {
+            @Override
+            public void onPosition(long deviceId, long timeNs, int steps, double x, double y, float heading) {
+                lastSteps.put(deviceId, steps);
+                lastXY.put(deviceId, new double[]{x, y});
+            }
+        });
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        OutputStream out = socket.getOutputStream();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        SyntheticWalk[] walks = new SyntheticWalk[devices];
+        PDREngine[] expected = new PDREngine[devices];
+        for (int d = 0; d < devices; d++) {
+            walks[d] = new SyntheticWalk(100 + d);
+            expected[d] = new PDREngine(new PDRConfig());
+        }
+
+        SampleBatch batch = new SampleBatch(BATCH);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (int b = 0; b < batches; b++) {
+            buffer.clear();
+            for (int d = 0; d < devices; d++) {
+                batch.clear();
+                walks[d].fill(batch);
+                batch.feed(expected[d]);
+                IngestProtocol.putBatch(buffer, 100 + d, batch);
+            }
+            out.write(buffer.array(), 0, buffer.position());
+        }
+        buffer.clear();
+        for (int d = 0; d < devices; d++) {
+            IngestProtocol.putBye(buffer, 100 + d);
+        }
+        out.write(buffer.array(), 0, buffer.position());
+        out.flush();
+
+        // 最初の位置更新フレームを確認
+        int length = in.readInt();
+        assertEquals(IngestProtocol.POSITION_LENGTH, length);
+        assertEquals(IngestProtocol.TYPE_POSITION, in.readByte());
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (server.getActiveDevices() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals((long) devices * batches * BATCH, server.getReceivedSamples());
+        server.close();
+        socket.close();
+
+        for (int d = 0; d < devices; d++) {
+            long id = 100 + d;
+            assertEquals("device " + id, expected[d].getStepCount(), (int) lastSteps.get(id));
+            assertEquals(expected[d].getX(), lastXY.get(id)[0], 1e-9);
+            assertEquals(expected[d].getY(), lastXY.get(id)[1], 1e-9);
+        }
+    }
+
+    @Test
+    public void closesConnectionOnOversizedFrame() throws Exception {
+        PDRIngestServer server = new PDRIngestServer(new PDRConfig(), 0, 1, 4, 64);
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(1 << 20);
+        out.flush();
+
+        // サーバー側で切断される
+        assertEquals(-1, socket.getInputStream().read());
+        assertEquals(1, server.getProtocolErrors());
+        socket.close();
+        server.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBatchShorterThanHeader() {
+        ByteBuffer body = ByteBuffer.allocate(IngestProtocol.BYE_LENGTH);
+        IngestProtocol.readSamples(body, IngestProtocol.BYE_LENGTH, new SampleBatch(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownSensorType() {
+        SampleBatch batch = new SampleBatch(4);
+        batch.add(false, 1_000L, 0f, 0f, 0.1f);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        IngestProtocol.putBatch(buffer, 1, batch);
+        // 1件目のセンサー種別を壊す
+        buffer.put(IngestProtocol.LENGTH_PREFIX + IngestProtocol.BATCH_HEADER, (byte) 7);
+        buffer.flip();
+        int length = buffer.getInt();
+        buffer.get();
+        buffer.getLong();
+        IngestProtocol.readSamples(buffer, length, new SampleBatch(4));
+    }
+
+    @Test
+    public void closesConnectionOnShortBatchFrame() throws Exception {
+        PDRIngestServer server = new PDRIngestServer(new PDRConfig(), 0, 1, 4, 64);
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        // 件数フィールドのないバッチ
+        out.writeInt(IngestProtocol.BYE_LENGTH);
+        out.writeByte(IngestProtocol.TYPE_BATCH);
+        out.writeLong(1);
+        out.flush();
+
+        assertEquals(-1, socket.getInputStream().read());
+        assertEquals(1, server.getProtocolErrors());
+        assertEquals(0, server.getActiveDevices());
+        socket.close();
+        server.close();
+    }
+}
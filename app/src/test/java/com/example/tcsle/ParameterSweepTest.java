@@ -0,0 +1,205 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * パラメータスイープ（並列評価・打ち切り・探索）のテスト
+ */
+public class ParameterSweepTest {
+    private static final float TRUE_K = 0.8f;
+
+    private static SampleBatch walk(long seed, int batches) {
+        SyntheticWalk walk = new SyntheticWalk(seed);
+        SampleBatch trial = new SampleBatch(batches * 64);
+        SampleBatch batch = new SampleBatch(40);
+        for (int i = 0; i < batches; i++) {
+            batch.clear();
+            walk.fill(batch);
+            for (int j = 0; j < batch.size(); j++) {
+                trial.add(batch.isAccelAt(j), batch.timeNsAt(j), batch.xAt(j), batch.yAt(j), batch.zAt(j));
+            }
+        }
+        return trial;
+    }
+
+    /**
+     * K = TRUE_Kのエンジンの位置を約5秒ごとの地点通過の正解とした試行
+     */
+    private static List<RecordedTrial> trials(StageCache cache) {
+        List<RecordedTrial> out = new ArrayList<>();
+        for (long seed = 1; seed <= 3; seed++) {
+            SampleBatch samples = walk(seed, 300);
+            final RouteEvents events = new RouteEvents();
+            // 地点0→1が+X方向（方位オフセット0）
+            events.setRoutePoint(0, 0f, 0f);
+            events.setRoutePoint(1, 1f, 0f);
+
+            PDRConfig truth = new PDRConfig();
+            truth.K = TRUE_K;
+            PDREngine engine = new PDREngine(truth);
+            engine.setListener(new PDREngine.Listener() {
+                long next = -1;
+                int point = 2;
+
+                @Override
+                public void onTick(PDREngine e, boolean isAccel, long tickTimeNs) {
+                    if (next < 0) next = tickTimeNs + 5_000_000_000L;
+                    if (tickTimeNs >= next) {
+                        events.add(tickTimeNs, point++, (float) e.getX(), (float) e.getY(), point % 2 == 0);
+                        next += 5_000_000_000L;
+                    }
+                }
+
+                @Override
+                public void onStep(PDREngine e, long stepTimeNs, float stepLength) { }
+
+                @Override
+                public void onDiscontinuity(PDREngine e, int sensor, long gapNs) { }
+            });
+            samples.feed(engine);
+            assertTrue(events.size() >= 4);
+            out.add(new RecordedTrial("trial" + seed, samples, events, cache));
+        }
+        return out;
+    }
+
+    private static ParameterSpace kSpace(double low, double high, int steps) {
+        return new ParameterSpace().add("K", low, high, steps, (c, v) -> c.K = (float) v);
+    }
+
+    @Test
+    public void gridFindsTrueParameterAndPrunes() {
+        List<RecordedTrial> trials = trials(new StageCache(256L << 20, null));
+        ForkJoinPool pool = new ForkJoinPool(1);
+        ParameterSweep sweep = new ParameterSweep(new PDRConfig(), kSpace(0.6, 1.0, 5), trials, pool);
+        List<ParameterSweep.Result> results = sweep.grid();
+        pool.shutdown();
+
+        ParameterSweep.Result best = results.get(0);
+        assertEquals(TRUE_K, (float) best.values[0], 0f);
+        assertFalse(best.pruned);
+        assertEquals(0.0, best.score, 1e-3);
+
+        // 最良（≈0）を見つけた後の候補は最初の試行で打ち切られる
+        assertEquals(5, sweep.getEvaluationCount());
+        assertTrue(sweep.getPrunedCount() >= 2);
+        assertTrue(sweep.getTrialRunCount() < 5 * trials.size());
+        assertTrue(results.get(results.size() - 1).pruned);
+    }
+
+    @Test
+    public void parallelMatchesSequential() {
+        StageCache cache = new StageCache(256L << 20, null);
+        List<RecordedTrial> trials = trials(cache);
+        ParameterSpace space = kSpace(0.5, 1.1, 13);
+
+        ForkJoinPool one = new ForkJoinPool(1);
+        List<ParameterSweep.Result> sequential = new ParameterSweep(new PDRConfig(), space, trials, one).grid();
+        one.shutdown();
+        ForkJoinPool four = new ForkJoinPool(4);
+        ParameterSweep parallel = new ParameterSweep(new PDRConfig(), space, trials, four);
+        List<ParameterSweep.Result> results = parallel.grid();
+        four.shutdown();
+
+        assertEquals(sequential.get(0).values[0], results.get(0).values[0], 0.0);
+        assertEquals(Double.doubleToLongBits(sequential.get(0).score), Double.doubleToLongBits(results.get(0).score));
+        // 前段は試行ごとに1回だけ計算される
+        for (RecordedTrial t : trials) {
+            assertEquals(1, t.getReplay().getRecomputeCount(StagedReplay.STAGE_RESAMPLED));
+            assertEquals(1, t.getReplay().getRecomputeCount(StagedReplay.STAGE_STEPS));
+        }
+    }
+
+    @Test
+    public void bayesianConvergesNearTrueParameter() {
+        List<RecordedTrial> trials = trials(new StageCache(256L << 20, null));
+        ForkJoinPool pool = new ForkJoinPool(2);
+        ParameterSweep sweep = new ParameterSweep(new PDRConfig(), kSpace(0.4, 1.2, 1), trials, pool);
+        List<ParameterSweep.Result> results = sweep.bayesian(32, 4, 7);
+        pool.shutdown();
+
+        assertEquals(32, results.size());
+        assertEquals(TRUE_K, results.get(0).values[0], 0.03);
+        assertTrue(sweep.formatTable(results, 5).contains("rank"));
+    }
+
+    @Test
+    public void gridEnumeratesCartesianProduct() {
+        ParameterSpace space = new ParameterSpace()
+                .add("A", 10, 11, 3, (c, v) -> c.A = (float) v)
+                .add("tmin", 0.2, 0.2, 1, (c, v) -> c.tmin = (float) v)
+                .add("K", 0.6, 0.9, 4, (c, v) -> c.K = (float) v);
+        List<double[]> grid = space.grid();
+        assertEquals(12, grid.size());
+        assertArrayEquals(new double[]{10, 0.2, 0.6}, grid.get(0), 1e-12);
+        assertArrayEquals(new double[]{11, 0.2, 0.9}, grid.get(11), 1e-12);
+
+        PDRConfig c = space.apply(new PDRConfig(), grid.get(11));
+        assertEquals(11f, c.A, 0f);
+        assertEquals(0.9f, c.K, 1e-6f);
+    }
+
+    @Test
+    public void defaultSpaceOnlyChangesTheStepStage() {
+        // 既定の空間のどの候補も，方位の段階までのキャッシュを共有する
+        PDRConfig base = TrialCsv.replayConfig(new PDRConfig());
+        long input = StagedReplay.inputKey("x", walk(1, 10));
+        ParameterSpace space = ParameterSpace.tcsle();
+        for (double[] values : space.grid()) {
+            PDRConfig c = space.apply(base, values);
+            assertEquals(space.format(values), StagedReplay.headingKey(input, base),
+                    StagedReplay.headingKey(input, c));
+        }
+        ParameterSpace heading = ParameterSpace.heading();
+        PDRConfig c = heading.apply(base, heading.grid().get(0));
+        assertTrue(StagedReplay.headingKey(input, base) != StagedReplay.headingKey(input, c));
+    }
+
+    @Test
+    public void readsWaypointsFromEventCsv() throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "sweep" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+        File sensor = new File(dir, "Route_A_20250101_Trial01_sensor.csv");
+        File eventsFile = new File(dir, "Route_A_20250101_Trial01_events.csv");
+        try (FileWriter w = new FileWriter(sensor)) {
+            w.write("Time(ns),ax,ay,az,gx,gy,gz,StepCount,StepLength,X,Y,Heading,TotalDistance,ap,TrialID\n");
+        }
+        try (FileWriter w = new FileWriter(eventsFile)) {
+            w.write("Time(ns),TrialID,Event,RoutePoint,TargetX,TargetY,EstimatedX,EstimatedY,Distance\n");
+            w.write("100,Trial01,START,0,2.0,3.0,2.000,3.000,0.000\n");
+            w.write("110,Trial01,ADVERTISE,0,2.0,3.0,2.000,3.000,0.000\n");
+            w.write("500,Trial01,DISCONTINUITY_ACC,0,0.0,0.0,4.000,3.000,250.000\n");
+            w.write("900,Trial01,PASS,1,2.0,8.0,2.100,7.500,4.500\n");
+            w.write("1500,Trial01,ADVERTISE,2,6.0,8.0,5.500,8.100,6.000\n");
+            w.write("1600,Trial01,STOP,2,6.0,8.0,5.500,8.100,0.000\n");
+            w.write("50,Trial01,START,0,2.0,3.0,2.000,3.000,0.000\n");
+            w.write("60,Trial01,PASS,1,2.0,8.0,2.000,3.000,0.000\n");
+        }
+
+        List<File> found = TrialCsv.findTrials(dir);
+        assertEquals(1, found.size());
+        assertEquals("Route_A_20250101_Trial01", TrialCsv.trialId(found.get(0)));
+
+        RouteEvents events = TrialCsv.readEventCsv(TrialCsv.eventFileFor(sensor));
+        assertEquals(3, events.size());
+        assertTrue(events.isAdvertiseAt(0));
+        assertFalse(events.isAdvertiseAt(1));
+        assertEquals(1500L, events.timeNsAt(2));
+        assertEquals(6f, events.targetXAt(2), 0f);
+        assertEquals(2f, events.getStartX(), 0f);
+        assertEquals(Math.PI / 2, events.getInitialHeadingOffset(), 1e-12);
+
+        sensor.delete();
+        eventsFile.delete();
+        dir.delete();
+    }
+}
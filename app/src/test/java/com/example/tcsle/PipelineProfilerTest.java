@@ -0,0 +1,44 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * ステージ別レイテンシ計測の集計と無効化
+ */
+public class PipelineProfilerTest {
+
+    @Test
+    public void countsCallbacksAndCatchUpTicks() {
+        PipelineProfiler profiler = new PipelineProfiler();
+        profiler.recordCallback(1);
+        profiler.recordCallback(0);
+        profiler.recordCallback(4);
+        profiler.end(PipelineProfiler.STAGE_STEP, profiler.begin());
+
+        assertEquals(3, profiler.getCallbackCount());
+        assertEquals(5, profiler.getTickCount());
+        assertEquals(4, profiler.getMaxCatchUpTicks());
+        assertEquals(1, profiler.getTicksPerCallback().getBucketCount(0));
+        assertEquals(1, profiler.getTicksPerCallback().getBucketCount(3));  // 4は[4,8)
+        assertEquals(1, profiler.getStageHistogram(PipelineProfiler.STAGE_STEP).getCount());
+        assertTrue(profiler.dump().contains("callbacks=3 ticks=5 maxCatchUp=4"));
+
+        profiler.reset();
+        assertEquals(0, profiler.getCallbackCount());
+        assertEquals(0, profiler.getMaxCatchUpTicks());
+        assertEquals(0, profiler.getStageHistogram(PipelineProfiler.STAGE_STEP).getCount());
+    }
+
+    @Test
+    public void disabledProfilerRecordsNothing() {
+        PipelineProfiler profiler = new PipelineProfiler();
+        profiler.setEnabled(false);
+        assertEquals(0L, profiler.begin());
+        profiler.end(PipelineProfiler.STAGE_WRITE, 0L);
+        profiler.recordCallback(3);
+        assertEquals(0, profiler.getStageHistogram(PipelineProfiler.STAGE_WRITE).getCount());
+        assertEquals(0, profiler.getCallbackCount());
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 逐次的な折れ線の間引きのテスト
+ */
+public class PolylineSimplifierTest {
+
+    @Test
+    public void straightLineKeepsOnlyEnds() {
+        PolylineSimplifier s = new PolylineSimplifier(0.1f, 1000);
+        for (int i = 0; i <= 100; i++) {
+            s.add(0.7f * i, 0.02f * (i % 2));
+        }
+        assertEquals(1, s.size());
+        assertTrue(s.hasTail());
+        assertEquals(70f, s.getTailX(), 1e-4f);
+    }
+
+    @Test
+    public void cornerBecomesVertex() {
+        PolylineSimplifier s = new PolylineSimplifier(0.1f, 1000);
+        for (int i = 0; i <= 10; i++) s.add(i, 0);
+        for (int i = 1; i <= 10; i++) s.add(10, i);
+        assertEquals(2, s.size());
+        assertEquals(10f, s.xAt(1), 0f);
+        assertEquals(0f, s.yAt(1), 0f);
+        assertEquals(10f, s.getTailY(), 0f);
+    }
+
+    @Test
+    public void everyPointStaysWithinTolerance() {
+        Random random = new Random(1);
+        float tolerance = 0.15f;
+        int n = 5000;
+        float[] xs = new float[n];
+        float[] ys = new float[n];
+        float x = 0, y = 0, heading = 0;
+        for (int i = 0; i < n; i++) {
+            heading += (float) (random.nextGaussian() * 0.1);
+            if (random.nextInt(50) == 0) heading += (float) (Math.PI / 2);
+            x += 0.7f * (float) Math.cos(heading);
+            y += 0.7f * (float) Math.sin(heading);
+            xs[i] = x;
+            ys[i] = y;
+        }
+        PolylineSimplifier s = new PolylineSimplifier(tolerance, 64);
+        for (int i = 0; i < n; i++) s.add(xs[i], ys[i]);
+        assertTrue("vertices=" + s.size(), s.size() < n / 2);
+
+        // 確定頂点＋末尾からなる折れ線から，各入力点が許容誤差以内
+        int m = s.size() + 1;
+        float[] px = new float[m];
+        float[] py = new float[m];
+        for (int i = 0; i < s.size(); i++) {
+            px[i] = s.xAt(i);
+            py[i] = s.yAt(i);
+        }
+        px[m - 1] = s.getTailX();
+        py[m - 1] = s.getTailY();
+        for (int i = 0; i < n; i++) {
+            float best = Float.MAX_VALUE;
+            for (int k = 0; k + 1 < m; k++) {
+                best = Math.min(best, PolylineSimplifier.segmentDistance(xs[i], ys[i], px[k], py[k], px[k + 1], py[k + 1]));
+            }
+            assertTrue("point " + i + " off by " + best, best <= tolerance + 1e-4f);
+        }
+    }
+
+    @Test
+    public void pendingLimitForcesVertex() {
+        PolylineSimplifier s = new PolylineSimplifier(0.1f, 8);
+        for (int i = 0; i <= 100; i++) s.add(i, 0);
+        // 1 + 100/8 頂点（直線でも8点ごとに確定）
+        assertEquals(13, s.size());
+        s.clear();
+        assertEquals(0, s.size());
+        assertFalse(s.hasTail());
+    }
+}
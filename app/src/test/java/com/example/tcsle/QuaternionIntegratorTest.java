@@ -0,0 +1,117 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * クォータニオン積分方式と姿勢更新の間引きのテスト
+ */
+public class QuaternionIntegratorTest {
+
+    /**
+     * 一定角速度で1秒積分したときの回転誤差[rad]
+     */
+    private static double rotationError(int method, float dt, int renormalizeInterval) {
+        float[] q = {1f, 0f, 0f, 0f};
+        float wz = (float) Math.toRadians(360);
+        float wx = 0.5f;  // 軸が単一でない場合も確認
+        int steps = Math.round(1f / dt);
+        for (int i = 1; i <= steps; i++) {
+            QuaternionIntegrator.integrate(method, q, wx, 0f, wz, dt);
+            if (i % renormalizeInterval == 0) QuaternionIntegrator.normalize(q);
+        }
+        QuaternionIntegrator.normalize(q);
+
+        // 厳密解: 軸 ω/|ω| まわりに |ω|·steps·dt 回転
+        double w = Math.sqrt(wx * wx + wz * wz);
+        double half = w * steps * dt / 2;
+        double e0 = Math.cos(half);
+        double e1 = Math.sin(half) * wx / w;
+        double e3 = Math.sin(half) * wz / w;
+        // 相対回転 conj(e) ⊗ q の回転角
+        double r0 = e0 * q[0] + e1 * q[1] + e3 * q[3];
+        double r1 = e0 * q[1] - e1 * q[0] + e3 * q[2];
+        double r2 = e0 * q[2] - e3 * q[1] + e1 * q[3];
+        double r3 = e0 * q[3] - e3 * q[0] - e1 * q[2];
+        double vec = Math.sqrt(r1 * r1 + r2 * r2 + r3 * r3);
+        return 2 * Math.atan2(vec, Math.abs(r0));
+    }
+
+    @Test
+    public void exponentialIsExactForConstantRate() {
+        for (float dt : new float[]{0.01f, 0.02f, 0.04f}) {
+            assertTrue("dt=" + dt, rotationError(QuaternionIntegrator.EXPONENTIAL, dt, 1) < 1e-4);
+        }
+    }
+
+    @Test
+    public void secondOrderBeatsEulerAtLowRate() {
+        float dt = 0.04f;  // 25Hz
+        double euler = rotationError(QuaternionIntegrator.EULER, dt, 1);
+        double second = rotationError(QuaternionIntegrator.SECOND_ORDER, dt, 1);
+        double exp = rotationError(QuaternionIntegrator.EXPONENTIAL, dt, 1);
+        assertTrue("euler=" + euler + " 2nd=" + second, second < euler / 10);
+        assertTrue("2nd=" + second + " exp=" + exp, exp < second);
+    }
+
+    @Test
+    public void exponentialKeepsNormWithoutRenormalization() {
+        float[] q = {1f, 0f, 0f, 0f};
+        for (int i = 0; i < 1000; i++) {
+            QuaternionIntegrator.integrate(QuaternionIntegrator.EXPONENTIAL, q, 0.3f, -0.1f, 1.5f, 0.04f);
+        }
+        double norm = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        assertEquals(1.0, norm, 1e-4);
+    }
+
+    @Test
+    public void defaultConfigMatchesPerTickEuler() {
+        // 既定（EULER, 間引きなし, 毎回正規化）は従来の結果と一致すること
+        PDRConfig explicit = new PDRConfig();
+        explicit.integrator = QuaternionIntegrator.EULER;
+        explicit.orientationDecimation = 1;
+        explicit.renormalizeInterval = 1;
+        PDREngine a = new PDREngine(new PDRConfig());
+        PDREngine b = new PDREngine(explicit);
+        SyntheticWalk wa = new SyntheticWalk(3);
+        SyntheticWalk wb = new SyntheticWalk(3);
+        SampleBatch batch = new SampleBatch(400);
+        for (int i = 0; i < 20; i++) {
+            batch.clear();
+            wa.fill(batch);
+            batch.feed(a);
+            batch.clear();
+            wb.fill(batch);
+            batch.feed(b);
+        }
+        assertArrayEquals(a.getQuaternion(), b.getQuaternion(), 0f);
+    }
+
+    @Test
+    public void decimatedExponentialTracksFullRateHeading() {
+        PDRConfig full = new PDRConfig();
+        PDRConfig decimated = new PDRConfig();
+        decimated.integrator = QuaternionIntegrator.EXPONENTIAL;
+        decimated.orientationDecimation = 4;
+        decimated.renormalizeInterval = 16;
+
+        PDREngine a = new PDREngine(full);
+        PDREngine b = new PDREngine(decimated);
+        SyntheticWalk wa = new SyntheticWalk(8);
+        SyntheticWalk wb = new SyntheticWalk(8);
+        SampleBatch batch = new SampleBatch(400);
+        double maxDiff = 0;
+        for (int i = 0; i < 60; i++) {
+            batch.clear();
+            wa.fill(batch);
+            batch.feed(a);
+            batch.clear();
+            wb.fill(batch);
+            batch.feed(b);
+            double d = Math.abs(a.getRawHeading() - b.getRawHeading());
+            maxDiff = Math.max(maxDiff, Math.min(d, 2 * Math.PI - d));
+        }
+        assertTrue("heading diff deg=" + Math.toDegrees(maxDiff), maxDiff < Math.toRadians(3));
+    }
+}
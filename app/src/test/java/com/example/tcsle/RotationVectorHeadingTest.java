@@ -0,0 +1,135 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 回転ベクトル（TYPE_GAME_ROTATION_VECTOR）を方位の入力元にするモードのテスト
+ */
+public class RotationVectorHeadingTest {
+    private static final long RV_PERIOD_NS = 20_000_000L;  // 50Hz
+
+    private static PDRConfig rotationVectorConfig() {
+        PDRConfig config = new PDRConfig();
+        config.headingSource = PDRConfig.HEADING_SOURCE_ROTATION_VECTOR;
+        return config;
+    }
+
+    private static void feedYaw(PDREngine engine, long t, double yaw, boolean flip) {
+        float w = (float) Math.cos(yaw / 2);
+        float z = (float) Math.sin(yaw / 2);
+        if (flip) {
+            engine.onRotationVector(t, -w, 0f, 0f, -z);
+        } else {
+            engine.onRotationVector(t, w, 0f, 0f, z);
+        }
+    }
+
+    private static double wrap(double a) {
+        while (a > Math.PI) a -= 2 * Math.PI;
+        while (a <= -Math.PI) a += 2 * Math.PI;
+        return a;
+    }
+
+    @Test
+    public void headingIsInterpolatedRelativeToStart() {
+        PDREngine engine = new PDREngine(rotationVectorConfig());
+        // 開始時の方位基準は任意（ここでは100°）
+        double yaw0 = Math.toRadians(100);
+        double rate = Math.toRadians(30);  // rad/s
+        long t0 = 1_000_000_000L;
+        for (int i = 0; i <= 200; i++) {
+            long t = t0 + i * RV_PERIOD_NS;
+            // 符号反転した（同じ姿勢の）クォータニオンを混ぜても補間が乱れないこと
+            feedYaw(engine, t, yaw0 + rate * (t - t0) * 1e-9, i % 3 == 1);
+        }
+        // 格子は最初のサンプル+10msから始まり，その時点の方位が基準（0）になる
+        double elapsed = (engine.getLastTickTimeNs() - t0) * 1e-9 - 0.01;
+        double expected = wrap(-(rate * elapsed));
+        assertEquals(expected, engine.getRawHeading(), 1e-3);
+        assertEquals(400, engine.getSensorHealth().getStream(SensorHealthMonitor.SENSOR_ROTATION_VECTOR)
+                .getInterpolatedTicks());
+    }
+
+    @Test
+    public void rotationVectorPathTracksGyroPath() {
+        PDREngine gyroEngine = new PDREngine(new PDRConfig());
+        PDREngine rvEngine = new PDREngine(rotationVectorConfig());
+        SyntheticWalk walk = new SyntheticWalk(9);
+        SampleBatch batch = new SampleBatch(40);
+        long nextRv = 0;
+        for (int i = 0; i < 600; i++) {
+            batch.clear();
+            walk.fill(batch);
+            batch.feed(gyroEngine);
+            for (int j = 0; j < batch.size(); j++) {
+                long t = batch.timeNsAt(j);
+                if (batch.isAccelAt(j)) {
+                    rvEngine.onSample(true, t, batch.xAt(j), batch.yAt(j), batch.zAt(j));
+                }
+                if (t >= nextRv) {
+                    feedYaw(rvEngine, t, walk.trueYaw(t * 1e-9), false);
+                    nextRv = t + RV_PERIOD_NS;
+                }
+            }
+        }
+
+        assertEquals(gyroEngine.getStepCount(), rvEngine.getStepCount(), 2);
+        double dx = gyroEngine.getX() - rvEngine.getX();
+        double dy = gyroEngine.getY() - rvEngine.getY();
+        assertTrue("position drift " + Math.hypot(dx, dy),
+                Math.hypot(dx, dy) < 0.05 * gyroEngine.getStepCount());
+    }
+
+    @Test
+    public void gyroDoesNotDriveHeadingInRotationVectorMode() {
+        PDREngine engine = new PDREngine(rotationVectorConfig());
+        long t = 1_000_000_000L;
+        for (int i = 0; i < 100; i++, t += 5_000_000L) {
+            engine.onSample(false, t, 0f, 0f, 1.5f);
+        }
+        assertEquals(0f, engine.getRawHeading(), 0f);
+        assertArrayEquals(new float[]{1f, 0f, 0f, 0f}, engine.getQuaternion(), 0f);
+    }
+
+    @Test
+    public void rotationVectorGapRestartsHeadingHistory() {
+        PDREngine engine = new PDREngine(rotationVectorConfig());
+        final int[] gaps = new int[3];
+        engine.setListener(new PDREngine.Listener() {
+            @Override public void onTick(PDREngine e, boolean isAccel, long tickTimeNs) { }
+            @Override public void onStep(PDREngine e, long stepTimeNs, float stepLength) { }
+            @Override
+            public void onDiscontinuity(PDREngine e, int sensor, long gapNs) {
+                gaps[sensor]++;
+            }
+        });
+        SyntheticWalk walk = new SyntheticWalk(5);
+        SampleBatch batch = new SampleBatch(40);
+        long nextRv = 0;
+        for (int i = 0; i < 140; i++) {
+            batch.clear();
+            walk.fill(batch);
+            for (int j = 0; j < batch.size(); j++) {
+                long t = batch.timeNsAt(j);
+                if (batch.isAccelAt(j)) {
+                    engine.onSample(true, t, batch.xAt(j), batch.yAt(j), batch.zAt(j));
+                }
+                // 10秒歩いた後，回転ベクトルだけ1秒途切れ，再開時に方位が25°飛ぶ
+                boolean inGap = i >= 100 && i < 110;
+                if (!inGap && t >= nextRv) {
+                    feedYaw(engine, t, i < 100 ? 0 : Math.toRadians(25), false);
+                    nextRv = t + RV_PERIOD_NS;
+                }
+            }
+        }
+        assertTrue(engine.getStepCount() >= 3);
+        assertEquals(1, gaps[SensorHealthMonitor.SENSOR_ROTATION_VECTOR]);
+        assertEquals(0, gaps[SensorHealthMonitor.SENSOR_GYRO]);
+
+        // 飛びを旋回とみなすと45°単位に丸められて0°になる．直進として補正されれば-22.5°付近
+        assertEquals(Math.toRadians(-25), engine.getRawHeading(), 1e-3);
+        assertEquals(Math.toRadians(-22.5), engine.getHeading(), Math.toRadians(1));
+    }
+}
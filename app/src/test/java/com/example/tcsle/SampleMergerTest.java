@@ -0,0 +1,132 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * バッチ配信のバーストを時刻順に並べ直すテスト
+ */
+public class SampleMergerTest {
+    private static final int BURST_SAMPLES = 200;  // 1秒分（200Hz）
+
+    /**
+     * 疑似歩行を時刻順に生成
+     */
+    private static SampleBatch walk(long seed, int samples) {
+        SyntheticWalk walk = new SyntheticWalk(seed);
+        SampleBatch all = new SampleBatch(samples);
+        walk.fill(all);
+        return all;
+    }
+
+    /**
+     * センサーごとにBURST_SAMPLES個ずつ区切り，ジャイロのバーストを1つ遅らせて交互に届ける
+     * （加速度k番目 → ジャイロk−1番目 → 加速度k+1番目 …）
+     */
+    private static void deliverOutOfPhase(SampleBatch all, Delivery sink) {
+        int n = all.size();
+        int[] acc = new int[n];
+        int[] gyro = new int[n];
+        int na = 0, ng = 0;
+        for (int i = 0; i < n; i++) {
+            if (all.isAccelAt(i)) acc[na++] = i;
+            else gyro[ng++] = i;
+        }
+        int bursts = (Math.max(na, ng) + BURST_SAMPLES - 1) / BURST_SAMPLES;
+        for (int b = 0; b <= bursts; b++) {
+            for (int k = b * BURST_SAMPLES; k < Math.min(na, (b + 1) * BURST_SAMPLES); k++) {
+                sink.deliver(all, acc[k]);
+            }
+            for (int k = (b - 1) * BURST_SAMPLES; b > 0 && k < Math.min(ng, b * BURST_SAMPLES); k++) {
+                sink.deliver(all, gyro[k]);
+            }
+        }
+    }
+
+    private interface Delivery {
+        void deliver(SampleBatch all, int i);
+    }
+
+    private static void assertSameState(PDREngine expected, PDREngine actual) {
+        assertEquals(expected.getStepCount(), actual.getStepCount());
+        assertEquals(expected.getX(), actual.getX(), 0.0);
+        assertEquals(expected.getY(), actual.getY(), 0.0);
+        assertEquals(expected.getRawHeading(), actual.getRawHeading(), 0f);
+    }
+
+    @Test
+    public void outOfPhaseBurstsMatchInOrderProcessing() {
+        SampleBatch all = walk(3, 24_000);  // 60秒
+        PDREngine reference = new PDREngine(new PDRConfig());
+        all.feed(reference);
+
+        final PDREngine engine = new PDREngine(new PDRConfig());
+        final SampleMerger merger = new SampleMerger(engine, 4 * BURST_SAMPLES, 5_000_000_000L);
+        deliverOutOfPhase(all, new Delivery() {
+            @Override
+            public void deliver(SampleBatch s, int i) {
+                merger.add(s.isAccelAt(i) ? SampleMerger.STREAM_ACCEL : SampleMerger.STREAM_ORIENTATION,
+                        s.timeNsAt(i), s.xAt(i), s.yAt(i), s.zAt(i), 0f);
+            }
+        });
+        merger.flush();
+
+        assertEquals(all.size(), merger.getEmitted());
+        assertEquals(0, merger.getForced());
+        assertSameState(reference, engine);
+    }
+
+    @Test
+    public void feedingBurstsDirectlyDivergesFromInOrderProcessing() {
+        SampleBatch all = walk(3, 24_000);
+        PDREngine reference = new PDREngine(new PDRConfig());
+        all.feed(reference);
+
+        final PDREngine naive = new PDREngine(new PDRConfig());
+        deliverOutOfPhase(all, new Delivery() {
+            @Override
+            public void deliver(SampleBatch s, int i) {
+                naive.onSample(s.isAccelAt(i), s.timeNsAt(i), s.xAt(i), s.yAt(i), s.zAt(i));
+            }
+        });
+        // 歩行確定時に1秒前の方位を使うため軌跡がずれる
+        double d = Math.hypot(reference.getX() - naive.getX(), reference.getY() - naive.getY());
+        assertTrue("divergence " + d, d > 0.5);
+    }
+
+    @Test
+    public void stalledStreamIsReleasedAfterMaxLag() {
+        PDREngine engine = new PDREngine(new PDRConfig());
+        SampleMerger merger = new SampleMerger(engine, 1000, 500_000_000L);
+        long t0 = 1_000_000_000L;
+        float[] g = {0f, 0f, 9.81f};
+        for (int i = 0; i < 200; i++) {
+            merger.onAccelerometer(t0 + i * 5_000_000L, g);
+        }
+        // ジャイロが来ないので，最新から500msより古い分だけ放出される
+        assertEquals(200 - 101, merger.getEmitted());
+        assertEquals(101, merger.getBuffered(SampleMerger.STREAM_ACCEL));
+        assertEquals(merger.getEmitted(), merger.getForced());
+
+        // 時刻が逆行したサンプルは捨てる
+        merger.onAccelerometer(t0, g);
+        assertEquals(1, merger.getDropped());
+
+        merger.flush();
+        assertEquals(200, merger.getEmitted());
+        assertEquals(0, merger.getBuffered(SampleMerger.STREAM_ACCEL));
+    }
+
+    @Test
+    public void fullBufferReleasesOldestFirst() {
+        PDREngine engine = new PDREngine(new PDRConfig());
+        SampleMerger merger = new SampleMerger(engine, 10, Long.MAX_VALUE);
+        float[] g = {0f, 0f, 9.81f};
+        for (int i = 0; i < 15; i++) {
+            merger.onAccelerometer(1_000_000_000L + i * 5_000_000L, g);
+        }
+        assertEquals(5, merger.getEmitted());
+        assertEquals(10, merger.getBuffered(SampleMerger.STREAM_ACCEL));
+    }
+}
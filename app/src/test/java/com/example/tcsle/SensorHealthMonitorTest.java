@@ -0,0 +1,89 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * センサー配信の健全性メトリクス（レート・欠損・補間・時刻ずれの集計）
+ */
+public class SensorHealthMonitorTest {
+    private static final long T0 = 1_000_000_000L;
+
+    @Test
+    public void rateAndGapFromSyntheticTimestamps() {
+        SensorHealthMonitor monitor = new SensorHealthMonitor();
+        monitor.setRequestedPeriodUs(SensorHealthMonitor.SENSOR_ACCEL, 5000);
+
+        // 5ms間隔で100件，その後に50msの欠損をはさんで1件
+        for (int i = 0; i < 100; i++) {
+            monitor.onEvent(SensorHealthMonitor.SENSOR_ACCEL, T0 + i * 5_000_000L);
+        }
+        monitor.onEvent(SensorHealthMonitor.SENSOR_ACCEL, T0 + 99 * 5_000_000L + 50_000_000L);
+
+        SensorHealthMonitor.StreamStats s = monitor.getStream(SensorHealthMonitor.SENSOR_ACCEL);
+        assertEquals(101, s.getEventCount());
+        assertEquals(200.0, s.getRequestedRateHz(), 1e-9);
+        // 100間隔 / (99×5ms + 50ms)
+        assertEquals(100 * 1e9 / 545_000_000L, s.getAchievedRateHz(), 1e-9);
+        assertEquals(50_000_000L, s.getLargestGapNs());
+        assertEquals(100, s.getIntervalHistogram().getCount());
+        assertEquals(50_000_000L, s.getIntervalHistogram().getMax());
+        // 5ms（4,194,304 ≤ 5,000,000 < 8,388,608）は23番目のバケット
+        assertEquals(99, s.getIntervalHistogram().getBucketCount(23));
+    }
+
+    @Test
+    public void achievedRateNeedsTwoEventsAndForwardTime() {
+        SensorHealthMonitor monitor = new SensorHealthMonitor();
+        assertEquals(0.0, monitor.getStream(SensorHealthMonitor.SENSOR_GYRO).getRequestedRateHz(), 0.0);
+        monitor.onEvent(SensorHealthMonitor.SENSOR_GYRO, T0);
+        assertEquals(0.0, monitor.getStream(SensorHealthMonitor.SENSOR_GYRO).getAchievedRateHz(), 0.0);
+        monitor.onEvent(SensorHealthMonitor.SENSOR_GYRO, T0);
+        assertEquals(0.0, monitor.getStream(SensorHealthMonitor.SENSOR_GYRO).getAchievedRateHz(), 0.0);
+    }
+
+    @Test
+    public void interpolationAndDiscontinuityCounts() {
+        SensorHealthMonitor monitor = new SensorHealthMonitor();
+        monitor.onInterpolated(SensorHealthMonitor.SENSOR_GYRO, 1);
+        monitor.onInterpolated(SensorHealthMonitor.SENSOR_GYRO, 0);
+        monitor.onInterpolated(SensorHealthMonitor.SENSOR_GYRO, 3);
+        monitor.onDiscontinuity(SensorHealthMonitor.SENSOR_GYRO);
+
+        SensorHealthMonitor.StreamStats s = monitor.getStream(SensorHealthMonitor.SENSOR_GYRO);
+        assertEquals(4, s.getInterpolatedTicks());
+        assertEquals(1, s.getZeroTickEvents());
+        assertEquals(1, s.getDiscontinuities());
+        assertEquals(3, s.getTicksPerEventHistogram().getCount());
+
+        monitor.reset();
+        assertEquals(0, s.getInterpolatedTicks());
+        assertEquals(0, s.getDiscontinuities());
+        assertEquals(0, s.getTicksPerEventHistogram().getCount());
+    }
+
+    @Test
+    public void skewBetweenAccelAndGyroOnly() {
+        SensorHealthMonitor monitor = new SensorHealthMonitor();
+        // 相手が未受信の間は記録しない
+        monitor.onEvent(SensorHealthMonitor.SENSOR_ACCEL, T0);
+        assertEquals(0, monitor.getSkewHistogram().getCount());
+
+        monitor.onEvent(SensorHealthMonitor.SENSOR_GYRO, T0 + 1_250_000L);     // 1.25ms
+        monitor.onEvent(SensorHealthMonitor.SENSOR_ACCEL, T0 + 5_000_000L);    // 3.75ms
+        monitor.onEvent(SensorHealthMonitor.SENSOR_ROTATION_VECTOR, T0 + 9_000_000L);  // 対象外
+        assertEquals(2, monitor.getSkewHistogram().getCount());
+        assertEquals(3_750_000L, monitor.getMaxSkewNs());
+        assertEquals(1_250_000L, monitor.getSkewHistogram().getMin());
+
+        String dump = monitor.dump();
+        assertTrue(dump.contains("# accel"));
+        assertTrue(dump.contains("# gyro"));
+        assertTrue(dump.contains("# rotvec"));  // イベントがあれば出す
+        monitor.reset();
+        assertEquals(0, monitor.getMaxSkewNs());
+        // 未登録でイベントもない回転ベクトルはレポートに出さない
+        assertFalse(monitor.dump().contains("# rotvec"));
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * セッションジャーナルの追記順序・再開・CSVへの書き出し
+ */
+public class SessionJournalTest {
+
+    private static File tempJournal() throws IOException {
+        File file = File.createTempFile("trial", TrialCsv.JOURNAL_SUFFIX);
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static void close(SessionJournal journal) throws InterruptedException {
+        journal.close(null);
+        assertTrue(journal.awaitClosed(5000));
+        assertNull(journal.getError());
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) lines.add(line);
+        }
+        return lines;
+    }
+
+    @Test
+    public void sequenceFollowsAppendOrderAcrossThreads() throws Exception {
+        File file = tempJournal();
+        final SessionJournal journal = SessionJournal.open(file);
+        final float[] acc = {0f, 0f, 9.81f};
+        final float[] gyro = {0f, 0f, 0.1f};
+        final int ticks = 20000;
+        final int events = 200;
+
+        // センサースレッドとUIスレッドを模して同時に追記する
+        Thread sensor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ticks; i++) {
+                    journal.appendSensor(i * 10_000_000L, acc, gyro, i / 50, 0.7f, i, -i, 0.5f, i * 0.01, 1.5f);
+                }
+            }
+        });
+        sensor.start();
+        for (int i = 0; i < events; i++) {
+            journal.appendRouteEvent(i, "PASS", i, 1f, 2f, 3.0, 4.0, 5.0);
+        }
+        sensor.join();
+        close(journal);
+        assertEquals(-1, journal.appendStep(0, 0, 0f, 0, 0, 0f));
+
+        int sensorRows = 0, eventRows = 0;
+        long expectedSeq = 0;
+        long lastSensorTime = -1;
+        try (SessionJournal.Reader reader = new SessionJournal.Reader(file)) {
+            while (reader.next()) {
+                SessionJournal.Record r = reader.record();
+                assertEquals(expectedSeq++, r.seq);
+                if (r.type == SessionJournal.TYPE_SENSOR) {
+                    assertTrue(r.timeNs > lastSensorTime);
+                    lastSensorTime = r.timeNs;
+                    assertEquals(sensorRows, r.x, 0.0);
+                    assertEquals(9.81f, r.acceleration[2], 0f);
+                    sensorRows++;
+                } else {
+                    assertEquals(SessionJournal.TYPE_ROUTE_EVENT, r.type);
+                    assertEquals("PASS", r.event);
+                    assertEquals(eventRows, r.routePoint);
+                    eventRows++;
+                }
+            }
+            assertEquals(file.length(), reader.getValidLength());
+        }
+        assertEquals(ticks, sensorRows);
+        assertEquals(events, eventRows);
+    }
+
+    @Test
+    public void reopenContinuesSequenceAndDropsTornTail() throws Exception {
+        File file = tempJournal();
+        SessionJournal journal = SessionJournal.open(file);
+        journal.appendConfig(0, true, "Route_A", 3, "start");
+        journal.appendStep(1_000, 1, 0.7f, 0.5, 0.1, 0.2f);
+        journal.appendDiscontinuity(2_000, "DISCONTINUITY_ACC", 250_000_000L, 0.5, 0.1);
+        close(journal);
+        long complete = file.length();
+
+        // 書き込み中に落ちた想定で，途中までのレコードを末尾に足す
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(complete);
+            raf.write(new byte[]{SessionJournal.TYPE_STEP, 0, 0, 0});
+        }
+
+        journal = SessionJournal.open(file);
+        assertEquals(3, journal.getNextSeq());
+        assertEquals(3, journal.appendDiscontinuity(5_000, "RESUME", 1_000_000_000L, 0.5, 0.1));
+        close(journal);
+
+        List<String> names = new ArrayList<>();
+        try (SessionJournal.Reader reader = new SessionJournal.Reader(file)) {
+            long seq = 0;
+            while (reader.next()) {
+                assertEquals(seq++, reader.record().seq);
+                if (reader.record().type == SessionJournal.TYPE_CONFIG) {
+                    assertEquals("Route_A", reader.record().routeId);
+                    assertEquals(3, reader.record().trialNumber);
+                    assertTrue(reader.record().routeMode);
+                    names.add("CONFIG");
+                } else if (reader.record().type == SessionJournal.TYPE_STEP) {
+                    names.add("STEP");
+                } else {
+                    names.add(reader.record().event);
+                }
+            }
+        }
+        assertEquals(4, names.size());
+        assertEquals("RESUME", names.get(3));
+    }
+
+    @Test
+    public void exportsRouteModeCsv() throws Exception {
+        File file = tempJournal();
+        SessionJournal journal = SessionJournal.open(file);
+        journal.appendConfig(0, true, "Route_A", 3, "start");
+        journal.appendRouteEvent(0, "START", 1, 0f, 0f, 0.0, 0.0, 0.0);
+        journal.appendSensor(10_000_000L, new float[]{0.1f, 0.2f, 9.8f}, new float[]{0f, 0f, 0.5f},
+                2, 0.65f, 1.25, -0.5, (float) Math.PI / 2, 1.3, 10.5f);
+        journal.appendStep(10_000_000L, 2, 0.65f, 1.25, -0.5, (float) Math.PI / 2);
+        journal.appendDiscontinuity(20_000_000L, "DISCONTINUITY_GYRO", 300_000_000L, 1.25, -0.5);
+        close(journal);
+
+        File sensorCsv = File.createTempFile("trial", TrialCsv.SENSOR_SUFFIX);
+        File eventCsv = File.createTempFile("trial", TrialCsv.EVENT_SUFFIX);
+        sensorCsv.deleteOnExit();
+        eventCsv.deleteOnExit();
+        assertEquals(3, TrialCsv.exportJournal(file, sensorCsv, eventCsv));
+
+        List<String> sensor = readLines(sensorCsv);
+        assertEquals(TrialCsv.ROUTE_SENSOR_HEADER, sensor.get(0));
+        assertEquals("10000000,0.100,0.200,9.800,0.000,0.000,0.500,2,0.650,1.250,-0.500,90.000,1.300,10.500,Trial03",
+                sensor.get(1));
+        assertEquals(2, sensor.size());
+
+        List<String> events = readLines(eventCsv);
+        assertEquals(TrialCsv.ROUTE_EVENT_HEADER, events.get(0));
+        assertEquals("0,Trial03,START,1,0.0,0.0,0.000,0.000,0.000", events.get(1));
+        assertEquals("20000000,Trial03,DISCONTINUITY_GYRO,0,0.0,0.0,1.250,-0.500,300.000", events.get(2));
+
+        // 書き出したCSVは従来どおり読み込める
+        SampleBatch batch = TrialCsv.readSensorCsv(sensorCsv);
+        assertEquals(2, batch.size());
+    }
+
+    @Test
+    public void exportFailsWithoutConfigRecord() throws Exception {
+        File file = tempJournal();
+        SessionJournal journal = SessionJournal.open(file);
+        journal.appendStep(1_000, 1, 0.7f, 0.5, 0.1, 0.2f);
+        close(journal);
+
+        File sensorCsv = File.createTempFile("trial", TrialCsv.SENSOR_SUFFIX);
+        File eventCsv = File.createTempFile("trial", TrialCsv.EVENT_SUFFIX);
+        sensorCsv.deleteOnExit();
+        eventCsv.deleteOnExit();
+        try {
+            TrialCsv.exportJournal(file, sensorCsv, eventCsv);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // 既存のCSVには触れない
+            assertEquals(0, sensorCsv.length());
+            assertEquals(0, eventCsv.length());
+        }
+    }
+
+    @Test
+    public void findTrialsExportsOrphanedJournals() throws Exception {
+        File dir = File.createTempFile("trials", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        dir.deleteOnExit();
+
+        // stop()を経ずに終わった試行（CSVなし）
+        File orphan = new File(dir, "Route_A_20250101_Trial03" + TrialCsv.JOURNAL_SUFFIX);
+        SessionJournal journal = SessionJournal.open(orphan);
+        journal.appendConfig(0, true, "Route_A", 3, "start");
+        journal.appendSensor(10_000_000L, new float[]{0f, 0f, 9.8f}, new float[]{0f, 0f, 0f},
+                0, 0f, 0.0, 0.0, 0f, 0.0, 9.8f);
+        close(journal);
+        // 設定レコードのない壊れたジャーナルは残す
+        File broken = new File(dir, "Route_B_20250101_Trial01" + TrialCsv.JOURNAL_SUFFIX);
+        journal = SessionJournal.open(broken);
+        journal.appendStep(1_000, 1, 0.7f, 0.5, 0.1, 0.2f);
+        close(journal);
+
+        List<File> trials = TrialCsv.findTrials(dir);
+        File sensorCsv = new File(dir, "Route_A_20250101_Trial03" + TrialCsv.SENSOR_SUFFIX);
+        File eventCsv = new File(dir, "Route_A_20250101_Trial03" + TrialCsv.EVENT_SUFFIX);
+        sensorCsv.deleteOnExit();
+        eventCsv.deleteOnExit();
+        orphan.deleteOnExit();
+        broken.deleteOnExit();
+        assertEquals(1, trials.size());
+        assertEquals(sensorCsv, trials.get(0));
+        assertEquals(TrialCsv.ROUTE_SENSOR_HEADER, readLines(sensorCsv).get(0));
+        assertEquals(2, readLines(sensorCsv).size());
+        assertTrue(broken.isFile());
+
+        // 書き出し済みなら二度目は書き出さない．記録中のジャーナルは除く
+        assertEquals(0, TrialCsv.exportOrphanedJournals(dir, null));
+        assertTrue(sensorCsv.delete());
+        assertEquals(0, TrialCsv.exportOrphanedJournals(dir, orphan));
+        assertEquals(1, TrialCsv.exportOrphanedJournals(dir, null));
+    }
+
+    @Test
+    public void reopenAtSavedPositionSkipsScan() throws Exception {
+        File file = tempJournal();
+        SessionJournal journal = SessionJournal.open(file);
+        journal.appendConfig(0, true, "Route_A", 3, "start");
+        journal.appendStep(1_000, 1, 0.7f, 0.5, 0.1, 0.2f);
+        ByteBuffer position = ByteBuffer.allocate(SessionJournal.POSITION_BYTES);
+        journal.savePosition(position);
+        // チェックポイントより後に書かれた分は再開時に切り捨てる
+        journal.appendStep(2_000, 2, 0.7f, 1.0, 0.1, 0.2f);
+        close(journal);
+
+        position.flip();
+        journal = SessionJournal.open(file, position.getLong(), position.getLong());
+        assertEquals(2, journal.getNextSeq());
+        assertEquals(2, journal.appendDiscontinuity(5_000, "RESUME", 1_000_000_000L, 0.5, 0.1));
+        close(journal);
+
+        List<String> names = new ArrayList<>();
+        try (SessionJournal.Reader reader = new SessionJournal.Reader(file)) {
+            while (reader.next()) {
+                assertEquals(names.size(), reader.record().seq);
+                names.add(reader.record().type == SessionJournal.TYPE_DISCONTINUITY
+                        ? reader.record().event : String.valueOf(reader.record().type));
+            }
+            assertEquals(file.length(), reader.getValidLength());
+        }
+        assertEquals(3, names.size());
+        assertEquals("RESUME", names.get(2));
+
+        // 保存した位置までファイルが書かれていなければ先頭から探す
+        long length = file.length();
+        journal = SessionJournal.open(file, length + 100, 99);
+        assertEquals(3, journal.getNextSeq());
+        close(journal);
+    }
+
+    @Test
+    public void corruptedPayloadEndsLikeTornTail() throws Exception {
+        File dir = File.createTempFile("trials", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        dir.deleteOnExit();
+        File file = new File(dir, "Route_A_20250101_Trial03" + TrialCsv.JOURNAL_SUFFIX);
+        file.deleteOnExit();
+        SessionJournal journal = SessionJournal.open(file);
+        journal.appendConfig(0, true, "Route_A", 3, "start");
+        journal.appendRouteEvent(0, "START", 1, 0f, 0f, 0.0, 0.0, 0.0);
+        close(journal);
+        long complete = file.length();
+
+        // 見出しは正しいが，本体の文字列長が本体より長いレコード
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(complete);
+            ByteBuffer record = ByteBuffer.allocate(SessionJournal.RECORD_HEADER_BYTES + 4);
+            record.put((byte) SessionJournal.TYPE_ROUTE_EVENT).putLong(2).putLong(100).putShort((short) 4);
+            record.putShort((short) 500).putShort((short) 0);
+            raf.write(record.array());
+        }
+
+        int records = 0;
+        try (SessionJournal.Reader reader = new SessionJournal.Reader(file)) {
+            while (reader.next()) records++;
+            assertEquals(complete, reader.getValidLength());
+        }
+        assertEquals(2, records);
+
+        // 起動時の書き出しも落ちずに，読めた分を書き出す
+        assertEquals(1, TrialCsv.exportOrphanedJournals(dir, null));
+        File eventCsv = TrialCsv.eventCsvForJournal(file);
+        File sensorCsv = TrialCsv.sensorCsvForJournal(file, true);
+        eventCsv.deleteOnExit();
+        sensorCsv.deleteOnExit();
+        assertEquals(2, readLines(eventCsv).size());
+
+        journal = SessionJournal.open(file);
+        assertEquals(2, journal.getNextSeq());
+        close(journal);
+        assertEquals(complete, file.length());
+    }
+}
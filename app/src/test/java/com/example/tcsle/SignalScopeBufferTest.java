@@ -0,0 +1,119 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 信号スコープの間引きリングバッファのテスト
+ */
+public class SignalScopeBufferTest {
+    private static final int CH = SignalScopeBuffer.CHANNELS;
+
+    @Test
+    public void columnsHoldMinAndMax() {
+        SignalScopeBuffer b = new SignalScopeBuffer(8, 4);
+        float[] ap = {9.5f, 12.0f, 8.0f, 10.0f, 11.0f, 10.5f, 9.9f, 10.1f};
+        for (int i = 0; i < ap.length; i++) {
+            b.add(ap[i], 10.0f, 0.1f * i, -0.1f * i, i == 1);
+        }
+        b.mark(SignalScopeBuffer.MARK_DISCONTINUITY);  // 作成中の3列目に付く
+        b.add(10f, 10f, 0f, 0f, false);
+
+        float[] min = new float[8 * CH];
+        float[] max = new float[8 * CH];
+        int[] marks = new int[8];
+        assertEquals(2, b.snapshot(8, min, max, marks));
+        assertEquals(8.0f, min[SignalScopeBuffer.CH_AP], 0f);
+        assertEquals(12.0f, max[SignalScopeBuffer.CH_AP], 0f);
+        assertEquals(9.9f, min[CH + SignalScopeBuffer.CH_AP], 0f);
+        assertEquals(11.0f, max[CH + SignalScopeBuffer.CH_AP], 0f);
+        assertEquals(0.3f, max[SignalScopeBuffer.CH_RAW_HEADING], 1e-6f);
+        assertEquals(-0.7f, min[CH + SignalScopeBuffer.CH_HEADING], 1e-6f);
+        assertEquals(SignalScopeBuffer.MARK_STEP, marks[0]);
+        assertEquals(0, marks[1]);
+
+        for (int i = 0; i < 3; i++) b.add(10f, 10f, 0f, 0f, false);
+        assertEquals(3, b.snapshot(8, min, max, marks));
+        assertEquals(SignalScopeBuffer.MARK_DISCONTINUITY, marks[2]);
+    }
+
+    @Test
+    public void keepsLatestColumnsAfterWrap() {
+        SignalScopeBuffer b = new SignalScopeBuffer(16, 1);
+        for (int i = 0; i < 100; i++) b.add(i, 0, 0, 0, false);
+        float[] min = new float[16 * CH];
+        float[] max = new float[16 * CH];
+        int[] marks = new int[16];
+        // 書き手が次に書き込む列と同じ位置の1列は読まない
+        assertEquals(15, b.snapshot(32, min, max, marks));
+        assertEquals(85f, min[0], 0f);
+        assertEquals(99f, min[14 * CH], 0f);
+        assertEquals(5, b.snapshot(5, min, max, marks));
+        assertEquals(95f, min[0], 0f);
+    }
+
+    @Test
+    public void concurrentReaderNeverSeesTornColumns() throws InterruptedException {
+        final SignalScopeBuffer b = new SignalScopeBuffer(64, 1);
+        final int total = 2_000_000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // 列ごとに全チャンネル同じ値（列番号）を書く
+                for (int i = 0; i < total; i++) {
+                    float v = i;
+                    b.add(v, v, v, v, false);
+                }
+            }
+        });
+        writer.start();
+        float[] min = new float[64 * CH];
+        float[] max = new float[64 * CH];
+        int[] marks = new int[64];
+        int checked = 0;
+        while (writer.isAlive() || checked == 0) {
+            int n = b.snapshot(64, min, max, marks);
+            for (int i = 0; i < n; i++) {
+                float v = min[i * CH];
+                for (int ch = 0; ch < CH; ch++) {
+                    assertEquals(v, min[i * CH + ch], 0f);
+                    assertEquals(v, max[i * CH + ch], 0f);
+                }
+                if (i > 0) assertEquals(min[(i - 1) * CH] + 1, v, 0f);
+            }
+            checked++;
+        }
+        writer.join();
+        assertEquals(total, b.getPublishedCount());
+    }
+
+    @Test
+    public void engineMarksEachStep() {
+        PDREngine engine = new PDREngine(new PDRConfig());
+        SignalScopeBuffer b = new SignalScopeBuffer(1 << 16, 1);
+        engine.setSignalScope(b);
+        SyntheticWalk walk = new SyntheticWalk(5);
+        SampleBatch batch = new SampleBatch(40);
+        for (int i = 0; i < 300; i++) {
+            batch.clear();
+            walk.fill(batch);
+            batch.feed(engine);
+        }
+        int columns = (int) b.getPublishedCount();
+        float[] min = new float[columns * CH];
+        float[] max = new float[columns * CH];
+        int[] marks = new int[columns];
+        assertEquals(columns, b.snapshot(columns, min, max, marks));
+        int steps = 0;
+        for (int i = 0; i < columns; i++) {
+            if ((marks[i] & SignalScopeBuffer.MARK_STEP) != 0) {
+                steps++;
+                // 歩行を確定したティックのapは閾値以下（ピーク通過後）
+                assertTrue(min[i * CH + SignalScopeBuffer.CH_THRESHOLD] == engine.getConfig().A);
+            }
+        }
+        assertTrue(engine.getStepCount() > 0);
+        assertEquals(engine.getStepCount(), steps);
+    }
+}
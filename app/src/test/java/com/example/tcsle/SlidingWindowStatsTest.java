@@ -0,0 +1,57 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * スライディングウィンドウ統計を全走査の結果と比較する
+ */
+public class SlidingWindowStatsTest {
+
+    @Test
+    public void matchesBruteForce() {
+        int capacity = 37;
+        SlidingWindowStats stats = new SlidingWindowStats(capacity);
+        float[] history = new float[2000];
+        Random random = new Random(7);
+        for (int n = 0; n < history.length; n++) {
+            // 単調区間・同値を含めてデックの境界条件を通す
+            float v = (n % 300 < 50) ? n % 300 : (float) Math.round(random.nextGaussian() * 4) + 9.8f;
+            history[n] = v;
+            stats.add(v);
+
+            int from = Math.max(0, n - capacity + 1);
+            double sum = 0, sumSq = 0;
+            float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+            for (int i = from; i <= n; i++) {
+                sum += history[i];
+                sumSq += (double) history[i] * history[i];
+                min = Math.min(min, history[i]);
+                max = Math.max(max, history[i]);
+            }
+            int size = n - from + 1;
+            double mean = sum / size;
+            assertEquals(size, stats.size());
+            assertEquals(min, stats.getMin(), 0f);
+            assertEquals(max, stats.getMax(), 0f);
+            assertEquals(mean, stats.getMean(), 1e-4);
+            assertEquals(sumSq / size - mean * mean, stats.getVariance(), 1e-3);
+        }
+    }
+
+    @Test
+    public void clearStartsOver() {
+        SlidingWindowStats stats = new SlidingWindowStats(4);
+        for (int i = 0; i < 10; i++) stats.add(i);
+        stats.clear();
+        assertEquals(0, stats.size());
+        stats.add(3f);
+        assertEquals(3f, stats.getMin(), 0f);
+        assertEquals(3f, stats.getMax(), 0f);
+        assertEquals(3f, stats.getMean(), 0f);
+        assertEquals(0f, stats.getVariance(), 0f);
+    }
+}
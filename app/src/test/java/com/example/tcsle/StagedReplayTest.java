@@ -0,0 +1,225 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * 段階別再処理とステージキャッシュのテスト
+ */
+public class StagedReplayTest {
+
+    /**
+     * 疑似歩行（途中に補間上限を超える欠損を1回含む）
+     */
+    private static SampleBatch walk(long seed, int batches) {
+        SyntheticWalk walk = new SyntheticWalk(seed);
+        SampleBatch trial = new SampleBatch(batches * 64);
+        SampleBatch batch = new SampleBatch(40);
+        for (int i = 0; i < batches; i++) {
+            batch.clear();
+            walk.fill(batch);
+            if (i >= batches / 2 && i < batches / 2 + 3) continue;  // 約0.6秒の欠損
+            for (int j = 0; j < batch.size(); j++) {
+                trial.add(batch.isAccelAt(j), batch.timeNsAt(j), batch.xAt(j), batch.yAt(j), batch.zAt(j));
+            }
+        }
+        return trial;
+    }
+
+    // setInitialRouteVector(0, 0, 2, 1)と同じ方位オフセット
+    private static final double OFFSET = Math.atan2(1, 2);
+
+    /**
+     * 同じ生データをPDREngineに直接通したときの歩行ごとの位置
+     */
+    private static StepTrajectory reference(PDRConfig config, SampleBatch raw, double x0, double y0) {
+        final StepTrajectory out = new StepTrajectory(64);
+        PDREngine engine = new PDREngine(config);
+        engine.setInitialPosition(x0, y0);
+        engine.setInitialRouteVector(0, 0, 2, 1);
+        engine.setListener(new PDREngine.Listener() {
+            @Override
+            public void onTick(PDREngine e, boolean isAccel, long tickTimeNs) { }
+
+            @Override
+            public void onStep(PDREngine e, long stepTimeNs, float stepLength) {
+                out.add(stepTimeNs, e.getX(), e.getY(), stepLength);
+            }
+
+            @Override
+            public void onDiscontinuity(PDREngine e, int sensor, long gapNs) { }
+        });
+        raw.feed(engine);
+        return out;
+    }
+
+    private static void assertSameTrajectory(String message, StepTrajectory expected, StepTrajectory actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(message, expected.timeNsAt(i), actual.timeNsAt(i));
+            assertEquals(message, Double.doubleToLongBits(expected.xAt(i)), Double.doubleToLongBits(actual.xAt(i)));
+            assertEquals(message, Double.doubleToLongBits(expected.yAt(i)), Double.doubleToLongBits(actual.yAt(i)));
+            assertEquals(message, Float.floatToIntBits(expected.lengthAt(i)), Float.floatToIntBits(actual.lengthAt(i)));
+        }
+    }
+
+    @Test
+    public void matchesEngineFromEveryStage() {
+        SampleBatch raw = walk(3, 400);
+        StagedReplay replay = new StagedReplay("t3", raw, new StageCache(64L << 20, null));
+
+        PDRConfig config = new PDRConfig();
+        assertSameTrajectory("full", reference(config, raw, 1, 2), replay.run(config, 1, 2, OFFSET));
+        assertEquals(StagedReplay.STAGE_NONE, replay.getLastStartStage());
+        assertTrue(replay.run(config, 1, 2, OFFSET).size() > 20);
+
+        // 変更したパラメータより上流のキャッシュから再開し，直接実行と一致する
+        PDRConfig stepLength = config.copy();
+        stepLength.K = 0.9f;
+        stepLength.stepLengthEstimator = PDRConfig.STEP_LENGTH_WEINBERG;
+        assertSameTrajectory("stepLength", reference(stepLength, raw, 1, 2), replay.run(stepLength, 1, 2, OFFSET));
+        assertEquals(StagedReplay.STAGE_STEPS, replay.getLastStartStage());
+
+        PDRConfig detector = config.copy();
+        detector.A = 10.6f;
+        assertSameTrajectory("detector", reference(detector, raw, 1, 2), replay.run(detector, 1, 2, OFFSET));
+        assertEquals(StagedReplay.STAGE_HEADING, replay.getLastStartStage());
+
+        PDRConfig orientation = config.copy();
+        orientation.kf = 1.0f;
+        orientation.orientationDecimation = 2;
+        assertSameTrajectory("orientation", reference(orientation, raw, 1, 2), replay.run(orientation, 1, 2, OFFSET));
+        assertEquals(StagedReplay.STAGE_FILTERED, replay.getLastStartStage());
+
+        PDRConfig prefilter = config.copy();
+        prefilter.accR = 0.3;
+        assertSameTrajectory("prefilter", reference(prefilter, raw, 1, 2), replay.run(prefilter, 1, 2, OFFSET));
+        assertEquals(StagedReplay.STAGE_RESAMPLED, replay.getLastStartStage());
+
+        assertEquals(1, replay.getRecomputeCount(StagedReplay.STAGE_RESAMPLED));
+    }
+
+    @Test
+    public void stepLengthSweepDoesNotRecomputeUpstream() {
+        SampleBatch raw = walk(5, 300);
+        StagedReplay replay = new StagedReplay("t5", raw, new StageCache(64L << 20, null));
+        PDRConfig config = new PDRConfig();
+        config.stepLengthEstimator = PDRConfig.STEP_LENGTH_KIM;
+        for (int i = 0; i < 10; i++) {
+            config.kimK = 0.28f + 0.01f * i;
+            StepTrajectory t = replay.run(config, 0, 0, OFFSET);
+            assertSameTrajectory("kimK=" + config.kimK, reference(config, raw, 0, 0), t);
+        }
+        assertEquals(1, replay.getRecomputeCount(StagedReplay.STAGE_RESAMPLED));
+        assertEquals(1, replay.getRecomputeCount(StagedReplay.STAGE_FILTERED));
+        assertEquals(1, replay.getRecomputeCount(StagedReplay.STAGE_HEADING));
+        assertEquals(1, replay.getRecomputeCount(StagedReplay.STAGE_STEPS));
+    }
+
+    @Test
+    public void evictedEntriesSpillToDiskAndReload() throws IOException {
+        File dir = Files.createTempDirectory("stages").toFile();
+        SampleBatch raw = walk(7, 200);
+        // 1試行分の前段の列が入りきらない上限
+        StageCache cache = new StageCache(16 * 1024, dir);
+        StagedReplay replay = new StagedReplay("t7", raw, cache);
+        PDRConfig config = new PDRConfig();
+
+        StepTrajectory first = replay.run(config, 0, 0, OFFSET);
+        assertTrue(cache.getSpills() > 0);
+        assertTrue(cache.getBytes() <= 16 * 1024 || cache.getEntryCount() == 1);
+
+        // 歩行列は追い出されていても，ディスクから読み戻して前段を再計算しない
+        PDRConfig other = config.copy();
+        other.tmax = 1.5f;
+        replay.run(other, 0, 0, OFFSET);
+        StepTrajectory again = replay.run(config, 0, 0, OFFSET);
+        assertSameTrajectory("reload", first, again);
+        assertTrue(cache.getDiskHits() > 0);
+        assertEquals(1, replay.getRecomputeCount(StagedReplay.STAGE_RESAMPLED));
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsed() {
+        // 3件分だけ入る上限（歩行列1件の大きさは1歩あたりの特徴量の数で変わる）
+        StageCache cache = new StageCache(3 * (new StagedReplay.StepStream().byteSize() + 64), null);
+        for (int i = 0; i < 3; i++) {
+            cache.put(i, new StagedReplay.StepStream());
+        }
+        // 0を参照して最近使ったことにする
+        assertNotNull(cache.get(0, StagedReplay.StepStream.class, StagedReplay.StepStream::read));
+        cache.put(3, new StagedReplay.StepStream());
+
+        assertNull(cache.get(1, StagedReplay.StepStream.class, StagedReplay.StepStream::read));
+        assertNotNull(cache.get(0, StagedReplay.StepStream.class, StagedReplay.StepStream::read));
+        assertNotNull(cache.get(3, StagedReplay.StepStream.class, StagedReplay.StepStream::read));
+        assertEquals(3, cache.getEntryCount());
+    }
+
+    @Test
+    public void keysDependOnUpstreamParametersOnly() {
+        PDRConfig a = new PDRConfig();
+        PDRConfig b = a.copy();
+        b.K = 0.5f;
+        b.stepLengthEstimator = PDRConfig.STEP_LENGTH_SCARLET;
+        long x = StagedReplay.inputKey("x", walk(1, 10));
+        long y = StagedReplay.inputKey("y", walk(1, 10));
+        assertEquals(StagedReplay.stepsKey(x, a), StagedReplay.stepsKey(x, b));
+        b.tmin = 0.3f;
+        assertEquals(StagedReplay.headingKey(x, a), StagedReplay.headingKey(x, b));
+        assertTrue(StagedReplay.stepsKey(x, a) != StagedReplay.stepsKey(x, b));
+        assertTrue(StagedReplay.resampledKey(x, a) != StagedReplay.resampledKey(y, a));
+    }
+
+    @Test
+    public void inputKeyDependsOnSampleContent() {
+        SampleBatch raw = walk(1, 10);
+        SampleBatch changed = walk(1, 10);
+        changed.clear();
+        for (int i = 0; i < raw.size(); i++) {
+            float z = i == raw.size() / 2 ? raw.zAt(i) + 0.001f : raw.zAt(i);
+            changed.add(raw.isAccelAt(i), raw.timeNsAt(i), raw.xAt(i), raw.yAt(i), z);
+        }
+        assertEquals(StagedReplay.inputKey("x", raw), StagedReplay.inputKey("x", walk(1, 10)));
+        assertTrue(StagedReplay.inputKey("x", raw) != StagedReplay.inputKey("x", changed));
+    }
+
+    @Test
+    public void spilledStagesOfRerecordedTrialAreNotReused() throws IOException {
+        File dir = Files.createTempDirectory("stages").toFile();
+        PDRConfig config = new PDRConfig();
+
+        // 同じ試行IDで記録し直した（内容の違う）CSVを，前回の書き出しが残ったまま再処理する
+        StageCache first = new StageCache(16 * 1024, dir);
+        new StagedReplay("t9", walk(9, 200), first).run(config, 0, 0, OFFSET);
+        assertTrue(first.getSpills() > 0);
+
+        SampleBatch rerecorded = walk(10, 200);
+        StageCache second = new StageCache(16 * 1024, dir);
+        StagedReplay replay = new StagedReplay("t9", rerecorded, second);
+        assertSameTrajectory("rerecorded", reference(config, rerecorded, 0, 0),
+                replay.run(config, 0, 0, OFFSET));
+        assertEquals(0, second.getDiskHits());
+        assertEquals(StagedReplay.STAGE_NONE, replay.getLastStartStage());
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                assertFalse(f.getName(), f.getName().endsWith(".tmp"));
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+}
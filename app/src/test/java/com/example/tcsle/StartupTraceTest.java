@@ -0,0 +1,89 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * 起動トレースの区間記録と出力
+ */
+public class StartupTraceTest {
+
+    @Test
+    public void recordsSpansRelativeToOrigin() throws Exception {
+        long origin = System.nanoTime() - 50_000_000L;
+        StartupTrace trace = new StartupTrace(origin);
+
+        int phase = trace.begin("routeManager");
+        Thread.sleep(5);
+        trace.end(phase);
+        trace.mark("ready");
+
+        assertEquals(2, trace.size());
+        assertTrue(trace.getDurationNs("routeManager") >= 5_000_000L);
+        assertEquals(0, trace.getDurationNs("ready"));
+        assertTrue(trace.getEndNs("ready") >= 55_000_000L);
+        assertTrue(trace.getEndNs("ready") >= trace.getEndNs("routeManager"));
+        assertEquals(-1, trace.getEndNs("missing"));
+    }
+
+    @Test
+    public void recordsFromSeveralThreads() throws Exception {
+        final StartupTrace trace = new StartupTrace(System.nanoTime());
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    trace.end(trace.begin("worker"));
+                }
+            }
+        }, "startup-worker");
+        worker.start();
+        for (int i = 0; i < 100; i++) {
+            trace.end(trace.begin("main"));
+        }
+        worker.join();
+
+        assertEquals(200, trace.size());
+        String dump = trace.dump();
+        assertTrue(dump.contains("[startup-worker]"));
+        assertFalse(dump.contains("unfinished"));
+    }
+
+    @Test
+    public void dumpMarksUnfinishedSpans() {
+        StartupTrace trace = new StartupTrace(System.nanoTime());
+        trace.begin("prewarm");
+        assertEquals(-1, trace.getDurationNs("prewarm"));
+        assertTrue(trace.dump().contains("prewarm"));
+        assertTrue(trace.dump().contains("unfinished"));
+    }
+
+    @Test
+    public void readsReadyTimesFromTraceFile() throws Exception {
+        File file = File.createTempFile("startup_trace", ".txt");
+        file.deleteOnExit();
+        try (FileWriter writer = new FileWriter(file)) {
+            for (int i = 0; i < 3; i++) {
+                StartupTrace trace = new StartupTrace(System.nanoTime() - (100 + i * 10) * 1_000_000L);
+                trace.mark("ready");
+                writer.write("# 2025-01-01 10:00:0" + i + (i == 1 ? " warm" : " cold") + "\n" + trace.dump());
+            }
+            // 書きかけの記録
+            writer.write("# 2025-01-01 10:00:09 cold\n# Startup trace (ms from origin)\nready            start=");
+        }
+
+        double[] cold = StartupTrace.readReadyMs(file, true);
+        assertEquals(2, cold.length);
+        assertTrue(cold[0] >= 100 && cold[0] < 110);
+        assertTrue(cold[1] >= 120 && cold[1] < 130);
+        assertEquals(1, StartupTrace.readReadyMs(file, false).length);
+
+        assertEquals(2.0, StartupTrace.median(new double[]{3, 1, 2}), 0);
+        assertEquals(2.5, StartupTrace.median(new double[]{4, 1, 3, 2}), 0);
+        assertTrue(Double.isNaN(StartupTrace.median(new double[0])));
+    }
+}
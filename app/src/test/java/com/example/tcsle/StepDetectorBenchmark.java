@@ -0,0 +1,82 @@
+package com.example.tcsle;
+
+import java.util.Locale;
+
+/**
+ * 固定閾値と適応閾値の歩行検出の比較
+ *
+ * 精度: 振幅・歩調の異なる疑似歩行をエンジンに通し，検出歩数と真の歩数（歩調×時間）の差
+ * コスト: 事前計算したap列に対するupdate 1回あたりの時間（JITが落ち着くよう20回回した最小値）
+ *
+ * 実行例: java -cp <classes> com.example.tcsle.StepDetectorBenchmark [seconds]
+ */
+public class StepDetectorBenchmark {
+    // {振幅, 歩/秒}（端末位置・利用者・速度の違いを模す）
+    private static final double[][] SCENARIOS = {
+            {4.0, 1.8}, {1.0, 1.4}, {0.5, 1.2}, {3.0, 2.6}, {6.0, 2.0}
+    };
+    private static final int[] DETECTORS = {PDRConfig.STEP_DETECTOR_FIXED, PDRConfig.STEP_DETECTOR_ADAPTIVE};
+    private static volatile int sink;
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 120;
+
+        System.out.printf(Locale.US, "%-9s %6s %6s %8s %8s %8s%n", "detector", "amp", "hz", "true", "found", "err[%]");
+        for (double[] s : SCENARIOS) {
+            for (int type : DETECTORS) {
+                PDRConfig config = new PDRConfig();
+                config.stepDetector = type;
+                PDREngine engine = new PDREngine(config);
+                SyntheticWalk walk = new SyntheticWalk(21, s[1], s[0], Math.PI / 2, 8.0, 1.0, 5_000_000L);
+                SampleBatch batch = new SampleBatch(40);
+                // 200Hz×2センサー → 40サンプル = 0.1秒
+                for (int i = 0; i < seconds * 10; i++) {
+                    batch.clear();
+                    walk.fill(batch);
+                    batch.feed(engine);
+                }
+                double expected = s[1] * seconds;
+                int found = engine.getStepCount();
+                System.out.printf(Locale.US, "%-9s %6.1f %6.1f %8.0f %8d %8.1f%n",
+                        engine.getStepDetector().getName(), s[0], s[1], expected, found,
+                        100 * (found - expected) / expected);
+            }
+        }
+
+        // コスト
+        int n = 100 * 600;
+        float[] ap = new float[n];
+        for (int i = 0; i < n; i++) {
+            double t = i * 0.01;
+            ap[i] = (float) (SyntheticWalk.GRAVITY + 3.0 * Math.sin(2 * Math.PI * 1.8 * t) + 0.1 * Math.sin(2 * Math.PI * 23 * t));
+        }
+        System.out.println();
+        System.out.printf(Locale.US, "%-9s %10s%n", "detector", "ns/sample");
+        for (int type : DETECTORS) {
+            PDRConfig config = new PDRConfig();
+            config.stepDetector = type;
+            StepDetector detector = PDREngine.createStepDetector(config);
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < 20; round++) {
+                best = Math.min(best, cost(detector, ap));
+            }
+            System.out.printf(Locale.US, "%-9s %10.2f%n", detector.getName(), best);
+        }
+    }
+
+    private static double cost(StepDetector detector, float[] ap) {
+        detector.reset();
+        int steps = 0;
+        int last = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ap.length; i++) {
+            if (detector.update(ap[i], (i - last) * 0.01f)) {
+                steps++;
+                last = i;
+            }
+        }
+        long elapsed = System.nanoTime() - t0;
+        sink = steps;
+        return (double) elapsed / ap.length;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 固定閾値・適応閾値の歩行検出の比較
+ */
+public class StepDetectorTest {
+    private static final float DT = 0.01f;
+
+    /**
+     * PDREngineと同じ規則（確定時に前回時刻を更新）で検出器を回す
+     * @param walking 各区間 {秒数, 振幅, 歩/秒}（振幅0は静止）
+     */
+    private static int countSteps(StepDetector detector, double[][] walking) {
+        int steps = 0;
+        long tick = 0;
+        long lastStep = 0;
+        for (double[] segment : walking) {
+            int n = (int) Math.round(segment[0] / DT);
+            for (int i = 0; i < n; i++, tick++) {
+                double t = tick * DT;
+                float ap = (float) (SyntheticWalk.GRAVITY + segment[1] * Math.sin(2 * Math.PI * segment[2] * t)
+                        + 0.02 * Math.sin(2 * Math.PI * 23 * t));
+                if (detector.update(ap, (tick - lastStep) * DT)) {
+                    steps++;
+                    lastStep = tick;
+                }
+            }
+        }
+        return steps;
+    }
+
+    @Test
+    public void engineUsesSelectedDetector() {
+        PDRConfig config = new PDRConfig();
+        assertEquals("fixed", new PDREngine(config).getStepDetector().getName());
+        config.stepDetector = PDRConfig.STEP_DETECTOR_ADAPTIVE;
+        assertEquals("adaptive", new PDREngine(config).getStepDetector().getName());
+    }
+
+    @Test
+    public void adaptiveFollowsAmplitudeAndCadence() {
+        PDRConfig config = new PDRConfig();
+        // 弱い揺れ（ポケット・ゆっくり歩き）と速歩き
+        double[][] gentle = {{30, 0.4, 1.4}};
+        double[][] brisk = {{30, 3.0, 2.4}};
+
+        assertEquals(0, countSteps(new FixedThresholdStepDetector(config), gentle));
+        assertEquals(30 * 1.4, countSteps(new AdaptiveStepDetector(config), gentle), 3);
+        assertEquals(30 * 2.4, countSteps(new AdaptiveStepDetector(config), brisk), 3);
+    }
+
+    @Test
+    public void adaptiveIgnoresStillnessAndResumesAfterPause() {
+        PDRConfig config = new PDRConfig();
+        double[][] still = {{20, 0, 1}};
+        assertEquals(0, countSteps(new AdaptiveStepDetector(config), still));
+
+        double[][] pause = {{10, 2.0, 1.8}, {5, 0, 1}, {10, 2.0, 1.8}};
+        assertEquals(2 * 10 * 1.8, countSteps(new AdaptiveStepDetector(config), pause), 4);
+    }
+
+    @Test
+    public void adaptiveTracksStepPeriod() {
+        PDRConfig config = new PDRConfig();
+        AdaptiveStepDetector detector = new AdaptiveStepDetector(config);
+        countSteps(detector, new double[][]{{30, 2.0, 1.25}});
+        assertEquals(0.8, detector.getPeriod(), 0.03);
+        assertTrue(detector.getTmin() < 0.8f && 0.8f < detector.getTmax());
+    }
+
+    @Test
+    public void engineCountsStepsWithAdaptiveDetector() {
+        PDRConfig config = new PDRConfig();
+        config.stepDetector = PDRConfig.STEP_DETECTOR_ADAPTIVE;
+        PDREngine engine = new PDREngine(config);
+        SyntheticWalk walk = new SyntheticWalk(4);
+        SampleBatch batch = new SampleBatch(40);
+        for (int i = 0; i < 1000; i++) {
+            batch.clear();
+            walk.fill(batch);
+            batch.feed(engine);
+        }
+        // 40サンプル×1000 ≒ 100秒（200Hz）×1.8歩/秒
+        assertEquals(100 * 1.8, engine.getStepCount(), 6);
+    }
+}
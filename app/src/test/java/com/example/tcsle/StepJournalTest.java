@@ -0,0 +1,140 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 歩行記録からの軌跡の作り直し（初期位置・方位オフセット・歩幅倍率の変更）のテスト
+ */
+public class StepJournalTest {
+    private static final double OFFSET = Math.atan2(1, 2);
+
+    private static SampleBatch walk(long seed, int batches) {
+        SyntheticWalk walk = new SyntheticWalk(seed);
+        SampleBatch trial = new SampleBatch(batches * 64);
+        SampleBatch batch = new SampleBatch(40);
+        for (int i = 0; i < batches; i++) {
+            batch.clear();
+            walk.fill(batch);
+            for (int j = 0; j < batch.size(); j++) {
+                trial.add(batch.isAccelAt(j), batch.timeNsAt(j), batch.xAt(j), batch.yAt(j), batch.zAt(j));
+            }
+        }
+        return trial;
+    }
+
+    /** 歩行ごとの位置 {x, y} を記録する */
+    private static List<double[]> positions(PDREngine engine) {
+        final List<double[]> out = new ArrayList<>();
+        engine.setListener(new PDREngine.Listener() {
+            @Override
+            public void onTick(PDREngine e, boolean isAccel, long tickTimeNs) { }
+
+            @Override
+            public void onStep(PDREngine e, long stepTimeNs, float stepLength) {
+                out.add(new double[]{e.getX(), e.getY()});
+            }
+
+            @Override
+            public void onDiscontinuity(PDREngine e, int sensor, long gapNs) { }
+        });
+        return out;
+    }
+
+    private static void rebuildMatchesEngine(boolean fastMath) {
+        PDRConfig config = new PDRConfig();
+        config.fastMath = fastMath;
+        PDREngine engine = new PDREngine(config);
+        engine.setInitialPosition(3.0, -2.0);
+        engine.setInitialRouteVector(0, 0, 2, 1);
+        List<double[]> expected = positions(engine);
+        walk(1, 400).feed(engine);
+
+        StepJournal journal = engine.getStepJournal();
+        assertEquals(engine.getStepCount(), journal.size());
+        assertTrue(journal.size() > 20);
+
+        StepTrajectory t = journal.rebuild(3.0, -2.0, OFFSET, 1f, fastMath);
+        assertEquals(expected.size(), t.size());
+        for (int i = 0; i < t.size(); i++) {
+            assertEquals(Double.doubleToLongBits(expected.get(i)[0]), Double.doubleToLongBits(t.xAt(i)));
+            assertEquals(Double.doubleToLongBits(expected.get(i)[1]), Double.doubleToLongBits(t.yAt(i)));
+            assertEquals(journal.timeNsAt(i), t.timeNsAt(i));
+        }
+    }
+
+    @Test
+    public void rebuildIsBitIdenticalToEngine() {
+        rebuildMatchesEngine(false);
+        rebuildMatchesEngine(true);
+    }
+
+    @Test
+    public void reanchorMatchesFreshRun() {
+        SampleBatch samples = walk(2, 400);
+        int half = samples.size() / 2;
+
+        // 初期条件を誤ったまま半分歩き，正しい初期位置・オフセット・倍率へ付け直して残りを歩く
+        PDREngine reanchored = new PDREngine(new PDRConfig());
+        for (int i = 0; i < samples.size(); i++) {
+            if (i == half) {
+                reanchored.reanchor(1.0, 4.0, OFFSET, 1.1f);
+            }
+            reanchored.onSample(samples.isAccelAt(i), samples.timeNsAt(i),
+                    samples.xAt(i), samples.yAt(i), samples.zAt(i));
+        }
+
+        // 歩幅の倍率は歩幅推定の内部状態に影響しないので，最初から正しい条件で歩いた場合と一致する
+        PDREngine fresh = new PDREngine(new PDRConfig());
+        fresh.setInitialPosition(1.0, 4.0);
+        fresh.setInitialRouteVector(0, 0, 2, 1);
+        fresh.reanchor(1.0, 4.0, OFFSET, 1.1f);
+        samples.feed(fresh);
+
+        assertEquals(fresh.getStepCount(), reanchored.getStepCount());
+        assertEquals(fresh.getX(), reanchored.getX(), 1e-9);
+        assertEquals(fresh.getY(), reanchored.getY(), 1e-9);
+        assertEquals(fresh.getDistance(), reanchored.getDistance(), 1e-9);
+        assertEquals(1.1f * reanchored.getStepJournal().lengthAt(reanchored.getStepJournal().size() - 1),
+                reanchored.getLastStepLength(), 0f);
+    }
+
+    @Test
+    public void scaleAndWeinbergAreRecorded() {
+        PDREngine engine = new PDREngine(new PDRConfig());
+        walk(3, 100).feed(engine);
+        StepJournal journal = engine.getStepJournal();
+        StepTrajectory one = journal.rebuild(0, 0, 0, 1f, false);
+        StepTrajectory two = journal.rebuild(0, 0, 0, 2f, false);
+        int last = journal.size() - 1;
+        assertEquals(2 * one.xAt(last), two.xAt(last), 1e-9);
+        assertEquals(2 * one.yAt(last), two.yAt(last), 1e-9);
+        for (int i = 0; i < journal.size(); i++) {
+            assertTrue(journal.weinbergLengthAt(i) > 0);
+        }
+        engine.reset();
+        assertEquals(0, engine.getStepJournal().size());
+    }
+
+    @Test
+    public void rebuildOfLongWalkIsFast() {
+        StepJournal journal = new StepJournal();
+        for (int i = 0; i < 10_000; i++) {
+            journal.add(i * 500_000_000L, 0.7f, 0.7f, i * 1e-3f, i * 1e-3f);
+        }
+        StepTrajectory out = new StepTrajectory(journal.size());
+        double[] end = new double[2];
+        // ウォームアップ後，1万歩（約1.5時間分）の作り直しが数ミリ秒以内
+        for (int i = 0; i < 20; i++) journal.rebuild(0, 0, 0.1 * i, 1f, true, out, end);
+        long t0 = System.nanoTime();
+        journal.rebuild(1, 2, 0.5, 1.05f, true, out, end);
+        long elapsed = System.nanoTime() - t0;
+        assertEquals(10_000, out.size());
+        assertEquals(out.xAt(out.size() - 1), end[0], 0.0);
+        assertTrue("rebuild took " + elapsed + " ns", elapsed < 20_000_000L);
+    }
+}
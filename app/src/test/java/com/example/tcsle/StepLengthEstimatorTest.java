@@ -0,0 +1,201 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 歩幅推定器と一括評価のテスト
+ */
+public class StepLengthEstimatorTest {
+
+    private static SampleBatch walk(long seed, int batches) {
+        SyntheticWalk walk = new SyntheticWalk(seed);
+        SampleBatch trial = new SampleBatch(batches * 64);
+        SampleBatch batch = new SampleBatch(40);
+        for (int i = 0; i < batches; i++) {
+            batch.clear();
+            walk.fill(batch);
+            for (int j = 0; j < batch.size(); j++) {
+                trial.add(batch.isAccelAt(j), batch.timeNsAt(j), batch.xAt(j), batch.yAt(j), batch.zAt(j));
+            }
+        }
+        return trial;
+    }
+
+    private static StepFeatures features(float apMax, float apMin, float mean, float wMin, float wMax) {
+        StepFeatures f = new StepFeatures();
+        f.stepIndex = 1;
+        f.apMax = apMax;
+        f.apMin = apMin;
+        f.apMean = mean;
+        f.windowMin = wMin;
+        f.windowMax = wMax;
+        return f;
+    }
+
+    @Test
+    public void closedFormEstimators() {
+        PDRConfig config = new PDRConfig();
+        StepFeatures f = features(12.0f, 10.5f, 9.9f, 8.0f, 12.0f);
+        f.apDevMean = 1.6f;
+        assertEquals(config.K * Math.pow(1.5, 0.25), new WeinbergStepLengthEstimator(config).estimate(f), 1e-6);
+        assertEquals(config.kimK * Math.cbrt(1.6), new KimStepLengthEstimator(config).estimate(f), 1e-6);
+        assertEquals(config.scarletK * (9.9 - 8.0) / 4.0, new ScarletStepLengthEstimator(config).estimate(f), 1e-6);
+
+        // 区間内で値が変化しない場合は0
+        assertEquals(0f, new ScarletStepLengthEstimator(config).estimate(features(9f, 9f, 9f, 9f, 9f)), 0f);
+    }
+
+    @Test
+    public void kimFollowsGaitIntensity() {
+        // 重力を含むapの平均では歩行の強さによらずほぼ一定になる
+        PDRConfig config = new PDRConfig();
+        double[] means = new double[2];
+        double[] amplitudes = {2.0, 5.0};
+        for (int i = 0; i < 2; i++) {
+            SyntheticWalk walk = new SyntheticWalk(2, 1.8, amplitudes[i], Math.PI / 2, 8.0, 1.0, 5_000_000L);
+            SampleBatch trial = new SampleBatch(400 * 60);
+            walk.fill(trial);
+            StepLengthEvaluator evaluator = new StepLengthEvaluator(new KimStepLengthEstimator(config));
+            evaluator.evaluate(config, trial);
+            means[i] = evaluator.getMeanLength(0);
+        }
+        assertTrue(means[0] + " / " + means[1], means[1] > 1.2 * means[0]);
+    }
+
+    @Test
+    public void engineSelectsEstimator() {
+        PDRConfig config = new PDRConfig();
+        assertEquals("tcsle", new PDREngine(config).getStepLengthEstimator().getName());
+        config.stepLengthEstimator = PDRConfig.STEP_LENGTH_KIM;
+        assertEquals("kim", new PDREngine(config).getStepLengthEstimator().getName());
+        config.stepLengthEstimator = PDRConfig.STEP_LENGTH_SCARLET;
+        assertEquals("scarlet", new PDREngine(config).getStepLengthEstimator().getName());
+        config.stepLengthEstimator = PDRConfig.STEP_LENGTH_WEINBERG;
+        assertEquals("weinberg", new PDREngine(config).getStepLengthEstimator().getName());
+    }
+
+    @Test
+    public void stepFeaturesDescribeWindow() {
+        final StepFeatures[] captured = {null};
+        PDREngine engine = new PDREngine(new PDRConfig());
+        engine.setListener(new PDREngine.Listener() {
+            @Override
+            public void onTick(PDREngine e, boolean isAccel, long tickTimeNs) { }
+
+            @Override
+            public void onStep(PDREngine e, long stepTimeNs, float stepLength) {
+                if (e.getStepCount() == 5) {
+                    captured[0] = new StepFeatures();
+                    captured[0].copyFrom(e.getLastStepFeatures());
+                }
+            }
+
+            @Override
+            public void onDiscontinuity(PDREngine e, int sensor, long gapNs) { }
+        });
+        walk(1, 100).feed(engine);
+
+        StepFeatures f = captured[0];
+        assertNotNull(f);
+        assertEquals(5, f.stepIndex);
+        assertTrue(f.durationSec > 0.25f && f.durationSec < 2.0f);
+        // 100Hz格子のため窓内のティック数は経過時間にほぼ比例する
+        assertEquals(f.durationSec * 100, f.sampleCount, 2);
+        assertTrue(f.windowMin <= f.apMean && f.apMean <= f.windowMax);
+        assertTrue(f.apMin <= f.apMax && f.apMax <= f.windowMax);
+        assertTrue(f.apVariance > 0);
+    }
+
+    @Test
+    public void onePassMatchesSeparateReplays() {
+        PDRConfig config = new PDRConfig();
+        SampleBatch trial = walk(2, 300);
+        StepLengthEvaluator evaluator = StepLengthEvaluator.allEstimators(config);
+        evaluator.evaluate(config, trial);
+        assertTrue(evaluator.getStepCount() > 50);
+
+        int[] types = {
+                PDRConfig.STEP_LENGTH_TCSLE, PDRConfig.STEP_LENGTH_WEINBERG,
+                PDRConfig.STEP_LENGTH_KIM, PDRConfig.STEP_LENGTH_SCARLET
+        };
+        for (int i = 0; i < types.length; i++) {
+            PDRConfig c = config.copy();
+            c.stepLengthEstimator = types[i];
+            final float[] lengths = new float[evaluator.getStepCount()];
+            final int[] n = {0};
+            PDREngine engine = new PDREngine(c);
+            engine.setListener(new PDREngine.Listener() {
+                @Override
+                public void onTick(PDREngine e, boolean isAccel, long tickTimeNs) { }
+
+                @Override
+                public void onStep(PDREngine e, long stepTimeNs, float stepLength) {
+                    lengths[n[0]++] = stepLength;
+                }
+
+                @Override
+                public void onDiscontinuity(PDREngine e, int sensor, long gapNs) { }
+            });
+            trial.feed(engine);
+
+            assertEquals(evaluator.getName(i), evaluator.getStepCount(), n[0]);
+            for (int s = 0; s < n[0]; s++) {
+                assertEquals(evaluator.getName(i), lengths[s], evaluator.getStepLength(i, s), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void readsRecordedSensorCsv() throws IOException {
+        File file = File.createTempFile("trial", ".csv");
+        file.deleteOnExit();
+        try (FileWriter w = new FileWriter(file)) {
+            w.append("Time(ns),ax,ay,az,gx,gy,gz,StepCount,StepLength,X,Y,Heading,TotalDistance,ap,TrialID\n");
+            w.append("1000,0.100,0.200,9.800,0.010,0.020,0.030,0,0.000,0.000,0.000,0.000,0.000,9.802,Trial01\n");
+            w.append("1000,0.100,0.200,9.800,0.010,0.020,0.030,0,0.000,0.000,0.000,0.000,0.000,9.802,Trial01\n");
+            w.append("11000,0.300,0.400,9.700,0.040,0.050,0.060,0,0.000,0.000,0.000,0.000,0.000,9.712,Trial01\n");
+        }
+        SampleBatch batch = TrialCsv.readSensorCsv(file);
+        // 同時刻の行は読み飛ばし，1行を加速度・角速度の2サンプルにする
+        assertEquals(4, batch.size());
+        assertTrue(batch.isAccelAt(2));
+        assertEquals(11000L, batch.timeNsAt(2));
+        assertEquals(9.7f, batch.zAt(2), 0f);
+        assertFalse(batch.isAccelAt(3));
+        assertEquals(0.06f, batch.zAt(3), 0f);
+    }
+
+    @Test
+    public void readAndFeedSkipTheSameBrokenRows() throws IOException {
+        File file = File.createTempFile("trial", ".csv");
+        file.deleteOnExit();
+        try (FileWriter w = new FileWriter(file)) {
+            w.append("Time(ns),ax,ay,az,gx,gy,gz,StepCount,StepLength,X,Y,Heading,TotalDistance,ap\n");
+            w.append("1000000,0.100,0.200,9.800,0.010,0.020,0.030,0,0.000,0.000,0.000,0.000,0.000,9.802\n");
+            w.append("2000000,0.1,0.2\n");  // 書きかけ
+            w.append("3000000,0.100,x,9.800,0.010,0.020,0.030,0,0.000,0.000,0.000,0.000,0.000,9.802\n");
+            w.append("3000000,0.100,0.200,9.800,0.010,0.020,0.030,0,0.000,0.000,0.000,0.000,0.000,9.802\n");
+            w.append("2500000,0.100,0.200,9.800,0.010,0.020,0.030,0,0.000,0.000,0.000,0.000,0.000,9.802\n");
+        }
+        TrialCsv.RowCounts read = new TrialCsv.RowCounts();
+        SampleBatch batch = TrialCsv.readSensorCsv(file, read);
+        assertEquals(4, batch.size());
+        assertEquals(3000000L, batch.timeNsAt(2));
+        assertEquals(5, read.rows);
+        assertEquals(2, read.skipped);
+        assertEquals(1, read.unordered);
+
+        TrialCsv.RowCounts fed = new TrialCsv.RowCounts();
+        long samples = TrialCsv.feedSensorCsv(file, new PDREngine(TrialCsv.replayConfig(new PDRConfig())), fed);
+        assertEquals(batch.size(), samples);
+        assertEquals(read.rows, fed.rows);
+        assertEquals(read.skipped, fed.skipped);
+        assertEquals(read.unordered, fed.unordered);
+    }
+}
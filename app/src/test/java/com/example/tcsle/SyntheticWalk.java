@@ -0,0 +1,101 @@
+package com.example.tcsle;
+
+import java.util.Random;
+
+/**
+ * テスト・ベンチマーク用の疑似歩行センサー列
+ * 200Hz付近（ジッタ付き）の生加速度（重力＋歩行周期成分）と，直進/旋回を繰り返すヨー角速度を生成する
+ */
+class SyntheticWalk {
+    static final float GRAVITY = 9.81f;
+
+    private final Random random;
+    private final double stepHz;
+    private final double amplitude;
+    private final double turnRate;       // 旋回中の角速度 [rad/s]
+    private final double straightSec;    // 直進区間の長さ
+    private final double turnSec;        // 旋回区間の長さ
+    private final long periodNs;
+    private final long jitterNs;
+    private final long gyroOffsetNs;
+
+    private long accelTime;
+    private long gyroTime;
+
+    SyntheticWalk(long seed) {
+        this(seed, 1.8, 4.0, Math.PI / 2, 8.0, 1.0, 5_000_000L);
+    }
+
+    SyntheticWalk(long seed, double stepHz, double amplitude, double turnRate,
+                  double straightSec, double turnSec, long periodNs) {
+        this.random = new Random(seed);
+        this.stepHz = stepHz;
+        this.amplitude = amplitude;
+        this.turnRate = turnRate;
+        this.straightSec = straightSec;
+        this.turnSec = turnSec;
+        this.periodNs = periodNs;
+        this.jitterNs = periodNs / 10;
+        this.gyroOffsetNs = periodNs / 4;
+        // 起動直後の端末時刻を模して0以外から始める
+        this.accelTime = 1_000_000_000L + (seed & 0xFFFF) * 1000L;
+        this.gyroTime = accelTime + gyroOffsetNs;
+    }
+
+    /**
+     * バッチが満杯になるまで，到着順（時刻順）に加速度・ジャイロのサンプルを追加
+     */
+    void fill(SampleBatch batch) {
+        while (!batch.isFull()) {
+            if (accelTime <= gyroTime) {
+                double t = accelTime * 1e-9;
+                double gait = amplitude * Math.sin(2 * Math.PI * stepHz * t);
+                batch.add(true, accelTime,
+                        0.1639f + noise(0.15),
+                        0.1739f + (float) (0.3 * gait) + noise(0.15),
+                        GRAVITY + 0.0440f + (float) gait + noise(0.15));
+                accelTime += nextInterval();
+            } else {
+                double t = gyroTime * 1e-9;
+                batch.add(false, gyroTime, noise(0.01), noise(0.01), (float) yawRate(t) + noise(0.01));
+                gyroTime += nextInterval();
+            }
+        }
+    }
+
+    /**
+     * 直進→旋回を繰り返す（旋回方向は交互）
+     */
+    double yawRate(double t) {
+        double cycle = straightSec + turnSec;
+        double phase = t % cycle;
+        if (phase < straightSec) return 0.0;
+        long n = (long) (t / cycle);
+        return (n % 2 == 0) ? turnRate : -turnRate;
+    }
+
+    /**
+     * yawRateの積分（t=0からのヨー角）．旋回は交互なので2周期ごとに0に戻る
+     */
+    double trueYaw(double t) {
+        double cycle = straightSec + turnSec;
+        long n = (long) (t / cycle);
+        double phase = t - n * cycle;
+        double yaw = (n % 2 == 1) ? turnRate * turnSec : 0.0;
+        if (phase > straightSec) {
+            double sign = (n % 2 == 0) ? 1.0 : -1.0;
+            yaw += sign * turnRate * (phase - straightSec);
+        }
+        return yaw;
+    }
+
+    long getTimeNs() { return Math.min(accelTime, gyroTime); }
+
+    private long nextInterval() {
+        return periodNs + (long) ((random.nextDouble() * 2 - 1) * jitterNs);
+    }
+
+    private float noise(double sigma) {
+        return (float) (random.nextGaussian() * sigma);
+    }
+}
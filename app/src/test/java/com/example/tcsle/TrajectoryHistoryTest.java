@@ -0,0 +1,116 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 軌跡履歴のリングバッファ（上書き・時刻検索・区間走査）のテスト
+ */
+public class TrajectoryHistoryTest {
+
+    private static TrajectoryHistory filled(int capacity, int count) {
+        TrajectoryHistory h = new TrajectoryHistory(capacity);
+        for (int i = 0; i < count; i++) {
+            h.push(1000L * i, i, -i, 0.01f * i, 0.5f + i);
+        }
+        return h;
+    }
+
+    @Test
+    public void overwritesOldestWhenFull() {
+        TrajectoryHistory h = filled(5, 8);
+        assertEquals(5, h.size());
+        assertEquals(8, h.getTotalCount());
+        assertEquals(3, h.getDroppedCount());
+        // 最古は4歩目（i = 3）
+        assertEquals(3000L, h.timeNsAt(0));
+        assertEquals(7.0, h.xAt(4), 0.0);
+        assertEquals(-7.0, h.yAt(4), 0.0);
+        assertEquals(7.5f, h.lengthAt(4), 0f);
+        try {
+            h.timeNsAt(5);
+            fail("index out of range");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void timeLookupAcrossWrap() {
+        TrajectoryHistory h = filled(16, 27);  // 折り返し済み（11〜26を保持）
+        assertEquals(-1, h.indexAt(10_999));
+        assertEquals(0, h.indexAt(11_000));
+        assertEquals(0, h.indexAt(11_999));
+        assertEquals(4, h.indexAt(15_000));
+        assertEquals(15, h.indexAt(Long.MAX_VALUE - 1));
+        assertEquals(0, h.lowerBound(0));
+        assertEquals(5, h.lowerBound(15_500));
+        assertEquals(16, h.lowerBound(26_001));
+    }
+
+    @Test
+    public void rangeIterationVisitsInTimeOrder() {
+        TrajectoryHistory h = filled(16, 27);
+        final long[] last = {-1};
+        final int[] count = {0};
+        int n = h.forEachInRange(13_000, 24_000, new TrajectoryHistory.Visitor() {
+            @Override
+            public void visit(int index, long timeNs, double x, double y, float heading, float length) {
+                assertTrue(timeNs > last[0]);
+                assertEquals(h.timeNsAt(index), timeNs);
+                assertEquals(timeNs / 1000.0, x, 0.0);
+                last[0] = timeNs;
+                count[0]++;
+            }
+        });
+        assertEquals(11, n);
+        assertEquals(11, count[0]);
+        assertEquals(23_000L, last[0]);
+        assertEquals(0, h.forEachInRange(30_000, 40_000, (i, t, x, y, hd, l) -> fail("empty range")));
+    }
+
+    @Test
+    public void engineRecordsEachStep() {
+        PDRConfig config = new PDRConfig();
+        config.trajectoryHistoryCapacity = 16;
+        PDREngine engine = new PDREngine(config);
+        final TrajectoryHistory h = engine.getTrajectoryHistory();
+        engine.setListener(new PDREngine.Listener() {
+            @Override
+            public void onTick(PDREngine e, boolean isAccel, long tickTimeNs) { }
+
+            @Override
+            public void onStep(PDREngine e, long stepTimeNs, float stepLength) {
+                int last = h.size() - 1;
+                assertEquals(stepTimeNs, h.timeNsAt(last));
+                assertEquals(e.getX(), h.xAt(last), 0.0);
+                assertEquals(e.getY(), h.yAt(last), 0.0);
+                assertEquals(e.getHeading(), h.headingAt(last), 0f);
+                assertEquals(stepLength, h.lengthAt(last), 0f);
+            }
+
+            @Override
+            public void onDiscontinuity(PDREngine e, int sensor, long gapNs) { }
+        });
+        SyntheticWalk walk = new SyntheticWalk(4);
+        SampleBatch batch = new SampleBatch(40);
+        for (int i = 0; i < 400; i++) {
+            batch.clear();
+            walk.fill(batch);
+            batch.feed(engine);
+        }
+        assertTrue(engine.getStepCount() > 16);
+        assertEquals(engine.getStepCount(), h.getTotalCount());
+        assertEquals(16, h.size());
+
+        // 再アンカーで履歴も新しい条件の位置に置き換わる
+        engine.reanchor(5.0, 5.0, 0.3, 1.2f);
+        assertEquals(16, h.size());
+        assertEquals(engine.getX(), h.xAt(15), 0.0);
+        assertEquals(engine.getY(), h.yAt(15), 0.0);
+
+        engine.reset();
+        assertEquals(0, h.size());
+        assertNull(new PDREngine(TrialCsv.replayConfig(config)).getTrajectoryHistory());
+    }
+}
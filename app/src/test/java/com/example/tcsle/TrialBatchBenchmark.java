@@ -0,0 +1,52 @@
+package com.example.tcsle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 一括再処理のスループット（サンプル/秒/コア）
+ * 疑似歩行の試行CSVを一時ディレクトリに書き出し，ワーカー数を変えて3回ずつ処理した最良値を表示する
+ *
+ * 実行例: java -cp <classes> com.example.tcsle.TrialBatchBenchmark [trials] [secondsPerTrial]
+ */
+public class TrialBatchBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "batchbench" + System.nanoTime());
+        if (!dir.mkdirs()) throw new IOException("mkdir " + dir);
+        try {
+            for (int i = 0; i < trials; i++) {
+                TrialBatchRunnerTest.writeTrial(dir,
+                        String.format(Locale.US, "Route_%c_20250101_Trial%02d", 'A' + i % 3, i + 1), i + 1, seconds);
+            }
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            System.out.printf(Locale.US, "trials=%d seconds=%d target=%.0f samples/s/core%n",
+                    trials, seconds, TrialBatchRunner.TARGET_SAMPLES_PER_SEC_PER_CORE);
+            System.out.printf(Locale.US, "%8s %16s %16s%n", "threads", "samples/s/core", "samples/cpu-s");
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                TrialBatchRunner runner = new TrialBatchRunner(new PDRConfig(), pool);
+                TrialBatchRunner.Report best = null;
+                for (int round = 0; round < 3; round++) {
+                    TrialBatchRunner.Report r = runner.run(dir);
+                    if (best == null || r.getSamplesPerSecPerCore() > best.getSamplesPerSecPerCore()) best = r;
+                }
+                pool.shutdown();
+                System.out.printf(Locale.US, "%8d %16.0f %16.0f%n",
+                        threads, best.getSamplesPerSecPerCore(), best.getSamplesPerCpuSec());
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.tcsle;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * 一括再処理（ストリーミング読み込み・並列実行・誤差集計）のテスト
+ */
+public class TrialBatchRunnerTest {
+
+    /**
+     * 疑似歩行をPDRServiceのルートモードと同じ形式のセンサーCSV・イベントCSVに書き出す
+     * @return 投入されるサンプル数
+     */
+    static long writeTrial(File dir, String trialId, long seed, int seconds) throws IOException {
+        SyntheticWalk walk = new SyntheticWalk(seed);
+        SampleBatch batch = new SampleBatch(1);
+        float[] gyro = new float[3];
+        long rows = 0;
+        long t0 = -1;
+        long t = 0;
+        try (Writer sensor = new FileWriter(new File(dir, trialId + TrialCsv.SENSOR_SUFFIX));
+             Writer events = new FileWriter(new File(dir, trialId + TrialCsv.EVENT_SUFFIX))) {
+            sensor.write("Time(ns),ax,ay,az,gx,gy,gz,StepCount,StepLength,X,Y,Heading,TotalDistance,ap,TrialID\n");
+            events.write("Time(ns),TrialID,Event,RoutePoint,TargetX,TargetY,EstimatedX,EstimatedY,Distance\n");
+            int point = 0;
+            while (true) {
+                batch.clear();
+                walk.fill(batch);
+                if (!batch.isAccelAt(0)) {
+                    gyro[0] = batch.xAt(0);
+                    gyro[1] = batch.yAt(0);
+                    gyro[2] = batch.zAt(0);
+                    continue;
+                }
+                // 加速度の時刻に直近のジャイロを並べた1行（記録時の1ティック相当）
+                t = batch.timeNsAt(0);
+                if (t0 < 0) {
+                    t0 = t;
+                    events.write(String.format(Locale.US, "%d,Trial01,START,0,0.0,0.0,0,0,0\n", t));
+                    events.write(String.format(Locale.US, "%d,Trial01,ADVERTISE,0,0.0,0.0,0,0,0\n", t));
+                    point = 1;
+                }
+                if (t - t0 > seconds * 1_000_000_000L) break;
+                sensor.write(String.format(Locale.US, "%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,0,0,0,0,0,0,0,Trial01\n",
+                        t, batch.xAt(0), batch.yAt(0), batch.zAt(0), gyro[0], gyro[1], gyro[2]));
+                rows++;
+                // 約5秒ごとに地点通過（真の位置は使わず，格子状の地点を置く）
+                if (t - t0 >= point * 5_000_000_000L) {
+                    events.write(String.format(Locale.US, "%d,Trial01,%s,%d,%.1f,%.1f,0,0,0\n",
+                            t, point % 3 == 0 ? "ADVERTISE" : "PASS", point, 3.0f * point, point % 2 * 2.0f));
+                    point++;
+                }
+            }
+            events.write(String.format(Locale.US, "%d,Trial01,STOP,%d,0,0,0,0,0\n", t, point));
+        }
+        return 2 * rows;
+    }
+
+    private static File tempDir() {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "batch" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+        return dir;
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) delete(c);
+        }
+        f.delete();
+    }
+
+    @Test
+    public void streamingMatchesInMemoryReplay() throws IOException {
+        File dir = tempDir();
+        try {
+            long samples = writeTrial(dir, "Route_A_20250101_Trial01", 1, 90);
+            ForkJoinPool pool = new ForkJoinPool(1);
+            TrialBatchRunner.Report report = new TrialBatchRunner(new PDRConfig(), pool).run(dir);
+            pool.shutdown();
+            assertEquals(samples, report.samples);
+
+            TrialBatchRunner.TrialResult r = report.trials.get(0);
+            assertNull(r.failure);
+            assertEquals("Route_A", r.routeId);
+
+            // 全行を読み込んでStagedReplayで再処理した場合と同じ誤差
+            File sensor = new File(dir, "Route_A_20250101_Trial01_sensor.csv");
+            RecordedTrial trial = RecordedTrial.load(sensor, new StageCache(64L << 20, null));
+            double[] errors = new double[trial.getWaypointCount()];
+            double sum = trial.evaluate(TrialCsv.replayConfig(new PDRConfig()), errors);
+            assertEquals(trial.getWaypointCount(), r.waypoints);
+            assertEquals(sum / errors.length, r.meanError, 1e-9);
+            assertEquals(errors[errors.length - 1], r.finalError, 1e-9);
+            assertTrue(r.steps > 50);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void aggregatesPerRouteAndMatchesSequential() throws IOException {
+        File dir = tempDir();
+        try {
+            // 日付ごとのサブディレクトリに分けて置く
+            File day1 = new File(dir, "20250101");
+            File day2 = new File(dir, "20250102");
+            assertTrue(day1.mkdirs() && day2.mkdirs());
+            writeTrial(day1, "Route_1m_20250101_Trial01", 1, 30);
+            writeTrial(day1, "Route_1m_20250101_Trial02", 2, 40);
+            writeTrial(day2, "Route_C_20250102_Trial01", 3, 35);
+            writeTrial(day2, "Route_C_20250102_Trial02", 4, 20);
+            writeTrial(day2, "Route_C_20250102_Trial03", 5, 25);
+            // 列の欠けた試行は失敗として記録し，他の試行は処理を続ける
+            try (Writer w = new FileWriter(new File(day2, "Route_C_20250102_Trial04_sensor.csv"))) {
+                w.write("Time(ns),ax,ay,az\n1,0,0,9.8\n");
+            }
+            try (Writer w = new FileWriter(new File(day2, "Route_C_20250102_Trial04_events.csv"))) {
+                w.write("Time(ns),TrialID,Event,RoutePoint,TargetX,TargetY,EstimatedX,EstimatedY,Distance\n");
+            }
+
+            List<File> files = TrialCsv.findTrials(dir);
+            assertEquals(6, files.size());
+
+            ForkJoinPool one = new ForkJoinPool(1);
+            TrialBatchRunner.Report sequential = new TrialBatchRunner(new PDRConfig(), one).run(files);
+            one.shutdown();
+            ForkJoinPool four = new ForkJoinPool(4);
+            TrialBatchRunner.Report parallel = new TrialBatchRunner(new PDRConfig(), four).run(files);
+            four.shutdown();
+
+            for (TrialBatchRunner.Report report : new TrialBatchRunner.Report[]{sequential, parallel}) {
+                assertEquals(6, report.trials.size());
+                assertEquals(1, report.getFailureCount());
+                assertEquals(2, report.routes.size());
+                long waypoints = 0;
+                for (TrialBatchRunner.TrialResult t : report.trials) waypoints += t.waypoints;
+                assertEquals(waypoints, report.overall.getCount());
+                assertEquals(report.overall.getCount(),
+                        report.routes.get("Route_1m").getCount() + report.routes.get("Route_C").getCount());
+                assertTrue(report.getSamplesPerSecPerCore() > 0);
+            }
+            // 試行の順序も含めて逐次実行と同じ
+            assertEquals(sequential.samples, parallel.samples);
+            assertEquals(sequential.overall.getMean(), parallel.overall.getMean(), 1e-12);
+            for (int i = 0; i < sequential.trials.size(); i++) {
+                assertEquals(sequential.trials.get(i).trialId, parallel.trials.get(i).trialId);
+                assertEquals(sequential.trials.get(i).meanError, parallel.trials.get(i).meanError, 0.0);
+            }
+            String text = TrialBatchRunner.formatReport(parallel);
+            assertTrue(text.contains("Route_1m"));
+            assertTrue(text.contains("FAILED"));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void errorHistogramPercentilesAndCdf() {
+        ErrorHistogram a = new ErrorHistogram();
+        ErrorHistogram b = new ErrorHistogram();
+        for (int i = 1; i <= 50; i++) a.record(0.1 * i);
+        for (int i = 51; i <= 100; i++) b.record(0.1 * i);
+        b.record(250.0);  // 範囲外は最終バケット
+        a.merge(b);
+
+        assertEquals(101, a.getCount());
+        assertEquals(5.1, a.percentile(0.5), 0.011);
+        assertEquals(9.1, a.percentile(0.9), 0.011);
+        assertEquals(250.0, a.getMax(), 0.0);
+        assertEquals(250.0, a.percentile(1.0), 0.0);
+        assertEquals(10 / 101.0, a.cdf(1.05), 1e-12);
+        assertEquals(100 / 101.0, a.cdf(100), 1e-12);
+    }
+
+    @Test
+    public void routeIdFromTrialId() {
+        assertEquals("Route_1m", TrialCsv.routeId("Route_1m_20250101_Trial03"));
+        assertEquals("Route_C", TrialCsv.routeId("Route_C_20241224_Trial12"));
+        assertEquals("legacy", TrialCsv.routeId("legacy"));
+    }
+}